@@ -0,0 +1,66 @@
+package org.ggp.base.util.statemachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+
+/**
+ * Loads the games bundled in games/games and samples states from them for
+ * the state machine benchmarks. Sampling is seeded, so every machine is
+ * measured on the same states.
+ */
+final class BenchmarkGames
+{
+    /** Seed for the random walks that sample states. */
+    static final long SEED = 227L;
+
+    private BenchmarkGames()
+    {
+    }
+
+    /**
+     * Returns the rules of games/games/[name]/[name].kif. Benchmarks are
+     * run from the project root, as the Gradle task does.
+     */
+    static List<Gdl> loadRules(String name)
+    {
+        File file = new File("games/games/" + name + "/" + name + ".kif");
+        String rulesheet = FileUtils.readFileAsString(file);
+        if (rulesheet == null) {
+            throw new IllegalArgumentException("Can't read game " + name + " from " + file.getAbsolutePath());
+        }
+        return Game.createEphemeralGame(Game.preprocessRulesheet(rulesheet)).getRules();
+    }
+
+    /**
+     * Returns up to count non-terminal states reached by random walks from
+     * the initial state. Each state in the result is paired with a random
+     * joint move that is legal in it, at the same index of jointMoves.
+     */
+    static List<MachineState> sampleStates(StateMachine machine, int count, List<List<Move>> jointMoves) throws Exception
+    {
+        Random random = new Random(SEED);
+        List<MachineState> states = new ArrayList<MachineState>(count);
+        MachineState state = machine.getInitialState();
+        while (states.size() < count) {
+            if (machine.isTerminal(state)) {
+                state = machine.getInitialState();
+                continue;
+            }
+            List<Move> jointMove = new ArrayList<Move>();
+            for (Role role : machine.getRoles()) {
+                List<Move> moves = machine.getLegalMoves(state, role);
+                jointMove.add(moves.get(random.nextInt(moves.size())));
+            }
+            states.add(state);
+            jointMoves.add(jointMove);
+            state = machine.getNextState(state, jointMove);
+        }
+        return states;
+    }
+}
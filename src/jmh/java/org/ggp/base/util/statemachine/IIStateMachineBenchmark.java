@@ -0,0 +1,95 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures IISamplePropNetStateMachine on the bundled incomplete
+ * information games. Its full-state queries are passed to the machine
+ * underneath (a ProverStateMachine, as in IISampleGamer), so this
+ * covers the queries it answers itself: building a SeesState, and the
+ * legal moves a role can deduce from what it sees.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IIStateMachineBenchmark
+{
+    private static final int SAMPLE_SIZE = 64;
+
+    @Param({"mastermind", "mastermind2x3"})
+    public String game;
+
+    @Param({"prover", "compiled"})
+    public String machine;
+
+    private IISamplePropNetStateMachine iiStateMachine;
+    private Role role;
+    private Role opponent;
+    private List<MachineState> states;
+    private List<SeesState> seesStates;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        List<Gdl> rules = BenchmarkGames.loadRules(game);
+        StateMachine normalStateMachine = StateMachineBenchmark.createMachine(machine);
+        normalStateMachine.initialize(rules);
+        iiStateMachine = new IISamplePropNetStateMachine();
+        iiStateMachine.initialize(normalStateMachine, rules);
+
+        List<Role> roles = iiStateMachine.getRoles();
+        role = roles.get(0);
+        opponent = roles.get(roles.size() - 1);
+        states = BenchmarkGames.sampleStates(normalStateMachine, SAMPLE_SIZE, new ArrayList<List<Move>>());
+        seesStates = new ArrayList<SeesState>(SAMPLE_SIZE);
+        for (MachineState state : states) {
+            seesStates.add(iiStateMachine.getSeesState(state, role));
+        }
+        next = 0;
+    }
+
+    private int nextSample()
+    {
+        int i = next;
+        next = (i + 1) % SAMPLE_SIZE;
+        return i;
+    }
+
+    @Benchmark
+    public SeesState getSeesState()
+    {
+        return iiStateMachine.getSeesState(states.get(nextSample()), role);
+    }
+
+    @Benchmark
+    public List<Move> getLegalMovesFromSees() throws Exception
+    {
+        return iiStateMachine.getLegalMoves(seesStates.get(nextSample()));
+    }
+
+    @Benchmark
+    public List<Move> refineLegalMoves()
+    {
+        return iiStateMachine.refineLegalMoves(seesStates.get(nextSample()), opponent);
+    }
+}
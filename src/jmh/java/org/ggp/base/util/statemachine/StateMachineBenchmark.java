@@ -0,0 +1,128 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.TermProverStateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the StateMachine implementations on the bundled games: depth
+ * charges per second from the initial state, and the latency of
+ * getLegalMoves and getNextState on a fixed sample of mid-game states.
+ * Run with "gradle jmh"; the task adds the GC profiler, which reports the
+ * allocation rate of every benchmark, and writes the results as JSON.
+ * <p>
+ * The machine parameter picks the implementation:
+ * <ul>
+ * <li>prover: ProverStateMachine</li>
+ * <li>termProver: TermProverStateMachine, the prover over interned terms</li>
+ * <li>cached: CachedStateMachine over a ProverStateMachine, which is how
+ *     the sample gamers use it</li>
+ * <li>propnet: SamplePropNetStateMachine</li>
+ * <li>compiled: CompiledPropNetStateMachine</li>
+ * <li>compiledDifferential: CompiledPropNetStateMachine propagating only
+ *     changes, with its propnet read from the default PropNetCache</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StateMachineBenchmark
+{
+    /** Number of sampled states the latency benchmarks cycle through. */
+    private static final int SAMPLE_SIZE = 256;
+
+    @Param({"ticTacToe", "connectFour", "maze", "mastermind", "mastermind2x3"})
+    public String game;
+
+    @Param({"prover", "termProver", "cached", "propnet", "compiled", "compiledDifferential"})
+    public String machine;
+
+    private StateMachine stateMachine;
+    private MachineState initialState;
+    private Role role;
+    private List<MachineState> states;
+    private List<List<Move>> jointMoves;
+    private int next;
+    private final int[] depth = new int[1];
+
+    static StateMachine createMachine(String name)
+    {
+        if (name.equals("prover")) {
+            return new ProverStateMachine();
+        } else if (name.equals("termProver")) {
+            return new TermProverStateMachine();
+        } else if (name.equals("cached")) {
+            return new CachedStateMachine(new ProverStateMachine());
+        } else if (name.equals("propnet")) {
+            return new SamplePropNetStateMachine();
+        } else if (name.equals("compiled")) {
+            return new CompiledPropNetStateMachine();
+        } else if (name.equals("compiledDifferential")) {
+            return new CompiledPropNetStateMachine(true, PropNetCache.getDefault());
+        }
+        throw new IllegalArgumentException("Unknown state machine: " + name);
+    }
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        stateMachine = createMachine(machine);
+        stateMachine.initialize(BenchmarkGames.loadRules(game));
+        initialState = stateMachine.getInitialState();
+        role = stateMachine.getRoles().get(0);
+        jointMoves = new ArrayList<List<Move>>(SAMPLE_SIZE);
+        states = BenchmarkGames.sampleStates(stateMachine, SAMPLE_SIZE, jointMoves);
+        next = 0;
+    }
+
+    private int nextSample()
+    {
+        int i = next;
+        next = (i + 1) % SAMPLE_SIZE;
+        return i;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public MachineState depthCharge() throws Exception
+    {
+        return stateMachine.performDepthCharge(initialState, depth);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public List<Move> getLegalMoves() throws Exception
+    {
+        return stateMachine.getLegalMoves(states.get(nextSample()), role);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public MachineState getNextState() throws Exception
+    {
+        int i = nextSample();
+        return stateMachine.getNextState(states.get(i), jointMoves.get(i));
+    }
+}
@@ -5,7 +5,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.ggp.base.player.GamePlayer;
+import org.ggp.base.player.MultiMatchGamePlayer;
+import org.ggp.base.player.NioGamePlayer;
 import org.ggp.base.player.gamer.Gamer;
 import org.ggp.base.util.reflection.ProjectSearcher;
 
@@ -18,9 +19,10 @@ public final class PlayerRunner
 {
 	public static void main(String[] args) throws IOException, InstantiationException, IllegalAccessException
 	{
-		if (args.length != 2 || args[0].equals("${arg0}")) {
-			System.out.println("PlayerRunner [port] [name]");
+		if (args.length < 2 || args.length > 3 || args[0].equals("${arg0}")) {
+			System.out.println("PlayerRunner [port] [name] [multi]");
 			System.out.println("example: ant PlayerRunner -Darg0=9147 -Darg1=TurboTurtle");
+			System.out.println("With \"multi\", the player plays any number of matches at once.");
 			return;
 		}
     	int port = Integer.parseInt(args[0]);
@@ -38,7 +40,11 @@ public final class PlayerRunner
     		System.out.println("Could not find player class with that name. Available choices are: " + Arrays.toString(availableGamers.toArray()));
     		return;
     	}
+    	if (args.length == 3 && args[2].equals("multi")) {
+    		new MultiMatchGamePlayer(port, chosenGamerClass.asSubclass(Gamer.class)).start();
+    		return;
+    	}
     	Gamer gamer = (Gamer) chosenGamerClass.newInstance();
-		new GamePlayer(port, gamer).start();
+		new NioGamePlayer(port, gamer).start();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package org.ggp.base.apps.utilities;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.server.HeadlessMatch;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.reflection.ProjectSearcher;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+
+/**
+ * SelfPlayRunner is a utility program for playing a large number of matches
+ * between gamers in this process, for instance to tune a player against
+ * itself or against other players. It takes the following arguments:
+ *
+ * args[0] = output file, to which the matches are written
+ * args[1] = game key, for loading the game
+ * args[2] = start clock, in seconds
+ * args[3] = play clock, in seconds
+ * args[4] = number of matches to play
+ * args[5,6,...] = gamer class for each role, e.g. RandomGamer
+ *
+ * The matches are played as {@link HeadlessMatch}es, with no HTTP involved,
+ * as many at once as there are cores. They are refereed by a compiled propnet
+ * for the game, which is built once and shared by all the matches, or by a
+ * ProverStateMachine if no propnet can be built or if it disagrees with the
+ * prover: the two are compared on random matches for a few seconds before
+ * anything is played. Each finished match is written to the output file as
+ * soon as it is over, as the JSON of Match.toJSON() on a line of its own.
+ * The file is gzipped, and flushed every 100 matches so that an interrupted
+ * run leaves a readable file.
+ */
+public final class SelfPlayRunner
+{
+	// How long the propnet referee is checked against the prover, in milliseconds
+	private static final long VERIFICATION_TIME = 5000;
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 6) {
+			System.out.println("SelfPlayRunner [output file] [game key] [start clock] [play clock] [matches] [gamer 1] [gamer 2] ...");
+			System.out.println("example: ./gradlew selfPlayRunner -Pmyargs=\"selfplay.json.gz ticTacToe 10 2 1000 RandomGamer RandomGamer\"");
+			return;
+		}
+		String outputFile = args[0];
+		String gameKey = args[1];
+		final Game game = GameRepository.getDefaultRepository().getGame(gameKey);
+		final int startClock = Integer.valueOf(args[2]);
+		final int playClock = Integer.valueOf(args[3]);
+		int matches = Integer.valueOf(args[4]);
+		final List<Class<? extends Gamer>> gamerClasses = new ArrayList<Class<? extends Gamer>>();
+		final List<String> gamerNames = new ArrayList<String>();
+		for (int i = 5; i < args.length; i++) {
+			gamerClasses.add(findGamerClass(args[i]));
+			gamerNames.add(args[i]);
+		}
+
+		final CompiledPropNetStateMachine referee = createReferee(game.getRules());
+		String matchPrefix = "selfPlay." + gameKey + "." + System.currentTimeMillis() + ".";
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		CompletionService<Match> completed = new ExecutorCompletionService<Match>(executor);
+		for (int n = 0; n < matches; n++) {
+			final String matchId = matchPrefix + n;
+			completed.submit(new Callable<Match>() {
+				@Override
+				public Match call() throws Exception {
+					Match match = new Match(matchId, -1, startClock, playClock, game, "");
+					match.setPlayerNamesFromHost(gamerNames);
+					List<Gamer> gamers = new ArrayList<Gamer>();
+					for (Class<? extends Gamer> gamerClass : gamerClasses) {
+						gamers.add(gamerClass.newInstance());
+					}
+					StateMachine stateMachine;
+					if (referee != null) {
+						stateMachine = new CompiledPropNetStateMachine(referee.getCompiledPropNet(), true);
+					} else {
+						stateMachine = new ProverStateMachine();
+						stateMachine.initialize(game.getRules());
+					}
+					return new HeadlessMatch(match, gamers, stateMachine).call();
+				}
+			});
+		}
+		executor.shutdown();
+
+		// Write out the matches as they finish, and keep a tally of the scores.
+		long[] totals = new long[gamerClasses.size()];
+		int played = 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(outputFile), true), "UTF-8"));
+		try {
+			for (int n = 0; n < matches; n++) {
+				Match match;
+				try {
+					match = completed.take().get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+					continue;
+				}
+				out.write(match.toJSON());
+				out.write('\n');
+				List<Integer> goals = match.getGoalValues();
+				for (int i = 0; i < goals.size(); i++) {
+					totals[i] += goals.get(i);
+				}
+				played++;
+				if (played % 100 == 0) {
+					System.out.println("Played " + played + " of " + matches + " matches");
+					out.flush();
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		System.out.println("Played " + played + " matches of " + gameKey + ", with " + (matches - played) + " failures");
+		for (int i = 0; i < totals.length; i++) {
+			System.out.println(gamerNames.get(i) + " (role " + i + "): average goal " + (played == 0 ? 0 : (double) totals[i] / played));
+		}
+	}
+
+	// Returns a machine with the compiled propnet for the game, or null if it can't be
+	// built or doesn't play the game the same way as the prover
+	private static CompiledPropNetStateMachine createReferee(List<Gdl> rules) {
+		try {
+			CompiledPropNetStateMachine referee = new CompiledPropNetStateMachine(true, PropNetCache.getDefault());
+			referee.initialize(rules);
+			StateMachine prover = new ProverStateMachine();
+			prover.initialize(rules);
+			if (!referee.getInitialState().getContents().equals(prover.getInitialState().getContents())) {
+				System.err.println("The propnet's initial state differs from the prover's, refereeing with a prover instead");
+				return null;
+			}
+			if (!StateMachineVerifier.checkMachineConsistency(prover, referee, VERIFICATION_TIME)) {
+				System.err.println("The propnet disagrees with the prover, refereeing with a prover instead");
+				return null;
+			}
+			return referee;
+		} catch (RuntimeException | StackOverflowError e) {
+			System.err.println("Could not build a propnet for the game, refereeing with a prover instead: " + e);
+			return null;
+		}
+	}
+
+	private static Class<? extends Gamer> findGamerClass(String name) {
+		List<String> availableGamers = new ArrayList<String>();
+		for (Class<?> gamerClass : ProjectSearcher.GAMERS.getConcreteClasses()) {
+			availableGamers.add(gamerClass.getSimpleName());
+			if (gamerClass.getSimpleName().equals(name)) {
+				return gamerClass.asSubclass(Gamer.class);
+			}
+		}
+		throw new IllegalArgumentException("Could not find player class named " + name + ". Available choices are: " + Arrays.toString(availableGamers.toArray()));
+	}
+}
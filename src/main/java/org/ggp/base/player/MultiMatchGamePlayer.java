@@ -0,0 +1,256 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.exception.AbortingException;
+import org.ggp.base.player.request.factory.RequestFactory;
+import org.ggp.base.player.request.factory.exceptions.RequestFormatException;
+import org.ggp.base.player.request.grammar.AbortRequest;
+import org.ggp.base.player.request.grammar.Request;
+import org.ggp.base.player.request.grammar.StartRequest;
+import org.ggp.base.player.request.grammar.StopRequest;
+import org.ggp.base.util.concurrency.CoreScheduler;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.match.Match;
+
+/**
+ * A player that plays any number of matches at once on a single port, with
+ * a new instance of the gamer class for each match.
+ * <p>
+ * Requests are routed by match ID. A start request for a new match creates
+ * its gamer and a thread to run it on, so that matches don't wait on each
+ * other; the match is over after its stop or abort request, or once the
+ * game server has gone quiet on it for longer than its clocks allow plus a
+ * grace period, in which case the gamer is aborted. Requests for a
+ * match that isn't being played, like info and preview requests, go to a
+ * spare instance of the gamer, which has no match and so answers them the
+ * way an idle player would.
+ * <p>
+ * The matches split the cores through {@link CoreScheduler#getDefault()},
+ * and gamers that use a cache for their compiled propnets share them
+ * between the matches of the same game.
+ */
+public final class MultiMatchGamePlayer extends NioGamePlayer
+{
+	/** How long past its clocks a match may go without requests, by default, in milliseconds. */
+	private static final long DEFAULT_IDLE_GRACE = 30000;
+	private static final long SWEEP_INTERVAL = 1000;
+
+	private final Class<? extends Gamer> gamerClass;
+	private final Map<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+	private final long idleGrace;
+	private final ScheduledExecutorService sweeper;
+
+	public MultiMatchGamePlayer(int port, Class<? extends Gamer> gamerClass) throws IOException
+	{
+		this(port, gamerClass, DEFAULT_IDLE_GRACE);
+	}
+
+	/**
+	 * @param idleGrace how long past its start and play clocks a match may go
+	 * without requests before it is abandoned, in milliseconds.
+	 */
+	MultiMatchGamePlayer(int port, Class<? extends Gamer> gamerClass, long idleGrace) throws IOException
+	{
+		super(port, newGamer(gamerClass));
+		this.gamerClass = gamerClass;
+		this.idleGrace = idleGrace;
+		final int thePort = getGamerPort();
+		sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MatchSweeper-" + thePort);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdleMatches();
+			}
+		}, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the number of matches being played.
+	 */
+	public int getActiveMatches() {
+		return slots.size();
+	}
+
+	@Override
+	public void shutdown() {
+		sweeper.shutdownNow();
+		for (String matchId : slots.keySet()) {
+			endMatch(matchId);
+		}
+		super.shutdown();
+	}
+
+	@Override
+	protected Request createRequest(String in) throws RequestFormatException {
+		String[] head = readHead(in);
+		Slot slot = head[1] == null ? null : slots.get(head[1]);
+		if (slot == null && head[1] != null && head[0].equalsIgnoreCase("start")) {
+			slot = new Slot(head[1], newGamer(gamerClass));
+			slots.put(head[1], slot);
+			CoreScheduler.getDefault().register(head[1]);
+			Request request;
+			try {
+				request = new RequestFactory().create(slot.gamer, in);
+			} catch (RequestFormatException e) {
+				endMatch(head[1]);
+				throw e;
+			}
+			slot.requestStarted();
+			return request;
+		}
+		Request request = new RequestFactory().create(slot == null ? getGamer() : slot.gamer, in);
+		if (slot != null) {
+			slot.requestStarted();
+		}
+		return request;
+	}
+
+	@Override
+	protected Executor getExecutor(Request request) {
+		Slot slot = request.getMatchId() == null ? null : slots.get(request.getMatchId());
+		return slot == null ? super.getExecutor(request) : slot.executor;
+	}
+
+	@Override
+	protected void processed(Request request, String response) {
+		Slot slot = request.getMatchId() == null ? null : slots.get(request.getMatchId());
+		if (slot == null) {
+			return;
+		}
+		slot.requestFinished();
+		Match match = slot.gamer.getMatch();
+		if (request instanceof StartRequest && match != null && match.getMatchId().equals(request.getMatchId())) {
+			slot.clock = Math.max(match.getStartClock(), match.getPlayClock()) * 1000L;
+		}
+		// A start request for a match in progress is answered "busy" too, but leaves it alone
+		boolean failedToStart = request instanceof StartRequest && slot.gamer.getMatch() == null;
+		if (failedToStart || request instanceof StopRequest || request instanceof AbortRequest) {
+			endMatch(request.getMatchId());
+		}
+	}
+
+	private void endMatch(String matchId) {
+		Slot slot = slots.remove(matchId);
+		if (slot != null) {
+			CoreScheduler.getDefault().unregister(matchId);
+			slot.executor.shutdown();
+			GamerLogger.log("GamePlayer", "Match " + matchId + " is over, " + slots.size() + " still being played");
+		}
+	}
+
+	// Abandons the matches that the game server seems to have forgotten about
+	private void evictIdleMatches() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+			Slot slot = entry.getValue();
+			if (slot.isIdle(now, idleGrace)) {
+				GamerLogger.logError("GamePlayer", "No requests for match " + entry.getKey() + " for too long: aborting it");
+				final Gamer gamer = slot.gamer;
+				// Queued behind any request still being processed for the match
+				slot.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (gamer.getMatch() == null) {
+							return;
+						}
+						gamer.getMatch().markAborted();
+						try {
+							gamer.abort();
+						} catch (AbortingException e) {
+							GamerLogger.logStackTrace("GamePlayer", e);
+						}
+						gamer.setRoleName(null);
+						gamer.setMatch(null);
+					}
+				});
+				endMatch(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Returns the type and match ID of a request, without parsing the rest
+	 * of it; the match ID is null if there is none.
+	 */
+	static String[] readHead(String in) {
+		String[] head = new String[2];
+		int i = 0;
+		for (int part = 0; part < 2; part++) {
+			while (i < in.length() && (in.charAt(i) == '(' || Character.isWhitespace(in.charAt(i)))) {
+				i++;
+			}
+			int start = i;
+			while (i < in.length() && in.charAt(i) != '(' && in.charAt(i) != ')' && !Character.isWhitespace(in.charAt(i))) {
+				i++;
+			}
+			head[part] = start < i ? in.substring(start, i) : null;
+		}
+		if (head[0] == null) {
+			head[0] = "";
+		}
+		return head;
+	}
+
+	private static Gamer newGamer(Class<? extends Gamer> gamerClass) {
+		try {
+			return gamerClass.newInstance();
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IllegalArgumentException("Cannot create a " + gamerClass.getSimpleName(), e);
+		}
+	}
+
+	// The gamer playing one match, the thread it runs on, and when the match was last heard from
+	private static final class Slot {
+		final Gamer gamer;
+		final ExecutorService executor;
+		/** The longer of the match's clocks, once it has started, in milliseconds. */
+		volatile long clock = 0;
+		private final AtomicInteger pendingRequests = new AtomicInteger();
+		private volatile long lastActive = System.currentTimeMillis();
+
+		Slot(final String matchId, Gamer gamer) {
+			this.gamer = gamer;
+			this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Match-" + matchId);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		void requestStarted() {
+			lastActive = System.currentTimeMillis();
+			pendingRequests.incrementAndGet();
+		}
+
+		void requestFinished() {
+			lastActive = System.currentTimeMillis();
+			pendingRequests.decrementAndGet();
+		}
+
+		// A match is idle if it has had no request to process for longer than its clocks, plus the grace
+		boolean isIdle(long now, long grace) {
+			return pendingRequests.get() == 0 && now - lastActive > clock + grace;
+		}
+	}
+}
@@ -0,0 +1,368 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.player.event.PlayerDroppedPacketEvent;
+import org.ggp.base.player.event.PlayerReceivedMessageEvent;
+import org.ggp.base.player.event.PlayerSentMessageEvent;
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.request.factory.RequestFactory;
+import org.ggp.base.player.request.factory.exceptions.RequestFormatException;
+import org.ggp.base.player.request.grammar.InfoRequest;
+import org.ggp.base.player.request.grammar.Request;
+import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpWriter;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.observer.Observer;
+import org.ggp.base.util.observer.Subject;
+
+/**
+ * A drop-in replacement for GamePlayer that serves its connections from a
+ * single selector thread instead of one blocking connection at a time, so a
+ * slow or half-open connection can't hold up the requests of the match in
+ * progress.
+ * <p>
+ * Requests are read into direct buffers as their bytes arrive. Info pings
+ * are answered right away on the selector thread. Every other request is
+ * handed, in the order it arrived, to a single worker thread that runs the
+ * gamer, and its response is written back by the selector thread once it
+ * is ready. Subclasses can route requests elsewhere, as
+ * {@link MultiMatchGamePlayer} does.
+ * <p>
+ * A client has ten seconds to send its request, and ten more to take the
+ * response once it is ready; connections that sit idle longer are closed.
+ * Requests over 16MB are dropped.
+ */
+public class NioGamePlayer extends Thread implements Subject
+{
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+	/** How long a client may take to send a request, or to take a response, by default, in milliseconds. */
+	private static final int DEFAULT_IO_TIMEOUT = 10000;
+	private static final int MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+	private final int port;
+	private final Gamer gamer;
+	private final Selector selector;
+	private final ServerSocketChannel listener;
+	private final ExecutorService worker;
+	private final Queue<Response> responses;
+	private final List<Observer> observers;
+	private final int ioTimeout;
+	private volatile boolean running;
+
+	public NioGamePlayer(int port, Gamer gamer) throws IOException
+	{
+		this(port, gamer, DEFAULT_IO_TIMEOUT);
+	}
+
+	/**
+	 * @param ioTimeout how long a client may take to send a request, or to
+	 * take a response, in milliseconds.
+	 */
+	NioGamePlayer(int port, Gamer gamer, int ioTimeout) throws IOException
+	{
+		this.ioTimeout = ioTimeout;
+		observers = new ArrayList<Observer>();
+		responses = new ConcurrentLinkedQueue<Response>();
+
+		listener = ServerSocketChannel.open();
+		while (true) {
+			try {
+				listener.socket().bind(new InetSocketAddress(port));
+				break;
+			} catch (BindException ex) {
+				port++;
+				System.err.println("Failed to start gamer on port: " + (port-1) + " trying port " + port);
+			}
+		}
+		listener.configureBlocking(false);
+		selector = Selector.open();
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+
+		final int thePort = port;
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "GamePlayer-" + thePort);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		this.port = port;
+		this.gamer = gamer;
+		this.running = true;
+	}
+
+	@Override
+	public void addObserver(Observer observer)
+	{
+		observers.add(observer);
+	}
+
+	@Override
+	public void notifyObservers(Event event)
+	{
+		for (Observer observer : observers)
+		{
+			observer.observe(event);
+		}
+	}
+
+	public final int getGamerPort() {
+		return port;
+	}
+
+	public final Gamer getGamer() {
+		return gamer;
+	}
+
+	public void shutdown() {
+		running = false;
+		worker.shutdown();
+		selector.wakeup();
+	}
+
+	/**
+	 * Creates the request for a message, other than an info ping that is
+	 * answered right away. By default, all the requests go to the gamer.
+	 */
+	protected Request createRequest(String in) throws RequestFormatException {
+		return new RequestFactory().create(gamer, in);
+	}
+
+	/**
+	 * Returns the executor that processes the request. The requests of one
+	 * match must be processed one at a time, in order. By default, they all
+	 * go to a single worker thread.
+	 */
+	protected Executor getExecutor(Request request) {
+		return worker;
+	}
+
+	/**
+	 * Called on the executor once the request has been processed, with its
+	 * response, or null if processing failed. Does nothing by default.
+	 */
+	protected void processed(Request request, String response) {
+	}
+
+	@Override
+	public void run()
+	{
+		try {
+			while (running) {
+				long now = System.currentTimeMillis();
+				long wait = 0;
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() != null) {
+						long left = ((Connection) key.attachment()).deadline - now;
+						wait = (wait == 0) ? Math.max(1, left) : Math.max(1, Math.min(wait, left));
+					}
+				}
+				selector.select(wait);
+				Response response;
+				while ((response = responses.poll()) != null) {
+					startWriting(response);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						} else if (key.isAcceptable()) {
+							accept();
+						} else if (key.isReadable()) {
+							read(key);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (Exception e) {
+						drop(key, e);
+					}
+				}
+
+				now = System.currentTimeMillis();
+				for (SelectionKey key : selector.keys()) {
+					if (key.isValid() && key.attachment() != null && ((Connection) key.attachment()).deadline <= now) {
+						expire(key);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			GamerLogger.logStackTrace("GamePlayer", e);
+		} finally {
+			try {
+				for (SelectionKey key : selector.keys()) {
+					key.channel().close();
+				}
+				selector.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = listener.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Connection(System.currentTimeMillis() + ioTimeout));
+		}
+	}
+
+	private void read(SelectionKey key) throws Exception {
+		Connection connection = (Connection) key.attachment();
+		SocketChannel channel = (SocketChannel) key.channel();
+		if (!connection.in.hasRemaining()) {
+			if (connection.in.capacity() >= MAX_REQUEST_SIZE) {
+				throw new IOException("Request larger than " + MAX_REQUEST_SIZE + " bytes.");
+			}
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(connection.in.capacity() * 2, MAX_REQUEST_SIZE));
+			connection.in.flip();
+			larger.put(connection.in);
+			connection.in = larger;
+		}
+		boolean endOfStream = channel.read(connection.in) < 0;
+
+		ByteBuffer received = connection.in.duplicate();
+		received.flip();
+		String in = HttpReader.readAsServer(received, endOfStream);
+		if (in == null) {
+			return;
+		}
+		final long receptionTime = System.currentTimeMillis();
+		key.interestOps(0);
+		// The gamer may take as long as its clock allows
+		connection.deadline = Long.MAX_VALUE;
+		if (in.length() == 0) {
+			// Answer OPTIONS and the like with a blank response, as GamePlayer does
+			startWriting(new Response(key, "", false));
+			throw new IOException("Empty message received.");
+		}
+
+		notifyObservers(new PlayerReceivedMessageEvent(in));
+		GamerLogger.log("GamePlayer", "[Received at " + receptionTime + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
+
+		final Request request = createRequest(in);
+		if (request instanceof InfoRequest) {
+			startWriting(new Response(key, request.process(receptionTime), true));
+			return;
+		}
+		final SelectionKey theKey = key;
+		getExecutor(request).execute(new Runnable() {
+			@Override
+			public void run() {
+				String out = null;
+				try {
+					out = request.process(receptionTime);
+				} catch (RuntimeException e) {
+					GamerLogger.logStackTrace("GamePlayer", e);
+				}
+				processed(request, out);
+				responses.add(new Response(theKey, out, true));
+				selector.wakeup();
+			}
+		});
+	}
+
+	private void startWriting(Response response) {
+		if (!response.key.isValid()) {
+			return;
+		}
+		if (response.data == null) {
+			drop(response.key, new IOException("The request could not be processed."));
+			return;
+		}
+		Connection connection = (Connection) response.key.attachment();
+		connection.out = HttpWriter.encodeAsServer(response.data);
+		connection.response = response;
+		connection.deadline = System.currentTimeMillis() + ioTimeout;
+		response.key.interestOps(SelectionKey.OP_WRITE);
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		((SocketChannel) key.channel()).write(connection.out);
+		if (connection.out.hasRemaining()) {
+			return;
+		}
+		key.channel().close();
+		if (connection.response.notify) {
+			notifyObservers(new PlayerSentMessageEvent(connection.response.data));
+			GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + connection.response.data, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		}
+	}
+
+	private void drop(SelectionKey key, Exception e) {
+		// A blank response may still be on its way out
+		Connection connection = (Connection) key.attachment();
+		if (connection == null || connection.out == null) {
+			try {
+				key.channel().close();
+			} catch (IOException ex) {
+				;
+			}
+		}
+		GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		notifyObservers(new PlayerDroppedPacketEvent());
+	}
+
+	// Closes a connection whose client has gone quiet
+	private void expire(SelectionKey key) {
+		try {
+			key.channel().close();
+		} catch (IOException ex) {
+			;
+		}
+		GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to an idle connection", GamerLogger.LOG_LEVEL_DATA_DUMP);
+		notifyObservers(new PlayerDroppedPacketEvent());
+	}
+
+	// What has been read from, and is to be written to, one connection
+	private static final class Connection {
+		ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+		ByteBuffer out;
+		Response response;
+		/** When the connection is closed if the client hasn't finished sending or receiving. */
+		long deadline;
+
+		Connection(long deadline) {
+			this.deadline = deadline;
+		}
+	}
+
+	// A response ready to be written, handed from the worker to the selector thread.
+	// The data is null if the request failed, and the connection should be dropped.
+	private static final class Response {
+		final SelectionKey key;
+		final String data;
+		final boolean notify;
+
+		Response(SelectionKey key, String data, boolean notify) {
+			this.key = key;
+			this.data = data;
+			this.notify = notify;
+		}
+	}
+}
@@ -2,6 +2,11 @@ package org.ggp.base.player.gamer.statemachine;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.ggp.base.player.gamer.Gamer;
 import org.ggp.base.player.gamer.exception.AbortingException;
@@ -74,6 +79,20 @@ public abstract class StateMachineGamer extends Gamer
      */
     public abstract void stateMachineAbort();
 
+    /**
+     * Defines the search that the player runs in the background between
+     * requests, when pondering has been turned on with setPondering. It is
+     * started on its own thread once metagaming is over and each time a move
+     * has been selected, and should return soon after isPonderStopRequested
+     * becomes true: the next request waits for it before touching the
+     * current state. The default does nothing.
+     * @throws TransitionDefinitionException
+     * @throws MoveDefinitionException
+     * @throws GoalDefinitionException
+     */
+    public void stateMachinePonder() throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+    }
+
     // =====================================================================
     // Next, methods which can be used by subclasses to get information about
     // the current state of the game, and tweak the state machine on the fly.
@@ -103,6 +122,24 @@ public abstract class StateMachineGamer extends Gamer
 		return stateMachine;
 	}
 
+    /**
+     * Turns pondering on or off. While it is on, stateMachinePonder runs
+     * in the background between requests. It is off by default.
+     */
+    protected final void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+
+    /**
+     * Returns true once the search in stateMachinePonder should stop, because
+     * a new request has come in. Outside of pondering this is always false,
+     * so searches shared by stateMachinePonder and stateMachineSelectMove can
+     * check it unconditionally.
+     */
+    protected final boolean isPonderStopRequested() {
+        return ponderStopRequested;
+    }
+
     /**
      * Cleans up the role, currentState and stateMachine. This should only be
      * used when a match is over, and even then only when you really need to
@@ -110,6 +147,7 @@ public abstract class StateMachineGamer extends Gamer
      * only used in the Proxy, for players designed to run 24/7.
      */
     protected final void cleanupAfterMatch() {
+        stopPondering();
         role = null;
         currentState = null;
         stateMachine = null;
@@ -180,6 +218,7 @@ public abstract class StateMachineGamer extends Gamer
 	{
 		try
 		{
+			stopPondering();
 			stateMachine = getInitialStateMachine();
 			stateMachine.initialize(getMatch().getGame().getRules());
 			currentState = stateMachine.getInitialState();
@@ -188,6 +227,7 @@ public abstract class StateMachineGamer extends Gamer
 			getMatch().appendState(currentState.getContents());
 
 			stateMachineMetaGame(timeout);
+			startPondering();
 		}
 		catch (Exception e)
 		{
@@ -207,6 +247,7 @@ public abstract class StateMachineGamer extends Gamer
 	{
 		try
 		{
+			stopPondering();
 			stateMachine.doPerMoveWork();
 
 			List<GdlTerm> lastMoves = getMatch().getMostRecentMoves();
@@ -222,7 +263,9 @@ public abstract class StateMachineGamer extends Gamer
 				getMatch().appendState(currentState.getContents());
 			}
 
-			return stateMachineSelectMove(timeout).getContents();
+			Move move = stateMachineSelectMove(timeout);
+			startPondering();
+			return move.getContents();
 		}
 		catch (Exception e)
 		{
@@ -234,6 +277,7 @@ public abstract class StateMachineGamer extends Gamer
 	@Override
 	public void stop() throws StoppingException {
 		try {
+			shutdownPondering();
 			stateMachine.doPerMoveWork();
 
 			List<GdlTerm> lastMoves = getMatch().getMostRecentMoves();
@@ -262,6 +306,7 @@ public abstract class StateMachineGamer extends Gamer
 	@Override
 	public void abort() throws AbortingException {
 		try {
+			shutdownPondering();
 			stateMachineAbort();
 		}
 		catch (Exception e)
@@ -271,8 +316,69 @@ public abstract class StateMachineGamer extends Gamer
 		}
 	}
 
+    // =====================================================================
+    // Pondering: stateMachinePonder runs on a single background thread, and
+    // is always stopped (and waited for) before the gamer's state changes.
+
+    private void startPondering() {
+        if (!pondering) {
+            return;
+        }
+        if (ponderExecutor == null) {
+            ponderExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Ponder-" + getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        ponderStopRequested = false;
+        ponderFuture = ponderExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stateMachinePonder();
+                } catch (Exception e) {
+                    GamerLogger.logStackTrace("GamePlayer", e);
+                }
+            }
+        });
+    }
+
+    private void stopPondering() {
+        if (ponderFuture == null) {
+            return;
+        }
+        ponderStopRequested = true;
+        try {
+            ponderFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            GamerLogger.logStackTrace("GamePlayer", e);
+        }
+        ponderFuture = null;
+        ponderStopRequested = false;
+    }
+
+    private void shutdownPondering() {
+        stopPondering();
+        if (ponderExecutor != null) {
+            ponderExecutor.shutdown();
+            ponderExecutor = null;
+        }
+    }
+
     // Internal state about the current state of the state machine.
     private Role role;
     private MachineState currentState;
     private StateMachine stateMachine;
+
+    // Internal state about pondering.
+    private boolean pondering = false;
+    private volatile boolean ponderStopRequested = false;
+    private ExecutorService ponderExecutor;
+    private Future<?> ponderFuture;
 }
\ No newline at end of file
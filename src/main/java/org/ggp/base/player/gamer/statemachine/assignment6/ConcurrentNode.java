@@ -0,0 +1,184 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ggp.base.util.statemachine.MachineState;
+
+/* A version of Node that many threads can search at once without locks.
+ * Visits and values are atomics (doubles are stored as their raw long bits and updated with CAS),
+ * and the untried moves are handed out by an atomic counter, so two threads never build the same child.
+ * Children live in a fixed array with one slot per move; a slot is null until its child is built.
+ *
+ * Selection uses virtual loss: a thread that walks through a node calls addVirtualLoss(), which counts as
+ * a visit with a score of 0 until the real result is backpropagated with update(). This steers the other
+ * threads down different paths instead of all piling onto the current best one.
+ *
+ * The counters are updated one at a time, so a reader can see e.g. a new visit before its utility.
+ * That only nudges the averages for a moment, which is fine for selection.
+ */
+public class ConcurrentNode {
+	final MachineState state;
+	volatile ConcurrentNode parent;
+	final int move; //Id of our move, for MIN nodes
+	final boolean isMax;
+
+	//Moves are kept as the machine's int move ids (see StateMachine.getMoveId)
+	//For MAX nodes, our legal moves. Null for terminal states.
+	private final int[] moves;
+	//For MIN nodes, the joint moves that go with our move. Never null because MIN nodes are never terminal.
+	private final int[][] jointMoves;
+
+	private final AtomicInteger nextUntried = new AtomicInteger();
+	private final AtomicReferenceArray<ConcurrentNode> children;
+
+	private final AtomicInteger visits = new AtomicInteger();
+	private final AtomicInteger virtualLosses = new AtomicInteger();
+	private final AtomicLong utility = new AtomicLong(Double.doubleToRawLongBits(0));
+	private final AtomicLong oppUtility = new AtomicLong(Double.doubleToRawLongBits(0));
+	private final AtomicLong secondMoment = new AtomicLong(Double.doubleToRawLongBits(0));
+	private final AtomicLong oppSecondMoment = new AtomicLong(Double.doubleToRawLongBits(0));
+
+	// Creates a MAX node, where we pick a move. Pass null moves for a terminal state.
+	public static ConcurrentNode maxNode(MachineState state, ConcurrentNode parent, int[] moves) {
+		return new ConcurrentNode(state, parent, -1, moves, null, false);
+	}
+
+	// Creates a MIN node, where the opponents pick their moves to go with ours.
+	public static ConcurrentNode minNode(MachineState state, ConcurrentNode parent, int move, int[][] jointMoves) {
+		return new ConcurrentNode(state, parent, move, null, jointMoves, true);
+	}
+
+	private ConcurrentNode(MachineState state, ConcurrentNode parent, int move, int[] moves, int[][] jointMoves, boolean isMax) {
+		this.state = state;
+		this.parent = parent;
+		this.move = move;
+		this.moves = moves;
+		this.jointMoves = jointMoves;
+		this.isMax = isMax;
+		this.children = new AtomicReferenceArray<ConcurrentNode>(isMax ? jointMoves.length : (moves == null ? 0 : moves.length));
+	}
+
+	public boolean isTerminal() {
+		return !isMax && moves == null;
+	}
+
+	// Number of child slots, built or not.
+	public int size() {
+		return children.length();
+	}
+
+	// Claims an untried move for the calling thread to expand, or returns -1 if all have been claimed.
+	public int claimUntried() {
+		if(nextUntried.get() >= children.length())
+			return -1;
+		int i = nextUntried.getAndIncrement();
+		return i < children.length() ? i : -1;
+	}
+
+	public boolean isFullyExpanded() {
+		return nextUntried.get() >= children.length();
+	}
+
+	public int getMove(int i) {
+		return moves[i];
+	}
+
+	public int[] getJointMove(int i) {
+		return jointMoves[i];
+	}
+
+	// The child in slot i, or null if it has not been built yet.
+	public ConcurrentNode getChild(int i) {
+		return children.get(i);
+	}
+
+	// Publishes the child for a claimed slot.
+	public void setChild(int i, ConcurrentNode child) {
+		children.set(i, child);
+	}
+
+	public void addVirtualLoss() {
+		virtualLosses.incrementAndGet();
+	}
+
+	// Takes back a virtual loss without adding a result, e.g. when a depth charge ran out of time.
+	public void removeVirtualLoss() {
+		virtualLosses.decrementAndGet();
+	}
+
+	// Adds a result and takes back the virtual loss added on the way down.
+	public void update(double[] scores) {
+		add(utility, scores[0]);
+		add(oppUtility, scores[1]);
+		add(secondMoment, scores[0] * scores[0]);
+		add(oppSecondMoment, scores[1] * scores[1]);
+		visits.incrementAndGet();
+		virtualLosses.decrementAndGet();
+	}
+
+	// Completed visits only.
+	public int getVisits() {
+		return visits.get();
+	}
+
+	// Completed visits plus the ones still in flight, which is what selection should use.
+	public int getEffectiveVisits() {
+		return visits.get() + virtualLosses.get();
+	}
+
+	// Average of completed visits.
+	public double getAvgUtility() {
+		int n = visits.get();
+		return n == 0 ? Double.NEGATIVE_INFINITY : get(utility) / n;
+	}
+
+	public double getOppAvgUtility() {
+		int n = visits.get();
+		return n == 0 ? Double.NEGATIVE_INFINITY : get(oppUtility) / n;
+	}
+
+	// Averages that count visits in flight as losses.
+	public double getVirtualAvgUtility() {
+		int n = getEffectiveVisits();
+		return n == 0 ? Double.NEGATIVE_INFINITY : get(utility) / n;
+	}
+
+	public double getVirtualOppAvgUtility() {
+		int n = getEffectiveVisits();
+		return n == 0 ? Double.NEGATIVE_INFINITY : get(oppUtility) / n;
+	}
+
+	//Same rules as Node: a default of 20 until we have more than 10 visits, and whenever the std is ~0
+	public double getStd() {
+		return std(utility, secondMoment);
+	}
+
+	public double getOppStd() {
+		return std(oppUtility, oppSecondMoment);
+	}
+
+	private double std(AtomicLong sum, AtomicLong squares) {
+		int n = visits.get();
+		if(n <= 10)
+			return 20;
+		double avg = get(sum) / n;
+		double std = Math.sqrt(get(squares) / n - avg * avg);
+		if(std < 0.01 || Double.isNaN(std))
+			return 20;
+		return std;
+	}
+
+	private static double get(AtomicLong value) {
+		return Double.longBitsToDouble(value.get());
+	}
+
+	private static void add(AtomicLong value, double delta) {
+		long current, next;
+		do {
+			current = value.get();
+			next = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta);
+		} while(!value.compareAndSet(current, next));
+	}
+}
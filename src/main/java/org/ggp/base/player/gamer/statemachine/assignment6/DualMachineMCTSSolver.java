@@ -9,6 +9,7 @@ import java.util.logging.Logger;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.propnet.factory.PropNetCache;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -18,7 +19,7 @@ import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
-import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.TermProverStateMachine;
 
 /* This improves on the PropNetSolver by switching between the propnet or prover machines, depending on which is faster.
  */
@@ -41,7 +42,8 @@ public class DualMachineMCTSSolver extends SampleGamer {
 	 *Using win ratio may have issues with some 1P games where the max score is not 100.*/
 	private final boolean useWinRatio = false;
 
-	//Number of extra threads to run in parallel.
+	//Number of extra threads to run in parallel, each with its own machine.
+	//SimulationPool.defaultParallelism() gives one per core.
 	private final int numThreads = 0;
 
 	private boolean useDual = false;
@@ -49,12 +51,15 @@ public class DualMachineMCTSSolver extends SampleGamer {
 	//Other variables used throughout the gamer.
 	private StateMachine theMachine;
 	private ArrayList<StateMachine> extraMachines;
+	private SimulationPool pool; //Null if there are no extra machines
 	private StateMachine backupMachine;
 	private Role role;
+	private int roleIndex;
 	private List<Role> roles;
 	private Node root; //A pointer to the root node
 	private boolean firstMove; //Indicates whether we are performing our first move or not (for caching correctly from meta game)
 	private Random random; //To select random moves when needed
+	private PropNetCache propNetCache = PropNetCache.getDefault(); //Null to build the propnet every time
 
 	//Play a meta game to decide on some initial parameters (depth limit)
 	@Override
@@ -73,14 +78,36 @@ public class DualMachineMCTSSolver extends SampleGamer {
 		logger.log(Level.INFO, "Initial Depth charges:" + root.visits);
 	}
 
+	@Override
+	public void stateMachineStop() {
+		shutdownPool();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		shutdownPool();
+	}
+
+	private void shutdownPool() {
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	//Where the propnet is cached, or null to build it every time. Used from the next match on.
+	public void setPropNetCache(PropNetCache propNetCache) {
+		this.propNetCache = propNetCache;
+	}
+
 	@Override
 	public StateMachine getInitialStateMachine() {
-    	return new CachedStateMachine(new SamplePropNetStateMachine());
+    	return new CachedStateMachine(new SamplePropNetStateMachine(propNetCache));
     }
 
 	public StateMachine getBackupStateMachine() {
-    	return new CachedStateMachine(new ProverStateMachine());
-//		return new CachedStateMachine(new SamplePropNetStateMachine());
+    	return new CachedStateMachine(new TermProverStateMachine());
+//		return new CachedStateMachine(new SamplePropNetStateMachine(propNetCache));
     }
 
 
@@ -94,6 +121,7 @@ public class DualMachineMCTSSolver extends SampleGamer {
 
 		role = getRole();
 		roles = theMachine.getRoles();
+		roleIndex = theMachine.getRoleIndices().get(role);
 		firstMove = true;
 
 		/* Time the two machines, and keep the best one. */
@@ -135,6 +163,9 @@ public class DualMachineMCTSSolver extends SampleGamer {
 		}
 		logger.log(Level.INFO, String.format("Number of (prop, prover) charges: (%d, %d)",propCharges, proveCharges));
 		logger.log(Level.INFO, String.format("Created %d machines for multithreading.", extraMachines.size()));
+		shutdownPool();
+		if(extraMachines.size() > 0)
+			pool = new SimulationPool(extraMachines);
 
 	}
 
@@ -328,27 +359,26 @@ public class DualMachineMCTSSolver extends SampleGamer {
 		if(node.isMax)
 			logger.log(Level.WARNING, "Error. Should only simulate on the Max Nodes");
 
-		if(extraMachines.size() > 0) {
-			SimulationThreadV2 thread = new SimulationThreadV2(node, theMachine, finishBy, useWinRatio || !useMiniMax, role, useWinRatio);
-			ArrayList<SimulationThreadV2> threads = new ArrayList<SimulationThreadV2>();
-			for(StateMachine machine: extraMachines)
-				threads.add(new SimulationThreadV2(node, machine, finishBy, useWinRatio || !useMiniMax, role, useWinRatio));
-			while(thread.isAlive()){
-				//Wait
-			}
-			backPropagate(node, thread.result, false);
-
-			for(SimulationThreadV2 thr: threads) {
-				while(thr.isAlive()){
-					//wait
+		//Every worker runs a charge from this leaf while we run one on our own machine
+		if(pool != null)
+			for(int i = 0; i < pool.getParallelism(); i++)
+				pool.submit(node, finishBy);
+
+		MachineState terminal = node.state;
+		terminal = theMachine.performSafeDepthCharge(node.state.clone(), finishBy);
+		if(theMachine.isTerminal(terminal))
+			backPropagate(node, getResult(terminal), false);
+
+		if(pool != null) {
+			try {
+				while(pool.pending() > 0) {
+					SimulationPool.Simulation done = pool.take();
+					if(done != null && done.goals != null)
+						backPropagate(node, getResult(done.goals), false);
 				}
-				backPropagate(node, thr.result, false);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
-		} else {
-			MachineState terminal = node.state;
-			terminal = theMachine.performSafeDepthCharge(node.state.clone(), finishBy);
-			double[] result = getResult(terminal);
-			backPropagate(node, result, false);
 		}
 	}
 
@@ -407,27 +437,37 @@ public class DualMachineMCTSSolver extends SampleGamer {
 
 	//Averages ALL opponent score.
 	//Might be better to use MAX instead of Average for >2P games.
-	public double avgOpponentScore(MachineState state) throws GoalDefinitionException {
+	public double avgOpponentScore(int[] goals) {
 		double result = 0;
 		if(roles.size() > 1) {
-			for(Role curRole: roles)
-				if(!curRole.equals(role))
-					result += theMachine.findReward(curRole, state);
-//						result = Math.max(result, theMachine.findReward(curRole, state));
+			for(int i = 0; i < goals.length; i++)
+				if(i != roleIndex)
+					result += goals[i];
+//						result = Math.max(result, goals[i]);
 			result /= (roles.size()-1);
 		}
 		return result;
 	}
 
 	public double[] getResult(MachineState terminal) throws GoalDefinitionException {
+		List<Integer> goalList = theMachine.getGoals(terminal);
+		int[] goals = new int[goalList.size()];
+		for(int i = 0; i < goals.length; i++)
+			goals[i] = goalList.get(i);
+		return getResult(goals);
+	}
+
+	// Turns the goals of a terminal state (indexed by role) into our score and the opponents' score,
+	// or whether we won or not
+	public double[] getResult(int[] goals) {
 		double[] result = new double[2];
-		result[0] = theMachine.findReward(role, terminal);
+		result[0] = goals[roleIndex];
 
 		/* For a small speedup, we only compute this if we want the win ratio (need both scores)
 		 * or if we want to use the greedy opponent model (also need both scores).
 		 * This is unused for the minimax and terminal score choices. */
 		if(useWinRatio || !useMiniMax)
-			result[1] = avgOpponentScore(terminal);
+			result[1] = avgOpponentScore(goals);
 
 		//Calculate whether the game was won or not
 		if(useWinRatio) {
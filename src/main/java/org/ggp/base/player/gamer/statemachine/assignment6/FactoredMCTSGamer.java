@@ -0,0 +1,217 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.propnet.factory.PropNetFactor;
+import org.ggp.base.util.propnet.factory.PropNetFactorizer;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FactorStateMachine;
+
+/* An MCTS gamer for games made of independent parts, like a game played on several boards at once.
+ * In the meta game the propnet is split into factors (see PropNetFactorizer), and each turn one tree is
+ * grown per factor, taking turns, over a FactorStateMachine that only branches on that factor's moves.
+ * The move played is the root child with the best average utility over all the trees.
+ * The restriction only applies to growing the trees: playouts run on the whole game with unrestricted
+ * random moves, so every tree scores its leaves with the same playout policy and the trees can be compared.
+ * Games that don't split are searched with a single tree over the whole game.
+ */
+public class FactoredMCTSGamer extends SampleGamer {
+
+	private long finishBy; //Global timeout variable
+	private final Logger logger = Logger.getLogger(getClass().getSimpleName());
+
+	private final double explorationConstant = 40;
+
+	private CompiledPropNetStateMachine compiledMachine;
+	private List<StateMachine> factorMachines; //One per factor, or just the whole game
+	private List<PropNetFactor> factors; //Found while the compiled machine builds its propnet
+	private Role role;
+	private int roleIndex;
+	private Random random;
+	private PropNetCache propNetCache = PropNetCache.getDefault(); //Null to build the propnet every time
+
+	//Where the propnet is cached, or null to build it every time. Used from the next match on.
+	public void setPropNetCache(PropNetCache propNetCache) {
+		this.propNetCache = propNetCache;
+	}
+
+	@Override
+	public StateMachine getInitialStateMachine() {
+		factors = null;
+		compiledMachine = new CompiledPropNetStateMachine(true, propNetCache) {
+			@Override
+			protected void propNetCreated(PropNet propNet) {
+				factors = PropNetFactorizer.factor(propNet);
+			}
+		};
+		return new CachedStateMachine(compiledMachine);
+	}
+
+	//Split the game into factors and make a machine for each
+	@Override
+	public void stateMachineMetaGame(long timeout) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		finishBy = timeout - 3000; //Leave 3s left
+		role = getRole();
+		roleIndex = getStateMachine().getRoleIndices().get(role);
+		random = new Random();
+
+		factorMachines = new ArrayList<StateMachine>();
+		try {
+			if(factors == null) { //The compiled machine reused a network, so there was no propnet to factor
+				List<Gdl> rules = getMatch().getGame().getRules();
+				factors = PropNetFactorizer.factor(propNetCache != null ? propNetCache.create(rules) : OptimizingPropNetFactory.create(rules));
+			}
+			logger.log(Level.INFO, "Factors: " + factors);
+			if(factors.size() > 1) {
+				for(PropNetFactor factor: factors)
+					factorMachines.add(new FactorStateMachine(compiledMachine, factor, factors));
+			}
+		} catch(InterruptedException e) {
+			logger.log(Level.WARNING, "Error building Prop Net, searching the whole game.");
+		}
+		if(factorMachines.isEmpty())
+			factorMachines.add(compiledMachine);
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout)
+			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		finishBy = timeout - 2500;
+
+		MachineState currentState = getCurrentState();
+		List<Move> moves = getStateMachine().getLegalMoves(currentState, role);
+		Move bestMove = moves.get(random.nextInt(moves.size()));
+
+		//Start fresh trees every turn: the other players' moves may have changed any factor
+		List<FactorSearch> searches = new ArrayList<FactorSearch>();
+		for(StateMachine machine: factorMachines)
+			searches.add(new FactorSearch(machine, currentState));
+
+		//Grow the trees in turn so each gets a fair share of the time
+		while(System.currentTimeMillis() < finishBy) {
+			for(FactorSearch search: searches)
+				search.iterate();
+		}
+
+		double bestUtility = Double.NEGATIVE_INFINITY;
+		int charges = 0;
+		for(FactorSearch search: searches) {
+			charges += search.root.visits;
+			for(Node child: search.root.children) {
+				if(child.visits > 0 && child.avgUtility > bestUtility) {
+					bestUtility = child.avgUtility;
+					bestMove = child.move;
+				}
+			}
+		}
+
+		logger.log(Level.INFO, "Depth charges:" + charges);
+		logger.log(Level.INFO, "Best Utility:" + bestUtility);
+
+		long stop = System.currentTimeMillis();
+		notifyObservers(new GamerSelectedMoveEvent(moves, bestMove, stop - start));
+		return bestMove;
+	}
+
+	// One MCTS tree over one factor
+	private class FactorSearch {
+		private final StateMachine machine;
+		private final Node root;
+
+		FactorSearch(StateMachine machine, MachineState state) throws MoveDefinitionException {
+			this.machine = machine;
+			root = new Node(state, null, null, null, false);
+			root.moves = new ArrayList<Move>(machine.getLegalMoves(state, role));
+		}
+
+		void iterate() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+			Node node = expand(select(root));
+			MachineState terminal = node.state;
+			if(node.moves != null) //Played out on the whole game, so the factor's restriction doesn't skew it
+				terminal = compiledMachine.performSafeDepthCharge(node.state.clone(), finishBy);
+			if(!compiledMachine.isTerminal(terminal)) //Ran out of time
+				return;
+
+			List<Integer> goals = compiledMachine.getGoals(terminal);
+			double[] scores = new double[2];
+			scores[0] = goals.get(roleIndex);
+			if(goals.size() > 1) {
+				for(int i = 0; i < goals.size(); i++)
+					if(i != roleIndex)
+						scores[1] += goals.get(i);
+				scores[1] /= goals.size() - 1;
+			}
+			for(Node n = node; n != null; n = n.parent)
+				n.update(scores);
+		}
+
+		// Goes down the tree until a node with children left to add, or a terminal node
+		private Node select(Node node) {
+			while(true) {
+				if(!node.isMax && (node.moves == null || node.moves.size() > 0))
+					return node;
+				if(node.isMax && node.jointMoves.size() > 0)
+					return node;
+
+				double bestScore = Double.NEGATIVE_INFINITY;
+				Node result = node;
+				for(Node child: node.children) {
+					if(child.visits == 0) { //Its depth charge ran out of time, so try it again
+						result = child;
+						break;
+					}
+					double value = node.isMax ? child.oppAvgUtility : child.avgUtility;
+					double score = value + explorationConstant*Math.sqrt(2*Math.log(node.visits)/child.visits);
+					if(score > bestScore) {
+						bestScore = score;
+						result = child;
+					}
+				}
+				node = result;
+			}
+		}
+
+		// Adds a child (and grandchild) of our move, or a grandchild of the others' moves
+		private Node expand(Node node) throws MoveDefinitionException, TransitionDefinitionException {
+			if(!node.isMax && node.moves != null) {
+				Move move = node.moves.remove(node.moves.size()-1);
+				List<List<Move>> jointMoves = machine.getLegalJointMoves(node.state, role, move);
+				Node newChild = new Node(node.state, node, move, jointMoves, true);
+				node.children.add(newChild);
+				return addGrandchild(newChild, jointMoves.remove(jointMoves.size()-1));
+			}
+			else if(node.isMax) {
+				return addGrandchild(node, node.jointMoves.remove(node.jointMoves.size()-1));
+			}
+			return node;
+		}
+
+		private Node addGrandchild(Node child, List<Move> jointMove) throws MoveDefinitionException, TransitionDefinitionException {
+			MachineState nextState = machine.getNextState(child.state, jointMove);
+			Node newGrandchild = new Node(nextState, child, null, null, false);
+			if(!machine.isTerminal(nextState))
+				newGrandchild.moves = new ArrayList<Move>(machine.getLegalMoves(nextState, role));
+			child.children.add(newGrandchild);
+			return newGrandchild;
+		}
+	}
+}
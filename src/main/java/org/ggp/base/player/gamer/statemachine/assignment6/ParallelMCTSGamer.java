@@ -0,0 +1,421 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.concurrency.CoreScheduler;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+
+/* This is PropNetMCTSGamer with the whole search running on every core instead of just the depth charges.
+ * Each worker thread has its own machine and runs the full select-expand-simulate-backpropagate loop on a
+ * shared tree of ConcurrentNodes. Virtual loss keeps the workers from all following the same path.
+ * The exploration constant is still the std of the seen values, with a default of 20.
+ * The tree stores moves as int move ids, so all the machines must number moves the same way,
+ * which compiled propnets built from the same rules do.
+ */
+public class ParallelMCTSGamer extends SampleGamer {
+
+	private long finishBy; //Global timeout variable
+	private final Logger logger = Logger.getLogger(getClass().getSimpleName());
+
+	/*This variable should be set to true if we want to use the minimax model (opponent is out to hurt us)
+	 *Set this to false to use the greedy opponent model (opponent is out to profit himself)
+	 *For zero-sum games there is no difference. For >2P games minimax is currently better.
+	 *For 2P non-zero-sum games, the greedy model is better. For 1P it doesn't matter.*/
+	private final boolean useMiniMax = false;
+
+	/*This variable should be set to true if we want to use the the win ratio for our depth charges.
+	 *See PropNetMCTSGamer for the tradeoffs.*/
+	private final boolean useWinRatio = false;
+
+	//Number of search threads, each with its own machine. Each playout takes a core from the
+	//CoreScheduler, so the threads share the cores with other matches as they come and go.
+	private final int parallelism = SimulationPool.defaultParallelism();
+
+	//Other variables used throughout the gamer.
+	private StateMachine theMachine;
+	private CompiledPropNetStateMachine compiledMachine; //Backs theMachine, its network is shared by the other machines
+	private ArrayList<StateMachine> machines; //One per worker, the first one is theMachine
+	private ExecutorService workers;
+	private Role role;
+	private int roleIndex;
+	private List<Role> roles;
+	private volatile ConcurrentNode root; //A pointer to the root node, only changed between searches
+	private boolean firstMove; //Indicates whether we are performing our first move or not (for caching correctly from meta game)
+	private Random random; //To select random moves when needed
+	private PropNetCache propNetCache = PropNetCache.getDefault(); //Null to build the propnet every time
+
+	//Play a meta game to build the machines and start the tree
+	@Override
+	public void stateMachineMetaGame(long timeout) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		finishBy = timeout - 3000; //Leave 3s left
+
+		initializeVariables();
+
+		// Run the MCTS so we have some data when the game starts
+		runMCTS();
+
+		logger.log(Level.INFO, "Initial Depth charges:" + root.getVisits());
+	}
+
+	//Where the propnet is cached, or null to build it every time. Used from the next match on.
+	public void setPropNetCache(PropNetCache propNetCache) {
+		this.propNetCache = propNetCache;
+	}
+
+	@Override
+	public StateMachine getInitialStateMachine() {
+		compiledMachine = new CompiledPropNetStateMachine(true, propNetCache);
+		return new CachedStateMachine(compiledMachine);
+	}
+
+	@Override
+	public void stateMachineStop() {
+		shutdownWorkers();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		shutdownWorkers();
+	}
+
+	private void shutdownWorkers() {
+		if(workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	// Initialize variables
+	private void initializeVariables() throws MoveDefinitionException {
+		theMachine = getStateMachine();
+
+		//The searching thread only waits during a search, so the first worker can use our machine.
+		//The others evaluate the same compiled network, each with its own value buffers.
+		machines = new ArrayList<StateMachine>();
+		machines.add(theMachine);
+		while(machines.size() < parallelism) {
+			machines.add(new CachedStateMachine(new CompiledPropNetStateMachine(compiledMachine.getCompiledPropNet(), true)));
+		}
+		logger.log(Level.INFO, String.format("Searching with %d threads.", machines.size()));
+
+		shutdownWorkers();
+		workers = Executors.newFixedThreadPool(machines.size(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ParallelMCTSGamer-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		role = getRole();
+		roles = theMachine.getRoles();
+		roleIndex = theMachine.getRoleIndices().get(role);
+		firstMove = true;
+		root = makeMaxNode(theMachine, getCurrentState(), null);
+		random = new Random();
+	}
+
+	// Runs MCTS on every worker for as long as time allows
+	public void runMCTS() {
+		List<Future<Void>> searches = new ArrayList<Future<Void>>();
+		for(final StateMachine machine: machines) {
+			searches.add(workers.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					search(machine);
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> search: searches) {
+			try {
+				search.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.log(Level.WARNING, "Search thread failed.", e.getCause());
+			}
+		}
+	}
+
+	// The loop each worker runs
+	private void search(StateMachine machine) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		ConcurrentNode searchRoot = root;
+		while( System.currentTimeMillis() < finishBy ) {
+			ConcurrentNode leaf = selectAndExpand(machine, searchRoot);
+			if(leaf == null) { //Blocked by nodes other threads are still building, so give them a moment
+				Thread.yield();
+				continue;
+			}
+			boolean acquired = false;
+			try {
+				//Take turns on the cores with the workers of other matches, if there are any
+				acquired = CoreScheduler.getDefault().acquire();
+				double[] scores = simulation(machine, leaf);
+				backPropagate(leaf, scores);
+			} catch (InterruptedException e) { //The workers are shutting down
+				backPropagate(leaf, null);
+				return;
+			} finally {
+				CoreScheduler.getDefault().release(acquired);
+			}
+		}
+	}
+
+	@Override
+	public Move stateMachineSelectMove(long timeout)
+			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		// We get the current start time
+		long start = System.currentTimeMillis();
+		//Finish with 2.5 seconds remaining
+		finishBy = timeout - 2500;
+
+		MachineState currentState = getCurrentState();
+		List<Move> moves = theMachine.getLegalMoves(currentState, role);
+		Move bestMove = moves.get(random.nextInt(moves.size()));
+
+		//Update the tree based on the opponent's move
+		//If this is not the first move, then we use our cached tree and update based on whatever the opponent selected
+		if(!firstMove) {
+			ConcurrentNode newRoot = null;
+			for(int i = 0; i < root.size(); i++) {
+				ConcurrentNode child = root.getChild(i);
+				if(child != null && child.state.equals(currentState))
+					newRoot = child;
+			}
+			if(newRoot == null) { //This is if we did not explore every grandchild. Start a new tree
+				newRoot = makeMaxNode(theMachine, currentState, null);
+				logger.log(Level.WARNING, "Warning. Did not run enough states, starting new tree.");
+			}
+			newRoot.parent = null;
+			root = newRoot;
+		}
+
+		// Run the MCTS
+		// Even if we only have one move (noop) this will play and build up our tree for later
+		runMCTS();
+
+		// Select the best move
+		double bestScore = Double.NEGATIVE_INFINITY;
+		ConcurrentNode bestChild = null;
+		for(int i = 0; i < root.size(); i++) {
+			ConcurrentNode child = root.getChild(i);
+			if(child != null && child.getVisits() > 0 && child.getAvgUtility() > bestScore) {
+				bestScore = child.getAvgUtility();
+				bestChild = child;
+			}
+		}
+
+		logger.log(Level.INFO, "Depth charges:" + root.getVisits());
+		logger.log(Level.INFO, "Best Score:" + (bestScore));
+		logger.log(Level.INFO, String.format("Root (std, oppstd): (%.2f, %.2f)", root.getStd(), root.getOppStd()));
+
+		//Update the Game tree depending on what our current move is
+		if(bestChild != null) {
+			bestMove = theMachine.getMoveFromId(roleIndex, bestChild.move);
+			bestChild.parent = null;
+			root = bestChild;
+		} else {
+			root = makeMaxNode(theMachine, currentState, null);
+		}
+
+		firstMove = false; //This should never be true again
+		long stop = System.currentTimeMillis();
+		notifyObservers(new GamerSelectedMoveEvent(moves, bestMove, stop - start));
+		return bestMove;
+	}
+
+	// Walks down from the root, adding a virtual loss to each node on the way, and builds a new leaf
+	// if it reaches a node with untried moves. Returns the node to simulate from, which is always a new leaf
+	// or a terminal, or null if the walk reached a node whose children are all still being built.
+	// In that case the virtual losses are taken back so the walk can be retried from the root.
+	private ConcurrentNode selectAndExpand(StateMachine machine, ConcurrentNode searchRoot) throws MoveDefinitionException, TransitionDefinitionException {
+		ConcurrentNode node = searchRoot;
+		node.addVirtualLoss();
+		try {
+			while(true) {
+				if(node.isTerminal())
+					return node;
+
+				int i = node.claimUntried();
+				if(i >= 0)
+					return expand(machine, node, i);
+
+				ConcurrentNode next = select(node);
+				if(next == null) { //Every child is still being built by other threads
+					backPropagate(node, null);
+					return null;
+				}
+				next.addVirtualLoss();
+				node = next;
+			}
+		} catch (MoveDefinitionException e) {
+			backPropagate(node, null);
+			throw e;
+		} catch (TransitionDefinitionException e) {
+			backPropagate(node, null);
+			throw e;
+		}
+	}
+
+	// Picks the child to walk to next, skipping slots that are still being built
+	private ConcurrentNode select(ConcurrentNode node) {
+		double bestScore = Double.NEGATIVE_INFINITY;
+		ConcurrentNode result = null;
+		double std = node.getStd();
+		double oppStd = node.getOppStd();
+		double logVisits = Math.log(node.getEffectiveVisits());
+
+		for(int i = 0; i < node.size(); i++) {
+			ConcurrentNode child = node.getChild(i);
+			if(child == null)
+				continue;
+			double newScore = selectfn(child, node.isMax, std, oppStd, logVisits);
+			if(result == null || newScore > bestScore) {
+				bestScore = newScore;
+				result = child;
+			}
+		}
+		return result;
+	}
+
+	// Builds the child in a claimed slot and publishes it. Like the serial gamers, expanding one of our moves
+	// also builds the first grandchild, so the returned leaf is always a node where we move (or a terminal).
+	// New nodes get their virtual loss before anyone else can see them.
+	private ConcurrentNode expand(StateMachine machine, ConcurrentNode node, int i) throws MoveDefinitionException, TransitionDefinitionException {
+		if(!node.isMax) {
+			int move = node.getMove(i);
+			ConcurrentNode newChild = ConcurrentNode.minNode(node.state, node, move, machine.getLegalJointMoveIds(node.state, roleIndex, move));
+			newChild.addVirtualLoss();
+			int j = newChild.claimUntried();
+			ConcurrentNode newGrandchild = makeMaxNode(machine, machine.getNextState(node.state, newChild.getJointMove(j)), newChild);
+			newGrandchild.addVirtualLoss();
+			newChild.setChild(j, newGrandchild);
+			node.setChild(i, newChild);
+			return newGrandchild;
+		} else {
+			ConcurrentNode newGrandchild = makeMaxNode(machine, machine.getNextState(node.state, node.getJointMove(i)), node);
+			newGrandchild.addVirtualLoss();
+			node.setChild(i, newGrandchild);
+			return newGrandchild;
+		}
+	}
+
+	private ConcurrentNode makeMaxNode(StateMachine machine, MachineState state, ConcurrentNode parent) throws MoveDefinitionException {
+		if(machine.isTerminal(state))
+			return ConcurrentNode.maxNode(state, parent, null);
+		return ConcurrentNode.maxNode(state, parent, machine.getLegalMoveIds(state, roleIndex));
+	}
+
+	// An evaluation of which node to focus on next
+	// This is a mix between the node's utility and the amount of visits it has, both counting visits in flight
+	public double selectfn(ConcurrentNode node, boolean opponent, double explorationConstant, double oppExplorationConstant, double logParentVisits) {
+		double exploration = Math.sqrt(2*logParentVisits/node.getEffectiveVisits());
+		if(useMiniMax) { //Here the opponent tries to hurt us
+			if(opponent)
+				return -node.getVirtualAvgUtility() + explorationConstant*exploration;
+			else
+				return node.getVirtualAvgUtility() + explorationConstant*exploration;
+		}else {
+			if(opponent) //Here the opponent tries to better himself
+				return node.getVirtualOppAvgUtility() + oppExplorationConstant*exploration;
+			else
+				return node.getVirtualAvgUtility() + explorationConstant*exploration;
+		}
+	}
+
+	// Simulates a random playthrough from the leaf. Returns null if we ran out of time first.
+	public double[] simulation(StateMachine machine, ConcurrentNode leaf) throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
+		MachineState terminal = leaf.state;
+		if(!leaf.isTerminal())
+			terminal = machine.performSafeDepthCharge(leaf.state.clone(), finishBy);
+		if(!machine.isTerminal(terminal))
+			return null;
+
+		List<Integer> goalList = machine.getGoals(terminal);
+		int[] goals = new int[goalList.size()];
+		for(int i = 0; i < goals.length; i++)
+			goals[i] = goalList.get(i);
+		return getResult(goals);
+	}
+
+	// Turns the goals of a terminal state (indexed by role) into our score and the opponents' score,
+	// or whether we won or not
+	public double[] getResult(int[] goals) {
+		double[] result = new double[2];
+		result[0] = goals[roleIndex];
+
+		if(useWinRatio || !useMiniMax)
+			result[1] = avgOpponentScore(goals);
+
+		//Calculate whether the game was won or not
+		if(useWinRatio) {
+			if(roles.size() == 1){ //If this is a 1P game, winning means a score of >90.
+				if(result[0] < 90)
+					result[0] = 0.0;
+				if(result[0] > 90)
+					result[0] = 100.0;
+			} else{  //If this is a 2P game, winning means a score higher than the opponent's.
+				if(Math.abs(result[0] - result[1]) < 0.1) { //This is because we are storing in doubles
+					result[0] = 50.0;
+					result[1] = 50.0;
+				}
+				else if(result[0] > result[1]) {
+					result[0] = 100.0;
+					result[1] = 0.0;
+				} else {
+					result[0] = 0.0;
+					result[1] = 100.0;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	//Averages ALL opponent score.
+	public double avgOpponentScore(int[] goals) {
+		double result = 0;
+		if(roles.size() > 1) {
+			for(int i = 0; i < goals.length; i++)
+				if(i != roleIndex)
+					result += goals[i];
+			result /= (roles.size()-1);
+		}
+		return result;
+	}
+
+	// Backpropagate through our tree, replacing each virtual loss with the result.
+	// A null result (the charge ran out of time) just takes the virtual losses back.
+	public void backPropagate(ConcurrentNode node, double[] scores) {
+		for(; node != null; node = node.parent) {
+			if(scores == null)
+				node.removeVirtualLoss();
+			else
+				node.update(scores);
+		}
+	}
+}
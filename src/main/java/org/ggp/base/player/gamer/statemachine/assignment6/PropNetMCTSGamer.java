@@ -8,6 +8,7 @@ import java.util.logging.Logger;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.propnet.factory.PropNetCache;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -16,11 +17,14 @@ import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.propnet.SamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
 
 /* This improves on the GenericMCTS gamer. It uses a propnet instead of the normal state machine.
  * It also adaptively changes the exploration constant to be the std of seen values, with a default of 20.
- * Finally, it uses multithreading to perform more depth charges.
+ * Finally, it uses multithreading to perform more depth charges: leaves are handed to a SimulationPool
+ * with one worker (and one machine) per core, and results are backpropagated as they come in.
+ * It also ponders: after sending a move it keeps growing the tree below that move until the next
+ * request comes in, and the next turn starts from the grandchild the others' moves led to.
  */
 public class PropNetMCTSGamer extends SampleGamer {
 
@@ -41,14 +45,34 @@ public class PropNetMCTSGamer extends SampleGamer {
 	 *Using win ratio may have issues with some 1P games where the max score is not 100.*/
 	private final boolean useWinRatio = false;
 
+	//Set this to true to keep searching between requests (see StateMachineGamer.stateMachinePonder).
+	//Only worth it if nothing else needs the CPU while the others are thinking.
+	private final boolean ponder = true;
+
+	//Number of worker threads for depth charges, each with its own machine.
+	private final int parallelism = SimulationPool.defaultParallelism();
+
 	//Other variables used throughout the gamer.
 	private StateMachine theMachine;
+	private CompiledPropNetStateMachine compiledMachine; //Backs theMachine, its network is shared by the extra machines
 	private ArrayList<StateMachine> extraMachines;
+	private SimulationPool pool; //Null if there are no extra machines
 	private Role role;
+	private int roleIndex;
 	private List<Role> roles;
 	private Node root; //A pointer to the root node
 	private boolean firstMove; //Indicates whether we are performing our first move or not (for caching correctly from meta game)
 	private Random random; //To select random moves when needed
+	private PropNetCache propNetCache = PropNetCache.getDefault(); //Null to build the propnet every time
+
+	public PropNetMCTSGamer() {
+		setPondering(ponder);
+	}
+
+	//The root of the search tree: the node for our current state, or for the move we sent while pondering
+	Node getRoot() {
+		return root;
+	}
 
 	//Play a meta game to decide on some initial parameters (depth limit)
 	@Override
@@ -67,29 +91,63 @@ public class PropNetMCTSGamer extends SampleGamer {
 		logger.log(Level.INFO, "Initial Depth charges:" + root.visits);
 	}
 
+	//Keep growing the tree from the move we sent until the next request comes in
+	@Override
+	public void stateMachinePonder() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		int visits = root.visits;
+		finishBy = Long.MAX_VALUE; //Only a new request stops us
+		runMCTS();
+		logger.log(Level.INFO, "Pondering depth charges:" + (root.visits - visits));
+	}
+
+	@Override
+	public void stateMachineStop() {
+		shutdownPool();
+	}
+
+	@Override
+	public void stateMachineAbort() {
+		shutdownPool();
+	}
+
+	private void shutdownPool() {
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	//Where the propnet is cached, or null to build it every time. Used from the next match on.
+	public void setPropNetCache(PropNetCache propNetCache) {
+		this.propNetCache = propNetCache;
+	}
+
 	@Override
 	public StateMachine getInitialStateMachine() {
-    	return new CachedStateMachine(new SamplePropNetStateMachine());
+    	compiledMachine = new CompiledPropNetStateMachine(true, propNetCache);
+    	return new CachedStateMachine(compiledMachine);
 //    	return new CachedStateMachine(new ProverStateMachine());
     }
 
 
 	// Initialize variables
 	private void initializeVariables() throws MoveDefinitionException, InterruptedException {
-		long start = System.currentTimeMillis();
 		theMachine = getStateMachine();
-		long stop = System.currentTimeMillis();
 
-		//Create at most 5 extra machines
+		//Create one extra machine per worker thread. They all evaluate the network compiled for theMachine,
+		//so each only needs its own value buffers rather than a whole propnet.
 		extraMachines = new ArrayList<StateMachine>();
-		while(System.currentTimeMillis() + (stop-start) < finishBy && extraMachines.size() < 5) {
-			extraMachines.add(getInitialStateMachine());
-			extraMachines.get(extraMachines.size()-1).initialize(getMatch().getGame().getRules());
+		while(extraMachines.size() < parallelism) {
+			extraMachines.add(new CachedStateMachine(new CompiledPropNetStateMachine(compiledMachine.getCompiledPropNet(), true)));
 		}
 		logger.log(Level.INFO, String.format("Created %d machines for multithreading.", extraMachines.size()));
+		shutdownPool();
+		if(extraMachines.size() > 0)
+			pool = new SimulationPool(extraMachines);
 
 		role = getRole();
 		roles = theMachine.getRoles();
+		roleIndex = theMachine.getRoleIndices().get(role);
 		firstMove = true;
 		root = new Node(getCurrentState(), null, null, null, false);
 
@@ -99,16 +157,55 @@ public class PropNetMCTSGamer extends SampleGamer {
 
 	}
 
+	// Whether the search can go on: there is time left and no new request came in while pondering
+	private boolean searching() {
+		return System.currentTimeMillis() < finishBy && !isPonderStopRequested();
+	}
+
 	// Runs MCTS for as long as time allows
 	public void runMCTS() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
-		while( System.currentTimeMillis() < finishBy ) {
-			Node newNode = select(root);
-			Node newGrandchild = expand(newNode);
-			simulation(newGrandchild);
-//			backPropagate(newGrandchild, scores);
+		if(pool == null) {
+			while( searching() ) {
+				Node newNode = select(root);
+				if(newNode == null) //Only happens once a charge has run out of time
+					break;
+				Node newGrandchild = expand(newNode);
+				simulation(newGrandchild);
+			}
+			return;
+		}
+
+		try {
+			while( searching() ) {
+				//Keep a second batch of leaves queued behind the running one so no worker waits on us
+				while(pool.pending() < 2 * pool.getParallelism()) {
+					Node newNode = select(root);
+					if(newNode == null) //Everything worth selecting is waiting on a depth charge
+						break;
+					Node newGrandchild = expand(newNode);
+					pool.submit(newGrandchild, finishBy);
+				}
+				if(pool.pending() == 0) //Nothing running and nothing to select, so the search can't go on
+					break;
+				backPropagate(pool.take());
+				//Pick up anything else that finished while we were waiting
+				SimulationPool.Simulation done;
+				while((done = pool.poll()) != null)
+					backPropagate(done);
+			}
+			//Charges give up at finishBy, so this doesn't take long
+			while(pool.pending() > 0)
+				backPropagate(pool.take());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
+	private void backPropagate(SimulationPool.Simulation simulation) {
+		if(simulation != null && simulation.goals != null)
+			backPropagate(simulation.node, getResult(simulation.goals));
+	}
+
 	@Override
 	public Move stateMachineSelectMove(long timeout)
 			throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
@@ -185,6 +282,7 @@ public class PropNetMCTSGamer extends SampleGamer {
 
 	// Selects a node to focus on next
 	// First visits unselected nodes, else uses selectfn to choose a node
+	// Returns null if every child on the way down is still waiting for its first depth charge
 	private Node select(Node node) {
 		if(!node.isMax && ( node.moves == null || node.moves.size() > 0) ) return node; //Is terminal or no new children to make
 
@@ -196,12 +294,16 @@ public class PropNetMCTSGamer extends SampleGamer {
 		Node result = node;
 
 		for(Node child: node.children) {
+			if(child.visits == 0) //Its depth charge is still running
+				continue;
 			double newScore = selectfn(child, node.isMax, node.std, node.oppStd);
 			if(newScore > bestScore) {
 				bestScore = newScore;
 				result = child;
 			}
 		}
+		if(result == node)
+			return null;
 		return select(result);
 	}
 
@@ -251,42 +353,35 @@ public class PropNetMCTSGamer extends SampleGamer {
 	}
 
 	// Calculates the value of our given node
-	// Simulates a random playthrough until a terminal state, and returns the terminal state's reward or whether we won or not
+	// Simulates a random playthrough until a terminal state on our own machine, for when there is no pool
 	public void simulation(Node root) throws GoalDefinitionException, TransitionDefinitionException, MoveDefinitionException {
 		if(root.isMax)
 			logger.log(Level.WARNING, "Error. Should only simulate on the Max Nodes");
 
-		SimulationThread thread = new SimulationThread(root, theMachine, finishBy);
-		ArrayList<SimulationThread> threads = new ArrayList<SimulationThread>();
-		for(StateMachine machine: extraMachines)
-			threads.add(new SimulationThread(root, machine, finishBy));
-		while(thread.isAlive()){
-			//Wait
-		}
-
-		double[] result = getResult(thread.terminal);
-		backPropagate(root, result);
-
-		for(SimulationThread thr: threads) {
-			while(thr.isAlive()){
-				//wait
-			}
-			result = getResult(thr.terminal);
-			backPropagate(root, result);
-		}
+		MachineState terminal = root.state;
+		if(root.moves != null)
+			terminal = theMachine.performSafeDepthCharge(root.state.clone(), finishBy);
+		if(!theMachine.isTerminal(terminal)) //Ran out of time
+			return;
+
+		List<Integer> goalList = theMachine.getGoals(terminal);
+		int[] goals = new int[goalList.size()];
+		for(int i = 0; i < goals.length; i++)
+			goals[i] = goalList.get(i);
+		backPropagate(root, getResult(goals));
 	}
 
-	public double[] getResult(MachineState terminal) throws GoalDefinitionException {
+	// Turns the goals of a terminal state (indexed by role) into our score and the opponents' score,
+	// or whether we won or not
+	public double[] getResult(int[] goals) {
 		double[] result = new double[2];
-		result[0] = theMachine.findReward(role, terminal);
-
-
+		result[0] = goals[roleIndex];
 
 		/* For a small speedup, we only compute this if we want the win ratio (need both scores)
 		 * or if we want to use the greedy opponent model (also need both scores).
 		 * This is unused for the minimax and terminal score choices. */
 		if(useWinRatio || !useMiniMax)
-			result[1] = avgOpponentScore(terminal);
+			result[1] = avgOpponentScore(goals);
 
 		//Calculate whether the game was won or not
 		if(useWinRatio) {
@@ -315,13 +410,13 @@ public class PropNetMCTSGamer extends SampleGamer {
 
 	//Averages ALL opponent score.
 	//Might be better to use MAX instead of Average for >2P games.
-	public double avgOpponentScore(MachineState state) throws GoalDefinitionException {
+	public double avgOpponentScore(int[] goals) {
 		double result = 0;
 		if(roles.size() > 1) {
-			for(Role curRole: roles)
-				if(!curRole.equals(role))
-					result += theMachine.findReward(curRole, state);
-//					result = Math.max(result, theMachine.findReward(curRole, state));
+			for(int i = 0; i < goals.length; i++)
+				if(i != roleIndex)
+					result += goals[i];
+//					result = Math.max(result, goals[i]);
 			result /= (roles.size()-1);
 		}
 		return result;
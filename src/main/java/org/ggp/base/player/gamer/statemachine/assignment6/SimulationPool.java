@@ -0,0 +1,171 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ggp.base.util.concurrency.CoreScheduler;
+import org.ggp.base.util.statemachine.StateMachine;
+
+/* A fixed set of worker threads for running depth charges, replacing the old SimulationThreads
+ * that started a new Thread for every rollout.
+ * Each worker owns one state machine replica for its whole life, so a machine is never shared
+ * between threads and never used by the searching thread. Leaves are submitted one at a time or
+ * in batches, and finished simulations come back in completion order so they can be
+ * backpropagated while the other charges are still running.
+ * Goals are computed on the worker, so the caller never has to touch the worker's machine.
+ */
+public class SimulationPool {
+
+	private static final Logger logger = Logger.getLogger(SimulationPool.class.getSimpleName());
+
+	//The result of one depth charge from a leaf.
+	public static class Simulation {
+		public final Node node; //The leaf the charge started from
+		public final int[] goals; //Goals of the terminal state indexed by role, or null if the charge timed out or failed
+
+		Simulation(Node node, int[] goals) {
+			this.node = node;
+			this.goals = goals;
+		}
+	}
+
+	//Each worker thread carries its own machine.
+	private static class Worker extends Thread {
+		final StateMachine machine;
+
+		Worker(Runnable r, StateMachine machine, String name) {
+			super(r, name);
+			this.machine = machine;
+			setDaemon(true);
+		}
+	}
+
+	private final ExecutorService executor;
+	private final CompletionService<Simulation> completion;
+	private final int parallelism;
+	private int pending = 0; //Only touched by the submitting thread
+
+	// The number of worker threads to use by default, one per core,
+	// or this match's share of the cores if the process is playing several.
+	public static int defaultParallelism() {
+		return CoreScheduler.getDefault().getShare();
+	}
+
+	// Creates one worker thread per machine. The machines must already be initialized,
+	// and must not be used by anything else while the pool is running.
+	public SimulationPool(final List<StateMachine> machines) {
+		if(machines.isEmpty())
+			throw new IllegalArgumentException("A simulation pool needs at least one machine.");
+		parallelism = machines.size();
+		executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private final AtomicInteger created = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				//Tasks are submitted as futures, so workers never die and the executor
+				//creates exactly one thread per machine.
+				int i = created.getAndIncrement();
+				return new Worker(r, machines.get(i % machines.size()), "SimulationPool-" + i);
+			}
+		});
+		completion = new ExecutorCompletionService<Simulation>(executor);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	// Number of submitted simulations that have not been taken yet.
+	public int pending() {
+		return pending;
+	}
+
+	// Queues a depth charge from the given leaf that gives up at finishBy.
+	// The node's state is read on the worker, so it must not change after the node is built.
+	public void submit(Node node, long finishBy) {
+		completion.submit(new Charge(node, finishBy));
+		pending++;
+	}
+
+	// Queues one depth charge from each of the given leaves.
+	public void submitAll(List<Node> nodes, long finishBy) {
+		for(Node node: nodes)
+			submit(node, finishBy);
+	}
+
+	// Waits for the next finished simulation.
+	public Simulation take() throws InterruptedException {
+		return unwrap(completion.take());
+	}
+
+	// Returns the next finished simulation, or null if none is done yet.
+	public Simulation poll() {
+		Future<Simulation> future = completion.poll();
+		if(future == null)
+			return null;
+		return unwrap(future);
+	}
+
+	// Stops the workers. Queued charges are dropped and running ones are interrupted.
+	public void shutdown() {
+		executor.shutdownNow();
+		pending = 0;
+	}
+
+	private Simulation unwrap(Future<Simulation> future) {
+		pending--;
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			//The future is already done, so this can't happen
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			//Charges catch their own exceptions, so this is only reached on an Error
+			logger.log(Level.SEVERE, "Simulation failed.", e.getCause());
+			return null;
+		}
+	}
+
+	private static class Charge implements Callable<Simulation> {
+		private final Node node;
+		private final long finishBy;
+
+		Charge(Node node, long finishBy) {
+			this.node = node;
+			this.finishBy = finishBy;
+		}
+
+		@Override
+		public Simulation call() {
+			StateMachine machine = ((Worker) Thread.currentThread()).machine;
+			boolean acquired = false;
+			try {
+				//Take turns on the cores with the workers of other matches, if there are any
+				acquired = CoreScheduler.getDefault().acquire();
+				//The batched call fills in the goals directly, without building any lists
+				int[] goals = new int[machine.getRoles().size()];
+				if(machine.performDepthCharges(node.state, 1, goals, null, finishBy) == 0) //Ran out of time
+					return new Simulation(node, null);
+				return new Simulation(node, goals);
+			} catch (InterruptedException e) { //The pool is shutting down
+				return new Simulation(node, null);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Error during depth charge.", e);
+				return new Simulation(node, null);
+			} finally {
+				CoreScheduler.getDefault().release(acquired);
+			}
+		}
+	}
+}
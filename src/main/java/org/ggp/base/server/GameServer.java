@@ -9,6 +9,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.ggp.base.server.event.ServerAbortedMatchEvent;
 import org.ggp.base.server.event.ServerCompletedMatchEvent;
@@ -24,8 +26,11 @@ import org.ggp.base.server.threads.AbortRequestThread;
 import org.ggp.base.server.threads.PlayRequestThread;
 import org.ggp.base.server.threads.PreviewRequestThread;
 import org.ggp.base.server.threads.RandomPlayRequestThread;
+import org.ggp.base.server.threads.RequestThread;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
+import org.ggp.base.util.http.AsyncHttpClient;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.match.Match;
 import org.ggp.base.util.match.MatchPublisher;
 import org.ggp.base.util.observer.Event;
@@ -41,6 +46,9 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 
 public class GameServer extends Thread implements Subject
 {
+    /** Extra time to wait for requests, beyond their own timeouts, in milliseconds. */
+    private static final int REQUEST_SLACK = 1000;
+
     protected final Match match;
     protected final StateMachine stateMachine;
     protected MachineState currentState;
@@ -61,6 +69,14 @@ public class GameServer extends Thread implements Subject
     protected boolean forceUsingEntireClock;
 
     public GameServer(Match match, List<String> hosts, List<Integer> ports) {
+        this(match, hosts, ports, new ProverStateMachine());
+    }
+
+    /**
+     * Creates a server that referees the match with the given state machine,
+     * which it initializes with the rules of the game.
+     */
+    public GameServer(Match match, List<String> hosts, List<Integer> ports, StateMachine stateMachine) {
         this.match = match;
 
         this.hosts = hosts;
@@ -72,7 +88,7 @@ public class GameServer extends Thread implements Subject
         playerPlaysRandomly = new Boolean[hosts.size()];
         Arrays.fill(playerPlaysRandomly, Boolean.FALSE);
 
-        stateMachine = new ProverStateMachine();
+        this.stateMachine = stateMachine;
         stateMachine.initialize(match.getGame().getRules());
         currentState = stateMachine.getInitialState();
         previousMoves = null;
@@ -261,25 +277,21 @@ public class GameServer extends Thread implements Subject
 
     protected synchronized List<Move> sendPlayRequests() throws InterruptedException, MoveDefinitionException {
         List<PlayRequestThread> threads = new ArrayList<PlayRequestThread>(hosts.size());
+        List<PlayRequestThread> requests = new ArrayList<PlayRequestThread>(hosts.size());
         for (int i = 0; i < hosts.size(); i++) {
             List<Move> legalMoves = stateMachine.getLegalMoves(currentState, stateMachine.getRoles().get(i));
             if (playerPlaysRandomly[i]) {
             	threads.add(new RandomPlayRequestThread(match, legalMoves));
             } else {
-                threads.add(new PlayRequestThread(this, match, previousMoves, legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), playerGetsUnlimitedTime[i]));
+                PlayRequestThread request = new PlayRequestThread(this, match, previousMoves, legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), playerGetsUnlimitedTime[i]);
+                threads.add(request);
+                requests.add(request);
             }
         }
-        for (PlayRequestThread thread : threads) {
-            thread.start();
-        }
-
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getPlayClock() * 1000);
-        }
+        issueRequests(requests, match.getPlayClock());
 
         List<Move> moves = new ArrayList<Move>();
         for (PlayRequestThread thread : threads) {
-            thread.join();
             moves.add(thread.getMove());
         }
 
@@ -293,15 +305,8 @@ public class GameServer extends Thread implements Subject
         		threads.add(new PreviewRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (PreviewRequestThread thread : threads) {
-            thread.start();
-        }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
-        for (PreviewRequestThread thread : threads) {
-            thread.join();
-        }
+        // The forced wait has always used the start clock, even for previews
+        issueRequests(threads, match.getStartClock());
     }
 
     protected synchronized void sendStartRequests() throws InterruptedException {
@@ -311,15 +316,7 @@ public class GameServer extends Thread implements Subject
         		threads.add(new StartRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StartRequestThread thread : threads) {
-            thread.start();
-        }
-        if (forceUsingEntireClock) {
-            Thread.sleep(match.getStartClock() * 1000);
-        }
-        for (StartRequestThread thread : threads) {
-            thread.join();
-        }
+        issueRequests(threads, match.getStartClock());
     }
 
     private synchronized void sendStopRequests(List<Move> previousMoves) throws InterruptedException {
@@ -329,12 +326,7 @@ public class GameServer extends Thread implements Subject
         		threads.add(new StopRequestThread(this, match, previousMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StopRequestThread thread : threads) {
-            thread.start();
-        }
-        for (StopRequestThread thread : threads) {
-            thread.join();
-        }
+        issueRequests(threads, 0);
     }
 
     protected void sendAbortRequests() throws InterruptedException {
@@ -344,13 +336,54 @@ public class GameServer extends Thread implements Subject
         		threads.add(new AbortRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (AbortRequestThread thread : threads) {
-            thread.start();
+        issueRequests(threads, 0);
+        interrupt();
+    }
+
+    /**
+     * Sends the requests and waits until every response is in (or has timed
+     * out). If the server is forced to use the entire clock, also waits until
+     * the clock, in seconds, has run out.
+     *
+     * The requests go through the process-wide AsyncHttpClient, so that no
+     * thread is tied up waiting on a player. If that client can't be opened,
+     * each request runs on its own thread instead. Unless a player has
+     * unlimited time, the wait is bounded by the longest timeout plus the
+     * time allowed for connecting, in case a response is never handled.
+     */
+    protected void issueRequests(List<? extends RequestThread> requests, int clock) throws InterruptedException {
+        long clockEnd = System.currentTimeMillis() + clock * 1000L;
+        AsyncHttpClient client = null;
+        try {
+            client = AsyncHttpClient.getDefault();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        for (AbortRequestThread thread : threads) {
-            thread.join();
+        if (client != null) {
+            CountDownLatch done = new CountDownLatch(requests.size());
+            long timeout = 0;
+            for (RequestThread request : requests) {
+                request.issue(client, done);
+                timeout = (timeout < 0 || request.getTimeout() < 0) ? -1 : Math.max(timeout, request.getTimeout());
+            }
+            if (timeout < 0) {
+                done.await();
+            } else if (!done.await(timeout + AsyncHttpClient.CONNECT_TIMEOUT + REQUEST_SLACK, TimeUnit.MILLISECONDS)) {
+                GamerLogger.logError("GameServer", "Gave up waiting for " + done.getCount() + " of " + requests.size() + " requests to complete");
+            }
+        } else {
+            for (RequestThread request : requests) {
+                request.start();
+            }
+            for (RequestThread request : requests) {
+                request.join();
+            }
+        }
+
+        long timeLeft = clockEnd - System.currentTimeMillis();
+        if (forceUsingEntireClock && timeLeft > 0) {
+            Thread.sleep(timeLeft);
         }
-        interrupt();
     }
 
     public void givePlayerUnlimitedTime(int i) {
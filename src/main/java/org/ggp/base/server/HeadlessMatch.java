@@ -0,0 +1,212 @@
+package org.ggp.base.server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.exception.AbortingException;
+import org.ggp.base.player.gamer.exception.MetaGamingException;
+import org.ggp.base.player.gamer.exception.MoveSelectionException;
+import org.ggp.base.player.gamer.exception.StoppingException;
+import org.ggp.base.util.concurrency.CoreScheduler;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * HeadlessMatch plays a match between gamers in this process, calling them
+ * directly instead of over HTTP, and refereeing it with whatever state
+ * machine it is given. It is meant for running many matches at once, so it
+ * has no observers, and nothing is saved or published: the match record is
+ * returned once the match is over.
+ * <p>
+ * The match is run the way GameServer runs it, and is recorded the same way.
+ * The players are asked for their moves one after the other, each with the
+ * full play clock. A player that takes longer than the play clock (plus the
+ * second of slack that GameServer allows), or that picks an illegal move, is
+ * given a random legal move instead, and the error ("TO" or "IL") is recorded.
+ * A player that fails to start plays randomly for the rest of the match.
+ * <p>
+ * Each gamer must be a new instance, used for this match only. The match
+ * takes its share of the cores through {@link CoreScheduler#getDefault()}
+ * while it is being played.
+ */
+public final class HeadlessMatch implements Callable<Match>
+{
+    private final Match match;
+    private final List<Gamer> gamers;
+    private final StateMachine stateMachine;
+    private final boolean[] playsRandomly;
+    private final Random random = new Random();
+
+    /**
+     * @param stateMachine the referee, already initialized with the rules of
+     * the game; it must not be used by anything else while the match runs.
+     */
+    public HeadlessMatch(Match match, List<Gamer> gamers, StateMachine stateMachine) {
+        if (gamers.size() != stateMachine.getRoles().size()) {
+            throw new IllegalArgumentException("Expected " + stateMachine.getRoles().size() + " gamers, got " + gamers.size());
+        }
+        this.match = match;
+        this.gamers = gamers;
+        this.stateMachine = stateMachine;
+        this.playsRandomly = new boolean[gamers.size()];
+    }
+
+    public Match getMatch() {
+        return match;
+    }
+
+    /**
+     * Plays the match to the end and returns it. If the match can't be
+     * finished, because the referee fails or the thread is interrupted, it is
+     * marked as aborted and the gamers are told to abort.
+     */
+    @Override
+    public Match call() throws InterruptedException, GoalDefinitionException, MoveDefinitionException, TransitionDefinitionException {
+        CoreScheduler.getDefault().register(match.getMatchId());
+        try {
+            List<Role> roles = stateMachine.getRoles();
+            MachineState currentState = stateMachine.getInitialState();
+            match.appendState(currentState.getContents());
+
+            List<String> errors = new ArrayList<String>();
+            for (int i = 0; i < roles.size(); i++) {
+                errors.add(start(i, roles.get(i)));
+            }
+            match.appendErrors(errors);
+
+            List<Move> previousMoves = null;
+            while (!stateMachine.isTerminal(currentState)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                errors = new ArrayList<String>();
+                List<Move> moves = new ArrayList<Move>();
+                for (int i = 0; i < roles.size(); i++) {
+                    List<Move> legalMoves = stateMachine.getLegalMoves(currentState, roles.get(i));
+                    String error = "";
+                    Move move = null;
+                    if (!playsRandomly[i]) {
+                        long timeout = match.getPlayClock() * 1000L;
+                        long start = System.currentTimeMillis();
+                        move = play(i, previousMoves, start + timeout);
+                        if (System.currentTimeMillis() - start > timeout + 1000) {
+                            error = "TO";
+                            move = null;
+                        } else if (move == null || !new HashSet<Move>(legalMoves).contains(move)) {
+                            error = "IL " + move;
+                            move = null;
+                        }
+                    }
+                    if (move == null) {
+                        move = legalMoves.get(random.nextInt(legalMoves.size()));
+                    }
+                    moves.add(move);
+                    errors.add(error);
+                }
+
+                currentState = stateMachine.getNextState(currentState, moves);
+                match.appendMoves2(moves);
+                match.appendState(currentState.getContents());
+                match.appendErrors(errors);
+                previousMoves = moves;
+            }
+            match.markCompleted(stateMachine.getGoals(currentState));
+
+            for (int i = 0; i < roles.size(); i++) {
+                stop(i, previousMoves);
+            }
+            return match;
+        } finally {
+            if (!match.isCompleted()) {
+                abort();
+            }
+            CoreScheduler.getDefault().unregister(match.getMatchId());
+        }
+    }
+
+    // Gives the gamer a match of its own, and lets it meta-game. Returns the error, if any.
+    private String start(int i, Role role) {
+        Gamer gamer = gamers.get(i);
+        gamer.setMatch(new Match(match.getMatchId(), -1, match.getStartClock(), match.getPlayClock(), match.getGame(), ""));
+        gamer.setRoleName(role.getName());
+        try {
+            gamer.metaGame(System.currentTimeMillis() + match.getStartClock() * 1000L);
+            return "";
+        } catch (MetaGamingException e) {
+            GamerLogger.logStackTrace("GameServer", e);
+            playsRandomly[i] = true;
+            gamer.setMatch(null);
+            gamer.setRoleName(null);
+            return "CE";
+        }
+    }
+
+    // Returns the move the gamer picked, or null if it failed to pick one
+    private Move play(int i, List<Move> previousMoves, long timeout) {
+        Gamer gamer = gamers.get(i);
+        if (previousMoves != null) {
+            gamer.getMatch().appendMoves(toTerms(previousMoves));
+        }
+        try {
+            return stateMachine.getMoveFromTerm(gamer.selectMove(timeout));
+        } catch (MoveSelectionException e) {
+            GamerLogger.logStackTrace("GameServer", e);
+            return null;
+        }
+    }
+
+    private void stop(int i, List<Move> previousMoves) {
+        Gamer gamer = gamers.get(i);
+        if (playsRandomly[i]) {
+            return;
+        }
+        if (previousMoves != null) {
+            gamer.getMatch().appendMoves(toTerms(previousMoves));
+        }
+        gamer.getMatch().markCompleted(null);
+        try {
+            gamer.stop();
+        } catch (StoppingException e) {
+            GamerLogger.logStackTrace("GameServer", e);
+        }
+        gamer.setRoleName(null);
+        gamer.setMatch(null);
+    }
+
+    private void abort() {
+        match.markAborted();
+        for (int i = 0; i < gamers.size(); i++) {
+            Gamer gamer = gamers.get(i);
+            if (playsRandomly[i] || gamer.getMatch() == null) {
+                continue;
+            }
+            try {
+                gamer.abort();
+            } catch (AbortingException e) {
+                GamerLogger.logStackTrace("GameServer", e);
+            }
+            gamer.setRoleName(null);
+            gamer.setMatch(null);
+        }
+    }
+
+    private static List<GdlTerm> toTerms(List<Move> moves) {
+        List<GdlTerm> terms = new ArrayList<GdlTerm>(moves.size());
+        for (Move move : moves) {
+            terms.add(move.getContents());
+        }
+        return terms;
+    }
+}
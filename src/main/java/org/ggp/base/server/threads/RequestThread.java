@@ -2,11 +2,12 @@ package org.ggp.base.server.threads;
 
 import java.io.IOException;
 import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
 
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
+import org.ggp.base.util.http.AsyncHttpClient;
 import org.ggp.base.util.http.HttpRequest;
 import org.ggp.base.util.statemachine.Role;
 
@@ -45,17 +46,59 @@ public abstract class RequestThread extends Thread
 
 	protected abstract void handleResponse(String response);
 
+	/**
+	 * Returns how long the player has to respond, in milliseconds, or a
+	 * negative number if it has as long as it takes.
+	 */
+	public int getTimeout()
+	{
+		return timeout;
+	}
+
 	@Override
 	public void run()
 	{
 		try {
 			String response = HttpRequest.issueRequest(host, port, playerName, request, timeout);
 			handleResponse(response);
-		} catch (SocketTimeoutException e) {
-			gameServer.notifyObservers(new ServerTimeoutEvent(role));
-		} catch (UnknownHostException e) {
-			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
 		} catch (IOException e) {
+			handleFailure(e);
+		}
+	}
+
+	/**
+	 * Issues the request through the client instead of running this thread,
+	 * and handles the outcome the same way, on the client's thread. The latch
+	 * is counted down once that's done.
+	 */
+	public void issue(AsyncHttpClient client, final CountDownLatch done)
+	{
+		client.issueRequest(host, port, playerName, request, timeout, new AsyncHttpClient.Callback() {
+			@Override
+			public void onResponse(String response) {
+				try {
+					handleResponse(response);
+				} finally {
+					done.countDown();
+				}
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				try {
+					handleFailure(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+	}
+
+	private void handleFailure(IOException e)
+	{
+		if (e instanceof SocketTimeoutException) {
+			gameServer.notifyObservers(new ServerTimeoutEvent(role));
+		} else {
 			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
 		}
 	}
@@ -0,0 +1,79 @@
+package org.ggp.base.util.concurrency;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Splits the cores of the machine between the matches that one process is
+ * playing at the same time.
+ * <p>
+ * Matches register when they start and unregister when they end. Searches
+ * size their thread pools with getShare, which is the number of cores
+ * divided by the number of active matches. Since a match keeps the threads
+ * it started with, searches also bracket each unit of work (a depth charge,
+ * say) with acquire and release: while more than one match is active, only
+ * as many units as there are cores run at once, and threads waiting for a
+ * core get one in the order they asked. With a single match, acquire does
+ * nothing.
+ */
+public final class CoreScheduler {
+	private static final CoreScheduler DEFAULT = new CoreScheduler(Runtime.getRuntime().availableProcessors());
+
+	private final int cores;
+	private final Semaphore permits;
+	private final Set<String> matches = new HashSet<String>();
+	private volatile int activeMatches = 0;
+
+	public CoreScheduler(int cores) {
+		this.cores = cores;
+		this.permits = new Semaphore(cores, true);
+	}
+
+	/**
+	 * Returns the scheduler for the cores of this machine.
+	 */
+	public static CoreScheduler getDefault() {
+		return DEFAULT;
+	}
+
+	public synchronized void register(String matchId) {
+		matches.add(matchId);
+		activeMatches = matches.size();
+	}
+
+	public synchronized void unregister(String matchId) {
+		matches.remove(matchId);
+		activeMatches = matches.size();
+	}
+
+	public int getActiveMatches() {
+		return activeMatches;
+	}
+
+	/**
+	 * Returns the number of threads a new search should use: its fair share
+	 * of the cores, and at least one.
+	 */
+	public int getShare() {
+		return Math.max(1, cores / Math.max(1, activeMatches));
+	}
+
+	/**
+	 * Waits for a core if several matches are sharing them. Returns whether
+	 * a core was taken, which must then be passed to release.
+	 */
+	public boolean acquire() throws InterruptedException {
+		if (activeMatches <= 1) {
+			return false;
+		}
+		permits.acquire();
+		return true;
+	}
+
+	public void release(boolean acquired) {
+		if (acquired) {
+			permits.release();
+		}
+	}
+}
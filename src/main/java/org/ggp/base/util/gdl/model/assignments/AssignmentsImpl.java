@@ -63,6 +63,10 @@ public class AssignmentsImpl implements Assignments {
 	 */
 
 	private List<ImmutableList<ImmutableList<GdlConstant>>> tuplesBySource; //indexed by conjunct
+	private List<GdlSentence> sourceConjuncts;
+	private List<SentenceForm> formsBySource; //indexed by conjunct
+	private List<ImmutableList<Integer>> constraintSlotsBySource; //indexed by conjunct
+	private List<ImmutableList<GdlConstant>> constraintValuesBySource; //indexed by conjunct
 	private List<Integer> sourceDefiningSlot; //indexed by var slot
 	private List<ImmutableList<Integer>> varsChosenBySource; //indexed by conjunct, then slot
 	private List<ImmutableList<Boolean>> putDontCheckBySource; //indexed by conjunct, then slot
@@ -149,8 +153,10 @@ public class AssignmentsImpl implements Assignments {
 		//We also need to convert values into tuples
 		//We should do so while constraining to any constants in the conjunct
 		//Let's convert the conjuncts
-		List<GdlSentence> sourceConjuncts = bestOrdering.getSourceConjuncts();
-		tuplesBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());//new ArrayList<List<List<GdlConstant>>>(sourceConjuncts.size());
+		sourceConjuncts = bestOrdering.getSourceConjuncts();
+		formsBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());
+		constraintSlotsBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());
+		constraintValuesBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());
 		varsChosenBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());//new ArrayList<List<Integer>>(sourceConjuncts.size());
 		putDontCheckBySource = Lists.newArrayListWithCapacity(sourceConjuncts.size());//new ArrayList<List<Boolean>>(sourceConjuncts.size());
 		for(int j = 0; j < sourceConjuncts.size(); j++) {
@@ -185,48 +191,13 @@ public class AssignmentsImpl implements Assignments {
 					throw new RuntimeException("Function returned in tuple");
 				}
 			}
+			formsBySource.add(form);
+			constraintSlotsBySource.add(ImmutableList.copyOf(constraintSlots));
+			constraintValuesBySource.add(ImmutableList.copyOf(constraintValues));
 			varsChosenBySource.add(ImmutableList.copyOf(varsChosen));
 			putDontCheckBySource.add(ImmutableList.copyOf(putDontCheck));
-
-			//Now we put the tuples together
-			//We use constraintSlots and constraintValues to check that the
-			//tuples have compatible values
-			Collection<GdlSentence> sentences = completedSentenceFormValues.get(form);
-			List<ImmutableList<GdlConstant>> tuples = Lists.newArrayList();
-			byTuple: for(GdlSentence sentence : sentences) {
-				//Check that it doesn't conflict with our headAssignment
-				if (!headAssignment.isEmpty()) {
-					Map<GdlVariable, GdlConstant> tupleAssignment = GdlUtils.getAssignmentMakingLeftIntoRight(sourceConjunct, sentence);
-					for (GdlVariable var : headAssignment.keySet()) {
-						if (tupleAssignment.containsKey(var)
-								&& tupleAssignment.get(var) != headAssignment.get(var)) {
-							continue byTuple;
-						}
-					}
-				}
-				List<GdlConstant> longTuple = GdlUtils.getTupleFromGroundSentence(sentence);
-				List<GdlConstant> shortTuple = new ArrayList<GdlConstant>(varsChosen.size());
-				for(int c = 0; c < constraintSlots.size(); c++) {
-					int slot = constraintSlots.get(c);
-					GdlConstant value = constraintValues.get(c);
-					if(!longTuple.get(slot).equals(value))
-						continue byTuple;
-				}
-				int c = 0;
-				for(int s = 0; s < longTuple.size(); s++) {
-					//constraintSlots is sorted in ascending order
-					if(c < constraintSlots.size()
-							&& constraintSlots.get(c) == s)
-						c++;
-					else
-						shortTuple.add(longTuple.get(s));
-				}
-				//The tuple fits the source conjunct
-				tuples.add(ImmutableList.copyOf(shortTuple));
-			}
-			//sortTuples(tuples); //Needed? Useful? Not sure. Probably not?
-			tuplesBySource.add(ImmutableList.copyOf(tuples));
 		}
+		tuplesBySource = getTuplesBySource(completedSentenceFormValues);
 
 
 		//We now want to see which we can give assignment functions to
@@ -307,6 +278,96 @@ public class AssignmentsImpl implements Assignments {
 //		System.out.println("sourceDefiningSlot: " + sourceDefiningSlot);
 	}
 
+	/*
+	 * Puts together the tuples offered by each source conjunct, using
+	 * constraintSlots and constraintValues to check that the tuples have
+	 * compatible values.
+	 */
+	private List<ImmutableList<ImmutableList<GdlConstant>>> getTuplesBySource(
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		List<ImmutableList<ImmutableList<GdlConstant>>> result = Lists.newArrayListWithCapacity(sourceConjuncts.size());
+		for(int j = 0; j < sourceConjuncts.size(); j++) {
+			GdlSentence sourceConjunct = sourceConjuncts.get(j);
+			List<Integer> constraintSlots = constraintSlotsBySource.get(j);
+			List<GdlConstant> constraintValues = constraintValuesBySource.get(j);
+			Collection<GdlSentence> sentences = completedSentenceFormValues.get(formsBySource.get(j));
+			List<ImmutableList<GdlConstant>> tuples = Lists.newArrayList();
+			byTuple: for(GdlSentence sentence : sentences) {
+				//Check that it doesn't conflict with our headAssignment
+				if (!headAssignment.isEmpty()) {
+					Map<GdlVariable, GdlConstant> tupleAssignment = GdlUtils.getAssignmentMakingLeftIntoRight(sourceConjunct, sentence);
+					for (GdlVariable var : headAssignment.keySet()) {
+						if (tupleAssignment.containsKey(var)
+								&& tupleAssignment.get(var) != headAssignment.get(var)) {
+							continue byTuple;
+						}
+					}
+				}
+				List<GdlConstant> longTuple = GdlUtils.getTupleFromGroundSentence(sentence);
+				List<GdlConstant> shortTuple = new ArrayList<GdlConstant>(longTuple.size() - constraintSlots.size());
+				for(int c = 0; c < constraintSlots.size(); c++) {
+					int slot = constraintSlots.get(c);
+					GdlConstant value = constraintValues.get(c);
+					if(!longTuple.get(slot).equals(value))
+						continue byTuple;
+				}
+				int c = 0;
+				for(int s = 0; s < longTuple.size(); s++) {
+					//constraintSlots is sorted in ascending order
+					if(c < constraintSlots.size()
+							&& constraintSlots.get(c) == s)
+						c++;
+					else
+						shortTuple.add(longTuple.get(s));
+				}
+				//The tuple fits the source conjunct
+				tuples.add(ImmutableList.copyOf(shortTuple));
+			}
+			//sortTuples(tuples); //Needed? Useful? Not sure. Probably not?
+			result.add(ImmutableList.copyOf(tuples));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns Assignments for the same rule with the same iteration order,
+	 * but with the tuples of the source conjuncts taken from the given
+	 * sentences. Everything else is shared with this object, so this skips
+	 * the search for an iteration order; it is meant for applying the same
+	 * rule to many different sets of sentences, such as one per game state.
+	 *
+	 * The given values must include every sentence form that this used as a
+	 * source, i.e. every form that was in the completedSentenceFormValues
+	 * this was created with and appears positively in the rule body.
+	 */
+	public AssignmentsImpl withCompletedSentenceFormValues(
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		if(empty)
+			return this;
+		return new AssignmentsImpl(this, completedSentenceFormValues);
+	}
+
+	private AssignmentsImpl(AssignmentsImpl original,
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		empty = original.empty;
+		allDone = original.allDone;
+		headAssignment = original.headAssignment;
+		varsToAssign = original.varsToAssign;
+		valuesToIterate = original.valuesToIterate;
+		valuesToCompute = original.valuesToCompute;
+		indicesToChangeWhenNull = original.indicesToChangeWhenNull;
+		distincts = original.distincts;
+		varsToChangePerDistinct = original.varsToChangePerDistinct;
+		sourceConjuncts = original.sourceConjuncts;
+		formsBySource = original.formsBySource;
+		constraintSlotsBySource = original.constraintSlotsBySource;
+		constraintValuesBySource = original.constraintValuesBySource;
+		sourceDefiningSlot = original.sourceDefiningSlot;
+		varsChosenBySource = original.varsChosenBySource;
+		putDontCheckBySource = original.putDontCheckBySource;
+		tuplesBySource = getTuplesBySource(completedSentenceFormValues);
+	}
+
 	private GdlVariable getRightmostVar(Collection<GdlVariable> vars) {
 		GdlVariable rightmostVar = null;
 		for(GdlVariable var : varsToAssign)
@@ -0,0 +1,256 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * The non-blocking counterpart of {@link HttpRequest}: issues requests to
+ * players and calls back with their responses, all from a single selector
+ * thread, so that a match host doesn't need a thread for every request it is
+ * waiting on. Requests and responses are the same as with HttpRequest,
+ * including the five second limit on connecting.
+ * <p>
+ * Each request gets a connection of its own, since players close the
+ * connection once they have responded. Callbacks run on the selector thread,
+ * and so should return quickly.
+ */
+public final class AsyncHttpClient
+{
+	/**
+	 * Receives the outcome of a request: exactly one of the methods is called.
+	 */
+	public interface Callback {
+		void onResponse(String response);
+
+		/**
+		 * Called if the request failed. The exception is a
+		 * SocketTimeoutException if the player took too long to connect to or
+		 * to respond.
+		 */
+		void onFailure(IOException e);
+	}
+
+	/** How long connecting to a player may take, in milliseconds. */
+	public static final int CONNECT_TIMEOUT = 5000;
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private static AsyncHttpClient defaultClient;
+
+	private final Selector selector;
+	private final Queue<Exchange> newExchanges = new ConcurrentLinkedQueue<Exchange>();
+
+	public AsyncHttpClient() throws IOException
+	{
+		selector = Selector.open();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "AsyncHttpClient");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns a client shared by everything in this process.
+	 */
+	public static synchronized AsyncHttpClient getDefault() throws IOException
+	{
+		if (defaultClient == null) {
+			defaultClient = new AsyncHttpClient();
+		}
+		return defaultClient;
+	}
+
+	/**
+	 * Sends the request and returns right away; the callback is called once
+	 * the response is in, or once the request has failed.
+	 *
+	 * @param timeoutClock how long to wait for the response once the request
+	 *        is sent, in milliseconds, or a negative number to wait as long as
+	 *        it takes.
+	 */
+	public void issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock, Callback callback)
+	{
+		try {
+			InetAddress theHost = InetAddress.getByName(targetHost);
+			ByteBuffer request = HttpWriter.encodeAsClient(theHost.getHostName(), requestContent, forPlayerName);
+			newExchanges.add(new Exchange(new InetSocketAddress(theHost.getHostAddress(), targetPort), request, timeoutClock, callback));
+			selector.wakeup();
+		} catch (IOException e) {
+			fail(callback, e);
+		}
+	}
+
+	private void loop()
+	{
+		while (true) {
+			try {
+				long now = System.currentTimeMillis();
+				long wait = 0;
+				for (SelectionKey key : selector.keys()) {
+					long left = ((Exchange) key.attachment()).deadline - now;
+					wait = (wait == 0) ? Math.max(1, left) : Math.max(1, Math.min(wait, left));
+				}
+				selector.select(wait);
+
+				Exchange exchange;
+				while ((exchange = newExchanges.poll()) != null) {
+					start(exchange);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						} else if (key.isConnectable()) {
+							connect(key);
+						} else if (key.isWritable()) {
+							write(key);
+						} else if (key.isReadable()) {
+							read(key);
+						}
+					} catch (IOException e) {
+						finish(key, null, e);
+					} catch (RuntimeException e) {
+						finish(key, null, new IOException(e));
+					}
+				}
+
+				now = System.currentTimeMillis();
+				for (SelectionKey key : selector.keys()) {
+					if (key.isValid() && ((Exchange) key.attachment()).deadline <= now) {
+						finish(key, null, new SocketTimeoutException(key.interestOps() == SelectionKey.OP_CONNECT ? "Connect timed out" : "Read timed out"));
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				// Keep going: every request in the process depends on this thread
+				GamerLogger.logStackTrace("GameServer", e);
+			}
+		}
+	}
+
+	private void start(Exchange exchange) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			exchange.deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+			if (channel.connect(exchange.address)) {
+				sent(channel.register(selector, SelectionKey.OP_WRITE, exchange));
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT, exchange);
+			}
+		} catch (IOException | RuntimeException e) {
+			close(channel);
+			fail(exchange.callback, e instanceof IOException ? (IOException) e : new IOException(e));
+		}
+	}
+
+	private void connect(SelectionKey key) throws IOException {
+		if (((SocketChannel) key.channel()).finishConnect()) {
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		Exchange exchange = (Exchange) key.attachment();
+		((SocketChannel) key.channel()).write(exchange.request);
+		if (!exchange.request.hasRemaining()) {
+			sent(key);
+		}
+	}
+
+	// The request is out: wait for the response
+	private void sent(SelectionKey key) {
+		Exchange exchange = (Exchange) key.attachment();
+		if (exchange.request.hasRemaining()) {
+			return;
+		}
+		exchange.deadline = exchange.timeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + exchange.timeout;
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		Exchange exchange = (Exchange) key.attachment();
+		if (!exchange.response.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer.allocateDirect(exchange.response.capacity() * 2);
+			exchange.response.flip();
+			larger.put(exchange.response);
+			exchange.response = larger;
+		}
+		boolean endOfStream = ((SocketChannel) key.channel()).read(exchange.response) < 0;
+
+		ByteBuffer received = exchange.response.duplicate();
+		received.flip();
+		String response = HttpReader.readAsClient(received, endOfStream);
+		if (response != null) {
+			finish(key, response, null);
+		}
+	}
+
+	private void finish(SelectionKey key, String response, IOException failure) {
+		Exchange exchange = (Exchange) key.attachment();
+		close(key.channel());
+		if (failure != null) {
+			fail(exchange.callback, failure);
+			return;
+		}
+		try {
+			exchange.callback.onResponse(response);
+		} catch (RuntimeException e) {
+			GamerLogger.logStackTrace("GameServer", e);
+		}
+	}
+
+	private static void fail(Callback callback, IOException failure) {
+		try {
+			callback.onFailure(failure);
+		} catch (RuntimeException e) {
+			GamerLogger.logStackTrace("GameServer", e);
+		}
+	}
+
+	private static void close(Channel channel) {
+		if (channel == null) {
+			return;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			;
+		}
+	}
+
+	// One request and its response
+	private static final class Exchange {
+		final InetSocketAddress address;
+		final ByteBuffer request;
+		final int timeout;
+		final Callback callback;
+		ByteBuffer response = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+		long deadline;
+
+		Exchange(InetSocketAddress address, ByteBuffer request, int timeout, Callback callback) {
+			this.address = address;
+			this.request = request;
+			this.timeout = timeout;
+			this.callback = callback;
+		}
+	}
+}
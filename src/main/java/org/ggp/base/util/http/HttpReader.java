@@ -6,6 +6,8 @@ import java.io.InputStreamReader;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public final class HttpReader
 {
@@ -67,6 +69,120 @@ public final class HttpReader
 		return message;
 	}
 
+    /**
+     * Reads an HTTP request from the bytes a non-blocking server has received
+     * so far, following the same rules as readAsServer(Socket). Returns null
+     * if the request isn't complete yet. OPTIONS requests and requests of an
+     * unexpected type are read as an empty message: the server should answer
+     * them with a blank response and otherwise ignore them.
+     *
+     * @param buffer the bytes received so far, between its position and its
+     *        limit. It is not modified.
+     * @param endOfStream whether the client has stopped sending, in which case
+     *        an incomplete request is an error rather than null.
+     */
+    public static String readAsServer(ByteBuffer buffer, boolean endOfStream) throws IOException
+    {
+        int lineEnd = indexOf(buffer, buffer.position(), buffer.limit(), (byte) '\n');
+        if (lineEnd < 0) {
+            return incomplete(endOfStream);
+        }
+        String requestLine = decodeLine(buffer, buffer.position(), lineEnd);
+        if (requestLine.toUpperCase().startsWith("GET ")) {
+            String message = requestLine.substring(5, requestLine.lastIndexOf(' '));
+            message = URLDecoder.decode(message, "UTF-8");
+            return message.replace((char)13, ' ');
+        } else if (!requestLine.toUpperCase().startsWith("POST ")) {
+            return "";
+        }
+        return readContent(buffer, lineEnd + 1, endOfStream);
+    }
+
+    /**
+     * Reads an HTTP response from the bytes a non-blocking client has
+     * received so far, following the same rules as readAsClient(Socket).
+     * Returns null if the response isn't complete yet.
+     *
+     * @param buffer the bytes received so far, between its position and its
+     *        limit. It is not modified.
+     * @param endOfStream whether the server has stopped sending, in which case
+     *        an incomplete response is an error rather than null.
+     */
+    public static String readAsClient(ByteBuffer buffer, boolean endOfStream) throws IOException
+    {
+        return readContent(buffer, buffer.position(), endOfStream);
+    }
+
+    // The buffer counterpart of readContentFromPOST, starting at the line at lineStart.
+    private static String readContent(ByteBuffer buffer, int lineStart, boolean endOfStream) throws IOException {
+        // Skip the headers, except for the content length, up to the first
+        // blank line. The content appears after that.
+        int end = buffer.limit();
+        int theContentLength = -1;
+        while (true) {
+            int lineEnd = indexOf(buffer, lineStart, end, (byte) '\n');
+            if (lineEnd < 0) {
+                return incomplete(endOfStream);
+            }
+            String line = decodeLine(buffer, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+            if (line.toLowerCase().startsWith("content-length:")) {
+                try {
+                    theContentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Content-Length header can't be parsed: \"" + line + "\"");
+                }
+            } else if (line.length() == 0) {
+                break;
+            }
+        }
+        if (theContentLength != -1) {
+            if (end - lineStart < theContentLength) {
+                return incomplete(endOfStream);
+            }
+            return decode(buffer, lineStart, lineStart + theContentLength).trim();
+        }
+        // Without a content length, the content runs until the stream is
+        // closed, and its line breaks are dropped.
+        if (!endOfStream) {
+            return null;
+        }
+        return decode(buffer, lineStart, end).replace("\r", "").replace("\n", "").trim();
+    }
+
+    private static String incomplete(boolean endOfStream) throws IOException {
+        if (endOfStream) {
+            throw new IOException("The HTTP request was cut off.");
+        }
+        return null;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Decodes a line without its line break, which may be "\r\n" or "\n".
+    private static String decodeLine(ByteBuffer buffer, int from, int lineEnd) {
+        if (lineEnd > from && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        return decode(buffer, from, lineEnd);
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(to);
+        range.position(from);
+        return UTF8.decode(range).toString();
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private static String readContentFromPOST(BufferedReader br) throws IOException {
 	    String line;
         int theContentLength = -1;
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public final class HttpWriter
 {
@@ -26,34 +28,74 @@ public final class HttpWriter
 	{
 		PrintWriter pw = new PrintWriter(socket.getOutputStream());
 
-		pw.print("POST / HTTP/1.0\r\n");
-		pw.print("Accept: text/delim\r\n");
-		pw.print("Host: " + hostField + "\r\n");
-		pw.print("Sender: GAMESERVER\r\n");
-		pw.print("Receiver: "+playerName + "\r\n");
-		pw.print("Content-Type: text/acl\r\n");
-		pw.print("Content-Length: " + data.length() + "\r\n");
-		pw.print("\r\n");
+		pw.print(getClientHeaders(hostField, playerName, data.length()));
 		pw.print(data);
 
 		pw.flush();
 	}
 
+	/**
+	 * Returns the same request as writeAsClient, as bytes ready to be
+	 * written to a non-blocking channel.
+	 */
+	public static ByteBuffer encodeAsClient(String hostField, String data, String playerName)
+	{
+		Charset utf8 = Charset.forName("UTF-8");
+		byte[] content = data.getBytes(utf8);
+		return concatenate(getClientHeaders(hostField, playerName, content.length).getBytes(utf8), content);
+	}
+
+	private static String getClientHeaders(String hostField, String playerName, int contentLength)
+	{
+		return "POST / HTTP/1.0\r\n" +
+				"Accept: text/delim\r\n" +
+				"Host: " + hostField + "\r\n" +
+				"Sender: GAMESERVER\r\n" +
+				"Receiver: " + playerName + "\r\n" +
+				"Content-Type: text/acl\r\n" +
+				"Content-Length: " + contentLength + "\r\n" +
+				"\r\n";
+	}
+
 	public static void writeAsServer(Socket socket, String data) throws IOException
 	{
 		PrintWriter pw = new PrintWriter(socket.getOutputStream());
 
-		pw.print("HTTP/1.0 200 OK\r\n");
-		pw.print("Content-type: text/acl\r\n");
-		pw.print("Content-length: " + data.length() + "\r\n");
-		pw.print("Access-Control-Allow-Origin: *\r\n");
-		pw.print("Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n");
-		pw.print("Access-Control-Allow-Headers: Content-Type\r\n");
-		pw.print("Access-Control-Allow-Age: 86400\r\n");
-		pw.print("\r\n");
+		pw.print(getServerHeaders(data.length()));
 		pw.print(data);
 
 		pw.flush();
 	}
 
+	/**
+	 * Returns the same response as writeAsServer, as bytes ready to be
+	 * written to a non-blocking channel.
+	 */
+	public static ByteBuffer encodeAsServer(String data)
+	{
+		Charset utf8 = Charset.forName("UTF-8");
+		byte[] content = data.getBytes(utf8);
+		return concatenate(getServerHeaders(content.length).getBytes(utf8), content);
+	}
+
+	private static ByteBuffer concatenate(byte[] headers, byte[] content)
+	{
+		ByteBuffer message = ByteBuffer.allocate(headers.length + content.length);
+		message.put(headers).put(content);
+		message.flip();
+		return message;
+	}
+
+	private static String getServerHeaders(int contentLength)
+	{
+		return "HTTP/1.0 200 OK\r\n" +
+				"Content-type: text/acl\r\n" +
+				"Content-length: " + contentLength + "\r\n" +
+				"Access-Control-Allow-Origin: *\r\n" +
+				"Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n" +
+				"Access-Control-Allow-Headers: Content-Type\r\n" +
+				"Access-Control-Allow-Age: 86400\r\n" +
+				"\r\n";
+	}
+
 }
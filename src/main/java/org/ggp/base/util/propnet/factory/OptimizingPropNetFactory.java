@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +13,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -46,6 +52,7 @@ import org.ggp.base.util.gdl.transforms.DeORer;
 import org.ggp.base.util.gdl.transforms.GdlCleaner;
 import org.ggp.base.util.gdl.transforms.Relationizer;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.And;
@@ -56,6 +63,7 @@ import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.statemachine.Role;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -114,9 +122,27 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		return create(description, verbose, Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description.
+	 *
+	 * Sentence forms that don't depend on one another (those in the same
+	 * layer of the dependency graph) are built concurrently, using up to
+	 * the given number of threads.
+	 *
+	 * @param phaseTimes if not null, the time taken by each phase of the
+	 * build is put here, in milliseconds and in the order the phases ran.
+	 * The same timings are logged to the "StateMachine" log.
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, int parallelism, Map<String, Long> phaseTimes) throws InterruptedException {
 		//System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
+		PhaseTimer timer = new PhaseTimer();
 
 		description = GdlCleaner.run(description);
 		description = DeORer.run(description);
@@ -124,6 +150,7 @@ public class OptimizingPropNetFactory {
 		description = Relationizer.run(description);
 
 		description = CondensationIsolator.run(description);
+		timer.endPhase("transforms");
 
 
 		if(verbose)
@@ -137,6 +164,7 @@ public class OptimizingPropNetFactory {
 		//See chinesecheckers4's "count" relation for an example of why this
 		//could be useful.
 		model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+		timer.endPhase("domains");
 
 		if(verbose)
 			System.out.println("Setting constants...");
@@ -144,6 +172,7 @@ public class OptimizingPropNetFactory {
 		ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
 		if(verbose)
 			System.out.println("Done setting constants");
+		timer.endPhase("constants");
 
 		Set<String> sentenceFormNames = SentenceForms.getNames(model.getSentenceForms());
 		boolean usingBase = sentenceFormNames.contains("base");
@@ -161,62 +190,81 @@ public class OptimizingPropNetFactory {
 		}
 		ConcurrencyUtils.checkForInterruption();
 		List<SentenceForm> topologicalOrdering = getTopologicalOrdering(model.getSentenceForms(), dependencyGraph, usingBase, usingInput);
+		List<List<SentenceForm>> layers = getLayers(topologicalOrdering, dependencyGraph, usingBase, usingInput);
 		if(verbose)
 			System.out.println("done");
+		timer.endPhase("ordering");
 
 		List<Role> roles = Role.computeRoles(description);
-		Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-		Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+		//Sentence forms in the same layer are added from several threads
+		Map<GdlSentence, Component> components = new ConcurrentHashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> negations = new ConcurrentHashMap<GdlSentence, Component>();
 		Constant trueComponent = new Constant(true);
 		Constant falseComponent = new Constant(false);
 		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
 		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
-			ConcurrencyUtils.checkForInterruption();
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			for(List<SentenceForm> layer : layers) {
+				List<SentenceForm> formsToBuild = new ArrayList<SentenceForm>(layer.size());
+				for(SentenceForm form : layer) {
+					ConcurrencyUtils.checkForInterruption();
+
+					if(constantChecker.isConstantForm(form)) {
+						if(verbose)
+							System.out.println("Adding sentence form " + form + " (constant)");
+						//Only add it if it's important
+						if(form.getName().equals(LEGAL)
+								|| form.getName().equals(GOAL)
+								|| form.getName().equals(INIT)) {
+							//Add it
+							for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+								Proposition trueProp = new Proposition(trueSentence);
+								trueProp.addInput(trueComponent);
+								trueComponent.addOutput(trueProp);
+								components.put(trueSentence, trueComponent);
+							}
+						}
 
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
+						if(verbose)
+							System.out.println("Checking whether " + form + " is a functional constant...");
+						addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+						addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+					} else {
+						formsToBuild.add(form);
 					}
 				}
-
-				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
-
-				continue;
+				//TODO: Adjust "recursive forms" appropriately
+				//Add a temporary sentence form thingy? ...
+				List<Map<GdlSentence, Component>> temporaryComponents = new ArrayList<Map<GdlSentence, Component>>(formsToBuild.size());
+				List<Map<GdlSentence, Component>> temporaryNegations = new ArrayList<Map<GdlSentence, Component>>(formsToBuild.size());
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(formsToBuild.size());
+				for(SentenceForm form : formsToBuild) {
+					Map<GdlSentence, Component> formTemporaryComponents = new HashMap<GdlSentence, Component>();
+					Map<GdlSentence, Component> formTemporaryNegations = new HashMap<GdlSentence, Component>();
+					temporaryComponents.add(formTemporaryComponents);
+					temporaryNegations.add(formTemporaryNegations);
+					tasks.add(new SentenceFormBuilder(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, formTemporaryComponents, formTemporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, verbose));
+				}
+				runAll(tasks, pool);
+				//Tidying up after a form may touch components of any earlier
+				//form, so this part isn't done concurrently
+				for(int i = 0; i < formsToBuild.size(); i++) {
+					//TODO: Pass these over groups of multiple sentence forms
+					if(verbose && !temporaryComponents.get(i).isEmpty())
+						System.out.println("Processing temporary components...");
+					processTemporaryComponents(temporaryComponents.get(i), temporaryNegations.get(i), components, negations, trueComponent, falseComponent);
+					addFormToCompletedValues(formsToBuild.get(i), completedSentenceFormValues, components);
+					//if(verbose)
+						//TODO: Add this, but with the correct total number of components (not just Propositions)
+						//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+				}
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
+		} finally {
+			if(pool != null)
+				pool.shutdownNow();
 		}
+		timer.endPhase("sentence forms");
 		//Connect "next" to "true"
 		if(verbose)
 			System.out.println("Adding transitions...");
@@ -227,6 +275,7 @@ public class OptimizingPropNetFactory {
 		setUpInit(components, trueComponent, falseComponent);
 		//Now we can safely...
 		removeUselessBasePropositions(components, negations, trueComponent, falseComponent);
+		timer.endPhase("transitions");
 		if(verbose)
 			System.out.println("Creating component set...");
 		Set<Component> componentSet = new HashSet<Component>(components.values());
@@ -241,6 +290,10 @@ public class OptimizingPropNetFactory {
 		//how we want it to look
 		normalizePropositions(componentSet);
 		PropNet propnet = new PropNet(roles, componentSet);
+		timer.endPhase("propnet");
+		GamerLogger.log("StateMachine", "Built propnet with " + componentSet.size() + " components in " + (System.currentTimeMillis() - startTime) + "ms (" + timer + ")");
+		if(phaseTimes != null)
+			phaseTimes.putAll(timer.getPhaseTimes());
 		if(verbose) {
 			System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
 			System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
@@ -249,6 +302,127 @@ public class OptimizingPropNetFactory {
 		return propnet;
 	}
 
+	/**
+	 * Records how long each phase of a propnet build takes. Each phase runs
+	 * from the end of the previous one.
+	 */
+	private static class PhaseTimer {
+		private final Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+		private long phaseStart = System.currentTimeMillis();
+
+		public void endPhase(String phase) {
+			long now = System.currentTimeMillis();
+			phaseTimes.put(phase, now - phaseStart);
+			phaseStart = now;
+		}
+
+		public Map<String, Long> getPhaseTimes() {
+			return phaseTimes;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for(Entry<String, Long> entry : phaseTimes.entrySet()) {
+				if(sb.length() > 0)
+					sb.append(", ");
+				sb.append(entry.getKey()).append(" ").append(entry.getValue()).append("ms");
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Adds the components for a single sentence form. Several of these may
+	 * run at once, for sentence forms in the same layer.
+	 */
+	private static class SentenceFormBuilder implements Callable<Void> {
+		private final SentenceForm form;
+		private final SentenceDomainModel model;
+		private final Map<GdlSentence, Component> components;
+		private final Map<GdlSentence, Component> negations;
+		private final Constant trueComponent;
+		private final Constant falseComponent;
+		private final boolean usingBase;
+		private final boolean usingInput;
+		private final Map<GdlSentence, Component> temporaryComponents;
+		private final Map<GdlSentence, Component> temporaryNegations;
+		private final Map<SentenceForm, FunctionInfo> functionInfoMap;
+		private final ConstantChecker constantChecker;
+		private final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues;
+		private final boolean verbose;
+
+		public SentenceFormBuilder(SentenceForm form, SentenceDomainModel model,
+				Map<GdlSentence, Component> components,
+				Map<GdlSentence, Component> negations,
+				Constant trueComponent, Constant falseComponent,
+				boolean usingBase, boolean usingInput,
+				Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
+				Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+				Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+				boolean verbose) {
+			this.form = form;
+			this.model = model;
+			this.components = components;
+			this.negations = negations;
+			this.trueComponent = trueComponent;
+			this.falseComponent = falseComponent;
+			this.usingBase = usingBase;
+			this.usingInput = usingInput;
+			this.temporaryComponents = temporaryComponents;
+			this.temporaryNegations = temporaryNegations;
+			this.functionInfoMap = functionInfoMap;
+			this.constantChecker = constantChecker;
+			this.completedSentenceFormValues = completedSentenceFormValues;
+			this.verbose = verbose;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			if(verbose)
+				System.out.println("Adding sentence form " + form);
+			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the tasks in the pool and waits for all of them to finish, or
+	 * runs them in this thread if there's no pool or only one task.
+	 */
+	private static void runAll(List<Callable<Void>> tasks, ForkJoinPool pool) throws InterruptedException {
+		if(pool == null || tasks.size() <= 1) {
+			for(Callable<Void> task : tasks) {
+				try {
+					task.call();
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					throw Throwables.propagate(e);
+				}
+			}
+			return;
+		}
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+		for(Callable<Void> task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		try {
+			for(Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			throw Throwables.propagate(cause);
+		} finally {
+			for(Future<Void> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
 	/*
 	public static IIPropNet createII(List<Gdl> description, boolean verbose) throws InterruptedException {
 		//System.out.println("Building propnet...");
@@ -882,8 +1056,7 @@ public class OptimizingPropNetFactory {
 		for(Component in : inputs) {
 			if(in instanceof Constant && in.getValue()) {
 				//True constant: connect that to the component, done
-				in.addOutput(output);
-				output.addInput(in);
+				link(in, output);
 				return;
 			}
 		}
@@ -896,24 +1069,20 @@ public class OptimizingPropNetFactory {
 		Or or = new Or();
 		for(Component in : inputs) {
 			if(!(in instanceof Constant)) {
-				in.addOutput(or);
-				or.addInput(in);
+				link(in, or);
 			}
 		}
 		//What if they're all false? (Or inputs is empty?) Then no inputs at this point...
 		if(or.getInputs().isEmpty()) {
 			//Hook up to "false"
-			falseProp.addOutput(output);
-			output.addInput(falseProp);
+			link(falseProp, output);
 			return;
 		}
 		//If there's just one, on the other hand, don't use the or gate
 		if(or.getInputs().size() == 1) {
 			Component in = or.getSingleInput();
-			in.removeOutput(or);
-			or.removeInput(in);
-			in.addOutput(output);
-			output.addInput(in);
+			unlink(in, or);
+			link(in, output);
 			return;
 		}
 		or.addOutput(output);
@@ -968,6 +1137,41 @@ public class OptimizingPropNetFactory {
 		return ordering;
 	}
 
+	/**
+	 * Splits the topological ordering into layers, so that each sentence
+	 * form only depends on forms in earlier layers (or on itself). The
+	 * forms in a layer can then be built in any order, or all at once.
+	 */
+	private static List<List<SentenceForm>> getLayers(
+			List<SentenceForm> topologicalOrdering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> layerOfForm = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> layers = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : topologicalOrdering) {
+			List<SentenceForm> dependencies = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			//The same extra constraints as in the topological ordering
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT))) {
+				dependencies.add(form.withName(BASE));
+			}
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL))) {
+				dependencies.add(form.withName(INPUT));
+			}
+			int layer = 0;
+			for(SentenceForm dependency : dependencies) {
+				Integer dependencyLayer = layerOfForm.get(dependency);
+				if(!dependency.equals(form) && dependencyLayer != null) {
+					layer = Math.max(layer, dependencyLayer + 1);
+				}
+			}
+			layerOfForm.put(form, layer);
+			if(layer == layers.size()) {
+				layers.add(new ArrayList<SentenceForm>());
+			}
+			layers.get(layer).add(form);
+		}
+		return layers;
+	}
+
 	private static void addSentenceForm(SentenceForm form, SentenceDomainModel model,
 			Map<GdlSentence, Component> components,
 			Map<GdlSentence, Component> negations,
@@ -994,8 +1198,7 @@ public class OptimizingPropNetFactory {
 					|| alwaysTrueSentence.getName().equals(GOAL)) {
 				Proposition prop = new Proposition(alwaysTrueSentence);
 				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
+				link(trueComponent, prop);
 				//Still want the same components;
 				//we just don't want this to be anonymized
 			}
@@ -1133,8 +1336,7 @@ public class OptimizingPropNetFactory {
 							//So we add the "not" gate and set it in temporaryNegations
 							Not not = new Not();
 							//Add positive as input
-							not.addInput(positive);
-							positive.addOutput(not);
+							link(positive, not);
 							temporaryNegations.put(transformed, not);
 							conj = not;
 						}
@@ -1151,19 +1353,21 @@ public class OptimizingPropNetFactory {
 							}
 
 							//Check if we're sharing a component with another sentence with a negation
-							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
+							//(i.e. look for "nots" in our outputs and use those instead).
+							//Other forms in this layer may be negating the same component.
+							synchronized(positive) {
+								Not existingNotOutput = getNotOutput(positive);
+								if(existingNotOutput != null) {
+									componentsToConnect.add(existingNotOutput);
+									negations.put(transformed, existingNotOutput);
+									continue; //to the next conjunct
+								}
+
+								Not not = new Not();
+								link(positive, not);
+								negations.put(transformed, not);
+								conj = not;
 							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1202,9 +1406,9 @@ public class OptimizingPropNetFactory {
 				if(input instanceof Constant || input.getInputs().size() == 0) {
 					realInputs.add(input);
 				} else {
-					realInputs.add(input.getSingleInput());
-					input.getSingleInput().removeOutput(input);
-					input.removeAllInputs();
+					Component realInput = input.getSingleInput();
+					realInputs.add(realInput);
+					unlink(realInput, input);
 				}
 			}
 
@@ -1268,13 +1472,32 @@ public class OptimizingPropNetFactory {
 	}
 
 
+	/**
+	 * Connects input to output. While a layer is being built, the input
+	 * may be an earlier form's component that other threads are also
+	 * connecting to, so its outputs are only changed while holding its lock.
+	 * The output is always a component of the form being built.
+	 */
+	private static void link(Component input, Component output) {
+		synchronized(input) {
+			input.addOutput(output);
+		}
+		output.addInput(input);
+	}
+
+	private static void unlink(Component input, Component output) {
+		synchronized(input) {
+			input.removeOutput(output);
+		}
+		output.removeInput(input);
+	}
+
 	private static void andify(List<Component> inputs, Component output, Constant trueProp) {
 		//Special case: If the inputs include false, connect false to thisComponent
 		for(Component c : inputs) {
 			if(c instanceof Constant && !c.getValue()) {
 				//Connect false (c) to the output
-				output.addInput(c);
-				c.addOutput(output);
+				link(c, output);
 				return;
 			}
 		}
@@ -1283,24 +1506,20 @@ public class OptimizingPropNetFactory {
 		And and = new And();
 		for(Component in : inputs) {
 			if(!(in instanceof Constant)) {
-				in.addOutput(and);
-				and.addInput(in);
+				link(in, and);
 			}
 		}
 		//What if they're all true? (Or inputs is empty?) Then no inputs at this point...
 		if(and.getInputs().isEmpty()) {
 			//Hook up to "true"
-			trueProp.addOutput(output);
-			output.addInput(trueProp);
+			link(trueProp, output);
 			return;
 		}
 		//If there's just one, on the other hand, don't use the and gate
 		if(and.getInputs().size() == 1) {
 			Component in = and.getSingleInput();
-			in.removeOutput(and);
-			and.removeInput(in);
-			in.addOutput(output);
-			output.addInput(in);
+			unlink(in, and);
+			link(in, output);
 			return;
 		}
 		and.addOutput(output);
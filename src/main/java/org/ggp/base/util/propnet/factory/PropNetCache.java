@@ -0,0 +1,516 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * An on-disk cache of the propnets built by {@link OptimizingPropNetFactory},
+ * so that a game we've seen before doesn't have to go through the GDL
+ * transformations and the propnet build again. This also helps players that
+ * build a propnet for each of several state machines in the same match.
+ *
+ * Propnets are stored one per file, in a compact binary format, under a hash
+ * of the game's rules (sorted, so the order of the rules doesn't matter).
+ * Files are memory-mapped when they're read back. Each call returns a new
+ * PropNet, since state machines are free to modify the propnet they're given.
+ *
+ * A file that can't be read (e.g. one written by an older version of this
+ * class) is replaced by a newly built propnet. If the cache directory can't
+ * be written to, propnets are just built as usual.
+ *
+ * Whatever else is worked out from the propnet of a game can be kept next to
+ * it, in a file of its own under the same hash, with {@link #readData} and
+ * {@link #writeData}.
+ *
+ * The directory is kept under a maximum size: after each write, the files
+ * that were least recently written or read are deleted until the rest fit.
+ *
+ * The default cache is in ~/.ggp-propnet-cache. The system property
+ * {@value #DIRECTORY_PROPERTY} moves it elsewhere, or turns it off when set
+ * to "none" or left empty, and {@value #MAX_BYTES_PROPERTY} sets its
+ * maximum size.
+ */
+public class PropNetCache {
+	private static final int MAGIC = 0x47475050; // "GGPP"
+	//Increase this whenever the file format or the propnets built by
+	//OptimizingPropNetFactory change, so that old files are rebuilt
+	private static final int VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte PROPOSITION = 0;
+	private static final byte AND = 1;
+	private static final byte OR = 2;
+	private static final byte NOT = 3;
+	private static final byte TRANSITION = 4;
+	private static final byte TRUE = 5;
+	private static final byte FALSE = 6;
+
+	private static final byte CONSTANT_TERM = 0;
+	private static final byte FUNCTION_TERM = 1;
+	private static final byte PROPOSITION_SENTENCE = 0;
+	private static final byte RELATION_SENTENCE = 1;
+
+	public static final String DIRECTORY_PROPERTY = "ggp.propnet.cache";
+	public static final String MAX_BYTES_PROPERTY = "ggp.propnet.cache.maxBytes";
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private final File directory;
+	private final long maxBytes;
+
+	public PropNetCache(File directory) {
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes the size past which the least recently used files are
+	 * deleted.
+	 */
+	public PropNetCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the cache set by the system properties, by default the one
+	 * kept in the user's home directory, or null if caching is turned off.
+	 * The properties are read on each call, so they can be changed at any
+	 * time for the machines created afterwards.
+	 */
+	public static PropNetCache getDefault() {
+		String path = System.getProperty(DIRECTORY_PROPERTY);
+		File directory;
+		if (path == null) {
+			directory = new File(System.getProperty("user.home"), ".ggp-propnet-cache");
+		} else if (path.trim().isEmpty() || path.trim().equalsIgnoreCase("none")) {
+			return null;
+		} else {
+			directory = new File(path.trim());
+		}
+		return new PropNetCache(directory, Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns a propnet for the game with the given rules, reading it from
+	 * the cache if possible, and otherwise building it with
+	 * {@link OptimizingPropNetFactory#create(List)} and adding it to the
+	 * cache.
+	 *
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public PropNet create(List<Gdl> description) throws InterruptedException {
+		File file = getFile(description);
+		if (file.exists()) {
+			long startTime = System.currentTimeMillis();
+			try {
+				PropNet propNet = read(file);
+				touch(file);
+				GamerLogger.log("StateMachine", "Read cached propnet " + file.getName() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+				return propNet;
+			} catch (IOException e) {
+				GamerLogger.log("StateMachine", "Rebuilding cached propnet " + file.getName() + ": " + e.getMessage());
+			}
+		}
+		PropNet propNet = OptimizingPropNetFactory.create(description);
+		try {
+			write(propNet, file);
+		} catch (IOException e) {
+			GamerLogger.logError("StateMachine", "Could not cache propnet in " + file + ": " + e.getMessage());
+		}
+		return propNet;
+	}
+
+	/**
+	 * Returns the file in which the propnet for the given rules is stored.
+	 */
+	public File getFile(List<Gdl> description) {
+		return getFile(description, "propnet");
+	}
+
+	/**
+	 * Returns the file in which the data with the given extension is stored
+	 * for the given rules.
+	 */
+	public File getFile(List<Gdl> description, String extension) {
+		List<String> rules = new ArrayList<String>(description.size());
+		for (Gdl gdl : description) {
+			rules.add(gdl.toString());
+		}
+		Collections.sort(rules);
+		StringBuilder canonical = new StringBuilder();
+		for (String rule : rules) {
+			canonical.append(rule).append('\n');
+		}
+		return new File(directory, BaseHashing.computeSHA1Hash(canonical.toString()) + "." + extension);
+	}
+
+	/**
+	 * Returns the data with the given extension stored for the given rules,
+	 * or null if there is none or it can't be read.
+	 */
+	public byte[] readData(List<Gdl> description, String extension) {
+		File file = getFile(description, extension);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			touch(file);
+			return data;
+		} catch (IOException e) {
+			GamerLogger.log("StateMachine", "Could not read " + file.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores data with the given extension for the given rules, replacing
+	 * any that was there. Failures are only logged.
+	 */
+	public void writeData(List<Gdl> description, String extension, byte[] data) {
+		File file = getFile(description, extension);
+		try {
+			write(data, file);
+		} catch (IOException e) {
+			GamerLogger.logError("StateMachine", "Could not cache data in " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void write(PropNet propNet, File file) throws IOException {
+		write(toBytes(propNet), file);
+	}
+
+	private void write(byte[] bytes, File file) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		//Write to a temporary file first, so that other players reading the
+		//cache never see a partly written file
+		File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			Files.write(temporaryFile.toPath(), bytes);
+			try {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		evict(file);
+	}
+
+	//Marks a file as recently used, so it is the last to be evicted
+	private static void touch(File file) {
+		file.setLastModified(System.currentTimeMillis());
+	}
+
+	//Deletes the least recently used files until the directory fits, never
+	//the one just written. Temporary files of writes still going on are left
+	//alone, as are files that can't be deleted because they're in use.
+	private void evict(File written) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		final Map<File, Long> lastUsed = new HashMap<File, Long>();
+		long totalBytes = 0;
+		for (File file : files) {
+			if (file.isFile() && !file.getName().endsWith(".tmp")) {
+				lastUsed.put(file, file.lastModified());
+				totalBytes += file.length();
+			}
+		}
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+		List<File> oldestFirst = new ArrayList<File>(lastUsed.keySet());
+		Collections.sort(oldestFirst, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(lastUsed.get(a), lastUsed.get(b));
+			}
+		});
+		for (File file : oldestFirst) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+			if (file.equals(written)) {
+				continue;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				totalBytes -= length;
+				GamerLogger.log("StateMachine", "Evicted " + file.getName() + " from the propnet cache");
+			}
+		}
+	}
+
+	private static PropNet read(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			return fromBytes(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Serializes the propnet. The format is: a header, a table of the
+	 * constants used in sentences, the roles, each component (its type,
+	 * and its name for propositions), and finally each component's inputs
+	 * as indices into the component list. Outputs are implied by inputs.
+	 */
+	static byte[] toBytes(PropNet propNet) throws IOException {
+		List<Component> components = new ArrayList<Component>(propNet.getComponents());
+		Map<Component, Integer> componentIndices = new HashMap<Component, Integer>();
+		for (int i = 0; i < components.size(); i++) {
+			componentIndices.put(components.get(i), i);
+		}
+		Map<GdlConstant, Integer> constantIndices = new HashMap<GdlConstant, Integer>();
+		List<GdlConstant> constants = new ArrayList<GdlConstant>();
+		for (Role role : propNet.getRoles()) {
+			addConstant(role.getName(), constants, constantIndices);
+		}
+		for (Component component : components) {
+			if (component instanceof Proposition) {
+				addConstants(((Proposition) component).getName(), constants, constantIndices);
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(constants.size());
+		for (GdlConstant constant : constants) {
+			byte[] value = constant.getValue().getBytes(UTF_8);
+			out.writeInt(value.length);
+			out.write(value);
+		}
+		out.writeInt(propNet.getRoles().size());
+		for (Role role : propNet.getRoles()) {
+			out.writeInt(constantIndices.get(role.getName()));
+		}
+		out.writeInt(components.size());
+		for (Component component : components) {
+			if (component instanceof Proposition) {
+				out.writeByte(PROPOSITION);
+				writeSentence(((Proposition) component).getName(), out, constantIndices);
+			} else if (component instanceof And) {
+				out.writeByte(AND);
+			} else if (component instanceof Or) {
+				out.writeByte(OR);
+			} else if (component instanceof Not) {
+				out.writeByte(NOT);
+			} else if (component instanceof Transition) {
+				out.writeByte(TRANSITION);
+			} else if (component instanceof Constant) {
+				out.writeByte(component.getValue() ? TRUE : FALSE);
+			} else {
+				throw new IllegalArgumentException("Unrecognized component type " + component.getClass());
+			}
+		}
+		for (Component component : components) {
+			out.writeInt(component.getInputs().size());
+			for (Component input : component.getInputs()) {
+				out.writeInt(componentIndices.get(input));
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static PropNet fromBytes(ByteBuffer in) throws IOException {
+		try {
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("Not a propnet of the current version");
+			}
+			GdlConstant[] constants = new GdlConstant[in.getInt()];
+			for (int i = 0; i < constants.length; i++) {
+				byte[] value = new byte[in.getInt()];
+				in.get(value);
+				constants[i] = GdlPool.getConstant(new String(value, UTF_8));
+			}
+			List<Role> roles = new ArrayList<Role>();
+			int numRoles = in.getInt();
+			for (int i = 0; i < numRoles; i++) {
+				roles.add(new Role(constants[in.getInt()]));
+			}
+			Component[] components = new Component[in.getInt()];
+			for (int i = 0; i < components.length; i++) {
+				byte type = in.get();
+				switch (type) {
+				case PROPOSITION:
+					components[i] = new Proposition(readSentence(in, constants));
+					break;
+				case AND:
+					components[i] = new And();
+					break;
+				case OR:
+					components[i] = new Or();
+					break;
+				case NOT:
+					components[i] = new Not();
+					break;
+				case TRANSITION:
+					components[i] = new Transition();
+					break;
+				case TRUE:
+				case FALSE:
+					components[i] = new Constant(type == TRUE);
+					break;
+				default:
+					throw new IOException("Unrecognized component type " + type);
+				}
+			}
+			for (Component component : components) {
+				int numInputs = in.getInt();
+				for (int i = 0; i < numInputs; i++) {
+					Component input = components[in.getInt()];
+					component.addInput(input);
+					input.addOutput(component);
+				}
+			}
+			Set<Component> componentSet = new HashSet<Component>(components.length);
+			Collections.addAll(componentSet, components);
+			return new PropNet(roles, componentSet);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated propnet", e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupted propnet", e);
+		}
+	}
+
+	private static void addConstant(GdlConstant constant, List<GdlConstant> constants, Map<GdlConstant, Integer> constantIndices) {
+		if (!constantIndices.containsKey(constant)) {
+			constantIndices.put(constant, constants.size());
+			constants.add(constant);
+		}
+	}
+
+	private static void addConstants(GdlSentence sentence, List<GdlConstant> constants, Map<GdlConstant, Integer> constantIndices) {
+		addConstant(sentence.getName(), constants, constantIndices);
+		for (GdlTerm term : sentence.getBody()) {
+			addConstants(term, constants, constantIndices);
+		}
+	}
+
+	private static void addConstants(GdlTerm term, List<GdlConstant> constants, Map<GdlConstant, Integer> constantIndices) {
+		if (term instanceof GdlConstant) {
+			addConstant((GdlConstant) term, constants, constantIndices);
+		} else if (term instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) term;
+			addConstant(function.getName(), constants, constantIndices);
+			for (GdlTerm child : function.getBody()) {
+				addConstants(child, constants, constantIndices);
+			}
+		} else {
+			throw new IllegalArgumentException("Propositions should not contain " + term);
+		}
+	}
+
+	private static void writeSentence(GdlSentence sentence, DataOutputStream out, Map<GdlConstant, Integer> constantIndices) throws IOException {
+		if (sentence instanceof GdlProposition) {
+			out.writeByte(PROPOSITION_SENTENCE);
+			out.writeInt(constantIndices.get(sentence.getName()));
+		} else {
+			out.writeByte(RELATION_SENTENCE);
+			out.writeInt(constantIndices.get(sentence.getName()));
+			out.writeInt(sentence.arity());
+			for (GdlTerm term : sentence.getBody()) {
+				writeTerm(term, out, constantIndices);
+			}
+		}
+	}
+
+	private static void writeTerm(GdlTerm term, DataOutputStream out, Map<GdlConstant, Integer> constantIndices) throws IOException {
+		if (term instanceof GdlConstant) {
+			out.writeByte(CONSTANT_TERM);
+			out.writeInt(constantIndices.get(term));
+		} else {
+			GdlFunction function = (GdlFunction) term;
+			out.writeByte(FUNCTION_TERM);
+			out.writeInt(constantIndices.get(function.getName()));
+			out.writeInt(function.arity());
+			for (GdlTerm child : function.getBody()) {
+				writeTerm(child, out, constantIndices);
+			}
+		}
+	}
+
+	private static GdlSentence readSentence(ByteBuffer in, GdlConstant[] constants) throws IOException {
+		byte type = in.get();
+		GdlConstant name = constants[in.getInt()];
+		if (type == PROPOSITION_SENTENCE) {
+			return GdlPool.getProposition(name);
+		} else if (type == RELATION_SENTENCE) {
+			return GdlPool.getRelation(name, readTerms(in, constants));
+		}
+		throw new IOException("Unrecognized sentence type " + type);
+	}
+
+	private static List<GdlTerm> readTerms(ByteBuffer in, GdlConstant[] constants) throws IOException {
+		int arity = in.getInt();
+		List<GdlTerm> terms = new ArrayList<GdlTerm>(arity);
+		for (int i = 0; i < arity; i++) {
+			byte type = in.get();
+			GdlConstant name = constants[in.getInt()];
+			if (type == CONSTANT_TERM) {
+				terms.add(name);
+			} else if (type == FUNCTION_TERM) {
+				terms.add(GdlPool.getFunction(name, readTerms(in, constants)));
+			} else {
+				throw new IOException("Unrecognized term type " + type);
+			}
+		}
+		return terms;
+	}
+}
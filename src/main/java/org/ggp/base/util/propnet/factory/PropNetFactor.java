@@ -0,0 +1,47 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * An independent part of a game, as found by {@link PropNetFactorizer}: a
+ * set of base propositions together with the moves that affect them. The
+ * next values of the bases of a factor, and the legality of its moves, only
+ * depend on the bases and moves of that same factor (and on the bases that
+ * no move can affect, such as step counters).
+ */
+public final class PropNetFactor {
+	private final Set<GdlSentence> bases;
+	private final Map<Role, Set<Move>> moves;
+
+	PropNetFactor(Set<GdlSentence> bases, Map<Role, Set<Move>> moves) {
+		this.bases = Collections.unmodifiableSet(bases);
+		this.moves = Collections.unmodifiableMap(moves);
+	}
+
+	/**
+	 * Returns the sentences of the base propositions in this factor.
+	 */
+	public Set<GdlSentence> getBases() {
+		return bases;
+	}
+
+	/**
+	 * Returns the moves of the role that belong to this factor. The set is
+	 * empty if the role has no move in it.
+	 */
+	public Set<Move> getMoves(Role role) {
+		Set<Move> roleMoves = moves.get(role);
+		return roleMoves == null ? Collections.<Move>emptySet() : roleMoves;
+	}
+
+	@Override
+	public String toString() {
+		return "Factor" + bases;
+	}
+}
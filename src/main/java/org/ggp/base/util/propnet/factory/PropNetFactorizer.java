@@ -0,0 +1,271 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * Splits a game into independent factors, such as the boards of a game
+ * played on several boards at once.
+ * <p>
+ * Two base or input propositions are in the same factor if one appears in
+ * the cone (the components it depends on) of the transition of the other,
+ * if a base appears in the cone of the legal proposition of an input, or if
+ * both appear under the same conjunction in the cone of the terminal
+ * proposition. Goals are not considered, nor are disjunctions of terminal
+ * conditions: they are what ties the factors back together, so a search
+ * over one factor still scores whole states.
+ * <p>
+ * Bases that no move can ever affect, directly or through other bases
+ * (step counters, control markers in most turn-taking games), are left out
+ * of every factor; they are read everywhere but change the same way
+ * whatever is played. So are inputs whose cones hold no other factor
+ * member, such as noops.
+ */
+public final class PropNetFactorizer {
+
+	private PropNetFactorizer() {
+	}
+
+	/**
+	 * Returns the factors of the propnet, ordered by their first base. A
+	 * game that cannot be split has a single factor, or none at all if no
+	 * move affects any base.
+	 */
+	public static List<PropNetFactor> factor(PropNet pn) {
+		Set<Component> bases = new HashSet<Component>(pn.getBasePropositions().values());
+		Set<Component> inputs = new HashSet<Component>(pn.getInputPropositions().values());
+		Set<Component> sources = new HashSet<Component>(bases);
+		sources.addAll(inputs);
+
+		Map<Component, Set<Component>> cones = new HashMap<Component, Set<Component>>();
+		for (Component base : bases) {
+			cones.put(base, getConeSources(base.getSingleInput(), sources));
+		}
+
+		// Bases that depend on an input, directly or through other bases.
+		Set<Component> affected = new HashSet<Component>();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Component base : bases) {
+				if (affected.contains(base)) {
+					continue;
+				}
+				for (Component source : cones.get(base)) {
+					if (inputs.contains(source) || affected.contains(source)) {
+						affected.add(base);
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+
+		Partition partition = new Partition();
+		for (Component base : affected) {
+			for (Component source : cones.get(base)) {
+				if (inputs.contains(source) || affected.contains(source)) {
+					partition.union(base, source);
+				}
+			}
+		}
+		// A conjunction that decides the end of the game ties together the
+		// bases it reads, like a line across the columns of connect four.
+		Proposition terminal = pn.getTerminalProposition();
+		Set<Component> terminalCone = (terminal == null) ? Collections.<Component>emptySet() : getCone(terminal, sources);
+		for (Component c : terminalCone) {
+			if (c instanceof And) {
+				Component first = null;
+				for (Component source : getConeSources(c, sources)) {
+					if (affected.contains(source)) {
+						if (first == null) {
+							first = source;
+						} else {
+							partition.union(first, source);
+						}
+					}
+				}
+			}
+		}
+		for (Map.Entry<Proposition, Proposition> entry : pn.getLegalInputMap().entrySet()) {
+			Component legal = entry.getKey();
+			Component input = entry.getValue();
+			if (!inputs.contains(input)) {
+				continue;
+			}
+			for (Component source : getConeSources(legal, sources)) {
+				if (affected.contains(source)) {
+					partition.union(input, source);
+				}
+			}
+		}
+
+		Map<Component, Set<GdlSentence>> factorBases = new HashMap<Component, Set<GdlSentence>>();
+		for (Component base : affected) {
+			Component root = partition.find(base);
+			if (!factorBases.containsKey(root)) {
+				factorBases.put(root, new TreeSet<GdlSentence>(BY_STRING));
+			}
+			factorBases.get(root).add(((Proposition) base).getName());
+		}
+		Map<Component, Map<Role, Set<Move>>> factorMoves = new HashMap<Component, Map<Role, Set<Move>>>();
+		for (Component input : inputs) {
+			Component root = partition.find(input);
+			if (!factorBases.containsKey(root)) {
+				continue;
+			}
+			if (!factorMoves.containsKey(root)) {
+				factorMoves.put(root, new HashMap<Role, Set<Move>>());
+			}
+			GdlSentence does = ((Proposition) input).getName();
+			Role role = new Role((GdlConstant) does.get(0));
+			if (!factorMoves.get(root).containsKey(role)) {
+				factorMoves.get(root).put(role, new HashSet<Move>());
+			}
+			factorMoves.get(root).get(role).add(new Move(does.get(1)));
+		}
+
+		List<PropNetFactor> factors = new ArrayList<PropNetFactor>();
+		for (Map.Entry<Component, Set<GdlSentence>> entry : factorBases.entrySet()) {
+			Map<Role, Set<Move>> moves = factorMoves.get(entry.getKey());
+			factors.add(new PropNetFactor(entry.getValue(), moves == null ? new HashMap<Role, Set<Move>>() : moves));
+		}
+		Collections.sort(factors, new Comparator<PropNetFactor>() {
+			@Override
+			public int compare(PropNetFactor a, PropNetFactor b) {
+				return BY_STRING.compare(a.getBases().iterator().next(), b.getBases().iterator().next());
+			}
+		});
+		return factors;
+	}
+
+	/**
+	 * Returns the moves of the role that belong to some factor other than
+	 * the given one.
+	 */
+	public static Set<Move> getMovesOutside(PropNetFactor factor, Collection<PropNetFactor> factors, Role role) {
+		Set<Move> moves = new HashSet<Move>();
+		for (PropNetFactor other : factors) {
+			if (other != factor) {
+				moves.addAll(other.getMoves(role));
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * Returns the components that the component depends on in the current
+	 * state, including itself, stopping at bases and inputs.
+	 */
+	private static Set<Component> getCone(Component start, Set<Component> sources) {
+		Set<Component> visited = new HashSet<Component>();
+		Stack<Component> toVisit = new Stack<Component>();
+		toVisit.push(start);
+		while (!toVisit.isEmpty()) {
+			Component c = toVisit.pop();
+			if (visited.add(c) && !sources.contains(c)) {
+				toVisit.addAll(c.getInputs());
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Returns the bases and inputs that the component depends on in the
+	 * current state, stopping at them.
+	 */
+	private static Set<Component> getConeSources(Component start, Set<Component> sources) {
+		Set<Component> found = new HashSet<Component>();
+		Set<Component> visited = new HashSet<Component>();
+		Stack<Component> toVisit = new Stack<Component>();
+		toVisit.push(start);
+		while (!toVisit.isEmpty()) {
+			Component c = toVisit.pop();
+			if (!visited.add(c)) {
+				continue;
+			}
+			if (sources.contains(c)) {
+				found.add(c);
+			} else {
+				toVisit.addAll(c.getInputs());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Disjoint sets of components, merged by size. Components that were
+	 * never merged with anything are sets of their own.
+	 */
+	private static final class Partition {
+		private final Map<Component, Component> parents = new HashMap<Component, Component>();
+		private final Map<Component, Integer> sizes = new HashMap<Component, Integer>();
+
+		/**
+		 * Returns the representative of the component's set, halving the
+		 * path to it along the way.
+		 */
+		Component find(Component c) {
+			while (true) {
+				Component parent = parents.get(c);
+				if (parent == null) {
+					return c;
+				}
+				Component grandparent = parents.get(parent);
+				if (grandparent == null) {
+					return parent;
+				}
+				parents.put(c, grandparent);
+				c = grandparent;
+			}
+		}
+
+		void union(Component a, Component b) {
+			Component rootA = find(a);
+			Component rootB = find(b);
+			if (rootA == rootB) {
+				return;
+			}
+			int sizeA = size(rootA);
+			int sizeB = size(rootB);
+			if (sizeA < sizeB) {
+				Component swap = rootA;
+				rootA = rootB;
+				rootB = swap;
+			}
+			parents.put(rootB, rootA);
+			sizes.put(rootA, sizeA + sizeB);
+			sizes.remove(rootB);
+		}
+
+		private int size(Component root) {
+			Integer size = sizes.get(root);
+			return (size == null) ? 1 : size;
+		}
+	}
+
+	private static final Comparator<GdlSentence> BY_STRING = new Comparator<GdlSentence>() {
+		@Override
+		public int compare(GdlSentence a, GdlSentence b) {
+			return a.toString().compareTo(b.toString());
+		}
+	};
+}
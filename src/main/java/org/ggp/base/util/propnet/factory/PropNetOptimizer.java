@@ -0,0 +1,455 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+/**
+ * Structural optimizations over an already-built {@link PropNet}, run as a
+ * configurable pipeline of passes.
+ * <p>
+ * Only gates (ANDs, ORs and NOTs) are ever merged, rewired or created.
+ * Propositions keep their identity, so the base, input, legal, goal, terminal
+ * and INIT propositions of the network mean the same thing afterwards, and
+ * machines built on the optimized network produce the same states and moves.
+ * The only exception is {@link Pass#REMOVE_UNUSED}, which removes any
+ * component (propositions included) that cannot affect those propositions.
+ * <p>
+ * Like {@link PropNet#removeComponent(Component)}, none of this is
+ * thread-safe; optimize the network before handing it to any machine.
+ */
+public final class PropNetOptimizer {
+
+	/**
+	 * A single structural optimization.
+	 */
+	public enum Pass {
+		/**
+		 * Evaluates everything that only depends on {@link Constant}s. Gates
+		 * with a fixed value are replaced by a constant, propositions and
+		 * transitions with a fixed value are fed by one, and constant inputs
+		 * that cannot change the value of a gate are dropped.
+		 */
+		FOLD_CONSTANTS {
+			@Override
+			void apply(PropNet pn) {
+				foldConstants(pn);
+			}
+		},
+		/**
+		 * Rewrites an AND of at least two NOTs that have no other outputs as
+		 * the NOT of an OR, and likewise for an OR of NOTs.
+		 */
+		DE_MORGAN {
+			@Override
+			void apply(PropNet pn) {
+				applyDeMorgan(pn);
+			}
+		},
+		/**
+		 * Connects the outputs of a NOT of a NOT to the original input.
+		 */
+		DOUBLE_NEGATION {
+			@Override
+			void apply(PropNet pn) {
+				removeDoubleNegations(pn);
+			}
+		},
+		/**
+		 * Connects the outputs of an AND or OR with a single input to that
+		 * input.
+		 */
+		SINGLE_INPUT_GATES {
+			@Override
+			void apply(PropNet pn) {
+				collapseSingleInputGates(pn);
+			}
+		},
+		/**
+		 * Merges gates of the same type with the same inputs.
+		 */
+		COMMON_SUBEXPRESSIONS {
+			@Override
+			void apply(PropNet pn) {
+				mergeCommonSubexpressions(pn);
+			}
+		},
+		/**
+		 * Removes every component that does not (through any number of
+		 * transitions) feed a legal, goal, terminal, base or input
+		 * proposition.
+		 */
+		REMOVE_UNUSED {
+			@Override
+			void apply(PropNet pn) {
+				removeUnused(pn);
+			}
+		};
+
+		abstract void apply(PropNet pn);
+	}
+
+	/**
+	 * What one run of a pass did to the network.
+	 */
+	public static final class Report {
+		private final Pass pass;
+		private final int componentsRemoved;
+		private final int linksRemoved;
+		private final long time;
+
+		Report(Pass pass, int componentsRemoved, int linksRemoved, long time) {
+			this.pass = pass;
+			this.componentsRemoved = componentsRemoved;
+			this.linksRemoved = linksRemoved;
+			this.time = time;
+		}
+
+		public Pass getPass() {
+			return pass;
+		}
+
+		/** The net number of components removed. */
+		public int getComponentsRemoved() {
+			return componentsRemoved;
+		}
+
+		/** The net number of links removed. */
+		public int getLinksRemoved() {
+			return linksRemoved;
+		}
+
+		/** The time taken by the pass, in milliseconds. */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return pass + ": -" + componentsRemoved + " components, -" + linksRemoved + " links (" + time + "ms)";
+		}
+	}
+
+	/** The passes run by {@link #PropNetOptimizer()}, in order. */
+	public static final List<Pass> DEFAULT_PASSES = Collections.unmodifiableList(Arrays.asList(
+			Pass.FOLD_CONSTANTS, Pass.DE_MORGAN, Pass.DOUBLE_NEGATION, Pass.SINGLE_INPUT_GATES,
+			Pass.COMMON_SUBEXPRESSIONS, Pass.REMOVE_UNUSED));
+
+	private final List<Pass> passes;
+	private final int maxRounds;
+
+	/**
+	 * Creates an optimizer that runs the {@link #DEFAULT_PASSES} until they
+	 * stop making progress, at most four times.
+	 */
+	public PropNetOptimizer() {
+		this(DEFAULT_PASSES, 4);
+	}
+
+	/**
+	 * @param passes the passes to run, in order. A pass may appear more than once.
+	 * @param maxRounds how many times to run the whole list at most. Each
+	 * pass can expose work for the others, so the list is run again for as
+	 * long as the previous round changed the network.
+	 */
+	public PropNetOptimizer(List<Pass> passes, int maxRounds) {
+		this.passes = new ArrayList<Pass>(passes);
+		this.maxRounds = maxRounds;
+	}
+
+	/**
+	 * Optimizes the propnet in place.
+	 *
+	 * @return what each pass run did, in the order they were run.
+	 */
+	public List<Report> optimize(PropNet pn) {
+		List<Report> reports = new ArrayList<Report>();
+		int startComponents = pn.getSize();
+		int startLinks = pn.getNumLinks();
+		long startTime = System.currentTimeMillis();
+		for (int round = 0; round < maxRounds; round++) {
+			boolean changed = false;
+			for (Pass pass : passes) {
+				int components = pn.getSize();
+				int links = pn.getNumLinks();
+				long passStart = System.currentTimeMillis();
+				pass.apply(pn);
+				Report report = new Report(pass, components - pn.getSize(), links - pn.getNumLinks(), System.currentTimeMillis() - passStart);
+				reports.add(report);
+				changed |= report.getComponentsRemoved() != 0 || report.getLinksRemoved() != 0;
+			}
+			if (!changed) {
+				break;
+			}
+		}
+		GamerLogger.log("StateMachine", "Optimized propnet from " + startComponents + " to " + pn.getSize() + " components and from "
+				+ startLinks + " to " + pn.getNumLinks() + " links in " + (System.currentTimeMillis() - startTime) + "ms " + reports);
+		return reports;
+	}
+
+	/* The passes */
+
+	private static void foldConstants(PropNet pn) {
+		// Find every component whose value is fixed, starting from the constants.
+		Map<Component, Boolean> fixed = new HashMap<Component, Boolean>();
+		Stack<Component> toVisit = new Stack<Component>();
+		Constant trueConstant = null;
+		Constant falseConstant = null;
+		for (Component c : pn.getComponents()) {
+			if (c instanceof Constant) {
+				fixed.put(c, c.getValue());
+				toVisit.push(c);
+				if (c.getValue()) {
+					trueConstant = (Constant) c;
+				} else {
+					falseConstant = (Constant) c;
+				}
+			}
+		}
+		while (!toVisit.isEmpty()) {
+			Component c = toVisit.pop();
+			for (Component out : c.getOutputs()) {
+				if (fixed.containsKey(out) || isBase(out)) {
+					continue;
+				}
+				Boolean value = evaluate(out, fixed);
+				if (value != null) {
+					fixed.put(out, value);
+					toVisit.push(out);
+				}
+			}
+		}
+
+		for (Map.Entry<Component, Boolean> entry : fixed.entrySet()) {
+			Component c = entry.getKey();
+			if (c instanceof Constant) {
+				continue;
+			}
+			Constant constant;
+			if (entry.getValue()) {
+				if (trueConstant == null) {
+					trueConstant = new Constant(true);
+					pn.addComponent(trueConstant);
+				}
+				constant = trueConstant;
+			} else {
+				if (falseConstant == null) {
+					falseConstant = new Constant(false);
+					pn.addComponent(falseConstant);
+				}
+				constant = falseConstant;
+			}
+			if (isGate(c)) {
+				for (Component out : new ArrayList<Component>(c.getOutputs())) {
+					// Outputs with fixed values get their own constant
+					if (!fixed.containsKey(out)) {
+						link(constant, out);
+					}
+				}
+				pn.removeComponent(c);
+			} else {
+				for (Component in : new ArrayList<Component>(c.getInputs())) {
+					unlink(in, c);
+				}
+				link(constant, c);
+			}
+		}
+
+		// Whatever constants are still inputs of a gate cannot decide its value.
+		for (Component c : pn.getComponents()) {
+			if (!(c instanceof Constant)) {
+				continue;
+			}
+			for (Component out : new ArrayList<Component>(c.getOutputs())) {
+				if (out instanceof And || out instanceof Or) {
+					unlink(c, out);
+				}
+			}
+		}
+	}
+
+	private static void applyDeMorgan(PropNet pn) {
+		for (Component gate : new ArrayList<Component>(pn.getComponents())) {
+			if (!(gate instanceof And || gate instanceof Or) || !pn.getComponents().contains(gate)) {
+				continue;
+			}
+			int exclusive = 0;
+			boolean allNots = true;
+			for (Component in : gate.getInputs()) {
+				if (!(in instanceof Not)) {
+					allNots = false;
+					break;
+				}
+				if (in.getOutputs().size() == 1) {
+					exclusive++;
+				}
+			}
+			// Replacing the gate takes a new gate and a new NOT, so it only
+			// pays off if at least two NOTs go away with it.
+			if (!allNots || exclusive < 2) {
+				continue;
+			}
+			Component dual = (gate instanceof And) ? new Or() : new And();
+			Not not = new Not();
+			pn.addComponent(dual);
+			pn.addComponent(not);
+			for (Component in : new ArrayList<Component>(gate.getInputs())) {
+				link(in.getSingleInput(), dual);
+			}
+			link(dual, not);
+			for (Component out : new ArrayList<Component>(gate.getOutputs())) {
+				link(not, out);
+			}
+			List<Component> inputs = new ArrayList<Component>(gate.getInputs());
+			pn.removeComponent(gate);
+			for (Component in : inputs) {
+				if (in.getOutputs().isEmpty()) {
+					pn.removeComponent(in);
+				}
+			}
+		}
+	}
+
+	private static void removeDoubleNegations(PropNet pn) {
+		for (Component outer : new ArrayList<Component>(pn.getComponents())) {
+			if (!(outer instanceof Not) || !pn.getComponents().contains(outer)) {
+				continue;
+			}
+			Component inner = outer.getSingleInput();
+			if (!(inner instanceof Not)) {
+				continue;
+			}
+			Component original = inner.getSingleInput();
+			for (Component out : new ArrayList<Component>(outer.getOutputs())) {
+				link(original, out);
+			}
+			pn.removeComponent(outer);
+			if (inner.getOutputs().isEmpty()) {
+				pn.removeComponent(inner);
+			}
+		}
+	}
+
+	private static void collapseSingleInputGates(PropNet pn) {
+		for (Component gate : new ArrayList<Component>(pn.getComponents())) {
+			if (!(gate instanceof And || gate instanceof Or) || gate.getInputs().size() != 1) {
+				continue;
+			}
+			Component in = gate.getSingleInput();
+			for (Component out : new ArrayList<Component>(gate.getOutputs())) {
+				link(in, out);
+			}
+			pn.removeComponent(gate);
+		}
+	}
+
+	private static void mergeCommonSubexpressions(PropNet pn) {
+		// Merging two gates can make their outputs identical too, so repeat
+		// until nothing more is merged.
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			Map<List<Object>, Component> seen = new HashMap<List<Object>, Component>();
+			for (Component gate : new ArrayList<Component>(pn.getComponents())) {
+				if (!isGate(gate) || !pn.getComponents().contains(gate)) {
+					continue;
+				}
+				List<Object> key = Arrays.<Object>asList(gate.getClass(), new HashSet<Component>(gate.getInputs()));
+				Component keeper = seen.get(key);
+				if (keeper == null) {
+					seen.put(key, gate);
+					continue;
+				}
+				for (Component out : new ArrayList<Component>(gate.getOutputs())) {
+					link(keeper, out);
+				}
+				pn.removeComponent(gate);
+				merged = true;
+			}
+		}
+	}
+
+	private static void removeUnused(PropNet pn) {
+		Set<Component> useful = new HashSet<Component>();
+		Stack<Component> toVisit = new Stack<Component>();
+		toVisit.push(pn.getTerminalProposition());
+		toVisit.push(pn.getInitProposition());
+		for (Set<Proposition> legals : pn.getLegalPropositions().values()) {
+			toVisit.addAll(legals);
+		}
+		for (Set<Proposition> goals : pn.getGoalPropositions().values()) {
+			toVisit.addAll(goals);
+		}
+		toVisit.addAll(pn.getBasePropositions().values());
+		toVisit.addAll(pn.getInputPropositions().values());
+		while (!toVisit.isEmpty()) {
+			Component c = toVisit.pop();
+			if (c != null && useful.add(c)) {
+				toVisit.addAll(c.getInputs());
+			}
+		}
+		for (Component c : new ArrayList<Component>(pn.getComponents())) {
+			if (!useful.contains(c)) {
+				pn.removeComponent(c);
+			}
+		}
+	}
+
+	/* Helpers */
+
+	/**
+	 * Returns the value of the component if its inputs fix it, or null.
+	 */
+	private static Boolean evaluate(Component c, Map<Component, Boolean> fixed) {
+		if (c instanceof Not) {
+			Boolean in = fixed.get(c.getSingleInput());
+			return (in == null) ? null : !in;
+		}
+		// ANDs are decided by a false input, everything else by a true one.
+		boolean decider = !(c instanceof And);
+		boolean allFixed = true;
+		for (Component in : c.getInputs()) {
+			Boolean value = fixed.get(in);
+			if (value == null) {
+				allFixed = false;
+			} else if (value == decider) {
+				return decider;
+			}
+		}
+		return allFixed ? !decider : null;
+	}
+
+	private static boolean isGate(Component c) {
+		return c instanceof And || c instanceof Or || c instanceof Not;
+	}
+
+	private static boolean isBase(Component c) {
+		return c instanceof Proposition && c.getInputs().size() == 1 && c.getSingleInput() instanceof Transition;
+	}
+
+	private static void link(Component in, Component out) {
+		in.addOutput(out);
+		out.addInput(in);
+	}
+
+	private static void unlink(Component in, Component out) {
+		in.removeOutput(out);
+		out.removeInput(in);
+	}
+}
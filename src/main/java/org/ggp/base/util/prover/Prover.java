@@ -9,4 +9,15 @@ public interface Prover
 	public abstract Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context);
 	public abstract GdlSentence askOne(GdlSentence query, Set<GdlSentence> context);
 	public abstract boolean prove(GdlSentence query, Set<GdlSentence> context);
+
+	/*
+	 * The same queries, asked on behalf of a scope (normally the MachineState
+	 * the context came from). Queries with the same scope may share what they
+	 * derive, so every context given with a scope must hold the same true
+	 * sentences; only the does sentences may differ. Provers are free to
+	 * ignore the scope.
+	 */
+	public abstract Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context, Object scope);
+	public abstract GdlSentence askOne(GdlSentence query, Set<GdlSentence> context, Object scope);
+	public abstract boolean prove(GdlSentence query, Set<GdlSentence> context, Object scope);
 }
@@ -6,6 +6,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ggp.base.util.gdl.GdlUtils;
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -18,6 +19,7 @@ import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
 import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
 import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.cache.ProverCache;
@@ -27,32 +29,114 @@ import org.ggp.base.util.prover.aima.substituter.Substituter;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
+import com.google.common.base.Predicates;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 
 
+/**
+ * Answers queries by backward chaining over the game rules, with subgoal
+ * results tabled in three places. Answers that can't depend on true or
+ * does sentences are kept for good. Answers that depend on true sentences
+ * but not on does sentences are kept per scope, when the query is asked
+ * with one: queries on the same state (legal, goal, terminal and next)
+ * then derive those relations only once between them. Everything else is
+ * kept for the rest of the query.
+ *
+ * Scopes are compared by identity and held weakly, so a scope's answers
+ * go away once the scope (normally a MachineState) is garbage collected,
+ * or sooner if more than the configured number of scopes are live.
+ */
 public final class AimaProver implements Prover
 {
+	/** Default number of scopes whose answers are kept. */
+	public static final int DEFAULT_MAX_SCOPES = 256;
 
 	private final KnowledgeBase knowledgeBase;
 
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	/** Names of the sentences that can depend on does sentences. */
+	private final Set<GdlConstant> doesDependent;
+
+	/** Null if scopes are ignored. */
+	private final Cache<Object, ProverCache> scopeCaches;
+	private final AtomicLong scopeCacheHits = new AtomicLong();
+	private final AtomicLong scopeCacheMisses = new AtomicLong();
+
 	public AimaProver(List<Gdl> description)
+	{
+		this(description, DEFAULT_MAX_SCOPES);
+	}
+
+	/**
+	 * @param maxScopes Number of scopes whose answers are kept at once. With
+	 *        0, scopes are ignored.
+	 */
+	public AimaProver(List<Gdl> description, int maxScopes)
 	{
 		description = DistinctAndNotMover.run(description);
 		knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+		doesDependent = findDoesDependent(description);
+		if (maxScopes > 0)
+		{
+			scopeCaches = CacheBuilder.newBuilder()
+					.weakKeys()
+					.maximumSize(maxScopes)
+					.recordStats()
+					.build();
+		}
+		else
+		{
+			scopeCaches = null;
+		}
+	}
+
+	private static Set<GdlConstant> findDoesDependent(List<Gdl> description)
+	{
+		Set<GdlConstant> names = Sets.newHashSet(GdlPool.DOES);
+		SetMultimap<GdlConstant, GdlConstant> dependencies = HashMultimap.create();
+		for (Gdl gdl : description)
+		{
+			if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule) gdl;
+				GdlConstant head = rule.getHead().getName();
+				names.add(head);
+				for (GdlSentence sentence : GdlUtils.getSentencesInRuleBody(rule))
+				{
+					dependencies.put(head, sentence.getName());
+				}
+			}
+		}
+		return DependencyGraphs.getMatchingAndDownstream(names, dependencies, Predicates.equalTo(GdlPool.DOES));
 	}
 
-	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
+	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, Object scope, boolean askOne)
 	{
 		LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
 		goals.add(query);
 
+		ProverCache stateCache = null;
+		if (scope != null && scopeCaches != null)
+		{
+			stateCache = scopeCaches.getIfPresent(scope);
+			if (stateCache == null)
+			{
+				// Two threads may both miss here, and the later one wins;
+				// the answers lost were correct, just not shared.
+				stateCache = ProverCache.createMultiThreadedCache();
+				scopeCaches.put(scope, stateCache);
+			}
+		}
+
 		Set<Substitution> answers = new HashSet<Substitution>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
+		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(), stateCache,
 				new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
 		Set<GdlSentence> results = new HashSet<GdlSentence>();
@@ -64,7 +148,7 @@ public final class AimaProver implements Prover
 		return results;
 	}
 
-	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+	private void ask(LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache stateCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (goals.size() == 0)
 		{
@@ -80,22 +164,22 @@ public final class AimaProver implements Prover
 			if (qPrime instanceof GdlDistinct)
 			{
 				GdlDistinct distinct = (GdlDistinct) qPrime;
-				askDistinct(distinct, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+				askDistinct(distinct, goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstant);
 			}
 			else if (qPrime instanceof GdlNot)
 			{
 				GdlNot not = (GdlNot) qPrime;
-				askNot(not, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+				askNot(not, goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstant);
 			}
 			else if (qPrime instanceof GdlOr)
 			{
 				GdlOr or = (GdlOr) qPrime;
-				askOr(or, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+				askOr(or, goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstant);
 			}
 			else
 			{
 				GdlSentence sentence = (GdlSentence) qPrime;
-				askSentence(sentence, goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+				askSentence(sentence, goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstant);
 			}
 
 			goals.addFirst(literal);
@@ -105,32 +189,38 @@ public final class AimaProver implements Prover
 	@Override
 	public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
 	{
-		return ask(query, context, false);
+		return ask(query, context, null, false);
+	}
+
+	@Override
+	public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		return ask(query, context, scope, false);
 	}
 
-	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
+	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache stateCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (!distinct.getArg1().equals(distinct.getArg2()))
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstant);
+			ask(goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstant);
 		} else {
 			isConstant.value = true;
 		}
 	}
 
-	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+	private void askNot(GdlNot not, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache stateCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
 	{
 		LinkedList<GdlLiteral> notGoals = new LinkedList<GdlLiteral>();
 		notGoals.add(not.getBody());
 
 		Set<Substitution> notResults = new HashSet<Substitution>();
 		boolean isConstant = true;
-		ask(notGoals, context, theta, cache, renamer, true, notResults, recursionHandler, isConstantRet);
+		ask(notGoals, context, theta, cache, stateCache, renamer, true, notResults, recursionHandler, isConstantRet);
 		isConstant &= isConstantRet.value;
 
 		if (notResults.size() == 0)
 		{
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 		}
 		isConstantRet.value = isConstant;
@@ -139,17 +229,23 @@ public final class AimaProver implements Prover
 	@Override
 	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
 	{
-		Set<GdlSentence> results = ask(query, context, true);
+		return askOne(query, context, null);
+	}
+
+	@Override
+	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		Set<GdlSentence> results = ask(query, context, scope, true);
 		return (results.size() > 0) ? results.iterator().next() : null;
 	}
 
-	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
+	private void askOr(GdlOr or, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache stateCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstantRet)
 	{
 		boolean isConstant = true;
 		for (int i = 0; i < or.arity(); i++)
 		{
 			goals.addFirst(or.get(i));
-			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta, cache, stateCache, renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 			goals.removeFirst();
 
@@ -161,15 +257,15 @@ public final class AimaProver implements Prover
 		isConstantRet.value = isConstant;
 	}
 
-	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
+	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, ProverCache stateCache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-				context, theta, cache, renamer, recursionHandler, isConstantRet);
+				context, theta, cache, stateCache, renamer, recursionHandler, isConstantRet);
 
 		boolean isConstant = isConstantRet.value;
 		for (Substitution thetaPrime : sentenceResults)
 		{
-			ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			ask(goals, context, theta.compose(thetaPrime), cache, stateCache, renamer, askOne, results, recursionHandler, isConstantRet);
 			isConstant &= isConstantRet.value;
 			if (askOne && (results.size() > 0))
 			{
@@ -181,10 +277,14 @@ public final class AimaProver implements Prover
 
 	private Collection<Substitution> findSentenceResults(GdlSentence sentence,
 			KnowledgeBase context, Substitution theta,
-			ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
+			ProverCache cache, ProverCache stateCache, VariableRenamer renamer, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
-		if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
+		// Answers that don't depend on does sentences are the same for
+		// every query in the scope
+		boolean scoped = (stateCache != null) && !doesDependent.contains(sentence.getName());
+		ProverCache answerCache = scoped ? stateCache : cache;
+		if (!fixedAnswerCache.contains(varRenamedSentence) && !answerCache.contains(varRenamedSentence))
 		{
 			if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
 				//Mark that we're in recursive mode and shouldn't cache results
@@ -217,7 +317,7 @@ public final class AimaProver implements Prover
 						sentenceGoals.add(r.get(i));
 					}
 
-					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, stateCache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
 					isConstant &= isConstantRet.value;
 				}
 			}
@@ -242,7 +342,7 @@ public final class AimaProver implements Prover
 								sentenceGoals.add(r.get(i));
 							}
 
-							ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+							ask(sentenceGoals, context, theta.compose(thetaPrime), cache, stateCache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
 							isConstant &= isConstantRet.value;
 						}
 					}
@@ -258,7 +358,10 @@ public final class AimaProver implements Prover
 				if (isConstant) {
 					fixedAnswerCache.put(sentence, varRenamedSentence, sentenceResults);
 				} else {
-					cache.put(sentence, varRenamedSentence, sentenceResults);
+					answerCache.put(sentence, varRenamedSentence, sentenceResults);
+					if (scoped) {
+						scopeCacheMisses.incrementAndGet();
+					}
 				}
 			}
 
@@ -273,7 +376,10 @@ public final class AimaProver implements Prover
 		List<Substitution> cachedResults = fixedAnswerCache.get(sentence, varRenamedSentence);
 		isConstantRet.value = (cachedResults != null);
 		if (cachedResults == null) {
-			cachedResults = cache.get(sentence, varRenamedSentence);
+			cachedResults = answerCache.get(sentence, varRenamedSentence);
+			if (scoped) {
+				scopeCacheHits.incrementAndGet();
+			}
 		}
 		return cachedResults;
 	}
@@ -303,6 +409,30 @@ public final class AimaProver implements Prover
 		return askOne(query, context) != null;
 	}
 
+	@Override
+	public boolean prove(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		return askOne(query, context, scope) != null;
+	}
+
+	/** Number of subgoals answered from a scope's table. */
+	public long getScopeCacheHits()
+	{
+		return scopeCacheHits.get();
+	}
+
+	/** Number of subgoals derived and added to a scope's table. */
+	public long getScopeCacheMisses()
+	{
+		return scopeCacheMisses.get();
+	}
+
+	/** Number of scopes whose tables were dropped, whether for space or because the scope was collected. */
+	public long getScopeCacheEvictions()
+	{
+		return (scopeCaches == null) ? 0 : scopeCaches.stats().evictionCount();
+	}
+
 	/*
 	 * Mutable value holder; gets modified by methods it's passed to, as a kind of
 	 * additional return value. Tracks whether queries involve "true" or "does" sentences;
@@ -8,42 +8,352 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
+import com.google.common.collect.ImmutableList;
 
+/**
+ * The rules and facts of a game, or a query's context, indexed for
+ * retrieval by the sentence they have to match.
+ *
+ * Rules are grouped by the name of their head. Within a group, each
+ * argument position of the head (including positions nested inside
+ * functions) indexes its rules by the constant or function found there.
+ * A query can then be narrowed down by any of its constants, wherever
+ * they occur: fetching (true (cell 3 3 ?x)) only returns the true facts
+ * whose first argument is (cell 3 3 something), plus any rules whose heads
+ * have a variable along the way. The candidate list for every constant at
+ * every position is worked out ahead of time, so fetch() just walks the
+ * query and returns the shortest list it comes across.
+ *
+ * A group is indexed once it has been fetched from a few times, unless it
+ * is small enough to just scan. Apart from that the knowledge base never changes,
+ * so fetching takes no lock. Rules are always returned in the order given.
+ */
 public final class KnowledgeBase
 {
-	private final Map<GdlConstant, List<GdlRule>> contents;
+	/** Groups this small are scanned rather than indexed. */
+	private static final int MIN_INDEXED_RULES = 8;
+	/**
+	 * Number of fetches from a group before it is indexed. A query context
+	 * only lives for one query, and often isn't fetched from enough to
+	 * repay the index.
+	 */
+	private static final int FETCHES_BEFORE_INDEXING = 16;
+
+	/** Never modified after construction, so it can be read without a lock. */
+	private final Map<GdlConstant, Group> contents;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
-		contents = new HashMap<GdlConstant, List<GdlRule>>();
+		contents = new HashMap<GdlConstant, Group>();
 		for (Gdl gdl : description)
 		{
 			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
 			GdlConstant key = rule.getHead().getName();
 
-			if (!contents.containsKey(key))
+			Group group = contents.get(key);
+			if (group == null)
+			{
+				group = new Group();
+				contents.put(key, group);
+			}
+			group.rules.add(rule);
+		}
+	}
+
+	/**
+	 * Returns the rules whose heads might unify with the sentence. The
+	 * result may include rules that turn out not to unify, but never
+	 * leaves out one that does.
+	 */
+	public List<GdlRule> fetch(GdlSentence sentence)
+	{
+		Group group = contents.get(sentence.getName());
+		if (group == null)
+		{
+			return ImmutableList.of();
+		}
+		return group.fetch(sentence);
+	}
+
+	/** The rules for one head name. */
+	private static final class Group
+	{
+		/** Only added to while the knowledge base is being built. */
+		private final List<GdlRule> rules = new ArrayList<GdlRule>();
+		/** Built once the group has been fetched from often enough. */
+		private volatile Position[] arguments;
+		/** Only counts up to the threshold; lost updates just delay it. */
+		private int fetches;
+
+		List<GdlRule> fetch(GdlSentence sentence)
+		{
+			if (rules.size() <= MIN_INDEXED_RULES)
+			{
+				return rules;
+			}
+			Position[] positions = arguments;
+			if (positions == null)
+			{
+				if (++fetches < FETCHES_BEFORE_INDEXING)
+				{
+					return rules;
+				}
+				// Threads that race here build equal indexes, and any of
+				// them will do.
+				positions = buildIndex();
+				arguments = positions;
+			}
+			List<GdlRule> best = rules;
+			if (sentence.arity() == positions.length)
+			{
+				// (Heads of a different arity can't unify, so for those any
+				// list will do; unification sorts them out.)
+				for (int i = 0; i < positions.length; i++)
+				{
+					best = positions[i].select(sentence.get(i), best);
+				}
+			}
+			return best;
+		}
+
+		private Position[] buildIndex()
+		{
+			int arity = 0;
+			for (GdlRule rule : rules)
+			{
+				arity = Math.max(arity, rule.getHead().arity());
+			}
+			List<List<Entry>> byPosition = new ArrayList<List<Entry>>();
+			for (int i = 0; i < arity; i++)
+			{
+				byPosition.add(new ArrayList<Entry>());
+			}
+			for (int r = 0; r < rules.size(); r++)
+			{
+				GdlSentence head = rules.get(r).getHead();
+				for (int i = 0; i < head.arity(); i++)
+				{
+					byPosition.get(i).add(new Entry(head.get(i), r));
+				}
+			}
+			Position[] positions = new Position[arity];
+			for (int i = 0; i < arity; i++)
+			{
+				positions[i] = new Position(rules, byPosition.get(i), new int[0]);
+			}
+			return positions;
+		}
+	}
+
+	/** A head term at some position, and the index of its rule. */
+	private static final class Entry
+	{
+		final GdlTerm term;
+		final int rule;
+
+		Entry(GdlTerm term, int rule)
+		{
+			this.term = term;
+			this.rule = rule;
+		}
+	}
+
+	/** One argument position, nested or not, of the heads in a group. */
+	private static final class Position
+	{
+		/** For each constant, the rules that can match it here. */
+		private final Map<GdlConstant, List<GdlRule>> constants;
+		/** The positions inside each function that appears here. */
+		private final Map<GdlConstant, FunctionPosition> functions;
+		/**
+		 * The rules with a variable here or at an enclosing position. They
+		 * can match anything, and are included in every list above.
+		 */
+		private final List<GdlRule> variables;
+
+		/**
+		 * @param enclosing Indices of the rules with a variable at an
+		 *        enclosing position, in order.
+		 */
+		Position(List<GdlRule> rules, List<Entry> entries, int[] enclosing)
+		{
+			Map<GdlConstant, List<Integer>> byConstant = new HashMap<GdlConstant, List<Integer>>();
+			Map<GdlConstant, List<Entry>> byFunction = new HashMap<GdlConstant, List<Entry>>();
+			List<Integer> vars = new ArrayList<Integer>();
+			for (Entry entry : entries)
+			{
+				if (entry.term instanceof GdlConstant)
+				{
+					GdlConstant constant = (GdlConstant) entry.term;
+					if (!byConstant.containsKey(constant))
+					{
+						byConstant.put(constant, new ArrayList<Integer>());
+					}
+					byConstant.get(constant).add(entry.rule);
+				}
+				else if (entry.term instanceof GdlFunction)
+				{
+					GdlConstant name = ((GdlFunction) entry.term).getName();
+					if (!byFunction.containsKey(name))
+					{
+						byFunction.put(name, new ArrayList<Entry>());
+					}
+					byFunction.get(name).add(entry);
+				}
+				else
+				{
+					vars.add(entry.rule);
+				}
+			}
+
+			int[] anything = merge(enclosing, vars);
+			variables = toRules(rules, anything);
+			constants = new HashMap<GdlConstant, List<GdlRule>>();
+			for (Map.Entry<GdlConstant, List<Integer>> entry : byConstant.entrySet())
+			{
+				constants.put(entry.getKey(), toRules(rules, merge(anything, entry.getValue())));
+			}
+			functions = new HashMap<GdlConstant, FunctionPosition>();
+			for (Map.Entry<GdlConstant, List<Entry>> entry : byFunction.entrySet())
+			{
+				functions.put(entry.getKey(), FunctionPosition.create(rules, entry.getValue(), anything));
+			}
+		}
+
+		/**
+		 * Narrows the rules down by the query term at this position.
+		 * Returns the shortest candidate list found, or best if none is
+		 * shorter.
+		 */
+		List<GdlRule> select(GdlTerm term, List<GdlRule> best)
+		{
+			if (term instanceof GdlConstant)
+			{
+				List<GdlRule> matches = constants.get(term);
+				return shorter(matches == null ? variables : matches, best);
+			}
+			else if (term instanceof GdlFunction)
 			{
-				contents.put(key, new ArrayList<GdlRule>());
+				GdlFunction function = (GdlFunction) term;
+				FunctionPosition matches = functions.get(function.getName());
+				while (matches != null && matches.arguments.length != function.arity())
+				{
+					matches = matches.next;
+				}
+				if (matches == null)
+				{
+					return shorter(variables, best);
+				}
+				best = shorter(matches.rules, best);
+				for (int i = 0; i < function.arity(); i++)
+				{
+					best = matches.arguments[i].select(function.get(i), best);
+				}
 			}
-			contents.get(key).add(rule);
+			return best;
+		}
+
+		private static List<GdlRule> shorter(List<GdlRule> a, List<GdlRule> b)
+		{
+			return (a.size() < b.size()) ? a : b;
 		}
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	/**
+	 * The positions inside a function that appears at some position. Each
+	 * arity of a function name gets its own, chained through next.
+	 */
+	private static final class FunctionPosition
 	{
-		GdlConstant key = sentence.getName();
+		/** The rules that can match a function with this name and arity. */
+		final List<GdlRule> rules;
+		final Position[] arguments;
+		final FunctionPosition next;
 
-		if (contents.containsKey(key))
+		private FunctionPosition(List<GdlRule> rules, Position[] arguments, FunctionPosition next)
 		{
-			return contents.get(key);
+			this.rules = rules;
+			this.arguments = arguments;
+			this.next = next;
 		}
-		else
+
+		static FunctionPosition create(List<GdlRule> allRules, List<Entry> entries, int[] enclosing)
+		{
+			Map<Integer, List<Entry>> byArity = new HashMap<Integer, List<Entry>>();
+			for (Entry entry : entries)
+			{
+				int arity = ((GdlFunction) entry.term).arity();
+				if (!byArity.containsKey(arity))
+				{
+					byArity.put(arity, new ArrayList<Entry>());
+				}
+				byArity.get(arity).add(entry);
+			}
+
+			FunctionPosition chain = null;
+			for (Map.Entry<Integer, List<Entry>> group : byArity.entrySet())
+			{
+				int arity = group.getKey();
+				List<Integer> here = new ArrayList<Integer>();
+				List<List<Entry>> byPosition = new ArrayList<List<Entry>>();
+				for (int i = 0; i < arity; i++)
+				{
+					byPosition.add(new ArrayList<Entry>());
+				}
+				for (Entry entry : group.getValue())
+				{
+					here.add(entry.rule);
+					GdlFunction function = (GdlFunction) entry.term;
+					for (int i = 0; i < arity; i++)
+					{
+						byPosition.get(i).add(new Entry(function.get(i), entry.rule));
+					}
+				}
+				Position[] arguments = new Position[arity];
+				for (int i = 0; i < arity; i++)
+				{
+					arguments[i] = new Position(allRules, byPosition.get(i), enclosing);
+				}
+				chain = new FunctionPosition(toRules(allRules, merge(enclosing, here)), arguments, chain);
+			}
+			return chain;
+		}
+	}
+
+	/** Merges two ascending lists of rule indices. */
+	private static int[] merge(int[] a, List<Integer> b)
+	{
+		int[] merged = new int[a.length + b.size()];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < a.length || j < b.size())
+		{
+			if (j == b.size() || (i < a.length && a[i] < b.get(j)))
+			{
+				merged[n++] = a[i++];
+			}
+			else
+			{
+				merged[n++] = b.get(j++);
+			}
+		}
+		return merged;
+	}
+
+	private static List<GdlRule> toRules(List<GdlRule> rules, int[] indices)
+	{
+		GdlRule[] result = new GdlRule[indices.length];
+		for (int i = 0; i < indices.length; i++)
 		{
-			return new ArrayList<GdlRule>();
+			result[i] = rules.get(indices[i]);
 		}
+		return ImmutableList.copyOf(result);
 	}
-}
\ No newline at end of file
+}
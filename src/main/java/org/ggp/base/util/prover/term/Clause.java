@@ -0,0 +1,79 @@
+package org.ggp.base.util.prover.term;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * A rule (or fact) with its head and body interned in a {@link TermPool}.
+ * Its variables are numbered 0 to numVars - 1 (as terms, -1 down to
+ * -numVars), so one use of the rule needs just numVars binding slots.
+ */
+final class Clause
+{
+	final int head;
+	final Literal[] body;
+	final int numVars;
+
+	Clause(GdlRule rule, TermPool pool)
+	{
+		Map<GdlVariable, Integer> variables = new HashMap<GdlVariable, Integer>();
+		head = pool.fromGdl(rule.getHead(), variables);
+		body = new Literal[rule.arity()];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = new Literal(rule.get(i), pool, variables);
+		}
+		numVars = variables.size();
+	}
+
+	static final class Literal
+	{
+		static final int SENTENCE = 0;
+		static final int NOT = 1;
+		static final int DISTINCT = 2;
+		static final int OR = 3;
+
+		final int kind;
+		/** The sentence, or the first distinct term. */
+		final int term;
+		/** The second distinct term. */
+		final int term2;
+		/** The disjuncts of an OR, or the one literal a NOT negates. */
+		final Literal[] disjuncts;
+
+		Literal(GdlLiteral literal, TermPool pool, Map<GdlVariable, Integer> variables)
+		{
+			int term = 0;
+			int term2 = 0;
+			Literal[] disjuncts = null;
+			if (literal instanceof GdlSentence) {
+				kind = SENTENCE;
+				term = pool.fromGdl(literal, variables);
+			} else if (literal instanceof GdlNot) {
+				kind = NOT;
+				disjuncts = new Literal[] {new Literal(((GdlNot) literal).getBody(), pool, variables)};
+			} else if (literal instanceof GdlDistinct) {
+				kind = DISTINCT;
+				term = pool.fromGdl(((GdlDistinct) literal).getArg1(), variables);
+				term2 = pool.fromGdl(((GdlDistinct) literal).getArg2(), variables);
+			} else {
+				kind = OR;
+				GdlOr or = (GdlOr) literal;
+				disjuncts = new Literal[or.arity()];
+				for (int i = 0; i < disjuncts.length; i++) {
+					disjuncts[i] = new Literal(or.get(i), pool, variables);
+				}
+			}
+			this.term = term;
+			this.term2 = term2;
+			this.disjuncts = disjuncts;
+		}
+	}
+}
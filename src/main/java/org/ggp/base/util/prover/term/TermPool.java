@@ -0,0 +1,304 @@
+package org.ggp.base.util.prover.term;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * Interns GDL terms and sentences as ints. Every distinct term gets one id,
+ * so two ground terms are equal exactly when their ids are equal. Ids are
+ * never reused.
+ *
+ * A term is stored as its kind, the symbol id of its name and the ids of
+ * its arguments. Variables are not interned: an argument (or a whole term)
+ * below zero is a variable, numbered from -1 down within its clause. Terms
+ * holding variables are interned like any other, which lets a rule share
+ * its terms between every use of the rule.
+ *
+ * The tables are plain arrays that grow as needed, and the index of
+ * existing terms is an open-addressed hash table of ids. This class is not
+ * thread-safe.
+ */
+final class TermPool
+{
+	static final byte CONSTANT = 0;
+	static final byte FUNCTION = 1;
+	static final byte PROPOSITION = 2;
+	static final byte RELATION = 3;
+
+	private final Map<GdlConstant, Integer> symbolIds = new HashMap<GdlConstant, Integer>();
+	private final List<GdlConstant> symbols = new ArrayList<GdlConstant>();
+
+	private byte[] kinds = new byte[1024];
+	private int[] functors = new int[1024];
+	private int[] argStarts = new int[1024];
+	private int[] arities = new int[1024];
+	/** One more than the highest variable number in the term; 0 for ground terms. */
+	private int[] varCounts = new int[1024];
+	private Gdl[] gdl = new Gdl[1024];
+	private int[] args = new int[4096];
+	private int size = 0;
+	private int argsSize = 0;
+
+	/** Holds id + 1 for each interned term; 0 marks an empty slot. */
+	private int[] table = new int[2048];
+
+	private final Map<Gdl, Integer> gdlIds = new HashMap<Gdl, Integer>();
+
+	int getSymbol(GdlConstant name)
+	{
+		Integer id = symbolIds.get(name);
+		if (id == null) {
+			id = symbols.size();
+			symbols.add(name);
+			symbolIds.put(name, id);
+		}
+		return id;
+	}
+
+	int numSymbols()
+	{
+		return symbols.size();
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	byte kind(int term)
+	{
+		return kinds[term];
+	}
+
+	int functor(int term)
+	{
+		return functors[term];
+	}
+
+	int arity(int term)
+	{
+		return arities[term];
+	}
+
+	int arg(int term, int i)
+	{
+		return args[argStarts[term] + i];
+	}
+
+	boolean isGround(int term)
+	{
+		return term >= 0 && varCounts[term] == 0;
+	}
+
+	int varCount(int term)
+	{
+		return term < 0 ? -term : varCounts[term];
+	}
+
+	/**
+	 * Returns the id of the term with the given kind, name and the
+	 * arguments buffer[from, from + arity), interning it if it is new.
+	 */
+	int intern(byte kind, int functor, int[] buffer, int from, int arity)
+	{
+		int hash = hash(kind, functor, buffer, from, arity);
+		int mask = table.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == 0) {
+				int id = add(kind, functor, buffer, from, arity);
+				table[slot] = id + 1;
+				if (size * 2 > table.length) {
+					rehash();
+				}
+				return id;
+			}
+			if (matches(entry - 1, kind, functor, buffer, from, arity)) {
+				return entry - 1;
+			}
+		}
+	}
+
+	private boolean matches(int id, byte kind, int functor, int[] buffer, int from, int arity)
+	{
+		if (kinds[id] != kind || functors[id] != functor || arities[id] != arity) {
+			return false;
+		}
+		int start = argStarts[id];
+		for (int i = 0; i < arity; i++) {
+			if (args[start + i] != buffer[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(byte kind, int functor, int[] buffer, int from, int arity)
+	{
+		int h = kind * 31 + functor;
+		for (int i = 0; i < arity; i++) {
+			h = h * 31 + buffer[from + i];
+		}
+		// The murmur3 finalizer, so similar terms spread out
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private int add(byte kind, int functor, int[] buffer, int from, int arity)
+	{
+		if (size == kinds.length) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			functors = Arrays.copyOf(functors, capacity);
+			argStarts = Arrays.copyOf(argStarts, capacity);
+			arities = Arrays.copyOf(arities, capacity);
+			varCounts = Arrays.copyOf(varCounts, capacity);
+			gdl = Arrays.copyOf(gdl, capacity);
+		}
+		if (argsSize + arity > args.length) {
+			args = Arrays.copyOf(args, Math.max(args.length * 2, argsSize + arity));
+		}
+		int varCount = 0;
+		for (int i = 0; i < arity; i++) {
+			int arg = buffer[from + i];
+			args[argsSize + i] = arg;
+			varCount = Math.max(varCount, varCount(arg));
+		}
+		int id = size++;
+		kinds[id] = kind;
+		functors[id] = functor;
+		arities[id] = arity;
+		argStarts[id] = argsSize;
+		varCounts[id] = varCount;
+		argsSize += arity;
+		return id;
+	}
+
+	private void rehash()
+	{
+		int[] bigger = new int[table.length * 2];
+		int mask = bigger.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = hash(kinds[id], functors[id], args, argStarts[id], arities[id]) & mask;
+			while (bigger[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			bigger[slot] = id + 1;
+		}
+		table = bigger;
+	}
+
+	/**
+	 * Returns the id of a ground sentence or term. Results are remembered,
+	 * since the same (pooled) sentences come up in query after query.
+	 */
+	int fromGdl(Gdl ground)
+	{
+		Integer id = gdlIds.get(ground);
+		if (id == null) {
+			id = fromGdl(ground, null);
+			gdlIds.put(ground, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a sentence or term, numbering its variables in the
+	 * order they are first seen. Pass the same map for every part of a
+	 * clause so they agree on the numbering.
+	 */
+	int fromGdl(Gdl gdl, Map<GdlVariable, Integer> variables)
+	{
+		if (gdl instanceof GdlVariable) {
+			Integer var = variables.get(gdl);
+			if (var == null) {
+				var = -1 - variables.size();
+				variables.put((GdlVariable) gdl, var);
+			}
+			return var;
+		} else if (gdl instanceof GdlConstant) {
+			return intern(CONSTANT, getSymbol((GdlConstant) gdl), null, 0, 0);
+		} else if (gdl instanceof GdlProposition) {
+			return intern(PROPOSITION, getSymbol(((GdlProposition) gdl).getName()), null, 0, 0);
+		} else if (gdl instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) gdl;
+			return intern(FUNCTION, getSymbol(function.getName()), argIds(function.getBody(), variables), 0, function.arity());
+		} else if (gdl instanceof GdlRelation) {
+			GdlRelation relation = (GdlRelation) gdl;
+			return intern(RELATION, getSymbol(relation.getName()), argIds(relation.getBody(), variables), 0, relation.arity());
+		}
+		throw new IllegalArgumentException("Not a term or sentence: " + gdl);
+	}
+
+	private int[] argIds(List<GdlTerm> body, Map<GdlVariable, Integer> variables)
+	{
+		int[] ids = new int[body.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = fromGdl(body.get(i), variables);
+		}
+		return ids;
+	}
+
+	GdlSentence toSentence(int term)
+	{
+		return (GdlSentence) toGdl(term);
+	}
+
+	/**
+	 * Converts an interned term back to GDL. Variables come out as ?_0,
+	 * ?_1 and so on.
+	 */
+	Gdl toGdl(int term)
+	{
+		if (term < 0) {
+			return GdlPool.getVariable("?_" + (-1 - term));
+		}
+		Gdl result = gdl[term];
+		if (result == null) {
+			GdlConstant name = symbols.get(functors[term]);
+			switch (kinds[term]) {
+			case CONSTANT:
+				result = name;
+				break;
+			case PROPOSITION:
+				result = GdlPool.getProposition(name);
+				break;
+			case FUNCTION:
+				result = GdlPool.getFunction(name, termArgs(term));
+				break;
+			default:
+				result = GdlPool.getRelation(name, termArgs(term));
+				break;
+			}
+			if (varCounts[term] == 0) {
+				gdl[term] = result;
+			}
+		}
+		return result;
+	}
+
+	private GdlTerm[] termArgs(int term)
+	{
+		GdlTerm[] body = new GdlTerm[arities[term]];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (GdlTerm) toGdl(arg(term, i));
+		}
+		return body;
+	}
+}
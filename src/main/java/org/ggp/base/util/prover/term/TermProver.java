@@ -0,0 +1,737 @@
+package org.ggp.base.util.prover.term;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
+import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.term.Clause.Literal;
+
+/**
+ * A Prover that works on interned int terms instead of GDL objects. It
+ * answers the same queries as {@link org.ggp.base.util.prover.aima.AimaProver}
+ * and follows the same strategy: every subgoal is solved completely, its
+ * answers are tabled for the rest of the query (or for good, if they can't
+ * depend on true or does sentences), and recursive subgoals are re-solved
+ * until their answers stop growing.
+ *
+ * What differs is how a step of resolution works. Terms come from a
+ * {@link TermPool}, so ground terms are compared by id. Rules are never
+ * renamed: each use of a rule just reserves a frame of binding slots on a
+ * stack, one per variable, and a variable is bound to a term together with
+ * the frame its own variables live in (structure sharing). Every binding
+ * is pushed on a trail, and backtracking pops the trail back to a mark, so
+ * the search allocates nothing but the tabled answers.
+ *
+ * Each query runs under the prover's lock, so one prover can safely be
+ * shared, but two threads will not query it at the same time.
+ */
+public final class TermProver implements Prover
+{
+	private static final int UNBOUND = Integer.MIN_VALUE;
+	private static final int[] NO_ANSWERS = new int[0];
+	private static final Literal[] NO_LITERALS = new Literal[0];
+
+	private final TermPool pool = new TermPool();
+	/** Rules and facts, by the symbol id of their heads' names. */
+	private final Clause[][] clauses;
+	/** Whether the answers for a symbol can depend on true or does sentences. */
+	private final boolean[] dynamic;
+	/** Answers that can't depend on the context, kept across queries. */
+	private final Map<Integer, int[]> fixedAnswers = new HashMap<Integer, int[]>();
+
+	// State for the current query
+	private final Map<Integer, int[]> answers = new HashMap<Integer, int[]>();
+	private final Set<Integer> alreadyAsking = new HashSet<Integer>();
+	private final Set<Integer> calledRecursively = new HashSet<Integer>();
+	private final Map<Integer, int[]> previousResults = new HashMap<Integer, int[]>();
+	private int[][] contextFacts = new int[0][];
+	private int[] contextSizes = new int[0];
+	/** contextStamps[term] == stamp iff the term is in the current context. */
+	private int[] contextStamps = new int[1024];
+	private int stamp = 0;
+	private boolean stop;
+
+	// Variable bindings. The slot for variable v of a frame is frame + v.
+	private int[] boundTerms = new int[256];
+	private int[] boundFrames = new int[256];
+	private int top = 0;
+	private int[] trail = new int[256];
+	private int trailSize = 0;
+	/** Second return value of deref(). */
+	private int derefFrame;
+
+	// Scratch space for copy()
+	private int[] copySlots = new int[16];
+	private int copyVars;
+	private int[] buffer = new int[64];
+	private int bufferSize = 0;
+
+	public TermProver(List<Gdl> description)
+	{
+		description = DistinctAndNotMover.run(description);
+		Map<Integer, List<Clause>> bySymbol = new HashMap<Integer, List<Clause>>();
+		for (Gdl gdl : new LinkedHashSet<Gdl>(description))
+		{
+			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
+			Clause clause = new Clause(rule, pool);
+			int symbol = pool.functor(clause.head);
+			if (!bySymbol.containsKey(symbol))
+			{
+				bySymbol.put(symbol, new ArrayList<Clause>());
+			}
+			bySymbol.get(symbol).add(clause);
+		}
+		int trueSymbol = pool.getSymbol(GdlPool.TRUE);
+		int doesSymbol = pool.getSymbol(GdlPool.DOES);
+
+		clauses = new Clause[pool.numSymbols()][];
+		for (Map.Entry<Integer, List<Clause>> entry : bySymbol.entrySet())
+		{
+			clauses[entry.getKey()] = entry.getValue().toArray(new Clause[0]);
+		}
+
+		dynamic = new boolean[clauses.length];
+		dynamic[trueSymbol] = true;
+		dynamic[doesSymbol] = true;
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (int symbol = 0; symbol < clauses.length; symbol++)
+			{
+				if (dynamic[symbol] || clauses[symbol] == null)
+				{
+					continue;
+				}
+				for (Clause clause : clauses[symbol])
+				{
+					if (isDynamic(clause.body))
+					{
+						dynamic[symbol] = true;
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isDynamic(Literal[] literals)
+	{
+		for (Literal literal : literals)
+		{
+			if (literal.kind == Literal.SENTENCE && isDynamicSymbol(pool.functor(literal.term)))
+			{
+				return true;
+			}
+			if (literal.disjuncts != null && isDynamic(literal.disjuncts))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Symbols first seen after construction have no rules, so can only come from a context. */
+	private boolean isDynamicSymbol(int symbol)
+	{
+		return symbol >= dynamic.length || dynamic[symbol];
+	}
+
+	private boolean hasClauses(int symbol)
+	{
+		return symbol < clauses.length && clauses[symbol] != null;
+	}
+
+	@Override
+	public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context)
+	{
+		return ask(query, context, false);
+	}
+
+	@Override
+	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context)
+	{
+		Set<GdlSentence> results = ask(query, context, true);
+		return (results.size() > 0) ? results.iterator().next() : null;
+	}
+
+	@Override
+	public boolean prove(GdlSentence query, Set<GdlSentence> context)
+	{
+		return askOne(query, context) != null;
+	}
+
+	// Tables only last for one query here, so scopes are ignored.
+
+	@Override
+	public Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		return askAll(query, context);
+	}
+
+	@Override
+	public GdlSentence askOne(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		return askOne(query, context);
+	}
+
+	@Override
+	public boolean prove(GdlSentence query, Set<GdlSentence> context, Object scope)
+	{
+		return prove(query, context);
+	}
+
+	private synchronized Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
+	{
+		setContext(context);
+		int goal = pool.fromGdl(query, new HashMap<GdlVariable, Integer>());
+		int frame = allocate(pool.varCount(goal));
+
+		int[] found;
+		if (askOne)
+		{
+			// Skip the tables, so the search can stop at the first answer.
+			Collector out = new Collector(goal, frame, true);
+			evaluate(goal, frame, out);
+			found = out.toArray();
+		}
+		else
+		{
+			found = findAnswers(goal, frame);
+		}
+
+		Set<GdlSentence> results = new HashSet<GdlSentence>();
+		for (int answer : found)
+		{
+			results.add(pool.toSentence(answer));
+		}
+		return results;
+	}
+
+	private void setContext(Set<GdlSentence> context)
+	{
+		answers.clear();
+		alreadyAsking.clear();
+		calledRecursively.clear();
+		previousResults.clear();
+		top = 0;
+		trailSize = 0;
+		bufferSize = 0;
+		stop = false;
+
+		if (++stamp == 0)
+		{
+			Arrays.fill(contextStamps, 0);
+			stamp = 1;
+		}
+		Arrays.fill(contextSizes, 0);
+		for (GdlSentence sentence : context)
+		{
+			int fact = pool.fromGdl(sentence);
+			if (fact >= contextStamps.length)
+			{
+				contextStamps = Arrays.copyOf(contextStamps, Math.max(contextStamps.length * 2, fact + 1));
+			}
+			if (contextStamps[fact] == stamp)
+			{
+				continue;
+			}
+			contextStamps[fact] = stamp;
+
+			int symbol = pool.functor(fact);
+			if (symbol >= contextFacts.length)
+			{
+				contextFacts = Arrays.copyOf(contextFacts, pool.numSymbols());
+				contextSizes = Arrays.copyOf(contextSizes, pool.numSymbols());
+			}
+			int[] facts = contextFacts[symbol];
+			if (facts == null)
+			{
+				facts = contextFacts[symbol] = new int[16];
+			}
+			else if (contextSizes[symbol] == facts.length)
+			{
+				facts = contextFacts[symbol] = Arrays.copyOf(facts, facts.length * 2);
+			}
+			facts[contextSizes[symbol]++] = fact;
+		}
+	}
+
+	/**
+	 * Returns every answer to the goal, as interned instances of it (with
+	 * its frame's current bindings applied). Answers come from the tables
+	 * when possible.
+	 */
+	private int[] findAnswers(int goal, int frame)
+	{
+		beginCopy();
+		int key = copy(goal, frame);
+		boolean fixed = !isDynamicSymbol(pool.functor(key));
+		int[] results = fixed ? fixedAnswers.get(key) : answers.get(key);
+		if (results != null)
+		{
+			return results;
+		}
+
+		if (alreadyAsking.contains(key))
+		{
+			// Mark that we're in recursive mode and shouldn't table results,
+			// and return what we've found for this so far.
+			calledRecursively.add(key);
+			int[] previous = previousResults.get(key);
+			return (previous == null) ? NO_ANSWERS : previous;
+		}
+		alreadyAsking.add(key);
+		results = evaluateAll(key);
+
+		if (calledRecursively.contains(key))
+		{
+			// Re-solve until no new answers turn up. GDL restricts recursion
+			// so that an answer never stops being true once found.
+			int[] previous = NO_ANSWERS;
+			while (results.length > previous.length)
+			{
+				calledRecursively.remove(key);
+				previousResults.put(key, results);
+				previous = results;
+				results = evaluateAll(key);
+			}
+			calledRecursively.remove(key);
+		}
+		alreadyAsking.remove(key);
+		previousResults.remove(key);
+
+		if (calledRecursively.isEmpty())
+		{
+			(fixed ? fixedAnswers : answers).put(key, results);
+		}
+		return results;
+	}
+
+	private int[] evaluateAll(int key)
+	{
+		int savedTop = top;
+		int frame = allocate(pool.varCount(key));
+		Collector out = new Collector(key, frame, false);
+		evaluate(key, frame, out);
+		top = savedTop;
+		return out.toArray();
+	}
+
+	/** Solves the goal from the context and the rules, without the tables. */
+	private void evaluate(int goal, int frame, Collector out)
+	{
+		matchContext(goal, frame, NO_LITERALS, 0, out);
+		int symbol = pool.functor(goal);
+		if (stop || !hasClauses(symbol))
+		{
+			return;
+		}
+		for (Clause clause : clauses[symbol])
+		{
+			int mark = trailSize;
+			int savedTop = top;
+			int clauseFrame = allocate(clause.numVars);
+			if (unify(clause.head, clauseFrame, goal, frame))
+			{
+				solve(clause.body, 0, clauseFrame, out);
+			}
+			undo(mark);
+			top = savedTop;
+			if (stop)
+			{
+				return;
+			}
+		}
+	}
+
+	/** Solves body[next...] for each context fact that unifies with the goal. */
+	private void matchContext(int goal, int frame, Literal[] body, int next, Collector out)
+	{
+		int symbol = pool.functor(goal);
+		if (symbol >= contextFacts.length)
+		{
+			return;
+		}
+		if (pool.isGround(goal))
+		{
+			if (goal < contextStamps.length && contextStamps[goal] == stamp)
+			{
+				solve(body, next, frame, out);
+			}
+			return;
+		}
+		int[] facts = contextFacts[symbol];
+		for (int i = 0; i < contextSizes[symbol]; i++)
+		{
+			int mark = trailSize;
+			if (unify(goal, frame, facts[i], 0))
+			{
+				solve(body, next, frame, out);
+			}
+			undo(mark);
+			if (stop)
+			{
+				return;
+			}
+		}
+	}
+
+	private void solve(Literal[] body, int i, int frame, Collector out)
+	{
+		if (i == body.length)
+		{
+			out.accept();
+		}
+		else
+		{
+			solveLiteral(body[i], body, i + 1, frame, out);
+		}
+	}
+
+	/** Solves the literal, then body[next...] for each way it holds. */
+	private void solveLiteral(Literal literal, Literal[] body, int next, int frame, Collector out)
+	{
+		switch (literal.kind)
+		{
+		case Literal.SENTENCE:
+			solveSentence(literal.term, frame, body, next, out);
+			break;
+		case Literal.NOT:
+			if (!holds(literal.disjuncts[0], frame))
+			{
+				solve(body, next, frame, out);
+			}
+			break;
+		case Literal.DISTINCT:
+			if (!sameTerm(literal.term, literal.term2, frame))
+			{
+				solve(body, next, frame, out);
+			}
+			break;
+		default:
+			for (Literal disjunct : literal.disjuncts)
+			{
+				solveLiteral(disjunct, body, next, frame, out);
+				if (stop)
+				{
+					return;
+				}
+			}
+			break;
+		}
+	}
+
+	private void solveSentence(int goal, int frame, Literal[] body, int next, Collector out)
+	{
+		if (!hasClauses(pool.functor(goal)))
+		{
+			// Context-only sentences, like true and does, aren't worth tabling.
+			matchContext(goal, frame, body, next, out);
+			return;
+		}
+		int[] found = findAnswers(goal, frame);
+		for (int answer : found)
+		{
+			int mark = trailSize;
+			int savedTop = top;
+			int answerFrame = pool.isGround(answer) ? 0 : allocate(pool.varCount(answer));
+			if (unify(goal, frame, answer, answerFrame))
+			{
+				solve(body, next, frame, out);
+			}
+			undo(mark);
+			top = savedTop;
+			if (stop)
+			{
+				return;
+			}
+		}
+	}
+
+	/** Whether the literal has at least one solution. Used for negation. */
+	private boolean holds(Literal literal, int frame)
+	{
+		switch (literal.kind)
+		{
+		case Literal.SENTENCE:
+			int goal = literal.term;
+			if (hasClauses(pool.functor(goal)))
+			{
+				return findAnswers(goal, frame).length > 0;
+			}
+			Collector probe = new Collector(goal, frame, false);
+			matchContext(goal, frame, NO_LITERALS, 0, probe);
+			return probe.size > 0;
+		case Literal.NOT:
+			return !holds(literal.disjuncts[0], frame);
+		case Literal.DISTINCT:
+			return !sameTerm(literal.term, literal.term2, frame);
+		default:
+			for (Literal disjunct : literal.disjuncts)
+			{
+				if (holds(disjunct, frame))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Whether the terms are identical under the current bindings. Unbound
+	 * variables only match themselves.
+	 */
+	private boolean sameTerm(int a, int b, int frame)
+	{
+		beginCopy();
+		return copy(a, frame) == copy(b, frame);
+	}
+
+	private int deref(int term, int frame)
+	{
+		while (term < 0)
+		{
+			int slot = frame - 1 - term;
+			int bound = boundTerms[slot];
+			if (bound == UNBOUND)
+			{
+				break;
+			}
+			term = bound;
+			frame = boundFrames[slot];
+		}
+		derefFrame = frame;
+		return term;
+	}
+
+	private boolean unify(int a, int aFrame, int b, int bFrame)
+	{
+		a = deref(a, aFrame);
+		aFrame = derefFrame;
+		b = deref(b, bFrame);
+		bFrame = derefFrame;
+
+		if (a < 0)
+		{
+			int slot = aFrame - 1 - a;
+			if (b >= 0 || bFrame - 1 - b != slot)
+			{
+				bind(slot, b, bFrame);
+			}
+			return true;
+		}
+		if (b < 0)
+		{
+			bind(bFrame - 1 - b, a, aFrame);
+			return true;
+		}
+		boolean aGround = pool.isGround(a);
+		if (a == b && (aGround || aFrame == bFrame))
+		{
+			return true;
+		}
+		if (aGround && pool.isGround(b))
+		{
+			return false;
+		}
+		int arity = pool.arity(a);
+		if (pool.kind(a) != pool.kind(b) || pool.functor(a) != pool.functor(b) || pool.arity(b) != arity)
+		{
+			return false;
+		}
+		for (int i = 0; i < arity; i++)
+		{
+			if (!unify(pool.arg(a, i), aFrame, pool.arg(b, i), bFrame))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void bind(int slot, int term, int frame)
+	{
+		boundTerms[slot] = term;
+		boundFrames[slot] = frame;
+		if (trailSize == trail.length)
+		{
+			trail = Arrays.copyOf(trail, trailSize * 2);
+		}
+		trail[trailSize++] = slot;
+	}
+
+	/** Takes back every binding made since the trail was at the mark. */
+	private void undo(int mark)
+	{
+		while (trailSize > mark)
+		{
+			boundTerms[trail[--trailSize]] = UNBOUND;
+		}
+	}
+
+	/** Reserves a frame of unbound slots. Free it by resetting top. */
+	private int allocate(int numVars)
+	{
+		int frame = top;
+		top += numVars;
+		if (top > boundTerms.length)
+		{
+			int capacity = Math.max(boundTerms.length * 2, top);
+			boundTerms = Arrays.copyOf(boundTerms, capacity);
+			boundFrames = Arrays.copyOf(boundFrames, capacity);
+		}
+		Arrays.fill(boundTerms, frame, top, UNBOUND);
+		return frame;
+	}
+
+	private void beginCopy()
+	{
+		copyVars = 0;
+	}
+
+	/**
+	 * Interns the term with its bindings applied. Variables that are still
+	 * unbound are numbered in order of appearance since the last
+	 * beginCopy(), so variants of a goal copy to the same id.
+	 */
+	private int copy(int term, int frame)
+	{
+		term = deref(term, frame);
+		frame = derefFrame;
+		if (term < 0)
+		{
+			int slot = frame - 1 - term;
+			for (int i = 0; i < copyVars; i++)
+			{
+				if (copySlots[i] == slot)
+				{
+					return -1 - i;
+				}
+			}
+			if (copyVars == copySlots.length)
+			{
+				copySlots = Arrays.copyOf(copySlots, copyVars * 2);
+			}
+			copySlots[copyVars] = slot;
+			return -1 - copyVars++;
+		}
+		if (pool.isGround(term))
+		{
+			return term;
+		}
+
+		int arity = pool.arity(term);
+		int start = bufferSize;
+		bufferSize += arity;
+		if (bufferSize > buffer.length)
+		{
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferSize));
+		}
+		for (int i = 0; i < arity; i++)
+		{
+			// Nested copies may replace the buffer, so don't hold on to it.
+			int arg = copy(pool.arg(term, i), frame);
+			buffer[start + i] = arg;
+		}
+		int result = pool.intern(pool.kind(term), pool.functor(term), buffer, start, arity);
+		bufferSize = start;
+		return result;
+	}
+
+	/**
+	 * Gathers the distinct answers found for a goal, as interned copies of
+	 * the goal taken whenever a solution is reached.
+	 */
+	private final class Collector
+	{
+		private final int goal;
+		private final int frame;
+		private final boolean firstOnly;
+		private int[] found = new int[8];
+		/** Open-addressed set of answer + 1. */
+		private int[] table = new int[16];
+		int size = 0;
+
+		Collector(int goal, int frame, boolean firstOnly)
+		{
+			this.goal = goal;
+			this.frame = frame;
+			this.firstOnly = firstOnly;
+		}
+
+		void accept()
+		{
+			beginCopy();
+			add(copy(goal, frame));
+			if (firstOnly)
+			{
+				stop = true;
+			}
+		}
+
+		private void add(int answer)
+		{
+			int mask = table.length - 1;
+			int slot = spread(answer) & mask;
+			while (table[slot] != 0)
+			{
+				if (table[slot] == answer + 1)
+				{
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = answer + 1;
+			if (size == found.length)
+			{
+				found = Arrays.copyOf(found, size * 2);
+			}
+			found[size++] = answer;
+			if (size * 2 > table.length)
+			{
+				table = new int[table.length * 2];
+				for (int i = 0; i < size; i++)
+				{
+					insert(found[i]);
+				}
+			}
+		}
+
+		private void insert(int answer)
+		{
+			int mask = table.length - 1;
+			int slot = spread(answer) & mask;
+			while (table[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = answer + 1;
+		}
+
+		private int spread(int answer)
+		{
+			int h = answer * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		int[] toArray()
+		{
+			return (size == 0) ? NO_ANSWERS : Arrays.copyOf(found, size);
+		}
+	}
+}
@@ -29,7 +29,8 @@ import org.ggp.base.util.gdl.transforms.CommonTransforms;
 import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
 
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * An implementation of a ForwardChainingReasoner that uses Gdl objects
@@ -69,14 +70,35 @@ public class GdlChainingReasoner implements
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar.getSentences().asMap();
 
 		AssignmentsImpl assignments = new AssignmentsImpl(rule, varDomains, functionInfoMap, completedSentenceFormValues);
-		AssignmentIterator asnItr = assignments.getIterator();
 		GdlSentenceSet sentencesToAdd = GdlSentenceSet.create();
+		for (GdlSentence result : getRuleResults(rule, assignments, completedSentenceFormValues)) {
+			sentencesToAdd.put(headForm, result);
+		}
+		return sentencesToAdd;
+	}
+
+	/**
+	 * Given a rule, assignments to iterate over for it, and all sentences
+	 * known to be true so far, returns all results of applying the rule.
+	 * Unlike {@link #getRuleResults(GdlRule, SentenceDomainModel, GdlSentenceSet)},
+	 * this doesn't work out an iteration plan for the rule, so callers that
+	 * apply the same rule to many sets of sentences can make the plan once
+	 * and reuse it (see {@link AssignmentsImpl#withCompletedSentenceFormValues(Map)}).
+	 *
+	 * Sentences are looked up by their sentence forms in the given map; a
+	 * form without an entry has no true sentences.
+	 */
+	public Set<GdlSentence> getRuleResults(GdlRule rule, Assignments assignments,
+			Map<SentenceForm, ? extends Collection<GdlSentence>> sentencesSoFar) throws InterruptedException {
+		AssignmentIterator asnItr = assignments.getIterator();
+		Set<GdlSentence> results = Sets.newHashSet();
+		Map<GdlSentence, SentenceForm> literalForms = Maps.newHashMap();
 		while (asnItr.hasNext()) {
 			Map<GdlVariable, GdlConstant> assignment = asnItr.next();
 			boolean allSatisfied = true;
 			for (GdlLiteral literal : rule.getBody()) {
 				ConcurrencyUtils.checkForInterruption();
-				if (!satisfies(assignment, literal, sentencesSoFar.getSentences())) {
+				if (!satisfies(assignment, literal, sentencesSoFar, literalForms)) {
 					asnItr.changeOneInNext(GdlUtils.getVariables(literal), assignment);
 					allSatisfied = false;
 					break;
@@ -84,30 +106,31 @@ public class GdlChainingReasoner implements
 			}
 			if (allSatisfied) {
 				GdlSentence head = rule.getHead();
-				sentencesToAdd.put(headForm, CommonTransforms.replaceVariables(head, assignment));
+				results.add(CommonTransforms.replaceVariables(head, assignment));
 				asnItr.changeOneInNext(GdlUtils.getVariables(head), assignment);
 			}
 		}
-		return sentencesToAdd;
+		return results;
 	}
 
 	private boolean satisfies(Map<GdlVariable, GdlConstant> assignment,
-			GdlLiteral literal, SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
+			GdlLiteral literal, Map<SentenceForm, ? extends Collection<GdlSentence>> sentencesSoFar,
+			Map<GdlSentence, SentenceForm> literalForms) {
 		if (literal instanceof GdlSentence) {
-			return satisfiesSentence(assignment, (GdlSentence) literal, sentencesSoFar);
+			return satisfiesSentence(assignment, (GdlSentence) literal, sentencesSoFar, literalForms);
 		} else if (literal instanceof GdlNot) {
 			GdlLiteral body = ((GdlNot) literal).getBody();
 			if (!(body instanceof GdlSentence)) {
 				throw new IllegalStateException("Negated literal should be a sentence but isn't: " + body);
 			}
-			return !satisfiesSentence(assignment, (GdlSentence) body, sentencesSoFar);
+			return !satisfiesSentence(assignment, (GdlSentence) body, sentencesSoFar, literalForms);
 		} else if (literal instanceof GdlDistinct) {
 			return satisfiesDistinct(assignment, (GdlDistinct) literal);
 		} else if (literal instanceof GdlOr) {
 			GdlOr or = (GdlOr) literal;
 			for (int i = 0; i < or.arity(); i++) {
 				GdlLiteral innerLiteral = or.get(i);
-				if (satisfies(assignment, innerLiteral, sentencesSoFar)) {
+				if (satisfies(assignment, innerLiteral, sentencesSoFar, literalForms)) {
 					return true;
 				}
 			}
@@ -119,10 +142,18 @@ public class GdlChainingReasoner implements
 
 	private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
 			GdlSentence sentence,
-			SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
-		sentence = CommonTransforms.replaceVariables(sentence, assignment);
-		SentenceForm form = model.getSentenceForm(sentence);
-		return sentencesSoFar.get(form).contains(sentence);
+			Map<SentenceForm, ? extends Collection<GdlSentence>> sentencesSoFar,
+			Map<GdlSentence, SentenceForm> literalForms) {
+		//Substituting constants for variables doesn't change the form, so
+		//it only has to be worked out once per literal
+		SentenceForm form = literalForms.get(sentence);
+		if (form == null) {
+			form = model.getSentenceForm(sentence);
+			literalForms.put(sentence, form);
+		}
+		Collection<GdlSentence> sentencesOfForm = sentencesSoFar.get(form);
+		return sentencesOfForm != null
+				&& sentencesOfForm.contains(CommonTransforms.replaceVariables(sentence, assignment));
 	}
 
 	private boolean satisfiesDistinct(Map<GdlVariable, GdlConstant> assignment,
@@ -184,6 +215,7 @@ public class GdlChainingReasoner implements
 		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
 		Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences.getSentences().asMap();
+		Map<GdlSentence, SentenceForm> literalForms = Maps.newHashMap();
 
 		for (GdlSentence chosenNewSentence : chosenNewSentences) {
 			Map<GdlVariable, GdlConstant> preassignments = GdlUtils.getAssignmentMakingLeftIntoRight(chosenLiteral, chosenNewSentence);
@@ -199,7 +231,7 @@ public class GdlChainingReasoner implements
 							//Already satisfied
 							continue;
 						}
-						if (!satisfies(assignment, literal, allSentences.getSentences())) {
+						if (!satisfies(assignment, literal, completedSentenceFormValues, literalForms)) {
 							asnItr.changeOneInNext(GdlUtils.getVariables(literal), assignment);
 							allSatisfied = false;
 							break;
@@ -0,0 +1,51 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Gives each move of each role a small int id, in the order the moves are
+ * first seen. Ids are never reused or reassigned. Lookups of known moves
+ * take no lock, so one table can be shared by several threads.
+ */
+final class MoveTable
+{
+    private final List<ConcurrentMap<Move, Integer>> ids;
+    private final List<List<Move>> moves;
+
+    MoveTable(int numRoles)
+    {
+        ids = new ArrayList<ConcurrentMap<Move, Integer>>(numRoles);
+        moves = new ArrayList<List<Move>>(numRoles);
+        for (int r = 0; r < numRoles; r++) {
+            ids.add(new ConcurrentHashMap<Move, Integer>());
+            moves.add(new CopyOnWriteArrayList<Move>());
+        }
+    }
+
+    int getId(int role, Move move)
+    {
+        Integer id = ids.get(role).get(move);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(role).get(move);
+            if (id == null) {
+                List<Move> roleMoves = moves.get(role);
+                id = roleMoves.size();
+                roleMoves.add(move);
+                ids.get(role).put(move, id);
+            }
+            return id;
+        }
+    }
+
+    Move getMove(int role, int id)
+    {
+        return moves.get(role).get(id);
+    }
+}
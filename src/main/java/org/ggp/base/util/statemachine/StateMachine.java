@@ -350,6 +350,153 @@ public abstract class StateMachine
         return roleIndices;
     }
 
+    // ============================================
+    //   Int-indexed versions of the methods above
+    // ============================================
+    // Roles are numbered as in getRoles(), and every move of a role has a
+    // small int id, so callers can keep moves and joint moves in primitive
+    // arrays instead of lists. A joint move is an int[] holding one move id
+    // per role. By default, move ids are handed out in the order the moves
+    // are first seen, and stay fixed for the life of the machine; machines
+    // with a fixed set of moves may number them up front instead. The
+    // defaults translate to and from the Move-based methods, so they work
+    // for every machine; machines that know their moves by number can
+    // override them to avoid creating Move lists at all.
+
+    private volatile MoveTable moveTable = null;
+
+    private MoveTable getMoveTable()
+    {
+        MoveTable table = moveTable;
+        if (table == null) {
+            synchronized (this) {
+                table = moveTable;
+                if (table == null) {
+                    table = new MoveTable(getRoles().size());
+                    moveTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Returns the index of the role in {@link #getRoles()}.
+     */
+    public int getRoleIndex(Role role)
+    {
+        return getRoleIndices().get(role);
+    }
+
+    /**
+     * Returns the id of the given move for the role with the given index,
+     * or -1 if this machine numbers its moves up front and the role can
+     * never make that move.
+     */
+    public int getMoveId(int role, Move move)
+    {
+        return getMoveTable().getId(role, move);
+    }
+
+    /**
+     * Returns the move with the given id for the role with the given index.
+     */
+    public Move getMoveFromId(int role, int moveId)
+    {
+        return getMoveTable().getMove(role, moveId);
+    }
+
+    /**
+     * Returns the joint move with the given move ids, in the form the
+     * Move-based methods expect.
+     */
+    public List<Move> getJointMoveFromIds(int[] jointMove)
+    {
+        List<Move> moves = new ArrayList<Move>(jointMove.length);
+        for (int r = 0; r < jointMove.length; r++) {
+            moves.add(getMoveFromId(r, jointMove[r]));
+        }
+        return moves;
+    }
+
+    /**
+     * Returns the ids of the legal moves of the role with the given index,
+     * in the same order as {@link #getLegalMoves(MachineState, Role)}.
+     */
+    public int[] getLegalMoveIds(MachineState state, int role) throws MoveDefinitionException
+    {
+        List<Move> moves = getLegalMoves(state, getRoles().get(role));
+        int[] ids = new int[moves.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = getMoveId(role, moves.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns every joint move possible in the given state, as in
+     * {@link #getLegalJointMoves(MachineState)}.
+     */
+    public int[][] getLegalJointMoveIds(MachineState state) throws MoveDefinitionException
+    {
+        int[][] legals = new int[getRoles().size()][];
+        for (int r = 0; r < legals.length; r++) {
+            legals[r] = getLegalMoveIds(state, r);
+        }
+        return crossProductMoveIds(legals);
+    }
+
+    /**
+     * Returns every joint move possible in the given state in which the role
+     * with the given index makes the given move, as in
+     * {@link #getLegalJointMoves(MachineState, Role, Move)}.
+     */
+    public int[][] getLegalJointMoveIds(MachineState state, int role, int moveId) throws MoveDefinitionException
+    {
+        int[][] legals = new int[getRoles().size()][];
+        for (int r = 0; r < legals.length; r++) {
+            legals[r] = (r == role) ? new int[] {moveId} : getLegalMoveIds(state, r);
+        }
+        return crossProductMoveIds(legals);
+    }
+
+    /**
+     * Returns the cross product of the legal move ids of each role, with the
+     * last role's moves varying fastest.
+     */
+    protected static int[][] crossProductMoveIds(int[][] legals)
+    {
+        int count = 1;
+        for (int[] roleLegals : legals) {
+            count *= roleLegals.length;
+        }
+        int[][] jointMoves = new int[count][legals.length];
+        for (int j = 0; j < count; j++) {
+            int rest = j;
+            for (int r = legals.length - 1; r >= 0; r--) {
+                jointMoves[j][r] = legals[r][rest % legals[r].length];
+                rest /= legals[r].length;
+            }
+        }
+        return jointMoves;
+    }
+
+    /**
+     * Returns the next state of the game given a joint move of move ids.
+     */
+    public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException
+    {
+        return getNextState(state, getJointMoveFromIds(jointMove));
+    }
+
+    /**
+     * Returns the goal value of the role with the given index.
+     */
+    public int getGoal(MachineState state, int role) throws GoalDefinitionException
+    {
+        return getGoal(state, getRoles().get(role));
+    }
+
     /**
      * Returns the goal values for each role in the given state. The goal values
      * are listed in the same order the roles are listed in the game rules, which
@@ -467,6 +614,45 @@ public abstract class StateMachine
 	    return state;
 	}
 
+    /**
+     * Runs up to <tt>count</tt> depth charges from the given state and reports
+     * their results in caller-supplied arrays, so that machines can override
+     * this with a loop that allocates nothing per charge.
+     *
+     * @param goals receives the goal of role <tt>r</tt> in the terminal state
+     * of charge <tt>i</tt> at index <tt>i * getRoles().size() + r</tt>, so it
+     * must hold at least <tt>count * getRoles().size()</tt> values.
+     * @param depthHistogram if not null, <tt>depthHistogram[d]</tt> is
+     * incremented for each charge that took <tt>d</tt> moves; deeper charges
+     * are counted in the last element.
+     * @param timeout no new moves are made after this time. A charge that is
+     * cut short is not reported.
+     * @return the number of charges that reached a terminal state, which
+     * is less than <tt>count</tt> only if the timeout was hit.
+     */
+    public int performDepthCharges(MachineState state, int count, int[] goals, int[] depthHistogram, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> roles = getRoles();
+        int nRoles = roles.size();
+        for (int i = 0; i < count; i++) {
+            MachineState stateForCharge = state.clone();
+            int nDepth = 0;
+            while (!isTerminal(stateForCharge)) {
+                if (System.currentTimeMillis() >= timeout) {
+                    return i;
+                }
+                nDepth++;
+                stateForCharge = getNextStateDestructively(stateForCharge, getRandomJointMove(stateForCharge));
+            }
+            for (int r = 0; r < nRoles; r++) {
+                goals[i * nRoles + r] = getGoal(stateForCharge, roles.get(r));
+            }
+            if (depthHistogram != null && depthHistogram.length > 0) {
+                depthHistogram[Math.min(nDepth, depthHistogram.length - 1)]++;
+            }
+        }
+        return count;
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
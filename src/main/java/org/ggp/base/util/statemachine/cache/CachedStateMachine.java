@@ -1,8 +1,8 @@
 package org.ggp.base.util.statemachine.cache;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.statemachine.MachineState;
@@ -15,58 +15,85 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 import com.google.common.collect.ImmutableList;
 
+/**
+ * A StateMachine decorator that caches the results of the backing machine
+ * for recently seen states. Entries that were not touched during the
+ * previous move are dropped by {@link #doPerMoveWork()}.
+ * <p>
+ * The cache can be shared by several threads: lookups never take a lock,
+ * and two threads asking for the same uncached result may both compute
+ * it, with one answer winning. The backing machine must therefore be safe
+ * to call from all of those threads, just as it had to be before.
+ */
 public final class CachedStateMachine extends StateMachine
 {
+    /** Default size budget, in states. */
+    public static final int DEFAULT_MAX_ENTRIES = 200000;
+
     private final StateMachine backingStateMachine;
-    private final TtlCache<MachineState, Entry> ttlCache;
+    private final ConcurrentTtlCache<MachineState, Entry> ttlCache;
 
-    private final class Entry
+    private static final class Entry
     {
-        public Map<Role, Integer> goals;
-        public Map<Role, List<Move>> actions;
-        public Map<Role, List<Move>> moves;
-        public Map<List<Move>, MachineState> nexts;
-        public Boolean terminal;
+        public final ConcurrentMap<Role, Integer> goals;
+        public final ConcurrentMap<Role, List<Move>> actions;
+        public final ConcurrentMap<Role, List<Move>> moves;
+        public final ConcurrentMap<List<Move>, MachineState> nexts;
+        public volatile Boolean terminal;
 
         public Entry()
         {
-            goals = new HashMap<Role, Integer>();
-            actions = new HashMap<Role, List<Move>>();
-            moves = new HashMap<Role, List<Move>>();
-            nexts = new HashMap<List<Move>, MachineState>();
+            goals = new ConcurrentHashMap<Role, Integer>(4, 0.75f, 1);
+            actions = new ConcurrentHashMap<Role, List<Move>>(4, 0.75f, 1);
+            moves = new ConcurrentHashMap<Role, List<Move>>(4, 0.75f, 1);
+            nexts = new ConcurrentHashMap<List<Move>, MachineState>(4, 0.75f, 1);
             terminal = null;
         }
     }
 
     public CachedStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_MAX_ENTRIES);
+    }
+
+    public CachedStateMachine(StateMachine backingStateMachine, int maxEntries)
     {
         this.backingStateMachine = backingStateMachine;
-        ttlCache = new TtlCache<MachineState, Entry>(1);
+        ttlCache = new ConcurrentTtlCache<MachineState, Entry>(1, maxEntries);
     }
 
     private Entry getEntry(MachineState state)
     {
-        if (!ttlCache.containsKey(state))
+        Entry entry = ttlCache.get(state);
+        if (entry == null)
         {
-            ttlCache.put(state, new Entry());
+            Entry newEntry = new Entry();
+            entry = ttlCache.putIfAbsent(state, newEntry);
+            if (entry == null)
+            {
+                entry = newEntry;
+            }
         }
+        return entry;
+    }
 
-        return ttlCache.get(state);
+    /** Adds the value unless another thread beat us to it, and returns the one that is cached. */
+    private static <K, V> V cache(ConcurrentMap<K, V> map, K key, V value)
+    {
+        V existing = map.putIfAbsent(key, value);
+        return existing == null ? value : existing;
     }
 
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        Integer goal = entry.goals.get(role);
+        if (goal == null)
         {
-            if (!entry.goals.containsKey(role))
-            {
-                entry.goals.put(role, backingStateMachine.getGoal(state, role));
-            }
-
-            return entry.goals.get(role);
+            goal = cache(entry.goals, role, backingStateMachine.getGoal(state, role));
         }
+        return goal;
     }
 
     @Override
@@ -74,60 +101,91 @@ public final class CachedStateMachine extends StateMachine
     {
     	MachineState initialState = backingStateMachine.getInitialState();
         Entry entry = getEntry(initialState);
-        synchronized (entry)
+        List<Move> actions = entry.actions.get(role);
+        if (actions == null)
         {
-            if (!entry.actions.containsKey(role))
-            {
-                entry.actions.put(role, ImmutableList.copyOf(backingStateMachine.findActions(role)));
-            }
-
-            return entry.actions.get(role);
+            actions = cache(entry.actions, role, ImmutableList.copyOf(backingStateMachine.findActions(role)));
         }
+        return actions;
     }
 
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        List<Move> moves = entry.moves.get(role);
+        if (moves == null)
         {
-            if (!entry.moves.containsKey(role))
-            {
-                entry.moves.put(role, ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role)));
-            }
-
-            return entry.moves.get(role);
+            moves = cache(entry.moves, role, ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role)));
         }
+        return moves;
     }
 
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        MachineState next = entry.nexts.get(moves);
+        if (next == null)
         {
-            if (!entry.nexts.containsKey(moves))
-            {
-                entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
-            }
-
-            return entry.nexts.get(moves);
+            next = cache(entry.nexts, moves, backingStateMachine.getNextState(state, moves));
         }
+        return next;
     }
 
     @Override
     public boolean isTerminal(MachineState state)
     {
         Entry entry = getEntry(state);
-        synchronized (entry)
+        Boolean terminal = entry.terminal;
+        if (terminal == null)
         {
-            if (entry.terminal == null)
-            {
-                entry.terminal = backingStateMachine.isTerminal(state);
-            }
-
-            return entry.terminal;
+            terminal = backingStateMachine.isTerminal(state);
+            entry.terminal = terminal;
         }
+        return terminal;
+    }
+
+    /**
+     * Depth charges are passed straight to the backing machine: their states
+     * are rarely revisited, so caching them only evicts useful entries, and
+     * it would hide any faster implementation the backing machine provides.
+     */
+    @Override
+    public MachineState getNextStateDestructively(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        return backingStateMachine.getNextStateDestructively(state, moves);
+    }
+
+    @Override
+    public MachineState performDepthCharge(MachineState state, final int[] theDepth) throws TransitionDefinitionException, MoveDefinitionException
+    {
+        return backingStateMachine.performDepthCharge(state, theDepth);
+    }
+
+    @Override
+    public MachineState performSafeDepthCharge(MachineState state, long timeout) throws TransitionDefinitionException, MoveDefinitionException
+    {
+        return backingStateMachine.performSafeDepthCharge(state, timeout);
+    }
+
+    /** Move ids come from the backing machine, so they match its own. */
+    @Override
+    public int getMoveId(int role, Move move)
+    {
+        return backingStateMachine.getMoveId(role, move);
+    }
+
+    @Override
+    public Move getMoveFromId(int role, int moveId)
+    {
+        return backingStateMachine.getMoveFromId(role, moveId);
+    }
+
+    @Override
+    public int performDepthCharges(MachineState state, int count, int[] goals, int[] depthHistogram, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        return backingStateMachine.performDepthCharges(state, count, goals, depthHistogram, timeout);
     }
 
     @Override
@@ -141,6 +199,24 @@ public final class CachedStateMachine extends StateMachine
         ttlCache.prune();
     }
 
+    /** Number of state lookups that found a cached entry. */
+    public long getCacheHits()
+    {
+        return ttlCache.getHits();
+    }
+
+    /** Number of state lookups that had to create a new entry. */
+    public long getCacheMisses()
+    {
+        return ttlCache.getMisses();
+    }
+
+    /** Number of entries dropped by pruning or to stay within the size budget. */
+    public long getCacheEvictions()
+    {
+        return ttlCache.getEvictions();
+    }
+
     @Override
     public void initialize(List<Gdl> description) {
         backingStateMachine.initialize(description);
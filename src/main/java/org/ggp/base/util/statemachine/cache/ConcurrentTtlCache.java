@@ -0,0 +1,189 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe Time-To-Live cache with the same expiry rule as
+ * {@link TtlCache}: an entry that goes untouched through more than
+ * ttl calls to {@link #prune()} is dropped. Entries are also dropped
+ * early, oldest first, to keep the cache near its size budget.
+ *
+ * Instead of a TTL counter on every entry, entries are kept in ttl+1
+ * generations, each a ConcurrentHashMap (which is itself striped).
+ * New entries go into the newest generation, and an entry found in an
+ * older generation is moved back into the newest one, which resets its
+ * TTL. Pruning just retires the oldest generation and starts a new one,
+ * so it takes constant time and never blocks readers or writers. The
+ * retired entries are left to the garbage collector.
+ *
+ * A write that races with a prune can land in a generation that has
+ * just been retired. That entry is lost, which only costs a later
+ * miss.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public final class ConcurrentTtlCache<K, V>
+{
+    private final int maxEntries;
+    private final ReentrantLock rotationLock = new ReentrantLock();
+    /** Newest generation first. Replaced, never modified, when rotating. */
+    private volatile List<ConcurrentMap<K, V>> generations;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttl Number of prunes an entry survives without being accessed.
+     * @param maxEntries Size budget. When a new entry takes the cache past
+     *        it, the oldest generation is dropped early.
+     */
+    public ConcurrentTtlCache(int ttl, int maxEntries)
+    {
+        if (ttl < 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Bad cache parameters: ttl " + ttl + ", maxEntries " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        List<ConcurrentMap<K, V>> initial = new ArrayList<ConcurrentMap<K, V>>(ttl + 1);
+        for (int i = 0; i <= ttl; i++) {
+            initial.add(new ConcurrentHashMap<K, V>());
+        }
+        generations = Collections.unmodifiableList(initial);
+    }
+
+    /**
+     * Returns the value for the key, or null if it isn't cached. A hit
+     * resets the entry's TTL.
+     */
+    public V get(K key)
+    {
+        List<ConcurrentMap<K, V>> gens = generations;
+        ConcurrentMap<K, V> newest = gens.get(0);
+        V value = newest.get(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        for (int i = 1; i < gens.size(); i++) {
+            V old = gens.get(i).remove(key);
+            if (old != null) {
+                // Promote it, unless another thread got there first.
+                V raced = newest.putIfAbsent(key, old);
+                hits.incrementAndGet();
+                return raced == null ? old : raced;
+            }
+        }
+        // Another thread may have promoted it while we were looking.
+        value = newest.get(key);
+        if (value != null) {
+            hits.incrementAndGet();
+            return value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds the value unless the key is already cached in the newest
+     * generation. Returns the value that was already there, or null if
+     * this one was added. Callers that want compute-if-absent behaviour
+     * should {@link #get} first, so entries in older generations are
+     * found.
+     */
+    public V putIfAbsent(K key, V value)
+    {
+        V existing = generations.get(0).putIfAbsent(key, value);
+        if (existing == null && size.incrementAndGet() > maxEntries) {
+            rotate();
+        }
+        return existing;
+    }
+
+    /**
+     * Ages every entry by one generation and drops the ones whose TTL
+     * has run out.
+     */
+    public void prune()
+    {
+        rotationLock.lock();
+        try {
+            doRotate();
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    /** Drops the oldest generation to get back under budget, unless another thread already is. */
+    private void rotate()
+    {
+        if (rotationLock.tryLock()) {
+            try {
+                if (size.get() > maxEntries) {
+                    doRotate();
+                }
+            } finally {
+                rotationLock.unlock();
+            }
+        }
+    }
+
+    private void doRotate()
+    {
+        List<ConcurrentMap<K, V>> gens = generations;
+        List<ConcurrentMap<K, V>> next = new ArrayList<ConcurrentMap<K, V>>(gens.size());
+        next.add(new ConcurrentHashMap<K, V>());
+        next.addAll(gens.subList(0, gens.size() - 1));
+        generations = Collections.unmodifiableList(next);
+
+        evictions.addAndGet(gens.get(gens.size() - 1).size());
+        int remaining = 0;
+        for (ConcurrentMap<K, V> gen : next) {
+            remaining += gen.size();
+        }
+        size.set(remaining);
+    }
+
+    /** Approximate number of cached entries. */
+    public int size()
+    {
+        return size.get();
+    }
+
+    public void clear()
+    {
+        rotationLock.lock();
+        try {
+            for (ConcurrentMap<K, V> gen : generations) {
+                gen.clear();
+            }
+            size.set(0);
+        } finally {
+            rotationLock.unlock();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /** Number of entries dropped by pruning or to stay within the size budget. */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,476 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+
+/**
+ * A StateMachine decorator that caches query results in a fixed-size
+ * transposition table, so its memory use is bounded no matter how long
+ * the game runs. Unlike {@link CachedStateMachine}, entries are not
+ * dropped just because a move has passed. An entry stays until a more
+ * valuable state needs its slot.
+ * <p>
+ * The table is open-addressed and keyed by a 64-bit hash of the state.
+ * For a {@link PropNetMachineState} that is its Zobrist hash; other states
+ * hash their sentences. A state is looked up in a short window of slots
+ * after its home slot. A new state takes the first empty slot in the
+ * window, or else the slot with the lowest visit count. Visit counts are
+ * halved on every {@link #doPerMoveWork()}, so states from earlier in the
+ * game eventually give way. The state itself is kept next to its key, so
+ * hash collisions are detected rather than trusted.
+ * <p>
+ * Everything is held in arrays indexed by slot (times the number of
+ * roles, for per-role data). Legal moves are kept as the move ids of the
+ * backing machine, and next states in a small open-addressed table per
+ * slot, keyed by the move ids of the joint move. These per-slot tables are
+ * emptied rather than dropped when their slot goes to a new state.
+ * <p>
+ * This class is not thread-safe. Give each thread its own instance.
+ */
+public final class TranspositionTableStateMachine extends StateMachine
+{
+    /** Default number of slots. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    /** Number of slots searched for a state, starting at its home slot. */
+    private static final int PROBES = 4;
+
+    private static final int UNKNOWN_GOAL = Integer.MIN_VALUE;
+    private static final byte UNKNOWN = 0;
+    private static final byte NOT_TERMINAL = 1;
+    private static final byte TERMINAL = 2;
+    /** Initial number of entries in a slot's next-state table. A power of two. */
+    private static final int INITIAL_NEXT_CAPACITY = 4;
+
+    private final StateMachine backingStateMachine;
+    private final int mask;
+
+    private final long[] keys;
+    private final MachineState[] states;
+    private final int[] visits;
+    private final byte[] terminal;
+    private int[] goals;
+    /** The ids of the legal moves, per slot and role, or null if unknown. */
+    private int[][] legalMoveIds;
+    /** Per slot: the next states, and the joint move ids leading to each (numRoles per entry). */
+    private final MachineState[][] nextStates;
+    private final int[][] nextJointMoves;
+    private final int[] nextCounts;
+    /** The move ids of the joint move being looked up. */
+    private int[] jointMoveIds;
+
+    private List<Role> roles;
+    private Map<Role, Integer> roleIndices;
+    private int numRoles;
+
+    private long hits;
+    private long misses;
+    private long replacements;
+
+    public TranspositionTableStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of slots. Rounded up to a power of two.
+     */
+    public TranspositionTableStateMachine(StateMachine backingStateMachine, int capacity)
+    {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Bad transposition table capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.backingStateMachine = backingStateMachine;
+        this.mask = size - 1;
+        this.keys = new long[size];
+        this.states = new MachineState[size];
+        this.visits = new int[size];
+        this.terminal = new byte[size];
+        this.nextStates = new MachineState[size][];
+        this.nextJointMoves = new int[size][];
+        this.nextCounts = new int[size];
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        backingStateMachine.initialize(description);
+        roles = backingStateMachine.getRoles();
+        roleIndices = backingStateMachine.getRoleIndices();
+        numRoles = roles.size();
+        goals = new int[states.length * numRoles];
+        legalMoveIds = new int[states.length * numRoles][];
+        jointMoveIds = new int[numRoles];
+        clear();
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void clear()
+    {
+        Arrays.fill(states, null);
+        Arrays.fill(nextStates, null);
+        Arrays.fill(nextJointMoves, null);
+        Arrays.fill(nextCounts, 0);
+        if (legalMoveIds != null) {
+            Arrays.fill(legalMoveIds, null);
+        }
+    }
+
+    /**
+     * Returns a 64-bit hash of the state.
+     */
+    static long hash(MachineState state)
+    {
+        if (state instanceof PropNetMachineState) {
+            return ((PropNetMachineState) state).getZobristHash();
+        }
+        // Sentences are interned, so their hash codes are stable; sum a
+        // mix of each so the result doesn't depend on iteration order.
+        long hash = 0;
+        for (GdlSentence sentence : state.getContents()) {
+            hash += mix(sentence.hashCode());
+        }
+        return hash;
+    }
+
+    private static long mix(long z)
+    {
+        // The SplitMix64 finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the slot holding the state, claiming one if it isn't in the
+     * table yet.
+     */
+    private int probe(MachineState state)
+    {
+        long key = hash(state);
+        int home = (int) mix(key) & mask;
+        int victim = -1;
+        int victimVisits = Integer.MAX_VALUE;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (home + i) & mask;
+            MachineState stored = states[slot];
+            if (stored == null) {
+                // Slots are never emptied one at a time, so the state
+                // can't be any further along.
+                victim = slot;
+                break;
+            }
+            if (keys[slot] == key && stored.equals(state)) {
+                if (visits[slot] < Integer.MAX_VALUE) {
+                    visits[slot]++;
+                }
+                hits++;
+                return slot;
+            }
+            if (visits[slot] < victimVisits) {
+                victim = slot;
+                victimVisits = visits[slot];
+            }
+        }
+
+        misses++;
+        if (states[victim] != null) {
+            replacements++;
+        }
+        keys[victim] = key;
+        states[victim] = state;
+        visits[victim] = 1;
+        terminal[victim] = UNKNOWN;
+        if (nextCounts[victim] > 0) {
+            Arrays.fill(nextStates[victim], null);
+            nextCounts[victim] = 0;
+        }
+        int base = victim * numRoles;
+        for (int r = 0; r < numRoles; r++) {
+            goals[base + r] = UNKNOWN_GOAL;
+            legalMoveIds[base + r] = null;
+        }
+        return victim;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        int i = probe(state) * numRoles + roleIndices.get(role);
+        if (goals[i] == UNKNOWN_GOAL) {
+            goals[i] = backingStateMachine.getGoal(state, role);
+        }
+        return goals[i];
+    }
+
+    /**
+     * Returns the legal moves as a read-only view of the cached move ids.
+     */
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        final int r = roleIndices.get(role);
+        final int[] ids = legalMoveIds(state, r);
+        return new AbstractList<Move>() {
+            @Override
+            public Move get(int index)
+            {
+                return backingStateMachine.getMoveFromId(r, ids[index]);
+            }
+
+            @Override
+            public int size()
+            {
+                return ids.length;
+            }
+        };
+    }
+
+    @Override
+    public int[] getLegalMoveIds(MachineState state, int role) throws MoveDefinitionException
+    {
+        return legalMoveIds(state, role).clone();
+    }
+
+    private int[] legalMoveIds(MachineState state, int role) throws MoveDefinitionException
+    {
+        int i = probe(state) * numRoles + role;
+        if (legalMoveIds[i] == null) {
+            legalMoveIds[i] = backingStateMachine.getLegalMoveIds(state, role);
+        }
+        return legalMoveIds[i];
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        for (int r = 0; r < numRoles; r++) {
+            int id = backingStateMachine.getMoveId(r, moves.get(r));
+            if (id < 0) {
+                // A move the role can never make; let the backing machine deal with it
+                return backingStateMachine.getNextState(state, moves);
+            }
+            jointMoveIds[r] = id;
+        }
+        int slot = probe(state);
+        MachineState next = findNextState(slot, jointMoveIds);
+        if (next == null) {
+            next = backingStateMachine.getNextState(state, moves);
+            putNextState(slot, jointMoveIds, next);
+        }
+        return next;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException
+    {
+        int slot = probe(state);
+        MachineState next = findNextState(slot, jointMove);
+        if (next == null) {
+            next = backingStateMachine.getNextState(state, jointMove);
+            putNextState(slot, jointMove, next);
+        }
+        return next;
+    }
+
+    private MachineState findNextState(int slot, int[] jointMove)
+    {
+        MachineState[] table = nextStates[slot];
+        if (table == null) {
+            return null;
+        }
+        int[] jointMoves = nextJointMoves[slot];
+        int tableMask = table.length - 1;
+        for (int i = hashJointMove(jointMove, 0) & tableMask; table[i] != null; i = (i + 1) & tableMask) {
+            if (matches(jointMoves, i * numRoles, jointMove)) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    private void putNextState(int slot, int[] jointMove, MachineState next)
+    {
+        if (nextStates[slot] == null) {
+            nextStates[slot] = new MachineState[INITIAL_NEXT_CAPACITY];
+            nextJointMoves[slot] = new int[INITIAL_NEXT_CAPACITY * numRoles];
+        } else if ((nextCounts[slot] + 1) * 2 > nextStates[slot].length) {
+            // Keep the table at most half full, so probe sequences stay short
+            MachineState[] oldTable = nextStates[slot];
+            int[] oldJointMoves = nextJointMoves[slot];
+            nextStates[slot] = new MachineState[oldTable.length * 2];
+            nextJointMoves[slot] = new int[oldTable.length * 2 * numRoles];
+            for (int i = 0; i < oldTable.length; i++) {
+                if (oldTable[i] != null) {
+                    insert(slot, oldJointMoves, i * numRoles, oldTable[i]);
+                }
+            }
+        }
+        insert(slot, jointMove, 0, next);
+        nextCounts[slot]++;
+    }
+
+    /** Adds the joint move at the given offset of the array, and its next state, to the slot's table. */
+    private void insert(int slot, int[] jointMoves, int offset, MachineState next)
+    {
+        MachineState[] table = nextStates[slot];
+        int tableMask = table.length - 1;
+        int i = hashJointMove(jointMoves, offset) & tableMask;
+        while (table[i] != null) {
+            i = (i + 1) & tableMask;
+        }
+        table[i] = next;
+        System.arraycopy(jointMoves, offset, nextJointMoves[slot], i * numRoles, numRoles);
+    }
+
+    private int hashJointMove(int[] jointMoves, int offset)
+    {
+        long hash = 0;
+        for (int r = 0; r < numRoles; r++) {
+            hash = hash * 31 + jointMoves[offset + r];
+        }
+        return (int) mix(hash);
+    }
+
+    private boolean matches(int[] jointMoves, int offset, int[] jointMove)
+    {
+        for (int r = 0; r < numRoles; r++) {
+            if (jointMoves[offset + r] != jointMove[r]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        int slot = probe(state);
+        if (terminal[slot] == UNKNOWN) {
+            terminal[slot] = backingStateMachine.isTerminal(state) ? TERMINAL : NOT_TERMINAL;
+        }
+        return terminal[slot] == TERMINAL;
+    }
+
+    /**
+     * Depth charges are passed straight to the backing machine, as in
+     * {@link CachedStateMachine}: their states would only push useful
+     * entries out of the table.
+     */
+    @Override
+    public MachineState getNextStateDestructively(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        return backingStateMachine.getNextStateDestructively(state, moves);
+    }
+
+    @Override
+    public MachineState performDepthCharge(MachineState state, final int[] theDepth) throws TransitionDefinitionException, MoveDefinitionException
+    {
+        return backingStateMachine.performDepthCharge(state, theDepth);
+    }
+
+    @Override
+    public MachineState performSafeDepthCharge(MachineState state, long timeout) throws TransitionDefinitionException, MoveDefinitionException
+    {
+        return backingStateMachine.performSafeDepthCharge(state, timeout);
+    }
+
+    /** Move ids come from the backing machine, so they match its own. */
+    @Override
+    public int getMoveId(int role, Move move)
+    {
+        return backingStateMachine.getMoveId(role, move);
+    }
+
+    @Override
+    public Move getMoveFromId(int role, int moveId)
+    {
+        return backingStateMachine.getMoveFromId(role, moveId);
+    }
+
+    @Override
+    public int performDepthCharges(MachineState state, int count, int[] goals, int[] depthHistogram, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        return backingStateMachine.performDepthCharges(state, count, goals, depthHistogram, timeout);
+    }
+
+    /**
+     * Halves every visit count, so states that stop being visited
+     * eventually lose their slots to new ones.
+     */
+    @Override
+    public void doPerMoveWork()
+    {
+        for (int i = 0; i < visits.length; i++) {
+            visits[i] >>>= 1;
+        }
+        backingStateMachine.doPerMoveWork();
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        return backingStateMachine.findActions(role);
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return backingStateMachine.getInitialState();
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList)
+    {
+        return backingStateMachine.getMachineStateFromSentenceList(sentenceList);
+    }
+
+    /** Number of lookups that found their state in the table. */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /** Number of lookups that had to add their state to the table. */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /** Number of times a new state took the slot of an old one. */
+    public long getReplacements()
+    {
+        return replacements;
+    }
+
+    /** Number of slots in the table. */
+    public int getCapacity()
+    {
+        return states.length;
+    }
+}
@@ -0,0 +1,692 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.GameFlow;
+import org.ggp.base.util.gdl.model.SentenceModelUtils;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * The topology of a {@link PropNet}, flattened into contiguous int arrays
+ * for {@link CompiledPropNetStateMachine}.
+ * <p>
+ * Components are renumbered so that the sources of the network come first
+ * (base propositions, then input propositions, then INIT and constants) and
+ * every gate comes after all of its inputs. Nothing here changes after
+ * construction, so a single instance can back any number of machines on any
+ * number of threads; the values of the components live in the machines.
+ * <p>
+ * The network is also analysed for bases whose values can be predicted:
+ * <ul>
+ * <li>latches, bases that stay true once true or stay false once false,
+ * found by propagating the value of each base on its own through the
+ * network; and</li>
+ * <li>when a {@link GameFlow} is given, bases that only depend on the turn,
+ * such as step counters and control markers.</li>
+ * </ul>
+ * Each distinct valuation of the turn-dependent bases, together with the
+ * latches that hold from the initial state on, makes a phase. For every
+ * phase, the gates whose values follow from those bases alone are evaluated
+ * ahead of time, so that a full propagation of a state in that phase only
+ * has to walk the remaining gates. The analysis is kept as a
+ * {@link PhaseAnalysis}, which can be saved and given back when the same
+ * game is compiled again.
+ */
+public final class CompiledPropNet {
+    /** Source whose value is read from the machine state. */
+    static final int BASE = 0;
+    /** Source whose value is read from the joint move. */
+    static final int INPUT = 1;
+    /** Source which is only true when computing the initial state. */
+    static final int INIT = 2;
+    /** Source with a fixed value. */
+    static final int CONSTANT = 3;
+    /** True if any input is true. Used for propositions and transitions too. */
+    static final int OR = 4;
+    /** True if every input is true. */
+    static final int AND = 5;
+    /** True if the single input is false. */
+    static final int NOT = 6;
+
+    /** Three-valued logic used to analyse the network. */
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte UNKNOWN = 2;
+
+    /** At most this many phases are kept, in turn order, to bound memory. */
+    private static final int MAX_PHASES = 16;
+
+    /** The player roles */
+    final List<Role> roles;
+
+    /** The type of each component, one of the constants above. */
+    final int[] types;
+    /** Inputs of component c are inputIndices[inputOffsets[c] .. inputOffsets[c+1]-1]. */
+    final int[] inputOffsets;
+    final int[] inputIndices;
+    /** Outputs of component c are outputIndices[outputOffsets[c] .. outputOffsets[c+1]-1]. */
+    final int[] outputOffsets;
+    final int[] outputIndices;
+    /** The value of every source with all bases and inputs false. Gates are left false. */
+    final boolean[] initialValues;
+
+    /** Bases occupy component indices [0, numBases). */
+    final int numBases;
+    /** Inputs occupy component indices [numBases, firstGate) along with the other sources. */
+    final int firstGate;
+    /** The transition feeding each base, indexed by base. */
+    final int[] baseTransitions;
+    /** The sentence of each base, indexed by base. */
+    final GdlSentence[] baseSentences;
+    final Map<GdlSentence, Integer> baseIndices;
+    /** Zobrist keys of the bases, shared by all states built on this network. */
+    final long[] zobristKeys;
+
+    /** Per role: the legal proposition, its input proposition (or -1) and its move. */
+    final int[][] legalIndices;
+    final int[][] legalInputs;
+    final Move[][] legalMoves;
+    final List<Map<Move, Integer>> moveIndices;
+    /** Per role: the goal propositions and their values. */
+    final int[][] goalIndices;
+    final int[][] goalValues;
+
+    final int terminalIndex;
+    final int initIndex;
+
+    final MachineState initialState;
+
+    /** Per base: whether it stays true once true, and whether it stays false once false. */
+    final boolean[] latchedOn;
+    final boolean[] latchedOff;
+    /** The bases whose values define the phases. */
+    final int[] phaseBases;
+    /** Per phase: the values of phaseBases in that phase. */
+    final boolean[][] phaseBaseValues;
+    /** Per phase: the gates whose values are fixed by the phase, and those values. */
+    final int[][] phaseFixedGates;
+    final boolean[][] phaseFixedValues;
+    /** Per phase: the gates that still have to be evaluated, in topological order. */
+    final int[][] phaseLiveGates;
+    /** The latches and turn-dependent bases the phases were built from. */
+    private final PhaseAnalysis phaseAnalysis;
+
+    /**
+     * Flattens the given propnet. The propnet is not referenced after this
+     * returns.
+     */
+    public CompiledPropNet(PropNet propNet) {
+        this(propNet, (GameFlow) null);
+    }
+
+    /**
+     * Flattens the given propnet, using the game flow (if not null) to find
+     * the bases that only depend on the turn. The propnet is not referenced
+     * after this returns.
+     */
+    public CompiledPropNet(PropNet propNet, GameFlow flow) {
+        this(propNet, flow, null);
+    }
+
+    /**
+     * Flattens the given propnet, taking the latches and phases from an
+     * analysis made when the same game was compiled before instead of
+     * working them out again. The propnet is not referenced after this
+     * returns.
+     */
+    public CompiledPropNet(PropNet propNet, PhaseAnalysis analysis) {
+        this(propNet, null, analysis);
+    }
+
+    private CompiledPropNet(PropNet propNet, GameFlow flow, PhaseAnalysis analysis) {
+        roles = Collections.unmodifiableList(new ArrayList<Role>(propNet.getRoles()));
+
+        // Sources, ordered so that bases and inputs get stable indices.
+        List<Proposition> bases = new ArrayList<Proposition>(propNet.getBasePropositions().values());
+        List<Proposition> inputs = new ArrayList<Proposition>(propNet.getInputPropositions().values());
+        Collections.sort(bases, BY_NAME);
+        Collections.sort(inputs, BY_NAME);
+        Set<Component> baseSet = new HashSet<Component>(bases);
+        Set<Component> inputSet = new HashSet<Component>(inputs);
+
+        List<Component> sources = new ArrayList<Component>();
+        sources.addAll(bases);
+        sources.addAll(inputs);
+        List<Component> gates = new ArrayList<Component>();
+        for (Component c : propNet.getComponents()) {
+            if (baseSet.contains(c) || inputSet.contains(c)) {
+                continue;
+            }
+            if (c instanceof Constant || c.getInputs().isEmpty()) {
+                sources.add(c);
+            } else {
+                gates.add(c);
+            }
+        }
+
+        // Order the gates topologically. Edges into bases are cut, since they
+        // carry the value for the next state rather than the current one.
+        List<Component> ordered = new ArrayList<Component>(sources.size() + gates.size());
+        ordered.addAll(sources);
+        Map<Component, Integer> pending = new HashMap<Component, Integer>();
+        for (Component gate : gates) {
+            pending.put(gate, gate.getInputs().size());
+        }
+        for (int i = 0; i < ordered.size(); i++) {
+            for (Component out : ordered.get(i).getOutputs()) {
+                Integer remaining = pending.get(out);
+                if (remaining == null) {
+                    continue;
+                }
+                if (remaining == 1) {
+                    pending.remove(out);
+                    ordered.add(out);
+                } else {
+                    pending.put(out, remaining - 1);
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("PropNet has " + pending.size() + " components on a cycle that does not pass through a transition");
+        }
+
+        int n = ordered.size();
+        Map<Component, Integer> indices = new HashMap<Component, Integer>();
+        for (int i = 0; i < n; i++) {
+            indices.put(ordered.get(i), i);
+        }
+        numBases = bases.size();
+        firstGate = sources.size();
+
+        types = new int[n];
+        initialValues = new boolean[n];
+        inputOffsets = new int[n + 1];
+        outputOffsets = new int[n + 1];
+        List<Integer> inputList = new ArrayList<Integer>();
+        List<Integer> outputList = new ArrayList<Integer>();
+        int init = -1;
+        for (int i = 0; i < n; i++) {
+            Component c = ordered.get(i);
+            if (i < numBases) {
+                types[i] = BASE;
+            } else if (inputSet.contains(c)) {
+                types[i] = INPUT;
+            } else if (c == propNet.getInitProposition()) {
+                types[i] = INIT;
+                init = i;
+            } else if (i < firstGate) {
+                types[i] = CONSTANT;
+                initialValues[i] = (c instanceof Constant) && c.getValue();
+            } else if (c instanceof And) {
+                types[i] = AND;
+            } else if (c instanceof Not) {
+                types[i] = NOT;
+            } else {
+                types[i] = OR;
+            }
+
+            inputOffsets[i] = inputList.size();
+            if (i >= firstGate) {
+                for (Component in : c.getInputs()) {
+                    inputList.add(indices.get(in));
+                }
+            }
+            outputOffsets[i] = outputList.size();
+            for (Component out : c.getOutputs()) {
+                int o = indices.get(out);
+                if (o >= firstGate) {
+                    outputList.add(o);
+                }
+            }
+        }
+        inputOffsets[n] = inputList.size();
+        outputOffsets[n] = outputList.size();
+        inputIndices = toIntArray(inputList);
+        outputIndices = toIntArray(outputList);
+        initIndex = init;
+
+        baseTransitions = new int[numBases];
+        baseSentences = new GdlSentence[numBases];
+        baseIndices = new HashMap<GdlSentence, Integer>();
+        for (int b = 0; b < numBases; b++) {
+            Proposition base = bases.get(b);
+            baseTransitions[b] = indices.get(base.getSingleInput());
+            baseSentences[b] = base.getName();
+            baseIndices.put(base.getName(), b);
+        }
+
+        Map<Proposition, Proposition> legalInputMap = propNet.getLegalInputMap();
+        legalIndices = new int[roles.size()][];
+        legalInputs = new int[roles.size()][];
+        legalMoves = new Move[roles.size()][];
+        moveIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+        goalIndices = new int[roles.size()][];
+        goalValues = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            Role role = roles.get(r);
+
+            List<Proposition> legals = sortedByName(propNet.getLegalPropositions().get(role));
+            legalIndices[r] = new int[legals.size()];
+            legalInputs[r] = new int[legals.size()];
+            legalMoves[r] = new Move[legals.size()];
+            Map<Move, Integer> moveIndex = new HashMap<Move, Integer>();
+            for (int i = 0; i < legals.size(); i++) {
+                Proposition legal = legals.get(i);
+                Proposition input = legalInputMap.get(legal);
+                legalIndices[r][i] = indices.get(legal);
+                legalInputs[r][i] = (input == null) ? -1 : indices.get(input);
+                legalMoves[r][i] = SamplePropNetStateMachine.getMoveFromProposition(legal);
+                moveIndex.put(legalMoves[r][i], i);
+            }
+            moveIndices.add(moveIndex);
+
+            List<Proposition> goals = sortedByName(propNet.getGoalPropositions().get(role));
+            goalIndices[r] = new int[goals.size()];
+            goalValues[r] = new int[goals.size()];
+            for (int i = 0; i < goals.size(); i++) {
+                goalIndices[r][i] = indices.get(goals.get(i));
+                goalValues[r][i] = getGoalValue(goals.get(i));
+            }
+        }
+
+        Proposition terminal = propNet.getTerminalProposition();
+        terminalIndex = (terminal == null) ? -1 : indices.get(terminal);
+
+        zobristKeys = PropNetMachineState.zobristKeysFor(numBases);
+        byte[] unknown = evaluate(sourceValues());
+        initialState = computeInitialState(unknown);
+        long[] initialBits = ((PropNetMachineState) initialState).getBits();
+        if (analysis == null) {
+            analysis = analyse(unknown, initialBits, flow);
+        }
+        phaseAnalysis = analysis;
+
+        // Latches
+        latchedOn = new boolean[numBases];
+        latchedOff = new boolean[numBases];
+        for (GdlSentence base : analysis.getLatchedOnBases()) {
+            Integer b = baseIndices.get(base);
+            if (b != null) {
+                latchedOn[b] = true;
+            }
+        }
+        for (GdlSentence base : analysis.getLatchedOffBases()) {
+            Integer b = baseIndices.get(base);
+            if (b != null) {
+                latchedOff[b] = true;
+            }
+        }
+
+        // Phases: the bases held by latches from the start, plus any that
+        // depend on the turn, with one valuation of the latter per phase.
+        List<Integer> fixedBases = new ArrayList<Integer>();
+        for (int b = 0; b < numBases; b++) {
+            if (isInitiallyTrue(initialBits, b) ? latchedOn[b] : latchedOff[b]) {
+                fixedBases.add(b);
+            }
+        }
+        List<Integer> flowBases = new ArrayList<Integer>();
+        for (GdlSentence base : analysis.getFlowBases()) {
+            Integer b = baseIndices.get(base);
+            if (b != null && !fixedBases.contains(b)) {
+                flowBases.add(b);
+            }
+        }
+        Set<List<Boolean>> valuations = new LinkedHashSet<List<Boolean>>();
+        for (Set<GdlSentence> trueFlowBases : analysis.getFlowValuations()) {
+            List<Boolean> valuation = new ArrayList<Boolean>();
+            for (int b : fixedBases) {
+                valuation.add(isInitiallyTrue(initialBits, b));
+            }
+            for (int b : flowBases) {
+                valuation.add(trueFlowBases.contains(baseSentences[b]));
+            }
+            valuations.add(valuation);
+        }
+        List<Integer> allPhaseBases = new ArrayList<Integer>(fixedBases);
+        allPhaseBases.addAll(flowBases);
+        int numPhases = allPhaseBases.isEmpty() ? 0 : valuations.size();
+        phaseBases = toIntArray(allPhaseBases);
+        phaseBaseValues = new boolean[numPhases][];
+        phaseFixedGates = new int[numPhases][];
+        phaseFixedValues = new boolean[numPhases][];
+        phaseLiveGates = new int[numPhases][];
+        int p = 0;
+        for (List<Boolean> valuation : valuations) {
+            if (p == numPhases) {
+                break;
+            }
+            byte[] values = sourceValues();
+            phaseBaseValues[p] = new boolean[phaseBases.length];
+            for (int i = 0; i < phaseBases.length; i++) {
+                phaseBaseValues[p][i] = valuation.get(i);
+                values[phaseBases[i]] = valuation.get(i) ? TRUE : FALSE;
+            }
+            values = evaluate(values);
+            List<Integer> fixed = new ArrayList<Integer>();
+            List<Integer> live = new ArrayList<Integer>();
+            for (int c = firstGate; c < n; c++) {
+                (values[c] == UNKNOWN ? live : fixed).add(c);
+            }
+            phaseFixedGates[p] = toIntArray(fixed);
+            phaseFixedValues[p] = new boolean[fixed.size()];
+            for (int i = 0; i < fixed.size(); i++) {
+                phaseFixedValues[p][i] = values[fixed.get(i)] == TRUE;
+            }
+            phaseLiveGates[p] = toIntArray(live);
+            p++;
+        }
+    }
+
+    /**
+     * Finds the latches, and the bases that only depend on the turn (using
+     * the game flow, if not null) with their values in each phase.
+     */
+    private PhaseAnalysis analyse(byte[] unknown, long[] initialBits, GameFlow flow) {
+        Set<GdlSentence> latchedOnBases = new HashSet<GdlSentence>();
+        Set<GdlSentence> latchedOffBases = new HashSet<GdlSentence>();
+        LatchFinder latches = new LatchFinder(unknown);
+        for (int b = 0; b < numBases; b++) {
+            if (latches.implies(b, TRUE)) {
+                latchedOnBases.add(baseSentences[b]);
+            }
+            if (latches.implies(b, FALSE)) {
+                latchedOffBases.add(baseSentences[b]);
+            }
+        }
+
+        List<GdlSentence> flowBases = new ArrayList<GdlSentence>();
+        if (flow != null) {
+            for (int b = 0; b < numBases; b++) {
+                boolean fixed = isInitiallyTrue(initialBits, b) ? latchedOnBases.contains(baseSentences[b]) : latchedOffBases.contains(baseSentences[b]);
+                if (!fixed && SentenceModelUtils.inSentenceFormGroup(baseSentences[b], flow.getSentenceForms())) {
+                    flowBases.add(baseSentences[b]);
+                }
+            }
+        }
+        Set<Set<GdlSentence>> flowValuations = new LinkedHashSet<Set<GdlSentence>>();
+        for (int t = 0; t < (flow == null ? 1 : flow.getNumTurns()) && flowValuations.size() < MAX_PHASES; t++) {
+            Set<GdlSentence> trueFlowBases = new HashSet<GdlSentence>();
+            for (GdlSentence base : flowBases) {
+                if (flow.getSentencesTrueOnTurn(t).contains(base)) {
+                    trueFlowBases.add(base);
+                }
+            }
+            flowValuations.add(trueFlowBases);
+        }
+        return new PhaseAnalysis(latchedOnBases, latchedOffBases, flowBases, new ArrayList<Set<GdlSentence>>(flowValuations));
+    }
+
+    private static boolean isInitiallyTrue(long[] initialBits, int b) {
+        return (initialBits[b >>> 6] & (1L << b)) != 0;
+    }
+
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Returns the analysis of the latches and turn-dependent bases that the
+     * phases were built from.
+     */
+    public PhaseAnalysis getPhaseAnalysis() {
+        return phaseAnalysis;
+    }
+
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Returns the number of components in the network.
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * Returns the bases that stay true once they are true.
+     */
+    public Set<GdlSentence> getLatchedOnBases() {
+        return basesWhere(latchedOn);
+    }
+
+    /**
+     * Returns the bases that stay false once they are false.
+     */
+    public Set<GdlSentence> getLatchedOffBases() {
+        return basesWhere(latchedOff);
+    }
+
+    /**
+     * Returns the number of phases that have gates evaluated ahead of time.
+     */
+    public int getNumPhases() {
+        return phaseLiveGates.length;
+    }
+
+    /**
+     * Returns the number of gates that still have to be evaluated for
+     * states in the given phase.
+     */
+    public int getNumLiveGates(int phase) {
+        return phaseLiveGates[phase].length;
+    }
+
+    private Set<GdlSentence> basesWhere(boolean[] flags) {
+        Set<GdlSentence> bases = new HashSet<GdlSentence>();
+        for (int b = 0; b < numBases; b++) {
+            if (flags[b]) {
+                bases.add(baseSentences[b]);
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Returns the values of the sources when nothing is known about the
+     * bases and inputs. INIT is false, as it is after the initial state.
+     */
+    private byte[] sourceValues() {
+        byte[] values = new byte[types.length];
+        for (int c = 0; c < firstGate; c++) {
+            switch (types[c]) {
+            case BASE:
+            case INPUT:
+                values[c] = UNKNOWN;
+                break;
+            case CONSTANT:
+                values[c] = initialValues[c] ? TRUE : FALSE;
+                break;
+            default:
+                values[c] = FALSE;
+                break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Evaluates every gate in three-valued logic, given the values of the
+     * sources.
+     */
+    private byte[] evaluate(byte[] values) {
+        for (int c = firstGate; c < types.length; c++) {
+            values[c] = evaluate(c, values);
+        }
+        return values;
+    }
+
+    private byte evaluate(int c, byte[] values) {
+        if (types[c] == NOT) {
+            byte in = values[inputIndices[inputOffsets[c]]];
+            return (in == UNKNOWN) ? UNKNOWN : (in == TRUE ? FALSE : TRUE);
+        }
+        // ANDs are decided by a false input, everything else by a true one.
+        byte decider = (types[c] == AND) ? FALSE : TRUE;
+        byte result = (decider == TRUE) ? FALSE : TRUE;
+        for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+            byte in = values[inputIndices[i]];
+            if (in == decider) {
+                return decider;
+            } else if (in == UNKNOWN) {
+                result = UNKNOWN;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks for latches one base at a time, starting from the three-valued
+     * evaluation with nothing known. Every base is checked with the same
+     * buffers: only the entries a check touched are reset after it.
+     */
+    private final class LatchFinder {
+        private final byte[] unknown;
+        private final byte[] values;
+        private final boolean[] dirty;
+        /** The components marked dirty by the current check. */
+        private final int[] touched;
+        private int numTouched;
+
+        LatchFinder(byte[] unknown) {
+            this.unknown = unknown;
+            values = unknown.clone();
+            dirty = new boolean[types.length];
+            touched = new int[types.length];
+        }
+
+        /**
+         * Returns true if the base having the given value, with nothing known
+         * about the other bases or the inputs, gives its transition that same
+         * value. Only the gates downstream of the base are evaluated again.
+         */
+        boolean implies(int base, byte value) {
+            values[base] = value;
+            markOutputs(base);
+            int transition = baseTransitions[base];
+            for (int c = firstGate; c <= transition; c++) {
+                if (!dirty[c]) {
+                    continue;
+                }
+                byte newValue = evaluate(c, values);
+                if (newValue != values[c]) {
+                    values[c] = newValue;
+                    markOutputs(c);
+                }
+            }
+            boolean result = values[transition] == value;
+
+            values[base] = unknown[base];
+            for (int i = 0; i < numTouched; i++) {
+                int c = touched[i];
+                values[c] = unknown[c];
+                dirty[c] = false;
+            }
+            numTouched = 0;
+            return result;
+        }
+
+        private void markOutputs(int c) {
+            for (int i = outputOffsets[c]; i < outputOffsets[c + 1]; i++) {
+                int out = outputIndices[i];
+                if (!dirty[out]) {
+                    dirty[out] = true;
+                    touched[numTouched++] = out;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the initial state. The factory wires INIT into the transition
+     * of every base that is true initially (directly or through an OR with
+     * the "next" logic), so those are the bases whose transitions are
+     * reachable from INIT. The exception is a base whose "next" rule always
+     * holds: the factory then drops INIT and feeds the transition from the
+     * TRUE constant, so bases whose transitions are true whatever the state
+     * (according to the given three-valued evaluation) are included as well.
+     * Propagating with INIT set and no bases would also pick up "next" rules
+     * that merely happen to hold in the empty state.
+     */
+    private MachineState computeInitialState(byte[] unknown) {
+        long[] bits = new long[PropNetMachineState.wordsFor(numBases)];
+        if (initIndex >= 0) {
+            boolean[] reached = new boolean[types.length];
+            int[] stack = new int[types.length];
+            int size = 0;
+            stack[size++] = initIndex;
+            reached[initIndex] = true;
+            while (size > 0) {
+                int c = stack[--size];
+                for (int i = outputOffsets[c]; i < outputOffsets[c + 1]; i++) {
+                    int out = outputIndices[i];
+                    if (!reached[out]) {
+                        reached[out] = true;
+                        stack[size++] = out;
+                    }
+                }
+            }
+            for (int b = 0; b < numBases; b++) {
+                if (reached[baseTransitions[b]]) {
+                    bits[b >>> 6] |= 1L << b;
+                }
+            }
+        }
+        for (int b = 0; b < numBases; b++) {
+            if (unknown[baseTransitions[b]] == TRUE) {
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        return new PropNetMachineState(baseSentences, zobristKeys, bits);
+    }
+
+    private static int getGoalValue(Proposition goalProposition) {
+        GdlRelation relation = (GdlRelation) goalProposition.getName();
+        GdlConstant constant = (GdlConstant) relation.get(1);
+        return Integer.parseInt(constant.toString());
+    }
+
+    private static List<Proposition> sortedByName(Set<Proposition> propositions) {
+        List<Proposition> sorted = new ArrayList<Proposition>();
+        if (propositions != null) {
+            sorted.addAll(propositions);
+        }
+        Collections.sort(sorted, BY_NAME);
+        return sorted;
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static final Comparator<Proposition> BY_NAME = new Comparator<Proposition>() {
+        @Override
+        public int compare(Proposition a, Proposition b) {
+            return a.getName().toString().compareTo(b.getName().toString());
+        }
+    };
+}
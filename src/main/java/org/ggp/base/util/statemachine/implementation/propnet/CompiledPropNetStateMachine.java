@@ -0,0 +1,926 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.GameFlow;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.propnet.factory.PropNetOptimizer;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine that flattens the {@link PropNet} built by
+ * {@link OptimizingPropNetFactory} into a {@link CompiledPropNet}, and
+ * evaluates it with a single topologically ordered forward pass per state.
+ * <p>
+ * Every gate of a compiled network comes after all of its inputs, so the
+ * value of any component can be computed by walking the component indices
+ * in increasing order, without recursion, allocation or type checks on the
+ * component objects.
+ * <p>
+ * States are returned as {@link PropNetMachineState}s, bitsets over the
+ * bases with precomputed hashes, which this machine can load without any
+ * sentence lookups. States built by other machines are accepted too.
+ * <p>
+ * In differential mode, the machine also keeps a count of true inputs for
+ * every gate, and keeps both the values and the counts between calls. Moving
+ * to another state, or setting the inputs for a joint move, then only walks
+ * the fan-out of the bases and inputs that actually changed, so consecutive
+ * states in a depth charge cost time proportional to their difference rather
+ * than to the size of the network.
+ * <p>
+ * Like {@link SamplePropNetStateMachine}, this machine keeps the values of
+ * the network as internal state, so an instance must not be shared between
+ * threads. The compiled network itself is immutable, though: create one
+ * machine per thread with {@link #CompiledPropNetStateMachine(CompiledPropNet,
+ * boolean)}, all sharing the network of the first, so that the topology is
+ * built and held in memory only once. States built by any of them can be
+ * passed to the others without conversion.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+    /** Whether only changes are propagated, rather than the whole network. */
+    private final boolean differential;
+    /** Where propnets are read from and saved to, or null to always build them. */
+    private final PropNetCache cache;
+
+    /** The network being evaluated. The arrays below are copied out of it. */
+    private CompiledPropNet net;
+
+    /** The player roles */
+    private List<Role> roles;
+
+    /** The type of each component, one of the {@link CompiledPropNet} constants. */
+    private int[] types;
+    /** Inputs of component c are inputIndices[inputOffsets[c] .. inputOffsets[c+1]-1]. */
+    private int[] inputOffsets;
+    private int[] inputIndices;
+    /** Outputs of component c are outputIndices[outputOffsets[c] .. outputOffsets[c+1]-1]. */
+    private int[] outputOffsets;
+    private int[] outputIndices;
+    /** The current value of every component. Owned by this machine. */
+    private boolean[] values;
+    /** The number of true inputs of every gate. Only kept in differential mode. */
+    private int[] trueInputs;
+    /** Work stack for differential propagation, holding (component << 1 | newValue). */
+    private int[] changes;
+
+    /** Bases occupy component indices [0, numBases). */
+    private int numBases;
+    /** Inputs occupy component indices [numBases, firstGate) along with the other sources. */
+    private int firstGate;
+    /** The transition feeding each base, indexed by base. */
+    private int[] baseTransitions;
+    /** The sentence of each base, indexed by base. */
+    private GdlSentence[] baseSentences;
+    private Map<GdlSentence, Integer> baseIndices;
+    /** Zobrist keys of the bases, shared by all states built on this network. */
+    private long[] zobristKeys;
+    /** In differential mode, the current values of the bases as a bitset. */
+    private long[] baseBits;
+
+    /** Per role: the legal proposition, its input proposition (or -1) and its move. */
+    private int[][] legalIndices;
+    private int[][] legalInputs;
+    private Move[][] legalMoves;
+    private List<Map<Move, Integer>> moveIndices;
+    /** Per role: the goal propositions and their values. */
+    private int[][] goalIndices;
+    private int[][] goalValues;
+
+    private int terminalIndex;
+
+    /** See {@link CompiledPropNet}: phases of the game with some gates evaluated ahead of time. */
+    private int[] phaseBases;
+    private boolean[][] phaseBaseValues;
+    private int[][] phaseFixedGates;
+    private boolean[][] phaseFixedValues;
+    private int[][] phaseLiveGates;
+    /** The phase whose fixed gate values are currently in values, or -1. */
+    private int fixedPhase;
+
+    /** The inputs currently set to true, so they can be cleared again. */
+    private int[] markedInputs;
+    private int numMarkedInputs;
+    /** Scratch buffer for the next values of the bases. */
+    private boolean[] nextBases;
+    private final Random random = new Random();
+
+    private MachineState initialState;
+    /** The state whose bases are currently marked, if no inputs are set. */
+    private MachineState currentState;
+
+    /**
+     * Creates a machine that evaluates the whole network for every state.
+     */
+    public CompiledPropNetStateMachine() {
+        this(false);
+    }
+
+    /**
+     * @param differential if true, only the changes between successive
+     * states and joint moves are propagated through the network.
+     */
+    public CompiledPropNetStateMachine(boolean differential) {
+        this(differential, null);
+    }
+
+    /**
+     * @param differential if true, only the changes between successive
+     * states and joint moves are propagated through the network.
+     * @param cache if not null, the propnet is read from this cache when
+     * the game has been seen before, and saved to it otherwise.
+     */
+    public CompiledPropNetStateMachine(boolean differential, PropNetCache cache) {
+        this.differential = differential;
+        this.cache = cache;
+    }
+
+    /**
+     * Creates a machine that is ready to use, evaluating a network that has
+     * already been compiled, for instance by another machine on another
+     * thread. The network is shared rather than copied; only the component
+     * values are allocated anew.
+     *
+     * @param differential if true, only the changes between successive
+     * states and joint moves are propagated through the network.
+     */
+    public CompiledPropNetStateMachine(CompiledPropNet net, boolean differential) {
+        this(differential, null);
+        load(net);
+    }
+
+    /** The extension of the {@link PhaseAnalysis} files kept in the cache. */
+    private static final String PHASES_EXTENSION = "phases";
+
+    /** How many networks {@link #SHARED_NETS} keeps. */
+    private static final int MAX_SHARED_NETS = 8;
+
+    /**
+     * The networks most recently compiled by machines that have a cache,
+     * by cache file, so that the matches of one game played in the same
+     * process all evaluate a single network.
+     */
+    @SuppressWarnings("serial")
+    private static final Map<String, CompiledPropNet> SHARED_NETS = new LinkedHashMap<String, CompiledPropNet>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledPropNet> eldest) {
+            return size() > MAX_SHARED_NETS;
+        }
+    };
+
+    /**
+     * Initializes the machine by building a propnet for the description (or
+     * reading it from the cache), running the {@link PropNetOptimizer} over
+     * it and compiling it into the array representation, along with the
+     * {@link GameFlow} of the description. With a cache, a network that
+     * another machine in this process compiled for the same rules is reused
+     * instead, and the {@link PhaseAnalysis} of the network is saved with the
+     * propnet, so a later run only has to read it back.
+     */
+    @Override
+    public void initialize(List<Gdl> description) {
+        String key = cache != null ? cache.getFile(description).getPath() : null;
+        if (key != null) {
+            CompiledPropNet shared;
+            synchronized (SHARED_NETS) {
+                shared = SHARED_NETS.get(key);
+            }
+            if (shared != null) {
+                GamerLogger.log("StateMachine", "Reusing the compiled propnet " + key);
+                load(shared);
+                return;
+            }
+        }
+        PropNet propNet;
+        try {
+            propNet = cache != null ? cache.create(description) : OptimizingPropNetFactory.create(description);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        propNetCreated(propNet);
+        new PropNetOptimizer().optimize(propNet);
+        PhaseAnalysis analysis = cache != null ? readPhaseAnalysis(description) : null;
+        CompiledPropNet compiled;
+        if (analysis != null) {
+            compiled = new CompiledPropNet(propNet, analysis);
+        } else {
+            compiled = new CompiledPropNet(propNet, createGameFlow(description));
+            if (cache != null) {
+                cache.writeData(description, PHASES_EXTENSION, compiled.getPhaseAnalysis().toBytes());
+            }
+        }
+        if (key != null) {
+            synchronized (SHARED_NETS) {
+                SHARED_NETS.put(key, compiled);
+            }
+        }
+        load(compiled);
+    }
+
+    /**
+     * Called by {@link #initialize} with the propnet it has just built or
+     * read from the cache, before the propnet is optimized and compiled, so
+     * that subclasses can analyze it without building another. It is not
+     * called when a network compiled by another machine is reused.
+     */
+    protected void propNetCreated(PropNet propNet) {
+    }
+
+    /**
+     * Returns the phase analysis saved in the cache along with the propnet
+     * for the description, or null if there is none that can be read.
+     */
+    private PhaseAnalysis readPhaseAnalysis(List<Gdl> description) {
+        byte[] data = cache.readData(description, PHASES_EXTENSION);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return PhaseAnalysis.fromBytes(data);
+        } catch (IOException e) {
+            GamerLogger.log("StateMachine", "Redoing the phase analysis: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the game flow of the description, or null if it cannot be
+     * worked out. The flow only lets full propagation skip some gates, so
+     * the machine works the same without it.
+     */
+    private static GameFlow createGameFlow(List<Gdl> description) {
+        try {
+            return new GameFlow(description);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (RuntimeException | StackOverflowError e) {
+            GamerLogger.log("StateMachine", "Could not compute the game flow: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Flattens the given propnet into the array representation used by
+     * this machine. The propnet is not referenced after this returns.
+     */
+    protected void compile(PropNet propNet) {
+        load(new CompiledPropNet(propNet));
+    }
+
+    /**
+     * Returns the network this machine evaluates, which can be handed to
+     * {@link #CompiledPropNetStateMachine(CompiledPropNet, boolean)} to
+     * create more machines for the same game without compiling it again.
+     */
+    public CompiledPropNet getCompiledPropNet() {
+        return net;
+    }
+
+    /**
+     * Points the machine at the given network and allocates the buffers
+     * that hold its own values.
+     */
+    private void load(CompiledPropNet net) {
+        this.net = net;
+        roles = net.roles;
+        types = net.types;
+        inputOffsets = net.inputOffsets;
+        inputIndices = net.inputIndices;
+        outputOffsets = net.outputOffsets;
+        outputIndices = net.outputIndices;
+        numBases = net.numBases;
+        firstGate = net.firstGate;
+        baseTransitions = net.baseTransitions;
+        baseSentences = net.baseSentences;
+        baseIndices = net.baseIndices;
+        zobristKeys = net.zobristKeys;
+        legalIndices = net.legalIndices;
+        legalInputs = net.legalInputs;
+        legalMoves = net.legalMoves;
+        moveIndices = net.moveIndices;
+        goalIndices = net.goalIndices;
+        goalValues = net.goalValues;
+        terminalIndex = net.terminalIndex;
+        initialState = net.initialState;
+        phaseBases = net.phaseBases;
+        phaseBaseValues = net.phaseBaseValues;
+        phaseFixedGates = net.phaseFixedGates;
+        phaseFixedValues = net.phaseFixedValues;
+        phaseLiveGates = net.phaseLiveGates;
+        fixedPhase = -1;
+
+        int n = types.length;
+        values = net.initialValues.clone();
+        baseBits = new long[PropNetMachineState.wordsFor(numBases)];
+        markedInputs = new int[roles.size()];
+        numMarkedInputs = 0;
+        nextBases = new boolean[numBases];
+        propagate();
+        if (differential) {
+            trueInputs = new int[n];
+            changes = new int[64];
+            for (int c = firstGate; c < n; c++) {
+                for (int i = inputOffsets[c]; i < inputOffsets[c + 1]; i++) {
+                    if (values[inputIndices[i]]) {
+                        trueInputs[c]++;
+                    }
+                }
+            }
+        }
+        currentState = null;
+    }
+
+    /**
+     * Returns true if and only if the terminal proposition is true in the
+     * given state.
+     */
+    @Override
+    public boolean isTerminal(MachineState state) {
+        markBases(state);
+        return terminalIndex >= 0 && values[terminalIndex];
+    }
+
+    /**
+     * Returns the value of the goal proposition that is true for the role in
+     * the given state.
+     *
+     * @throws GoalDefinitionException if no goal proposition is true for the
+     * role in the given state.
+     */
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        markBases(state);
+        int goal = readGoal(getRoleIndices().get(role));
+        if (goal < 0) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    /**
+     * Returns every move the role has a legal proposition for.
+     */
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        return Arrays.asList(legalMoves[getRoleIndices().get(role)]);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        markBases(state);
+        int r = getRoleIndices().get(role);
+        int[] legals = legalIndices[r];
+        List<Move> moves = new ArrayList<Move>();
+        for (int i = 0; i < legals.length; i++) {
+            if (values[legals[i]]) {
+                moves.add(legalMoves[r][i]);
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        markBases(state);
+        markInputs(state, moves);
+        refresh();
+        MachineState next = readNextState();
+        clearInputs();
+        return next;
+    }
+
+    /**
+     * In differential mode, moves the network itself to the next state
+     * instead of only reading the transitions, so that queries on the
+     * returned state need no further propagation. The given state is not
+     * modified.
+     */
+    @Override
+    public MachineState getNextStateDestructively(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        if (!differential) {
+            return getNextState(state, moves);
+        }
+        markBases(state);
+        markInputs(state, moves);
+        advance();
+        currentState = readState();
+        return currentState;
+    }
+
+    /**
+     * Plays random joint moves inside the network until a terminal state is
+     * reached. No intermediate states are created.
+     */
+    @Override
+    public MachineState performDepthCharge(MachineState state, final int[] theDepth) throws TransitionDefinitionException, MoveDefinitionException {
+        return depthCharge(state, theDepth, Long.MAX_VALUE);
+    }
+
+    @Override
+    public MachineState performSafeDepthCharge(MachineState state, long timeout) throws TransitionDefinitionException, MoveDefinitionException {
+        return depthCharge(state, null, timeout);
+    }
+
+    /**
+     * Runs every charge inside the network and reads the goals straight
+     * from it, so no moves or states are created along the way.
+     */
+    @Override
+    public int performDepthCharges(MachineState state, int count, int[] goals, int[] depthHistogram, long timeout) throws MoveDefinitionException, GoalDefinitionException {
+        if (!(state instanceof PropNetMachineState && ((PropNetMachineState) state).hasBases(baseSentences))) {
+            // Convert once, so every charge can start with a bitset diff.
+            state = getMachineStateFromSentenceList(state.getContents());
+        }
+        int nRoles = roles.size();
+        boolean timed = timeout != Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            markBases(state);
+            currentState = null;
+            int nDepth = 0;
+            while (!(terminalIndex >= 0 && values[terminalIndex])) {
+                if (timed && System.currentTimeMillis() >= timeout) {
+                    return i;
+                }
+                nDepth++;
+                markRandomInputs();
+                advance();
+            }
+            for (int r = 0; r < nRoles; r++) {
+                int goal = readGoal(r);
+                if (goal < 0) {
+                    throw new GoalDefinitionException(readState(), roles.get(r));
+                }
+                goals[i * nRoles + r] = goal;
+            }
+            if (depthHistogram != null && depthHistogram.length > 0) {
+                depthHistogram[Math.min(nDepth, depthHistogram.length - 1)]++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        long[] bits = new long[PropNetMachineState.wordsFor(numBases)];
+        for (GdlSentence sentence : sentenceList) {
+            Integer b = baseIndices.get(sentence);
+            if (b != null) {
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        return new PropNetMachineState(baseSentences, zobristKeys, bits);
+    }
+
+    /**
+     * Move ids are the indices of the role's legal propositions, fixed when
+     * the network is compiled, so this is -1 for a move with no legal
+     * proposition. The legals are sorted by name, so all machines compiled
+     * from the same rules number the moves the same way.
+     */
+    @Override
+    public int getMoveId(int role, Move move) {
+        Integer id = moveIndices.get(role).get(move);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public Move getMoveFromId(int role, int moveId) {
+        return legalMoves[role][moveId];
+    }
+
+    @Override
+    public int[] getLegalMoveIds(MachineState state, int role) throws MoveDefinitionException {
+        markBases(state);
+        int[] legals = legalIndices[role];
+        int count = 0;
+        for (int i = 0; i < legals.length; i++) {
+            if (values[legals[i]]) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new MoveDefinitionException(state, roles.get(role));
+        }
+        int[] ids = new int[count];
+        count = 0;
+        for (int i = 0; i < legals.length; i++) {
+            if (values[legals[i]]) {
+                ids[count++] = i;
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, int[] jointMove) throws TransitionDefinitionException {
+        markBases(state);
+        markInputs(state, jointMove);
+        refresh();
+        MachineState next = readNextState();
+        clearInputs();
+        return next;
+    }
+
+    @Override
+    public int getGoal(MachineState state, int role) throws GoalDefinitionException {
+        markBases(state);
+        int goal = readGoal(role);
+        if (goal < 0) {
+            throw new GoalDefinitionException(state, roles.get(role));
+        }
+        return goal;
+    }
+
+    /* Helper methods */
+
+    private MachineState depthCharge(MachineState state, int[] theDepth, long timeout) throws MoveDefinitionException {
+        markBases(state);
+        currentState = null;
+        int nDepth = 0;
+        while (!(terminalIndex >= 0 && values[terminalIndex])) {
+            if (timeout != Long.MAX_VALUE && System.currentTimeMillis() >= timeout) {
+                break;
+            }
+            nDepth++;
+            markRandomInputs();
+            advance();
+        }
+        if (theDepth != null) {
+            theDepth[0] = nDepth;
+        }
+        currentState = readState();
+        return currentState;
+    }
+
+    /**
+     * Returns the goal value of the role in the marked state, or -1 if no
+     * goal proposition is true.
+     */
+    private int readGoal(int r) {
+        int[] goals = goalIndices[r];
+        for (int i = 0; i < goals.length; i++) {
+            if (values[goals[i]]) {
+                return goalValues[r][i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the base propositions to the contents of the state and propagates
+     * their values through the network, unless that state is already marked.
+     */
+    private void markBases(MachineState state) {
+        if (state == currentState) {
+            return;
+        }
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).hasBases(baseSentences)) {
+            markBases((PropNetMachineState) state);
+            return;
+        }
+        Set<GdlSentence> contents = state.getContents();
+        if (differential) {
+            for (int b = 0; b < numBases; b++) {
+                setSource(b, contents.contains(baseSentences[b]));
+            }
+        } else {
+            Arrays.fill(values, 0, numBases, false);
+            for (GdlSentence sentence : contents) {
+                Integer b = baseIndices.get(sentence);
+                if (b != null) {
+                    values[b] = true;
+                }
+            }
+            propagate();
+        }
+        currentState = state;
+    }
+
+    /**
+     * Loads a bitset state. In differential mode, only the bases that differ
+     * from the marked ones are touched.
+     */
+    private void markBases(PropNetMachineState state) {
+        long[] bits = state.getBits();
+        if (differential) {
+            for (int w = 0; w < bits.length; w++) {
+                long diff = bits[w] ^ baseBits[w];
+                while (diff != 0) {
+                    int b = (w << 6) + Long.numberOfTrailingZeros(diff);
+                    setSource(b, !values[b]);
+                    diff &= diff - 1;
+                }
+            }
+        } else {
+            for (int b = 0; b < numBases; b++) {
+                values[b] = (bits[b >>> 6] & (1L << b)) != 0;
+            }
+            propagate();
+        }
+        currentState = state;
+    }
+
+    /**
+     * Sets the input propositions for the joint move. In full mode the marked
+     * state is forgotten, since the gate values will depend on the moves too.
+     */
+    private void markInputs(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        if (!differential) {
+            currentState = null;
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            Integer i = moveIndices.get(r).get(moves.get(r));
+            if (i == null) {
+                clearInputs();
+                throw new TransitionDefinitionException(state, moves);
+            }
+            markInput(legalInputs[r][i]);
+        }
+    }
+
+    /**
+     * Sets the input propositions for a joint move of move ids.
+     */
+    private void markInputs(MachineState state, int[] jointMove) throws TransitionDefinitionException {
+        if (!differential) {
+            currentState = null;
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            int id = jointMove[r];
+            if (id < 0 || id >= legalInputs[r].length) {
+                clearInputs();
+                List<Move> moves = new ArrayList<Move>(jointMove.length);
+                for (int i = 0; i < jointMove.length; i++) {
+                    boolean known = jointMove[i] >= 0 && jointMove[i] < legalMoves[i].length;
+                    moves.add(known ? legalMoves[i][jointMove[i]] : null);
+                }
+                throw new TransitionDefinitionException(state, moves);
+            }
+            markInput(legalInputs[r][id]);
+        }
+    }
+
+    /**
+     * Sets the inputs for a joint move chosen uniformly at random among the
+     * legal moves of each role in the marked state.
+     */
+    private void markRandomInputs() throws MoveDefinitionException {
+        for (int r = 0; r < legalIndices.length; r++) {
+            int[] legals = legalIndices[r];
+            int count = 0;
+            for (int i = 0; i < legals.length; i++) {
+                if (values[legals[i]]) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                clearInputs();
+                throw new MoveDefinitionException(readState(), roles.get(r));
+            }
+            int choice = random.nextInt(count);
+            for (int i = 0; i < legals.length; i++) {
+                if (values[legals[i]] && choice-- == 0) {
+                    markInput(legalInputs[r][i]);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void markInput(int input) {
+        if (input >= 0 && !values[input]) {
+            setSource(input, true);
+            markedInputs[numMarkedInputs++] = input;
+        }
+    }
+
+    private void clearInputs() {
+        for (int i = 0; i < numMarkedInputs; i++) {
+            setSource(markedInputs[i], false);
+        }
+        numMarkedInputs = 0;
+    }
+
+    /**
+     * Replaces the values of the bases with the values of their transitions,
+     * given the marked inputs, and clears the inputs.
+     */
+    private void advance() {
+        refresh();
+        for (int b = 0; b < numBases; b++) {
+            nextBases[b] = values[baseTransitions[b]];
+        }
+        clearInputs();
+        for (int b = 0; b < numBases; b++) {
+            setSource(b, nextBases[b]);
+        }
+        refresh();
+    }
+
+    /**
+     * Sets the value of a base or input. In differential mode the change is
+     * propagated immediately; otherwise it takes effect on the next refresh.
+     */
+    private void setSource(int c, boolean value) {
+        if (values[c] == value) {
+            return;
+        }
+        values[c] = value;
+        if (differential) {
+            if (c < numBases) {
+                baseBits[c >>> 6] ^= 1L << c;
+            }
+            propagateChange(c, value);
+        }
+    }
+
+    /**
+     * Brings the gate values up to date with the sources. This is a no-op in
+     * differential mode, where changes are propagated as they are made.
+     */
+    private void refresh() {
+        if (!differential) {
+            propagate();
+        }
+    }
+
+    /**
+     * Pushes the change in value of a component through its fan-out,
+     * updating the true-input count of each output and continuing only
+     * through the outputs whose value flips as a result.
+     */
+    private void propagateChange(int component, boolean value) {
+        final int[] types = this.types;
+        final int[] inputOffsets = this.inputOffsets;
+        final int[] outputOffsets = this.outputOffsets;
+        final int[] outputIndices = this.outputIndices;
+        final int[] trueInputs = this.trueInputs;
+        final boolean[] values = this.values;
+        int[] changes = this.changes;
+        int size = 0;
+        changes[size++] = (component << 1) | (value ? 1 : 0);
+        while (size > 0) {
+            int change = changes[--size];
+            int from = change >>> 1;
+            int delta = ((change & 1) << 1) - 1;
+            for (int i = outputOffsets[from]; i < outputOffsets[from + 1]; i++) {
+                int out = outputIndices[i];
+                int count = trueInputs[out] += delta;
+                boolean newValue;
+                switch (types[out]) {
+                case CompiledPropNet.AND:
+                    newValue = (count == inputOffsets[out + 1] - inputOffsets[out]);
+                    break;
+                case CompiledPropNet.NOT:
+                    newValue = (count == 0);
+                    break;
+                default:
+                    newValue = (count > 0);
+                    break;
+                }
+                if (newValue != values[out]) {
+                    values[out] = newValue;
+                    if (size == changes.length) {
+                        changes = Arrays.copyOf(changes, size * 2);
+                        this.changes = changes;
+                    }
+                    changes[size++] = (out << 1) | (newValue ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the value of every gate from the values of the sources, in a
+     * single pass over the components in topological order. If the bases
+     * put the state in one of the phases of the network, the gates that the
+     * phase fixes are skipped.
+     */
+    private void propagate() {
+        int phase = findPhase();
+        if (phase < 0) {
+            for (int c = firstGate; c < types.length; c++) {
+                values[c] = evaluate(c);
+            }
+            fixedPhase = -1;
+            return;
+        }
+        if (phase != fixedPhase) {
+            int[] fixed = phaseFixedGates[phase];
+            boolean[] fixedValues = phaseFixedValues[phase];
+            for (int i = 0; i < fixed.length; i++) {
+                values[fixed[i]] = fixedValues[i];
+            }
+            fixedPhase = phase;
+        }
+        int[] live = phaseLiveGates[phase];
+        for (int i = 0; i < live.length; i++) {
+            int c = live[i];
+            values[c] = evaluate(c);
+        }
+    }
+
+    /**
+     * Returns the phase matching the values of the bases, or -1.
+     */
+    private int findPhase() {
+        for (int p = 0; p < phaseBaseValues.length; p++) {
+            boolean[] expected = phaseBaseValues[p];
+            boolean matches = true;
+            for (int i = 0; i < expected.length; i++) {
+                if (values[phaseBases[i]] != expected[i]) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the value of a gate from the values of its inputs.
+     */
+    private boolean evaluate(int c) {
+        final boolean[] values = this.values;
+        final int[] inputIndices = this.inputIndices;
+        int start = inputOffsets[c];
+        int end = inputOffsets[c + 1];
+        switch (types[c]) {
+        case CompiledPropNet.AND:
+            for (int i = start; i < end; i++) {
+                if (!values[inputIndices[i]]) {
+                    return false;
+                }
+            }
+            return true;
+        case CompiledPropNet.NOT:
+            return !values[inputIndices[start]];
+        default:
+            for (int i = start; i < end; i++) {
+                if (values[inputIndices[i]]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds a state from the values of the bases.
+     */
+    private MachineState readState() {
+        long[] bits = new long[baseBits.length];
+        for (int b = 0; b < numBases; b++) {
+            if (values[b]) {
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        return new PropNetMachineState(baseSentences, zobristKeys, bits);
+    }
+
+    /**
+     * Builds the next state from the values of the transitions.
+     */
+    private MachineState readNextState() {
+        long[] bits = new long[baseBits.length];
+        for (int b = 0; b < numBases; b++) {
+            if (values[baseTransitions[b]]) {
+                bits[b >>> 6] |= 1L << b;
+            }
+        }
+        return new PropNetMachineState(baseSentences, zobristKeys, bits);
+    }
+}
@@ -0,0 +1,121 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.factory.PropNetFactor;
+import org.ggp.base.util.propnet.factory.PropNetFactorizer;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A view of a game restricted to one of its {@link PropNetFactor}s, so that
+ * a search over it only branches on the moves of that factor.
+ * <p>
+ * The legal moves of each role are those of the backing machine, minus the
+ * moves that belong to other factors. Moves that belong to no factor, such
+ * as noops, stay legal. A role whose every legal move belongs to another
+ * factor keeps all of them, since it has to play something. Everything else
+ * is answered by the backing machine on whole states: the bases of the
+ * other factors are carried along and, as no move of theirs is played,
+ * only change as their own rules dictate. Goals and terminality therefore
+ * still account for the whole game.
+ * <p>
+ * The backing machine must be initialized already, and is not copied: all
+ * the views over one machine must be used from the same thread.
+ */
+public final class FactorStateMachine extends StateMachine {
+    private final StateMachine backingStateMachine;
+    private final PropNetFactor factor;
+    /** Per role: the moves of the other factors. */
+    private final List<Set<Move>> excludedMoves;
+
+    /**
+     * @param backingStateMachine an initialized machine for the whole game.
+     * @param factor the factor to restrict the game to.
+     * @param factors all the factors of the game, including this one.
+     */
+    public FactorStateMachine(StateMachine backingStateMachine, PropNetFactor factor, Collection<PropNetFactor> factors) {
+        this.backingStateMachine = backingStateMachine;
+        this.factor = factor;
+        this.excludedMoves = new ArrayList<Set<Move>>();
+        for (Role role : backingStateMachine.getRoles()) {
+            excludedMoves.add(PropNetFactorizer.getMovesOutside(factor, factors, role));
+        }
+    }
+
+    public PropNetFactor getFactor() {
+        return factor;
+    }
+
+    /**
+     * Does nothing: the backing machine is initialized before this view is
+     * created.
+     */
+    @Override
+    public void initialize(List<Gdl> description) {
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        return restrict(role, backingStateMachine.findActions(role));
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        return restrict(role, backingStateMachine.getLegalMoves(state, role));
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        return backingStateMachine.getGoal(state, role);
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return backingStateMachine.isTerminal(state);
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return backingStateMachine.getRoles();
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return backingStateMachine.getInitialState();
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        return backingStateMachine.getNextState(state, moves);
+    }
+
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+        return backingStateMachine.getMachineStateFromSentenceList(sentenceList);
+    }
+
+    private List<Move> restrict(Role role, List<Move> moves) {
+        Set<Move> excluded = excludedMoves.get(getRoleIndices().get(role));
+        if (excluded.isEmpty()) {
+            return moves;
+        }
+        List<Move> restricted = new ArrayList<Move>(moves.size());
+        for (Move move : moves) {
+            if (!excluded.contains(move)) {
+                restricted.add(move);
+            }
+        }
+        return restricted.isEmpty() ? moves : restricted;
+    }
+}
@@ -0,0 +1,144 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+/**
+ * What {@link CompiledPropNet} works out about the bases of a game before it
+ * can split it into phases: the latches, and the bases that only depend on
+ * the turn along with their values in each phase. Everything is kept as base
+ * sentences rather than component indices, so an analysis can be saved next
+ * to a cached propnet and applied to the network compiled from it in a later
+ * run, skipping the {@link org.ggp.base.util.gdl.model.GameFlow} and the
+ * latch search.
+ */
+public final class PhaseAnalysis {
+    //Increase this whenever the format or the analysis itself changes
+    private static final String HEADER = "phases 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Set<GdlSentence> latchedOnBases;
+    private final Set<GdlSentence> latchedOffBases;
+    private final List<GdlSentence> flowBases;
+    private final List<Set<GdlSentence>> flowValuations;
+
+    /**
+     * @param flowBases the bases that only depend on the turn, other than
+     * latches that hold from the initial state on.
+     * @param flowValuations for each phase, in turn order, the flow bases
+     * that are true in it. There is always at least one.
+     */
+    public PhaseAnalysis(Set<GdlSentence> latchedOnBases, Set<GdlSentence> latchedOffBases,
+            List<GdlSentence> flowBases, List<Set<GdlSentence>> flowValuations) {
+        this.latchedOnBases = Collections.unmodifiableSet(new HashSet<GdlSentence>(latchedOnBases));
+        this.latchedOffBases = Collections.unmodifiableSet(new HashSet<GdlSentence>(latchedOffBases));
+        this.flowBases = Collections.unmodifiableList(new ArrayList<GdlSentence>(flowBases));
+        List<Set<GdlSentence>> valuations = new ArrayList<Set<GdlSentence>>(flowValuations.size());
+        for (Set<GdlSentence> valuation : flowValuations) {
+            valuations.add(Collections.unmodifiableSet(new HashSet<GdlSentence>(valuation)));
+        }
+        this.flowValuations = Collections.unmodifiableList(valuations);
+    }
+
+    /** The bases that stay true once true. */
+    public Set<GdlSentence> getLatchedOnBases() {
+        return latchedOnBases;
+    }
+
+    /** The bases that stay false once false. */
+    public Set<GdlSentence> getLatchedOffBases() {
+        return latchedOffBases;
+    }
+
+    public List<GdlSentence> getFlowBases() {
+        return flowBases;
+    }
+
+    public List<Set<GdlSentence>> getFlowValuations() {
+        return flowValuations;
+    }
+
+    /**
+     * Serializes the analysis as text, one sentence per line, each tagged
+     * with what it is.
+     */
+    public byte[] toBytes() {
+        StringBuilder out = new StringBuilder(HEADER).append('\n');
+        for (GdlSentence base : latchedOnBases) {
+            out.append("latchedOn ").append(base).append('\n');
+        }
+        for (GdlSentence base : latchedOffBases) {
+            out.append("latchedOff ").append(base).append('\n');
+        }
+        for (GdlSentence base : flowBases) {
+            out.append("flow ").append(base).append('\n');
+        }
+        for (Set<GdlSentence> valuation : flowValuations) {
+            out.append("phase\n");
+            for (GdlSentence base : valuation) {
+                out.append("true ").append(base).append('\n');
+            }
+        }
+        return out.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Reads back an analysis written by {@link #toBytes()}.
+     *
+     * @throws IOException if the bytes aren't an analysis of the current
+     * version.
+     */
+    public static PhaseAnalysis fromBytes(byte[] bytes) throws IOException {
+        String[] lines = new String(bytes, UTF_8).split("\n");
+        if (!lines[0].equals(HEADER)) {
+            throw new IOException("Not a phase analysis of the current version");
+        }
+        Set<GdlSentence> latchedOn = new HashSet<GdlSentence>();
+        Set<GdlSentence> latchedOff = new HashSet<GdlSentence>();
+        List<GdlSentence> flowBases = new ArrayList<GdlSentence>();
+        List<Set<GdlSentence>> flowValuations = new ArrayList<Set<GdlSentence>>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (line.equals("phase")) {
+                flowValuations.add(new HashSet<GdlSentence>());
+            } else if (line.startsWith("latchedOn ")) {
+                latchedOn.add(parse(line.substring("latchedOn ".length())));
+            } else if (line.startsWith("latchedOff ")) {
+                latchedOff.add(parse(line.substring("latchedOff ".length())));
+            } else if (line.startsWith("flow ")) {
+                flowBases.add(parse(line.substring("flow ".length())));
+            } else if (line.startsWith("true ") && !flowValuations.isEmpty()) {
+                flowValuations.get(flowValuations.size() - 1).add(parse(line.substring("true ".length())));
+            } else {
+                throw new IOException("Unrecognized line in phase analysis: " + line);
+            }
+        }
+        if (flowValuations.isEmpty()) {
+            throw new IOException("Phase analysis has no phases");
+        }
+        return new PhaseAnalysis(latchedOn, latchedOff, flowBases, flowValuations);
+    }
+
+    private static GdlSentence parse(String sentence) throws IOException {
+        try {
+            Gdl gdl = GdlFactory.create(sentence);
+            if (!(gdl instanceof GdlSentence)) {
+                throw new IOException("Not a sentence in phase analysis: " + sentence);
+            }
+            return (GdlSentence) gdl;
+        } catch (GdlFormatException | SymbolFormatException e) {
+            throw new IOException("Unreadable sentence in phase analysis: " + sentence, e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+
+/**
+ * A MachineState for propnet-based state machines, stored as a bitset over
+ * the base propositions of the network rather than as a set of sentences.
+ * <p>
+ * Both hashes are computed once, when the state is built:
+ * <ul>
+ * <li>{@link #hashCode()} is the sum of the hash codes of the true base
+ * sentences, which is exactly what {@link Set#hashCode()} returns for the
+ * contents, so these states hash consistently with plain MachineStates.</li>
+ * <li>{@link #getZobristHash()} is the XOR of a random 64-bit key per true
+ * base, for tables that want a wider key.</li>
+ * </ul>
+ * Equality between two states over the same bases only compares the bitsets.
+ * The set of sentences is only built if {@link #getContents()} is called,
+ * e.g. for logging or for sending the state to a server.
+ * <p>
+ * Instances are immutable.
+ */
+public final class PropNetMachineState extends MachineState {
+    /** The sentence of each base, shared by all states of one machine. */
+    private final GdlSentence[] baseSentences;
+    /** The Zobrist key of each base, shared by all states of one machine. */
+    private final long[] zobristKeys;
+    private final long[] bits;
+    private final int hashCode;
+    private final long zobristHash;
+    private volatile Set<GdlSentence> contents;
+
+    /**
+     * Creates a state with the given bases set. The bits array is owned by
+     * the new state and must not be modified afterwards.
+     */
+    PropNetMachineState(GdlSentence[] baseSentences, long[] zobristKeys, long[] bits) {
+        super();
+        this.baseSentences = baseSentences;
+        this.zobristKeys = zobristKeys;
+        this.bits = bits;
+
+        int hash = 0;
+        long zobrist = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int b = (w << 6) + Long.numberOfTrailingZeros(word);
+                hash += baseSentences[b].hashCode();
+                zobrist ^= zobristKeys[b];
+                word &= word - 1;
+            }
+        }
+        this.hashCode = hash;
+        this.zobristHash = zobrist;
+    }
+
+    private PropNetMachineState(PropNetMachineState original) {
+        super();
+        this.baseSentences = original.baseSentences;
+        this.zobristKeys = original.zobristKeys;
+        this.bits = original.bits;
+        this.hashCode = original.hashCode;
+        this.zobristHash = original.zobristHash;
+        this.contents = original.contents;
+    }
+
+    /**
+     * Returns the number of longs needed to hold a bit for each base.
+     */
+    static int wordsFor(int numBases) {
+        return (numBases + 63) >>> 6;
+    }
+
+    /**
+     * Returns the Zobrist keys to use for the given bases. The keys only
+     * depend on the number of bases, so machines that order the same bases
+     * the same way produce the same hashes.
+     */
+    static long[] zobristKeysFor(int numBases) {
+        long[] keys = new long[numBases];
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int b = 0; b < numBases; b++) {
+            // SplitMix64
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[b] = z ^ (z >>> 31);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns whether the given base is true in this state.
+     */
+    public boolean isTrue(int base) {
+        return (bits[base >>> 6] & (1L << base)) != 0;
+    }
+
+    /**
+     * Returns the raw bitset. Callers must not modify it.
+     */
+    long[] getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns true if this state indexes the given bases the same way, so
+     * that its bits can be interpreted directly.
+     */
+    boolean hasBases(GdlSentence[] sentences) {
+        return baseSentences == sentences || Arrays.equals(baseSentences, sentences);
+    }
+
+    /**
+     * Returns a 64-bit Zobrist hash of the state.
+     */
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * Builds the set of true base sentences the first time it's needed.
+     */
+    @Override
+    public Set<GdlSentence> getContents() {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            Set<GdlSentence> set = new HashSet<GdlSentence>();
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    set.add(baseSentences[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                    word &= word - 1;
+                }
+            }
+            result = Collections.unmodifiableSet(set);
+            contents = result;
+        }
+        return result;
+    }
+
+    /**
+     * Since these states are immutable, a clone can share the bitset.
+     */
+    @Override
+    public MachineState clone() {
+        return new PropNetMachineState(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof PropNetMachineState) {
+            PropNetMachineState other = (PropNetMachineState) o;
+            if (hasBases(other.baseSentences)) {
+                return hashCode == other.hashCode && zobristHash == other.zobristHash && Arrays.equals(bits, other.bits);
+            }
+        }
+        return super.equals(o);
+    }
+}
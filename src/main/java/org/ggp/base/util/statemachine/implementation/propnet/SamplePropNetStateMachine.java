@@ -21,6 +21,7 @@ import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -40,6 +41,21 @@ public class SamplePropNetStateMachine extends StateMachine {
 
 	private Logger logger = Logger.getLogger(getClass().getSimpleName());
 
+    /** Where propnets are read from and saved to, or null to always build them. */
+    private final PropNetCache cache;
+
+    public SamplePropNetStateMachine() {
+        this(null);
+    }
+
+    /**
+     * @param cache if not null, the propnet is read from this cache when
+     * the game has been seen before, and saved to it otherwise.
+     */
+    public SamplePropNetStateMachine(PropNetCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Initializes the PropNetStateMachine. You should compute the topological
      * ordering here. Additionally you may compute the initial state here, at
@@ -48,7 +64,7 @@ public class SamplePropNetStateMachine extends StateMachine {
     @Override
     public void initialize(List<Gdl> description) {
     	try {
-            propNet = OptimizingPropNetFactory.create(description, true);
+            propNet = cache != null ? cache.create(description) : OptimizingPropNetFactory.create(description, true);
             roles = propNet.getRoles();
             ordering = getOrdering();
 //        	propNet.renderToFile("C:\\Users\\rafae\\Desktop\\HW\\sampleNet.dot");
@@ -216,12 +232,11 @@ public class SamplePropNetStateMachine extends StateMachine {
     private List<GdlSentence> toDoes(List<Move> moves)
     {
         List<GdlSentence> doeses = new ArrayList<GdlSentence>(moves.size());
-        Map<Role, Integer> roleIndices = getRoleIndices();
 
+        // Joint moves are ordered like the roles, so role i made move i.
         for (int i = 0; i < roles.size(); i++)
         {
-            int index = roleIndices.get(roles.get(i));
-            doeses.add(ProverQueryBuilder.toDoes(roles.get(i), moves.get(index)));
+            doeses.add(ProverQueryBuilder.toDoes(roles.get(i), moves.get(i)));
         }
         return doeses;
     }
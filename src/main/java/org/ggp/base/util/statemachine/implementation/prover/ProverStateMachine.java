@@ -41,11 +41,31 @@ public class ProverStateMachine extends StateMachine
     @Override
     public void initialize(List<Gdl> description)
     {
-        prover = new AimaProver(description);
+        prover = createProver(description);
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
 
+    /**
+     * Returns the Prover that answers this machine's queries. Subclasses
+     * can override this to use a different prover.
+     */
+    protected Prover createProver(List<Gdl> description)
+    {
+        return new AimaProver(description);
+    }
+
+    /**
+     * Returns the prover answering this machine's queries. Queries about a
+     * state are asked with the state as their scope, so a prover that keeps
+     * per-scope tables (like {@link AimaProver}) shares them between the
+     * legal, goal, terminal and next queries on that state.
+     */
+    public Prover getProver()
+    {
+        return prover;
+    }
+
     private MachineState computeInitialState()
     {
         Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getInitQuery(), new HashSet<GdlSentence>());
@@ -55,7 +75,7 @@ public class ProverStateMachine extends StateMachine
     @Override
     public int getGoal(MachineState state, Role role) throws GoalDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getGoalQuery(role), ProverQueryBuilder.getContext(state), state);
 
         if (results.size() != 1)
         {
@@ -98,7 +118,7 @@ public class ProverStateMachine extends StateMachine
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), ProverQueryBuilder.getContext(state));
+        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getLegalQuery(role), ProverQueryBuilder.getContext(state), state);
 
         if (results.size() == 0)
         {
@@ -111,7 +131,7 @@ public class ProverStateMachine extends StateMachine
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
     {
-        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getNextQuery(), ProverQueryBuilder.getContext(state, getRoles(), moves));
+        Set<GdlSentence> results = prover.askAll(ProverQueryBuilder.getNextQuery(), ProverQueryBuilder.getContext(state, getRoles(), moves), state);
 
         for (GdlSentence sentence : results)
         {
@@ -133,6 +153,6 @@ public class ProverStateMachine extends StateMachine
     @Override
     public boolean isTerminal(MachineState state)
     {
-        return prover.prove(ProverQueryBuilder.getTerminalQuery(), ProverQueryBuilder.getContext(state));
+        return prover.prove(ProverQueryBuilder.getTerminalQuery(), ProverQueryBuilder.getContext(state), state);
     }
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package org.ggp.base.util.statemachine.implementation.prover;
+
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.prover.term.TermProver;
+
+/**
+ * A ProverStateMachine backed by a {@link TermProver}, which answers the
+ * same queries as the default AimaProver with far less allocation.
+ */
+public class TermProverStateMachine extends ProverStateMachine
+{
+    @Override
+    protected Prover createProver(List<Gdl> description)
+    {
+        return new TermProver(description);
+    }
+}
@@ -0,0 +1,414 @@
+package org.ggp.base.util.statemachine.implementation.reasoner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfoImpl;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * A state machine that works bottom-up: for each state it computes every
+ * true sentence at once with a {@link GdlChainingReasoner}, instead of
+ * asking a prover about legal, goal, terminal and next separately. This is
+ * a third option for games where building a propnet takes too long and the
+ * top-down prover is too slow.
+ * <p>
+ * At initialization, the sentence forms that can change during the game
+ * are sorted into strata (see {@link DependencyGraphs#toposortSafe}), and
+ * every rule gets an iteration plan ({@link AssignmentsImpl}). The plans
+ * treat the constant forms, true, does and the forms of earlier strata as
+ * complete, and are sized on the initial state. Evaluating a state then
+ * runs through the strata in order, only swapping the state's sentences
+ * into each plan; recursive strata are repeated until nothing new is
+ * derived.
+ * <p>
+ * Strata that don't depend on does are evaluated once per state, and the
+ * result is kept for the most recent state, so the terminal, goal and legal
+ * queries on a state (and the first half of getNextState) share one pass.
+ * getNextState only evaluates the strata that depend on does.
+ * <p>
+ * Since every rule is applied to every combination of values it could
+ * take, games need finite sentence domains and safe rules, as with the
+ * propnet factories. Games with many-variable rules over large domains
+ * (e.g. the line checks in connect four) are slower here than with the
+ * prover.
+ * <p>
+ * This machine keeps the most recent state's sentences as internal state,
+ * so an instance must not be shared between threads.
+ */
+public class ForwardChainingStateMachine extends StateMachine {
+    private static final GdlConstant TRUE = GdlPool.TRUE;
+    private static final GdlConstant DOES = GdlPool.DOES;
+    private static final GdlConstant INIT = GdlPool.INIT;
+    private static final GdlConstant NEXT = GdlPool.NEXT;
+    private static final GdlConstant LEGAL = GdlPool.LEGAL;
+    private static final GdlConstant GOAL = GdlPool.GOAL;
+    private static final GdlConstant TERMINAL = GdlPool.TERMINAL;
+    private static final GdlConstant INPUT = GdlPool.INPUT;
+
+    private SentenceDomainModel model;
+    private GdlChainingReasoner reasoner;
+    private List<Role> roles;
+    private MachineState initialState;
+    /** The sentence forms with each name, constant or not. */
+    private ListMultimap<GdlConstant, SentenceForm> formsByName;
+    /** True sentences of the constant forms; every state's values start from these. */
+    private Map<SentenceForm, Set<GdlSentence>> constantValues;
+    /** Strata that don't depend on does, in evaluation order. */
+    private List<Stratum> stateStrata;
+    /** Strata that depend on does, in evaluation order. */
+    private List<Stratum> transitionStrata;
+
+    private MachineState lastState;
+    private Map<SentenceForm, Set<GdlSentence>> lastValues;
+
+    /** Some sentence forms that depend on each other, and their rules. */
+    private static final class Stratum {
+        final List<SentenceForm> forms;
+        final boolean recursive;
+        final List<GdlRule> rules = new ArrayList<GdlRule>();
+        final List<SentenceForm> headForms = new ArrayList<SentenceForm>();
+        final List<AssignmentsImpl> plans = new ArrayList<AssignmentsImpl>();
+
+        Stratum(Set<SentenceForm> forms, boolean recursive) {
+            this.forms = ImmutableList.copyOf(forms);
+            this.recursive = recursive;
+        }
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+            reasoner = GdlChainingReasoner.create(model);
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+
+            formsByName = ArrayListMultimap.create();
+            for (SentenceForm form : model.getSentenceForms()) {
+                formsByName.put(form.getName(), form);
+            }
+
+            constantValues = new HashMap<SentenceForm, Set<GdlSentence>>();
+            Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
+            Set<SentenceForm> dynamicForms = new HashSet<SentenceForm>();
+            for (SentenceForm form : model.getSentenceForms()) {
+                if (constantChecker.isConstantForm(form)) {
+                    constantValues.put(form, ImmutableSet.copyOf(constantChecker.getTrueSentences(form)));
+                    functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
+                } else if (form.getName() != TRUE && form.getName() != DOES) {
+                    dynamicForms.add(form);
+                }
+            }
+
+            Set<GdlSentence> initialContents = new HashSet<GdlSentence>();
+            for (SentenceForm form : formsByName.get(INIT)) {
+                for (GdlSentence init : constantValues.get(form)) {
+                    initialContents.add(GdlPool.getRelation(TRUE, new GdlTerm[] { init.get(0) }));
+                }
+            }
+            initialState = new MachineState(initialContents);
+
+            buildStrata(dynamicForms);
+            buildPlans(functionInfoMap);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void buildStrata(Set<SentenceForm> dynamicForms) {
+        SetMultimap<SentenceForm, SentenceForm> dependencyGraph = ImmutableSetMultimap.copyOf(model.getDependencyGraph());
+        Set<SentenceForm> doesDependent = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(), dependencyGraph,
+                new Predicate<SentenceForm>() {
+                    @Override
+                    public boolean apply(SentenceForm form) {
+                        return form.getName() == DOES;
+                    }
+                });
+        SetMultimap<SentenceForm, SentenceForm> dynamicGraph = ImmutableSetMultimap.copyOf(
+                Multimaps.filterEntries(dependencyGraph, new Predicate<Map.Entry<SentenceForm, SentenceForm>>() {
+                    @Override
+                    public boolean apply(Map.Entry<SentenceForm, SentenceForm> entry) {
+                        return !constantValues.containsKey(entry.getValue());
+                    }
+                }));
+
+        stateStrata = new ArrayList<Stratum>();
+        transitionStrata = new ArrayList<Stratum>();
+        for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(dynamicForms, dynamicGraph)) {
+            boolean recursive = forms.size() > 1;
+            boolean dependsOnDoes = false;
+            for (SentenceForm form : forms) {
+                recursive |= dynamicGraph.containsEntry(form, form);
+                dependsOnDoes |= doesDependent.contains(form);
+            }
+            Stratum stratum = new Stratum(forms, recursive);
+            for (SentenceForm form : forms) {
+                for (GdlRule rule : model.getRules(form)) {
+                    stratum.rules.add(rule);
+                    stratum.headForms.add(form);
+                }
+            }
+            (dependsOnDoes ? transitionStrata : stateStrata).add(stratum);
+        }
+    }
+
+    /**
+     * Works out the iteration plan for every rule, evaluating the initial
+     * state (and its first legal joint move) along the way so the plans are
+     * based on realistic numbers of sentences.
+     */
+    private void buildPlans(Map<SentenceForm, FunctionInfo> functionInfoMap) throws InterruptedException {
+        Map<SentenceForm, Set<GdlSentence>> values = createValues(initialState);
+        for (Stratum stratum : stateStrata) {
+            addPlans(stratum, values, functionInfoMap);
+            evaluate(stratum, values);
+        }
+
+        List<Move> jointMove = new ArrayList<Move>();
+        for (Role role : roles) {
+            List<Move> legalMoves = getLegalMoves(values, role);
+            if (legalMoves.isEmpty()) {
+                jointMove = null;
+                break;
+            }
+            jointMove.add(legalMoves.get(0));
+        }
+        if (jointMove != null) {
+            addDoes(values, jointMove);
+        }
+        for (Stratum stratum : transitionStrata) {
+            addPlans(stratum, values, functionInfoMap);
+            evaluate(stratum, values);
+        }
+    }
+
+    private void addPlans(Stratum stratum, Map<SentenceForm, Set<GdlSentence>> values,
+            Map<SentenceForm, FunctionInfo> functionInfoMap) {
+        // Only forms outside the stratum are complete at this point, and
+        // only those can be iterated over as sources.
+        Map<SentenceForm, Set<GdlSentence>> completedValues = new HashMap<SentenceForm, Set<GdlSentence>>(values);
+        completedValues.keySet().removeAll(stratum.forms);
+        for (GdlRule rule : stratum.rules) {
+            stratum.plans.add(new AssignmentsImpl(rule,
+                    SentenceDomainModels.getVarDomains(rule, model, VarDomainOpts.INCLUDE_HEAD),
+                    functionInfoMap,
+                    completedValues));
+        }
+    }
+
+    /**
+     * Returns a new map of values holding the constants and the state's
+     * sentences, with an empty set for every true and does form.
+     */
+    private Map<SentenceForm, Set<GdlSentence>> createValues(MachineState state) {
+        Map<SentenceForm, Set<GdlSentence>> values = new HashMap<SentenceForm, Set<GdlSentence>>(constantValues);
+        for (SentenceForm form : formsByName.get(TRUE)) {
+            values.put(form, new HashSet<GdlSentence>());
+        }
+        for (SentenceForm form : formsByName.get(DOES)) {
+            values.put(form, new HashSet<GdlSentence>());
+        }
+        for (GdlSentence sentence : state.getContents()) {
+            getOrCreate(values, model.getSentenceForm(sentence)).add(sentence);
+        }
+        return values;
+    }
+
+    private void addDoes(Map<SentenceForm, Set<GdlSentence>> values, List<Move> moves) {
+        for (int i = 0; i < roles.size(); i++) {
+            GdlSentence does = GdlPool.getRelation(DOES, new GdlTerm[] { roles.get(i).getName(), moves.get(i).getContents() });
+            getOrCreate(values, model.getSentenceForm(does)).add(does);
+        }
+    }
+
+    private static Set<GdlSentence> getOrCreate(Map<SentenceForm, Set<GdlSentence>> values, SentenceForm form) {
+        Set<GdlSentence> sentences = values.get(form);
+        if (sentences == null) {
+            sentences = new HashSet<GdlSentence>();
+            values.put(form, sentences);
+        }
+        return sentences;
+    }
+
+    private void evaluate(Stratum stratum, Map<SentenceForm, Set<GdlSentence>> values) throws InterruptedException {
+        for (SentenceForm form : stratum.forms) {
+            values.put(form, new HashSet<GdlSentence>(model.getSentencesListedAsTrue(form)));
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < stratum.rules.size(); i++) {
+                AssignmentsImpl assignments = stratum.plans.get(i).withCompletedSentenceFormValues(values);
+                Set<GdlSentence> results = reasoner.getRuleResults(stratum.rules.get(i), assignments, values);
+                changed |= values.get(stratum.headForms.get(i)).addAll(results);
+            }
+            changed &= stratum.recursive;
+        }
+    }
+
+    /**
+     * Returns the sentences true in the state, apart from those that depend
+     * on does.
+     */
+    private Map<SentenceForm, Set<GdlSentence>> getStateValues(MachineState state) {
+        if (!state.equals(lastState)) {
+            Map<SentenceForm, Set<GdlSentence>> values = createValues(state);
+            try {
+                for (Stratum stratum : stateStrata) {
+                    evaluate(stratum, values);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            lastState = state;
+            lastValues = values;
+        }
+        return lastValues;
+    }
+
+    private List<GdlSentence> getSentences(Map<SentenceForm, ? extends Collection<GdlSentence>> values, GdlConstant name) {
+        List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+        for (SentenceForm form : formsByName.get(name)) {
+            Collection<GdlSentence> sentencesOfForm = values.get(form);
+            if (sentencesOfForm != null) {
+                sentences.addAll(sentencesOfForm);
+            }
+        }
+        return sentences;
+    }
+
+    /** Returns the second arguments of the sentences with the name and the role as first argument. */
+    private List<Move> getMoves(Map<SentenceForm, ? extends Collection<GdlSentence>> values, GdlConstant name, Role role) {
+        List<Move> moves = new ArrayList<Move>();
+        for (GdlSentence sentence : getSentences(values, name)) {
+            if (sentence.get(0).equals(role.getName())) {
+                moves.add(new Move(sentence.get(1)));
+            }
+        }
+        return moves;
+    }
+
+    private List<Move> getLegalMoves(Map<SentenceForm, Set<GdlSentence>> values, Role role) {
+        return getMoves(values, LEGAL, role);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        List<GdlSentence> goals = new ArrayList<GdlSentence>();
+        for (GdlSentence goal : getSentences(getStateValues(state), GOAL)) {
+            if (goal.get(0).equals(role.getName())) {
+                goals.add(goal);
+            }
+        }
+        if (goals.size() != 1) {
+            throw new GoalDefinitionException(state, role);
+        }
+        try {
+            return Integer.parseInt(goals.get(0).get(1).toString());
+        } catch (NumberFormatException e) {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return !getSentences(getStateValues(state), TERMINAL).isEmpty();
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        List<Move> actions = getMoves(constantValues, INPUT, role);
+        if (actions.isEmpty()) {
+            throw new MoveDefinitionException(initialState, role);
+        }
+        return actions;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        List<Move> moves = getLegalMoves(getStateValues(state), role);
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        // The transition strata only replace entries, so the state's own
+        // sets are left as they were.
+        Map<SentenceForm, Set<GdlSentence>> values = new HashMap<SentenceForm, Set<GdlSentence>>(getStateValues(state));
+        for (SentenceForm form : formsByName.get(DOES)) {
+            values.put(form, new HashSet<GdlSentence>());
+        }
+        addDoes(values, moves);
+        try {
+            for (Stratum stratum : transitionStrata) {
+                evaluate(stratum, values);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        Set<GdlSentence> contents = new HashSet<GdlSentence>();
+        for (GdlSentence next : getSentences(values, NEXT)) {
+            contents.add(GdlPool.getRelation(TRUE, new GdlTerm[] { next.get(0) }));
+        }
+        return new MachineState(contents);
+    }
+}
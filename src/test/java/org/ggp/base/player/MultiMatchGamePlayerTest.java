@@ -0,0 +1,94 @@
+package org.ggp.base.player;
+
+import java.net.Socket;
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.server.request.RequestBuilder;
+import org.ggp.base.util.concurrency.CoreScheduler;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.scrambler.NoOpGdlScrambler;
+import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpWriter;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiMatchGamePlayerTest extends Assert {
+
+    @Test
+    public void testConcurrentMatchesOnOnePort() throws Exception {
+        MultiMatchGamePlayer player = new MultiMatchGamePlayer(13374, RandomGamer.class);
+        player.start();
+        try {
+            List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+            NoOpGdlScrambler scrambler = new NoOpGdlScrambler();
+            Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+            Role oplayer = new Role(GdlPool.getConstant("oplayer"));
+            assertEquals("ready", send(player, RequestBuilder.getStartRequest("first", xplayer, rules, 10, 10, scrambler)));
+            assertEquals("ready", send(player, RequestBuilder.getStartRequest("second", oplayer, rules, 10, 10, scrambler)));
+            assertEquals(2, player.getActiveMatches());
+            assertEquals(2, CoreScheduler.getDefault().getActiveMatches());
+
+            // Each match gets its own gamer, playing its own role
+            assertTrue(send(player, RequestBuilder.getPlayRequest("first", null, scrambler)).contains("mark"));
+            assertEquals("noop", send(player, RequestBuilder.getPlayRequest("second", null, scrambler)).toLowerCase());
+            assertEquals("busy", send(player, RequestBuilder.getPlayRequest("third", null, scrambler)));
+            assertTrue(send(player, RequestBuilder.getInfoRequest()).contains("available"));
+
+            assertEquals("aborted", send(player, RequestBuilder.getAbortRequest("first")));
+            assertEquals(1, player.getActiveMatches());
+            assertEquals("busy", send(player, RequestBuilder.getPlayRequest("first", null, scrambler)));
+            assertEquals("aborted", send(player, RequestBuilder.getAbortRequest("second")));
+            assertEquals(0, player.getActiveMatches());
+            assertEquals(0, CoreScheduler.getDefault().getActiveMatches());
+        } finally {
+            player.shutdown();
+            player.join(5000);
+        }
+    }
+
+    @Test
+    public void testAbandonedMatchIsEvicted() throws Exception {
+        MultiMatchGamePlayer player = new MultiMatchGamePlayer(13384, RandomGamer.class, 500);
+        player.start();
+        try {
+            List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+            NoOpGdlScrambler scrambler = new NoOpGdlScrambler();
+            Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+            assertEquals("ready", send(player, RequestBuilder.getStartRequest("forgotten", xplayer, rules, 1, 1, scrambler)));
+            assertEquals(1, player.getActiveMatches());
+
+            // Nothing more from the server: the match goes after its clock and the grace
+            long giveUp = System.currentTimeMillis() + 10000;
+            while (player.getActiveMatches() > 0 && System.currentTimeMillis() < giveUp) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, player.getActiveMatches());
+            assertEquals(0, CoreScheduler.getDefault().getActiveMatches());
+            assertEquals("busy", send(player, RequestBuilder.getPlayRequest("forgotten", null, scrambler)));
+        } finally {
+            player.shutdown();
+            player.join(5000);
+        }
+    }
+
+    @Test
+    public void testRequestHeads() {
+        assertArrayEquals(new String[] {"play", "m1"}, MultiMatchGamePlayer.readHead("( play m1 ( ( mark 1 1 ) noop ) )"));
+        assertArrayEquals(new String[] {"INFO", null}, MultiMatchGamePlayer.readHead("(INFO)"));
+        assertArrayEquals(new String[] {"", null}, MultiMatchGamePlayer.readHead(""));
+    }
+
+    private static String send(NioGamePlayer player, String request) throws Exception {
+        Socket socket = new Socket("127.0.0.1", player.getGamerPort());
+        try {
+            HttpWriter.writeAsClient(socket, "127.0.0.1", request, "Player");
+            return HttpReader.readAsClient(socket, 15000);
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NioGamePlayerTest extends Assert {
+
+    @Test
+    public void testInfoWhileAnotherConnectionStalls() throws Exception {
+        NioGamePlayer player = new NioGamePlayer(13274, new RandomGamer());
+        player.start();
+        Socket stalled = new Socket("127.0.0.1", player.getGamerPort());
+        try {
+            // Half of a request, that never gets finished
+            OutputStream out = stalled.getOutputStream();
+            out.write("POST / HTTP/1.0\r\nContent-length: 100\r\n\r\n( sta".getBytes("UTF-8"));
+            out.flush();
+
+            for (int i = 0; i < 3; i++) {
+                Socket socket = new Socket("127.0.0.1", player.getGamerPort());
+                try {
+                    HttpWriter.writeAsClient(socket, "127.0.0.1", "( info )", "Player");
+                    String response = HttpReader.readAsClient(socket, 5000);
+                    assertTrue(response, response.contains("available"));
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            stalled.close();
+            player.shutdown();
+            player.join(5000);
+        }
+        assertFalse(player.isAlive());
+    }
+
+    @Test
+    public void testIdleConnectionIsClosed() throws Exception {
+        NioGamePlayer player = new NioGamePlayer(13284, new RandomGamer(), 300);
+        player.start();
+        Socket idle = new Socket("127.0.0.1", player.getGamerPort());
+        try {
+            idle.setSoTimeout(5000);
+            assertEquals(-1, idle.getInputStream().read());
+        } finally {
+            idle.close();
+            player.shutdown();
+            player.join(5000);
+        }
+    }
+
+    @Test
+    public void testOversizedRequestIsDropped() throws Exception {
+        NioGamePlayer player = new NioGamePlayer(13294, new RandomGamer());
+        player.start();
+        Socket socket = new Socket("127.0.0.1", player.getGamerPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[1024 * 1024];
+            Arrays.fill(chunk, (byte) ' ');
+            try {
+                out.write("POST / HTTP/1.0\r\nContent-length: 33554432\r\n\r\n".getBytes("UTF-8"));
+                for (int i = 0; i < 32; i++) {
+                    out.write(chunk);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The player may close the connection while it is still being written to
+            }
+            try {
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (SocketException e) {
+                // Reset by the player, which is closed too
+            }
+        } finally {
+            socket.close();
+            player.shutdown();
+            player.join(5000);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateMachineGamerTest extends Assert {
+
+    // Ponders until it is told to stop, and records what each request saw
+    private static class PonderingGamer extends SampleGamer {
+        final Semaphore ponderStarted = new Semaphore(0);
+        final List<MachineState> ponderedStates = Collections.synchronizedList(new ArrayList<MachineState>());
+        final List<Boolean> ponderingDuringRequest = new ArrayList<Boolean>();
+        volatile boolean pondering;
+
+        PonderingGamer() {
+            setPondering(true);
+        }
+
+        @Override
+        public void stateMachineMetaGame(long timeout) {
+            ponderingDuringRequest.add(pondering);
+        }
+
+        @Override
+        public void stateMachinePonder() {
+            pondering = true;
+            ponderedStates.add(getCurrentState());
+            ponderStarted.release();
+            while (!isPonderStopRequested()) {
+                Thread.yield();
+            }
+            // Take a while to stop, so a request that didn't wait would see it
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pondering = false;
+        }
+
+        @Override
+        public Move stateMachineSelectMove(long timeout) throws MoveDefinitionException {
+            ponderingDuringRequest.add(pondering);
+            return getStateMachine().getRandomMove(getCurrentState(), getRole());
+        }
+    }
+
+    @Test
+    public void testPonderingStopsBeforeEachRequest() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        PonderingGamer gamer = new PonderingGamer();
+        gamer.setMatch(new Match("ponder." + Match.getRandomString(5), -1, 5, 5, game, ""));
+        gamer.setRoleName(GdlPool.getConstant("xplayer"));
+
+        gamer.metaGame(System.currentTimeMillis() + 5000);
+        assertTrue(gamer.ponderStarted.tryAcquire(10, TimeUnit.SECONDS));
+        MachineState initialState = gamer.getCurrentState();
+        assertEquals(initialState, gamer.ponderedStates.get(0));
+
+        GdlTerm move = gamer.selectMove(System.currentTimeMillis() + 5000);
+        assertTrue(gamer.ponderStarted.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals(initialState, gamer.ponderedStates.get(1));
+
+        // The next request has to wait for the pondering to stop before the state moves on
+        StateMachine machine = gamer.getStateMachine();
+        List<GdlTerm> moves = new ArrayList<GdlTerm>();
+        moves.add(move);
+        moves.add(machine.getLegalMoves(initialState, machine.getRoles().get(1)).get(0).getContents());
+        gamer.getMatch().appendMoves(moves);
+        gamer.selectMove(System.currentTimeMillis() + 5000);
+        assertTrue(gamer.ponderStarted.tryAcquire(10, TimeUnit.SECONDS));
+        assertNotEquals(initialState, gamer.getCurrentState());
+        assertEquals(gamer.getCurrentState(), gamer.ponderedStates.get(2));
+
+        gamer.abort();
+        assertFalse(gamer.pondering);
+        assertEquals(3, gamer.ponderedStates.size());
+        assertEquals(Arrays.asList(false, false, false), gamer.ponderingDuringRequest);
+    }
+}
@@ -0,0 +1,98 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentNodeTest extends Assert {
+
+    private static final int THREADS = 8;
+    private static final int UPDATES = 10000;
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        final ConcurrentNode node = ConcurrentNode.maxNode(null, null, new int[0]);
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                double[] scores = new double[] {1.0, 0.5};
+                for (int i = 0; i < UPDATES; i++) {
+                    node.addVirtualLoss();
+                    node.update(scores);
+                }
+            }
+        });
+        assertEquals(THREADS * UPDATES, node.getVisits());
+        assertEquals(THREADS * UPDATES, node.getEffectiveVisits());
+        assertEquals(1.0, node.getAvgUtility(), 1e-9);
+        assertEquals(0.5, node.getOppAvgUtility(), 1e-9);
+    }
+
+    @Test
+    public void testVirtualLossCountsAsZero() {
+        ConcurrentNode node = ConcurrentNode.maxNode(null, null, new int[0]);
+        node.addVirtualLoss();
+        node.update(new double[] {100, 0});
+        node.addVirtualLoss();
+        assertEquals(100.0, node.getAvgUtility(), 1e-9);
+        assertEquals(50.0, node.getVirtualAvgUtility(), 1e-9);
+        node.removeVirtualLoss();
+        assertEquals(100.0, node.getVirtualAvgUtility(), 1e-9);
+    }
+
+    @Test
+    public void testEachMoveIsClaimedOnce() throws Exception {
+        int[] moves = new int[1000];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = i;
+        }
+        final ConcurrentNode node = ConcurrentNode.maxNode(null, null, moves);
+        final AtomicIntegerArray claims = new AtomicIntegerArray(moves.length);
+        runConcurrently(new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = node.claimUntried()) >= 0) {
+                    claims.incrementAndGet(i);
+                }
+            }
+        });
+        int[] expected = new int[moves.length];
+        Arrays.fill(expected, 1);
+        int[] actual = new int[moves.length];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = claims.get(i);
+        }
+        assertArrayEquals(expected, actual);
+        assertTrue(node.isFullyExpanded());
+    }
+
+    private static void runConcurrently(final Runnable task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    task.run();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.server.HeadlessMatch;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FactoredMCTSGamerTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Two lights that are switched on independently, so the game splits into two factors
+    private static final String TWO_SWITCHES =
+            "(role player) " +
+            "(light a) (light b) " +
+            "(init (step 0)) " +
+            "(succ 0 1) (succ 1 2) (succ 2 3) " +
+            "(<= (legal player (flip ?l)) (light ?l) (not (true (on ?l)))) " +
+            "(<= (legal player noop)) " +
+            "(<= (next (on ?l)) (does player (flip ?l))) " +
+            "(<= (next (on ?l)) (true (on ?l))) " +
+            "(<= (next (step ?y)) (true (step ?x)) (succ ?x ?y)) " +
+            "(<= terminal (true (step 3))) " +
+            "(<= (goal player 100) (true (on a)) (true (on b))) " +
+            "(<= (goal player 50) (true (on a)) (not (true (on b)))) " +
+            "(<= (goal player 50) (true (on b)) (not (true (on a)))) " +
+            "(<= (goal player 0) (not (true (on a))) (not (true (on b))))";
+
+    @Test
+    public void testPlaysFactoredGame() throws Exception {
+        Game game = Game.createEphemeralGame(Game.preprocessRulesheet(TWO_SWITCHES));
+        // The gamer keeps 3s of the start clock and 2.5s of the play clock in reserve
+        Match match = new Match("factored." + Match.getRandomString(5), -1, 5, 4, game, "");
+        StateMachine referee = new ProverStateMachine();
+        referee.initialize(game.getRules());
+        FactoredMCTSGamer gamer = new FactoredMCTSGamer();
+        gamer.setPropNetCache(new PropNetCache(folder.getRoot()));
+        List<Gamer> gamers = Arrays.<Gamer>asList(gamer);
+
+        new HeadlessMatch(match, gamers, referee).call();
+        assertTrue(match.isCompleted());
+        for (List<String> errors : match.getErrorHistory()) {
+            assertEquals(Collections.singletonList(""), errors);
+        }
+        assertEquals(Collections.singletonList(100), match.getGoalValues());
+    }
+}
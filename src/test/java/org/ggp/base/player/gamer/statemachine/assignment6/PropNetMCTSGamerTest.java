@@ -0,0 +1,66 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropNetMCTSGamerTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPonderedTreeIsReused() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        PropNetMCTSGamer gamer = new PropNetMCTSGamer();
+        gamer.setPropNetCache(new PropNetCache(folder.getRoot()));
+        gamer.setMatch(new Match("ponder." + Match.getRandomString(5), -1, 4, 4, game, ""));
+        gamer.setRoleName(GdlPool.getConstant("xplayer"));
+        try {
+            // The gamer keeps 3s of the start clock and 2.5s of the play clock in reserve
+            gamer.metaGame(System.currentTimeMillis() + 4000);
+            MachineState initialState = gamer.getCurrentState();
+            GdlTerm move = gamer.selectMove(System.currentTimeMillis() + 3500);
+
+            // While the others think, the search goes on below the move that was sent
+            Node pondered = gamer.getRoot();
+            assertEquals(new Move(move), pondered.move);
+            assertEquals(initialState, pondered.state);
+            Thread.sleep(1000);
+
+            StateMachine machine = gamer.getStateMachine();
+            List<GdlTerm> moves = new ArrayList<GdlTerm>();
+            moves.add(move);
+            moves.add(machine.getLegalMoves(initialState, machine.getRoles().get(1)).get(0).getContents());
+            gamer.getMatch().appendMoves(moves);
+            GdlTerm nextMove = gamer.selectMove(System.currentTimeMillis() + 3500);
+
+            // The next turn started from the grandchild the actual joint move led to
+            Node grandchild = null;
+            for (Node child : pondered.children) {
+                if (child.state.equals(gamer.getCurrentState())) {
+                    grandchild = child;
+                }
+            }
+            assertNotNull(grandchild);
+            assertTrue(grandchild.visits > 0);
+            assertTrue(grandchild.children.contains(gamer.getRoot()));
+            assertEquals(new Move(nextMove), gamer.getRoot().move);
+        } finally {
+            gamer.abort();
+        }
+    }
+}
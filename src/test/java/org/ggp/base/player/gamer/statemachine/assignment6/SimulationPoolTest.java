@@ -0,0 +1,102 @@
+package org.ggp.base.player.gamer.statemachine.assignment6;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulationPoolTest extends Assert {
+
+    private static final int CHARGES = 20;
+
+    @Test
+    public void testEveryChargeCompletes() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<StateMachine> machines = new ArrayList<StateMachine>();
+        for (int i = 0; i < 3; i++) {
+            StateMachine machine = new ProverStateMachine();
+            machine.initialize(rules);
+            machines.add(machine);
+        }
+        Node leaf = new Node(machines.get(0).getInitialState(), null, null, null, false);
+        SimulationPool pool = new SimulationPool(machines);
+        try {
+            assertEquals(3, pool.getParallelism());
+            List<Node> leaves = new ArrayList<Node>();
+            for (int i = 0; i < CHARGES; i++) {
+                leaves.add(leaf);
+            }
+            pool.submitAll(leaves, System.currentTimeMillis() + 60000);
+            assertEquals(CHARGES, pool.pending());
+            for (int i = 0; i < CHARGES; i++) {
+                SimulationPool.Simulation simulation = pool.take();
+                assertSame(leaf, simulation.node);
+                assertNotNull(simulation.goals);
+                // Every tic-tac-toe ending shares out 100 points
+                assertEquals(100, simulation.goals[0] + simulation.goals[1]);
+            }
+            assertEquals(0, pool.pending());
+            assertNull(pool.poll());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testChargeThatTimesOutHasNoGoals() throws Exception {
+        StateMachine machine = new ProverStateMachine();
+        machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        Node leaf = new Node(machine.getInitialState(), null, null, null, false);
+        SimulationPool pool = new SimulationPool(Arrays.asList(machine));
+        try {
+            pool.submit(leaf, System.currentTimeMillis() - 1);
+            SimulationPool.Simulation simulation = pool.take();
+            assertSame(leaf, simulation.node);
+            assertNull(simulation.goals);
+            assertEquals(0, pool.pending());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownInterruptsRunningChargeAndDropsQueuedOnes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicInteger charges = new AtomicInteger();
+        // A machine whose depth charges only end when the worker is interrupted
+        StateMachine machine = new ProverStateMachine() {
+            @Override
+            public int performDepthCharges(MachineState state, int count, int[] goals, int[] depthHistogram, long timeout) {
+                charges.incrementAndGet();
+                started.countDown();
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.yield();
+                }
+                interrupted.countDown();
+                return 0;
+            }
+        };
+        machine.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        Node leaf = new Node(machine.getInitialState(), null, null, null, false);
+        SimulationPool pool = new SimulationPool(Arrays.asList(machine));
+        pool.submitAll(Arrays.asList(leaf, leaf, leaf), System.currentTimeMillis() + 60000);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        pool.shutdown();
+        assertEquals(0, pool.pending());
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, charges.get());
+    }
+}
@@ -0,0 +1,56 @@
+package org.ggp.base.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeadlessMatchTest extends Assert {
+
+    @Test
+    public void testRandomGamersFinishMatch() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        Match match = new Match("headless." + Match.getRandomString(5), -1, 5, 5, game, "");
+        StateMachine referee = new CompiledPropNetStateMachine();
+        referee.initialize(game.getRules());
+        List<Gamer> gamers = Arrays.<Gamer>asList(new RandomGamer(), new RandomGamer());
+
+        assertSame(match, new HeadlessMatch(match, gamers, referee).call());
+        assertTrue(match.isCompleted());
+        assertFalse(match.isAborted());
+        assertEquals(2, match.getGoalValues().size());
+        assertEquals(match.getMoveHistory().size() + 1, match.getStateHistory().size());
+        assertEquals(match.getStateHistory().size(), match.getErrorHistory().size());
+        for (List<String> errors : match.getErrorHistory()) {
+            assertEquals(Arrays.asList("", ""), errors);
+        }
+        for (Gamer gamer : gamers) {
+            assertNull(gamer.getMatch());
+        }
+    }
+
+    @Test
+    public void testWrongNumberOfGamers() throws Exception {
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        Match match = new Match("headless." + Match.getRandomString(5), -1, 5, 5, game, "");
+        StateMachine referee = new CompiledPropNetStateMachine();
+        referee.initialize(game.getRules());
+        List<Gamer> gamers = new ArrayList<Gamer>();
+        gamers.add(new RandomGamer());
+        try {
+            new HeadlessMatch(match, gamers, referee);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
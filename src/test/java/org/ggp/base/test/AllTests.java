@@ -1,8 +1,16 @@
 package org.ggp.base.test;
 
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
+import org.ggp.base.player.MultiMatchGamePlayerTest;
+import org.ggp.base.player.NioGamePlayerTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
+import org.ggp.base.player.gamer.statemachine.StateMachineGamerTest;
+import org.ggp.base.player.gamer.statemachine.assignment6.ConcurrentNodeTest;
+import org.ggp.base.player.gamer.statemachine.assignment6.FactoredMCTSGamerTest;
+import org.ggp.base.player.gamer.statemachine.assignment6.PropNetMCTSGamerTest;
+import org.ggp.base.player.gamer.statemachine.assignment6.SimulationPoolTest;
+import org.ggp.base.server.HeadlessMatchTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
 import org.ggp.base.util.crypto.CanonicalJSONTest;
 import org.ggp.base.util.crypto.SignableJSONTest;
@@ -12,32 +20,64 @@ import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
+import org.ggp.base.util.http.AsyncHttpClientTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
+import org.ggp.base.util.propnet.factory.PropNetCacheTest;
+import org.ggp.base.util.propnet.factory.PropNetFactorizerTest;
+import org.ggp.base.util.propnet.factory.PropNetOptimizerTest;
+import org.ggp.base.util.prover.aima.AimaProverTest;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBaseTest;
+import org.ggp.base.util.statemachine.cache.ConcurrentTtlCacheTest;
+import org.ggp.base.util.statemachine.cache.TranspositionTableStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.prover.TermProverStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.reasoner.ForwardChainingStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+	AimaProverTest.class,
+	AsyncHttpClientTest.class,
 	BaseCryptographyTest.class,
 	CanonicalJSONTest.class,
 	ClojureGamerTest.class,
+	CompiledPropNetStateMachineTest.class,
+	ConcurrentNodeTest.class,
+	ConcurrentTtlCacheTest.class,
 	DependencyGraphsTest.class,
+	FactoredMCTSGamerTest.class,
+	ForwardChainingStateMachineTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
 	GdlRendererTest.class,
 	GdlScramblerTest.class,
+	HeadlessMatchTest.class,
 	HttpTest.class,
 	InfoResponseTest.class,
+	KnowledgeBaseTest.class,
+	MultiMatchGamePlayerTest.class,
+	NioGamePlayerTest.class,
 	NoTabsInRulesheetsTest.class,
+	OptimizingPropNetFactoryTest.class,
+	PropNetCacheTest.class,
+	PropNetFactorizerTest.class,
+	PropNetMCTSGamerTest.class,
+	PropNetOptimizerTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
 	SignableJSONTest.class,
+	SimulationPoolTest.class,
 	SimpleSentenceFormTest.class,
+	StateMachineGamerTest.class,
 	StaticValidationTest.class,
+	TermProverStateMachineTest.class,
 	TiltyardRequestFarmTest.class,
+	TranspositionTableStateMachineTest.class,
                      })
 public class AllTests {
 
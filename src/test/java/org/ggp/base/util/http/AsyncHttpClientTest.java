@@ -0,0 +1,108 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.player.NioGamePlayer;
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncHttpClientTest extends Assert {
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        NioGamePlayer player = new NioGamePlayer(13474, new RandomGamer());
+        player.start();
+        try {
+            Outcome[] outcomes = new Outcome[4];
+            CountDownLatch done = new CountDownLatch(outcomes.length);
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = new Outcome(done);
+                AsyncHttpClient.getDefault().issueRequest("127.0.0.1", player.getGamerPort(), "Player", "( info )", 5000, outcomes[i]);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (Outcome outcome : outcomes) {
+                assertNull(outcome.failure);
+                assertTrue(outcome.response, outcome.response.contains("available"));
+            }
+        } finally {
+            player.shutdown();
+            player.join(5000);
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        // Accepts the connection, but never responds
+        ServerSocket silent = new ServerSocket(0);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            Outcome outcome = new Outcome(done);
+            AsyncHttpClient.getDefault().issueRequest("127.0.0.1", silent.getLocalPort(), "Player", "( info )", 200, outcome);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertNull(outcome.response);
+            assertTrue(String.valueOf(outcome.failure), outcome.failure instanceof SocketTimeoutException);
+        } finally {
+            silent.close();
+        }
+    }
+
+    @Test
+    public void testThrowingCallbacksLeaveClientRunning() throws Exception {
+        // Nothing listens on this port, so the request fails
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+        final CountDownLatch failed = new CountDownLatch(1);
+        AsyncHttpClient.getDefault().issueRequest("127.0.0.1", port, "Player", "( info )", 200, new AsyncHttpClient.Callback() {
+            @Override
+            public void onResponse(String response) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                failed.countDown();
+                throw new IllegalStateException();
+            }
+        });
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+
+        ServerSocket silent = new ServerSocket(0);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            Outcome outcome = new Outcome(done);
+            AsyncHttpClient.getDefault().issueRequest("127.0.0.1", silent.getLocalPort(), "Player", "( info )", 200, outcome);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(outcome.failure), outcome.failure instanceof SocketTimeoutException);
+        } finally {
+            silent.close();
+        }
+    }
+
+    private static final class Outcome implements AsyncHttpClient.Callback {
+        private final CountDownLatch done;
+        volatile String response;
+        volatile IOException failure;
+
+        Outcome(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onResponse(String response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            failure = e;
+            done.countDown();
+        }
+    }
+}
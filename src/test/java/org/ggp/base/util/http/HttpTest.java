@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -66,8 +67,42 @@ public class HttpTest extends Assert {
         doClientEchoCheckOverGET(testPair, "1234567890abcdefgijklmnopqrstuvwxyz!@#$%^&*()1234567890", "");
     }
 
+	@Test
+    public void testBufferedRequests() throws IOException {
+        doBufferedCheck("POST / HTTP/1.0\r\nAccept: text/delim\r\nContent-length: 11\r\n\r\nHello World", "Hello World");
+        doBufferedCheck("POST / HTTP/1.0\nContent-length: 0\n\n", "");
+        doBufferedCheck("GET /" + URLEncoder.encode("( info )", "UTF-8") + " HTTP/1.0\r\n", "( info )");
+        doBufferedCheck("OPTIONS / HTTP/1.1\r\n", "");
+        assertEquals("Test String", HttpReader.readAsServer(ByteBuffer.wrap("POST / HTTP/1.0\r\n\r\nTest\r\n String".getBytes("UTF-8")), true));
+
+        ByteBuffer response = HttpWriter.encodeAsServer("Hello World");
+        SocketPair testPair = new SocketPair();
+        testPair.server.getOutputStream().write(response.array(), response.position(), response.remaining());
+        assertEquals("Hello World", HttpReader.readAsClient(testPair.client));
+    }
+
     // Helper functions for running specific checks.
 
+    // Every prefix of the request is incomplete, until the whole of it comes in
+    private void doBufferedCheck(String request, String data) throws IOException {
+        byte[] bytes = request.getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        for (byte b : bytes) {
+            ByteBuffer received = buffer.duplicate();
+            received.flip();
+            assertNull(HttpReader.readAsServer(received, false));
+            buffer.put(b);
+        }
+        buffer.flip();
+        assertEquals(data, HttpReader.readAsServer(buffer, false));
+        try {
+            HttpReader.readAsServer(ByteBuffer.wrap(bytes, 0, bytes.length - 1), true);
+            fail("A request cut off by the end of the stream should be an error.");
+        } catch (IOException e) {
+            ;
+        }
+    }
+
     private void doSimpleEchoCheck(SocketPair p, String data, String playerName) throws IOException {
         HttpWriter.writeAsClient(p.client, "", data, playerName);
         String readData = HttpReader.readAsServer(p.server);
@@ -0,0 +1,39 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OptimizingPropNetFactoryTest extends Assert {
+
+    @Test
+    public void testConcurrentBuildMatchesSequentialBuild() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_2a", "test_case_4a"}) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            PropNet sequential = OptimizingPropNetFactory.create(rules, false, 1, null);
+            PropNet concurrent = OptimizingPropNetFactory.create(rules, false, 4, null);
+            assertEquals(game, sequential.getComponents().size(), concurrent.getComponents().size());
+            assertEquals(game, sequential.getNumLinks(), concurrent.getNumLinks());
+            assertEquals(game, sequential.getBasePropositions().keySet(), concurrent.getBasePropositions().keySet());
+            assertEquals(game, sequential.getInputPropositions().keySet(), concurrent.getInputPropositions().keySet());
+        }
+    }
+
+    @Test
+    public void testPhaseTimesAreReported() throws Exception {
+        Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+        OptimizingPropNetFactory.create(new TestGameRepository().getGame("ticTacToe").getRules(), false, 2, phaseTimes);
+        assertEquals(Arrays.asList("transforms", "domains", "constants", "ordering", "sentence forms", "transitions", "propnet"),
+                Arrays.asList(phaseTimes.keySet().toArray()));
+        for (long time : phaseTimes.values()) {
+            assertTrue(time >= 0);
+        }
+    }
+}
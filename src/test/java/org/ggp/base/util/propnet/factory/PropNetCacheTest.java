@@ -0,0 +1,192 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.PhaseAnalysis;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PropNetCacheTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCachedPropNetsMatchBuiltPropNets() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_3d", "test_case_5c"}) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            assertFalse(game, cache.getFile(rules).exists());
+            PropNet built = cache.create(rules);
+            assertTrue(game, cache.getFile(rules).exists());
+            PropNet cached = cache.create(rules);
+            assertNotSame(built, cached);
+            assertEquals(game, built.getRoles(), cached.getRoles());
+            assertEquals(game, built.getComponents().size(), cached.getComponents().size());
+            assertEquals(game, built.getNumLinks(), cached.getNumLinks());
+            assertEquals(game, built.getBasePropositions().keySet(), cached.getBasePropositions().keySet());
+            assertEquals(game, built.getInputPropositions().keySet(), cached.getInputPropositions().keySet());
+            assertEquals(game, built.getLegalInputMap().size(), cached.getLegalInputMap().size());
+
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            StateMachine subject = new CompiledPropNetStateMachine(true, cache);
+            subject.initialize(rules);
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 200));
+        }
+    }
+
+    @Test
+    public void testMachinesShareCompiledNetworks() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNetStateMachine first = new CompiledPropNetStateMachine(true, cache);
+        first.initialize(rules);
+        CompiledPropNetStateMachine second = new CompiledPropNetStateMachine(false, cache);
+        second.initialize(rules);
+        assertSame(first.getCompiledPropNet(), second.getCompiledPropNet());
+
+        CompiledPropNetStateMachine uncached = new CompiledPropNetStateMachine(true);
+        uncached.initialize(rules);
+        assertNotSame(first.getCompiledPropNet(), uncached.getCompiledPropNet());
+    }
+
+    @Test
+    public void testRuleOrderDoesNotChangeTheFile() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<Gdl> reversed = new ArrayList<Gdl>(rules);
+        Collections.reverse(reversed);
+        assertEquals(cache.getFile(rules), cache.getFile(reversed));
+        assertFalse(cache.getFile(rules).equals(
+                cache.getFile(new TestGameRepository().getGame("connectFour").getRules())));
+    }
+
+    @Test
+    public void testUnreadableFilesAreRebuilt() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        File file = cache.getFile(rules);
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        PropNet propNet = cache.create(rules);
+        assertEquals(OptimizingPropNetFactory.create(rules).getComponents().size(), propNet.getComponents().size());
+        assertTrue(file.length() > 3);
+        assertEquals(propNet.getComponents().size(), cache.create(rules).getComponents().size());
+    }
+
+    @Test
+    public void testPhaseAnalysisIsCachedWithThePropNet() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.newFolder("first"));
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNetStateMachine first = new CompiledPropNetStateMachine(false, cache);
+        first.initialize(rules);
+        PhaseAnalysis analysis = first.getCompiledPropNet().getPhaseAnalysis();
+        byte[] saved = cache.readData(rules, "phases");
+        assertNotNull(saved);
+        PhaseAnalysis read = PhaseAnalysis.fromBytes(saved);
+        assertEquals(analysis.getLatchedOnBases(), read.getLatchedOnBases());
+        assertEquals(analysis.getLatchedOffBases(), read.getLatchedOffBases());
+        assertEquals(analysis.getFlowBases(), read.getFlowBases());
+        assertEquals(analysis.getFlowValuations(), read.getFlowValuations());
+
+        // A cache in another directory isn't shared in memory, so its machines read the files.
+        // An analysis without latches or turn-dependent bases shows that the saved one is used.
+        PropNetCache copy = new PropNetCache(folder.newFolder("copy"));
+        Files.copy(cache.getFile(rules).toPath(), copy.getFile(rules).toPath());
+        List<Set<GdlSentence>> onePhase = Collections.singletonList(Collections.<GdlSentence>emptySet());
+        PhaseAnalysis empty = new PhaseAnalysis(Collections.<GdlSentence>emptySet(), Collections.<GdlSentence>emptySet(),
+                Collections.<GdlSentence>emptyList(), onePhase);
+        copy.writeData(rules, "phases", empty.toBytes());
+        CompiledPropNetStateMachine second = new CompiledPropNetStateMachine(false, copy);
+        second.initialize(rules);
+        assertTrue(second.getCompiledPropNet().getLatchedOnBases().isEmpty());
+        assertEquals(0, second.getCompiledPropNet().getNumPhases());
+
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, second, 200));
+    }
+
+    @Test
+    public void testUnreadablePhaseAnalysisIsRedone() throws Exception {
+        PropNetCache cache = new PropNetCache(folder.getRoot());
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        File file = cache.getFile(rules, "phases");
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        CompiledPropNetStateMachine machine = new CompiledPropNetStateMachine(false, cache);
+        machine.initialize(rules);
+        assertEquals(2, machine.getCompiledPropNet().getNumPhases());
+        assertEquals(machine.getCompiledPropNet().getLatchedOnBases(),
+                PhaseAnalysis.fromBytes(Files.readAllBytes(file.toPath())).getLatchedOnBases());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFilesAreEvicted() throws Exception {
+        List<Gdl> ticTacToe = new TestGameRepository().getGame("ticTacToe").getRules();
+        List<Gdl> connectFour = new TestGameRepository().getGame("connectFour").getRules();
+        List<Gdl> testCase = new TestGameRepository().getGame("test_case_3d").getRules();
+        byte[] data = new byte[1000];
+        PropNetCache cache = new PropNetCache(folder.getRoot(), 2500);
+        cache.writeData(ticTacToe, "data", data);
+        cache.writeData(connectFour, "data", data);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.getFile(ticTacToe, "data").setLastModified(now - 20000));
+        assertTrue(cache.getFile(connectFour, "data").setLastModified(now - 10000));
+
+        // Reading tic-tac-toe's file makes connect four's the least recently used
+        assertNotNull(cache.readData(ticTacToe, "data"));
+        cache.writeData(testCase, "data", data);
+        assertTrue(cache.getFile(ticTacToe, "data").exists());
+        assertFalse(cache.getFile(connectFour, "data").exists());
+        assertTrue(cache.getFile(testCase, "data").exists());
+
+        // The file just written stays even if it doesn't fit on its own
+        cache.writeData(connectFour, "data", new byte[3000]);
+        assertTrue(cache.getFile(connectFour, "data").exists());
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testDefaultCacheFollowsTheSystemProperties() throws Exception {
+        String directory = System.getProperty(PropNetCache.DIRECTORY_PROPERTY);
+        String maxBytes = System.getProperty(PropNetCache.MAX_BYTES_PROPERTY);
+        try {
+            System.setProperty(PropNetCache.DIRECTORY_PROPERTY, folder.getRoot().getPath());
+            System.setProperty(PropNetCache.MAX_BYTES_PROPERTY, "1000");
+            PropNetCache cache = PropNetCache.getDefault();
+            assertEquals(folder.getRoot(), cache.getDirectory());
+            assertEquals(1000, cache.getMaxBytes());
+
+            System.setProperty(PropNetCache.DIRECTORY_PROPERTY, "none");
+            assertNull(PropNetCache.getDefault());
+            System.setProperty(PropNetCache.DIRECTORY_PROPERTY, "");
+            assertNull(PropNetCache.getDefault());
+        } finally {
+            restoreProperty(PropNetCache.DIRECTORY_PROPERTY, directory);
+            restoreProperty(PropNetCache.MAX_BYTES_PROPERTY, maxBytes);
+        }
+    }
+
+    private static void restoreProperty(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+}
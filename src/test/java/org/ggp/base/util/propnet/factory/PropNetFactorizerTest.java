@@ -0,0 +1,77 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.FactorStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetFactorizerTest extends Assert {
+
+    // Two lights that are switched on independently, under a shared step counter
+    private static final String TWO_SWITCHES =
+            "(role player) " +
+            "(light a) (light b) " +
+            "(init (step 0)) " +
+            "(succ 0 1) (succ 1 2) (succ 2 3) " +
+            "(<= (legal player (flip ?l)) (light ?l) (not (true (on ?l)))) " +
+            "(<= (legal player noop)) " +
+            "(<= (next (on ?l)) (does player (flip ?l))) " +
+            "(<= (next (on ?l)) (true (on ?l))) " +
+            "(<= (next (step ?y)) (true (step ?x)) (succ ?x ?y)) " +
+            "(<= terminal (true (step 3))) " +
+            "(<= (goal player 100) (true (on a)) (true (on b))) " +
+            "(<= (goal player 50) (true (on a)) (not (true (on b)))) " +
+            "(<= (goal player 50) (true (on b)) (not (true (on a)))) " +
+            "(<= (goal player 0) (not (true (on a))) (not (true (on b))))";
+
+    @Test
+    public void testNetWithoutTerminal() throws Exception {
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(TWO_SWITCHES.replace("(<= terminal (true (step 3))) ", ""))).getRules();
+        PropNet pn = OptimizingPropNetFactory.create(rules);
+        assertNull(pn.getTerminalProposition());
+        assertEquals(2, PropNetFactorizer.factor(pn).size());
+    }
+
+    @Test
+    public void testIndependentLightsAreSeparateFactors() throws Exception {
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(TWO_SWITCHES)).getRules();
+        List<PropNetFactor> factors = PropNetFactorizer.factor(OptimizingPropNetFactory.create(rules));
+        assertEquals(2, factors.size());
+
+        Role player = new Role(GdlPool.getConstant("player"));
+        assertEquals(new HashSet<GdlSentence>(Arrays.asList((GdlSentence) GdlFactory.create("( true ( on a ) )"))), factors.get(0).getBases());
+        assertEquals(new HashSet<GdlSentence>(Arrays.asList((GdlSentence) GdlFactory.create("( true ( on b ) )"))), factors.get(1).getBases());
+        assertEquals(new HashSet<Move>(Arrays.asList(new Move(GdlFactory.createTerm("( flip a )")))), factors.get(0).getMoves(player));
+        assertEquals(new HashSet<Move>(Arrays.asList(new Move(GdlFactory.createTerm("( flip b )")))), factors.get(1).getMoves(player));
+
+        // Each view only offers its own light, plus the noop that belongs to neither
+        StateMachine backing = new ProverStateMachine();
+        backing.initialize(rules);
+        StateMachine first = new FactorStateMachine(backing, factors.get(0), factors);
+        assertEquals(new HashSet<Move>(Arrays.asList(new Move(GdlFactory.createTerm("( flip a )")), new Move(GdlFactory.createTerm("noop")))),
+                new HashSet<Move>(first.getLegalMoves(first.getInitialState(), player)));
+        assertEquals(3, backing.getLegalMoves(backing.getInitialState(), player).size());
+    }
+
+    @Test
+    public void testConnectedGamesAreOneFactor() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour"}) {
+            PropNet pn = OptimizingPropNetFactory.create(new TestGameRepository().getGame(game).getRules());
+            assertEquals(game, 1, PropNetFactorizer.factor(pn).size());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetOptimizerTest extends Assert {
+
+    @Test
+    public void testRedundantGatesAreRemoved() throws Exception {
+        // terminal <= (and (not (not lit)) (or true)), and lit toggles
+        // through two copies of (not lit)
+        Proposition init = new Proposition(GdlPool.getProposition(GdlPool.getConstant("INIT")));
+        Proposition terminal = new Proposition(GdlPool.getProposition(GdlPool.getConstant("terminal")));
+        Proposition lit = new Proposition((GdlSentence) GdlFactory.create("( true lit )"));
+        Transition transition = new Transition();
+        Not not1 = new Not();
+        Not not2 = new Not();
+        Not notNot = new Not();
+        Or toggle = new Or();
+        Constant trueConstant = new Constant(true);
+        Or alwaysTrue = new Or();
+        And and = new And();
+        link(lit, not1);
+        link(lit, not2);
+        link(not1, toggle);
+        link(not2, toggle);
+        link(toggle, transition);
+        link(transition, lit);
+        link(not1, notNot);
+        link(trueConstant, alwaysTrue);
+        link(notNot, and);
+        link(alwaysTrue, and);
+        link(and, terminal);
+        Set<Component> components = new HashSet<Component>(Arrays.<Component>asList(init, terminal, lit, transition,
+                not1, not2, notNot, toggle, trueConstant, alwaysTrue, and));
+        PropNet pn = new PropNet(Collections.<Role>emptyList(), components);
+
+        List<PropNetOptimizer.Report> reports = new PropNetOptimizer().optimize(pn);
+        assertEquals(5, pn.getSize());
+        assertTrue(pn.getComponents().containsAll(Arrays.asList(init, terminal, lit, transition)));
+        assertSame(lit, terminal.getSingleInput());
+        assertTrue(transition.getSingleInput() instanceof Not);
+        assertSame(lit, transition.getSingleInput().getSingleInput());
+        assertEquals(lit, pn.getBasePropositions().get(lit.getName()));
+
+        int removed = 0;
+        for (PropNetOptimizer.Report report : reports) {
+            removed += report.getComponentsRemoved();
+        }
+        assertEquals(11 - 5, removed);
+    }
+
+    @Test
+    public void testOnlyConfiguredPassesRun() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour"}) {
+            PropNet pn = OptimizingPropNetFactory.create(new TestGameRepository().getGame(game).getRules());
+            int ands = pn.getNumAnds();
+            int ors = pn.getNumOrs();
+            int nots = pn.getNumNots();
+            int links = pn.getNumLinks();
+            List<PropNetOptimizer.Report> reports = new PropNetOptimizer(Arrays.asList(PropNetOptimizer.Pass.REMOVE_UNUSED), 3).optimize(pn);
+            assertEquals(game, PropNetOptimizer.Pass.REMOVE_UNUSED, reports.get(0).getPass());
+            assertTrue(game, reports.size() <= 3);
+            assertEquals(game, links - reports.get(0).getLinksRemoved(), pn.getNumLinks());
+
+            // Every gate that went away is counted in the report
+            int unusedGates = (ands - pn.getNumAnds()) + (ors - pn.getNumOrs()) + (nots - pn.getNumNots());
+            assertTrue(game, unusedGates <= reports.get(0).getComponentsRemoved());
+
+            int size = pn.getSize();
+            new PropNetOptimizer().optimize(pn);
+            assertTrue(game, pn.getSize() < size);
+        }
+    }
+
+    private static void link(Component in, Component out) {
+        in.addOutput(out);
+        out.addInput(in);
+    }
+}
@@ -0,0 +1,54 @@
+package org.ggp.base.util.prover.aima;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.prover.Prover;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AimaProverTest extends Assert {
+
+    @Test
+    public void testScopedQueriesMatchUnscopedQueries() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        ProverStateMachine scoped = new ProverStateMachine();
+        scoped.initialize(description);
+        ProverStateMachine unscoped = new ProverStateMachine() {
+            @Override
+            protected Prover createProver(List<Gdl> description) {
+                return new AimaProver(description, 0);
+            }
+        };
+        unscoped.initialize(description);
+
+        for (int i = 0; i < 10; i++) {
+            MachineState state = scoped.getInitialState();
+            while (!scoped.isTerminal(state)) {
+                assertFalse(unscoped.isTerminal(state));
+                for (Role role : scoped.getRoles()) {
+                    assertEquals(new HashSet<Move>(unscoped.getLegalMoves(state, role)),
+                            new HashSet<Move>(scoped.getLegalMoves(state, role)));
+                }
+                List<Move> moves = scoped.getRandomJointMove(state);
+                MachineState next = scoped.getNextState(state, moves);
+                assertEquals(unscoped.getNextState(state, moves), next);
+                state = next;
+            }
+            assertTrue(unscoped.isTerminal(state));
+            assertEquals(unscoped.getGoals(state), scoped.getGoals(state));
+        }
+
+        // Later queries on each state reused what the earlier ones derived
+        AimaProver prover = (AimaProver) scoped.getProver();
+        assertTrue(prover.getScopeCacheMisses() > 0);
+        assertTrue(prover.getScopeCacheHits() > 0);
+        assertEquals(0, ((AimaProver) unscoped.getProver()).getScopeCacheMisses());
+    }
+}
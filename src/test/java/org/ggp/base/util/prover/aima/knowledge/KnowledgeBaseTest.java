@@ -0,0 +1,69 @@
+package org.ggp.base.util.prover.aima.knowledge;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KnowledgeBaseTest extends Assert {
+
+    @Test
+    public void testFetchNarrowsByArguments() throws Exception {
+        Set<Gdl> description = new LinkedHashSet<Gdl>();
+        for (int x = 1; x <= 3; x++) {
+            for (int y = 1; y <= 3; y++) {
+                String mark = (x == 2 && y == 2) ? "x" : "b";
+                description.add(GdlFactory.create("( true ( cell " + x + " " + y + " " + mark + " ) )"));
+            }
+        }
+        description.add(GdlFactory.create("( true ( control xplayer ) )"));
+        description.add(GdlFactory.create("( <= ( true ( cell ?x 3 o ) ) ( foo ?x ) )"));
+        KnowledgeBase kb = new KnowledgeBase(description);
+
+        // Unindexed fetches return the whole group, in order
+        for (int i = 0; i < 32; i++) {
+            List<String> fetched = heads(kb.fetch(sentence("( true ( cell 3 3 ?z ) )")));
+            assertTrue(fetched.containsAll(heads("( true ( cell 3 3 b ) )", "( true ( cell ?x 3 o ) )")));
+            assertTrue(kb.fetch(sentence("( legal ?r ?m )")).isEmpty());
+        }
+
+        // By now the group has been indexed, and is narrowed down by the
+        // most selective argument
+        assertEquals(heads("( true ( cell 2 2 x ) )"),
+                heads(kb.fetch(sentence("( true ( cell ?a ?b x ) )"))));
+        assertEquals(heads("( true ( cell ?x 3 o ) )"),
+                heads(kb.fetch(sentence("( true ( cell ?a ?b o ) )"))));
+        assertEquals(heads("( true ( cell 3 1 b ) )", "( true ( cell 3 2 b ) )", "( true ( cell 3 3 b ) )", "( true ( cell ?x 3 o ) )"),
+                heads(kb.fetch(sentence("( true ( cell 3 ?y ?z ) )"))));
+        assertEquals(heads("( true ( control xplayer ) )"),
+                heads(kb.fetch(sentence("( true ( control ?p ) )"))));
+        assertEquals(11, kb.fetch(sentence("( true ?anything )")).size());
+    }
+
+    private static GdlSentence sentence(String string) throws Exception {
+        return (GdlSentence) GdlFactory.create(string);
+    }
+
+    private static List<String> heads(String... sentences) throws Exception {
+        List<String> heads = new ArrayList<String>();
+        for (String s : sentences) {
+            heads.add(sentence(s).toString());
+        }
+        return heads;
+    }
+
+    private static List<String> heads(List<GdlRule> rules) {
+        List<String> heads = new ArrayList<String>();
+        for (GdlRule rule : rules) {
+            heads.add(rule.getHead().toString());
+        }
+        return heads;
+    }
+}
@@ -0,0 +1,55 @@
+package org.ggp.base.util.statemachine.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentTtlCacheTest extends Assert {
+
+    @Test
+    public void testEntriesExpireLikeTtlCache() {
+        ConcurrentTtlCache<String, Integer> cache = new ConcurrentTtlCache<String, Integer>(1, 1000);
+        TtlCache<String, Integer> reference = new TtlCache<String, Integer>(1);
+        cache.putIfAbsent("a", 1);
+        reference.put("a", 1);
+        cache.putIfAbsent("b", 2);
+        reference.put("b", 2);
+
+        cache.prune();
+        reference.prune();
+        assertEquals(reference.get("a"), cache.get("a"));
+
+        cache.prune();
+        reference.prune();
+        assertEquals(reference.get("a"), cache.get("a"));
+        assertEquals(reference.get("b"), cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void testCountersAndBudget() {
+        ConcurrentTtlCache<Integer, Integer> cache = new ConcurrentTtlCache<Integer, Integer>(1, 100);
+        for (int i = 0; i < 1000; i++) {
+            if (cache.get(i) == null) {
+                cache.putIfAbsent(i, i);
+            }
+        }
+        assertEquals(0, cache.getHits());
+        assertEquals(1000, cache.getMisses());
+        assertTrue(cache.size() <= 101);
+        assertTrue(cache.getEvictions() >= 800);
+        assertEquals(Integer.valueOf(999), cache.get(999));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsFirstValue() {
+        ConcurrentTtlCache<String, Integer> cache = new ConcurrentTtlCache<String, Integer>(0, 10);
+        assertNull(cache.putIfAbsent("a", 1));
+        assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.prune();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+}
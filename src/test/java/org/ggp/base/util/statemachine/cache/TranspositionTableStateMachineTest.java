@@ -0,0 +1,71 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranspositionTableStateMachineTest extends Assert {
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        // A tiny table, so that states are constantly replaced.
+        TranspositionTableStateMachine subject = new TranspositionTableStateMachine(new ProverStateMachine(), 8);
+        subject.initialize(rules);
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+        assertTrue(subject.getHits() > 0);
+        assertTrue(subject.getReplacements() > 0);
+        assertEquals(8, subject.getCapacity());
+    }
+
+    @Test
+    public void testConsistencyWithPropNetStates() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        TranspositionTableStateMachine subject = new TranspositionTableStateMachine(new CompiledPropNetStateMachine(true), 1000);
+        subject.initialize(rules);
+        assertEquals(1024, subject.getCapacity());
+        assertTrue(StateMachineVerifier.checkMachineConsistency(reference, subject, 1000));
+    }
+
+    @Test
+    public void testNextStatesOfEveryJointMoveAreCached() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        TranspositionTableStateMachine subject = new TranspositionTableStateMachine(new ProverStateMachine(), 8);
+        subject.initialize(rules);
+        MachineState initial = subject.getInitialState();
+        // Nine joint moves, so the slot's next-state table has to grow twice
+        List<List<Move>> jointMoves = subject.getLegalJointMoves(initial);
+        assertEquals(9, jointMoves.size());
+        List<MachineState> nexts = new ArrayList<MachineState>();
+        for (List<Move> jointMove : jointMoves) {
+            MachineState next = subject.getNextState(initial, jointMove);
+            assertEquals(reference.getNextState(initial, jointMove), next);
+            nexts.add(next);
+        }
+        for (int i = 0; i < jointMoves.size(); i++) {
+            assertSame(nexts.get(i), subject.getNextState(initial, jointMoves.get(i)));
+        }
+        int[][] jointMoveIds = subject.getLegalJointMoveIds(initial);
+        for (int i = 0; i < jointMoveIds.length; i++) {
+            assertSame(nexts.get(i), subject.getNextState(initial, jointMoveIds[i]));
+        }
+        assertEquals(reference.getLegalMoves(initial, reference.getRoles().get(0)),
+                subject.getLegalMoves(initial, subject.getRoles().get(0)));
+    }
+}
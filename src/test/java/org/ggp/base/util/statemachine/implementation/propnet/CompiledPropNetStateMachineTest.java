@@ -0,0 +1,237 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    private static final String[] GAMES = {"ticTacToe", "connectFour", "simpleMutex",
+        "test_case_1a", "test_case_2a", "test_case_3a", "test_case_3d", "test_case_4a", "test_case_5c"};
+
+    // The "next" rules of both bases always hold, so the factory feeds their
+    // transitions from the TRUE constant and drops INIT
+    private static final String UNCONDITIONAL_NEXT = "(role r) (init (p)) (init (q)) (next (p)) (next (q)) "
+        + "(<= (next (q)) (true (p))) (<= (goal r 100) (true (p))) (<= terminal (true (q)))";
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        checkConsistencyWithProver(false);
+    }
+
+    @Test
+    public void testDifferentialConsistencyWithProver() throws Exception {
+        checkConsistencyWithProver(true);
+    }
+
+    @Test
+    public void testDepthChargeReachesTerminalState() throws Exception {
+        for (boolean differential : new boolean[] {false, true}) {
+            StateMachine sm = new CompiledPropNetStateMachine(differential);
+            sm.initialize(new TestGameRepository().getGame("connectFour").getRules());
+            int[] depth = new int[1];
+            MachineState terminal = sm.performDepthCharge(sm.getInitialState(), depth);
+            assertTrue(sm.isTerminal(terminal));
+            assertTrue(depth[0] > 0);
+            assertEquals(100, sm.getGoals(terminal).get(0) + sm.getGoals(terminal).get(1));
+        }
+    }
+
+    @Test
+    public void testBatchedDepthCharges() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        StateMachine full = new CompiledPropNetStateMachine(false);
+        full.initialize(rules);
+        StateMachine differential = new CompiledPropNetStateMachine(true);
+        differential.initialize(rules);
+        for (StateMachine sm : new StateMachine[] {prover, full, differential}) {
+            int count = sm == prover ? 3 : 50;
+            int[] goals = new int[count * 2];
+            int[] depths = new int[8];
+            // Start from a plain MachineState so the propnet has to convert it.
+            MachineState start = new MachineState(new HashSet<GdlSentence>(sm.getInitialState().getContents()));
+            assertEquals(count, sm.performDepthCharges(start, count, goals, depths, Long.MAX_VALUE));
+            for (int i = 0; i < count; i++) {
+                assertEquals(100, goals[2 * i] + goals[2 * i + 1]);
+            }
+            int charges = 0;
+            for (int d = 0; d < depths.length; d++) {
+                charges += depths[d];
+            }
+            assertEquals(count, charges);
+            // Connect four takes at least seven moves, so every charge lands in the last bucket.
+            assertEquals(count, depths[depths.length - 1]);
+        }
+    }
+
+    @Test
+    public void testMoveIdsMatchMoves() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        StateMachine compiled = new CompiledPropNetStateMachine(true);
+        compiled.initialize(rules);
+        for (StateMachine sm : new StateMachine[] {prover, compiled}) {
+            int nRoles = sm.getRoles().size();
+            MachineState state = sm.getInitialState();
+            while (!sm.isTerminal(state)) {
+                int[] jointMove = new int[nRoles];
+                for (int r = 0; r < nRoles; r++) {
+                    List<Move> moves = sm.getLegalMoves(state, sm.getRoles().get(r));
+                    int[] ids = sm.getLegalMoveIds(state, r);
+                    assertEquals(moves.size(), ids.length);
+                    for (int i = 0; i < ids.length; i++) {
+                        assertEquals(moves.get(i), sm.getMoveFromId(r, ids[i]));
+                        assertEquals(ids[i], sm.getMoveId(r, moves.get(i)));
+                    }
+                    jointMove[r] = ids[ids.length - 1];
+                }
+                assertEquals(sm.getLegalJointMoves(state).size(), sm.getLegalJointMoveIds(state).length);
+                MachineState next = sm.getNextState(state, jointMove);
+                assertEquals(sm.getNextState(state, sm.getJointMoveFromIds(jointMove)), next);
+                state = next;
+            }
+            for (int r = 0; r < nRoles; r++) {
+                assertEquals(sm.getGoal(state, sm.getRoles().get(r)), sm.getGoal(state, r));
+            }
+        }
+    }
+
+    @Test
+    public void testDestructiveStepsMatchProver() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine subject = new CompiledPropNetStateMachine(true);
+        subject.initialize(rules);
+        for (int i = 0; i < 20; i++) {
+            MachineState expected = reference.getInitialState();
+            MachineState actual = subject.getInitialState();
+            while (!reference.isTerminal(expected)) {
+                assertFalse(subject.isTerminal(actual));
+                List<Move> jointMove = reference.getRandomJointMove(expected);
+                expected = reference.getNextState(expected, jointMove);
+                actual = subject.getNextStateDestructively(actual, jointMove);
+                assertEquals(expected, actual);
+            }
+            assertTrue(subject.isTerminal(actual));
+            assertEquals(reference.getGoals(expected), subject.getGoals(actual));
+        }
+    }
+
+    @Test
+    public void testBitsetStatesMatchSentenceStates() throws Exception {
+        StateMachine sm = new CompiledPropNetStateMachine(true);
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        MachineState state = sm.getInitialState();
+        for (int i = 0; i < 3; i++) {
+            state = sm.getRandomNextState(state);
+        }
+        assertTrue(state instanceof PropNetMachineState);
+        MachineState plain = new MachineState(new HashSet<GdlSentence>(state.getContents()));
+        assertEquals(plain.hashCode(), state.hashCode());
+        assertEquals(plain, state);
+        assertEquals(state, plain);
+        assertEquals(state, sm.getMachineStateFromSentenceList(plain.getContents()));
+        assertEquals(((PropNetMachineState) state).getZobristHash(),
+                ((PropNetMachineState) sm.getMachineStateFromSentenceList(plain.getContents())).getZobristHash());
+        assertEquals(sm.getLegalMoves(plain, sm.getRoles().get(0)), sm.getLegalMoves(state, sm.getRoles().get(0)));
+        assertFalse(state.equals(sm.getInitialState()));
+    }
+
+    @Test
+    public void testMachinesSharingANetworkOnSeparateThreads() throws Exception {
+        final List<Gdl> rules = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNetStateMachine first = new CompiledPropNetStateMachine(true);
+        first.initialize(rules);
+        final CompiledPropNet net = first.getCompiledPropNet();
+        final boolean[] consistent = new boolean[4];
+        Thread[] threads = new Thread[consistent.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    StateMachine reference = new ProverStateMachine();
+                    reference.initialize(rules);
+                    StateMachine subject = new CompiledPropNetStateMachine(net, index % 2 == 0);
+                    consistent[index] = StateMachineVerifier.checkMachineConsistency(reference, subject, 300);
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < consistent.length; i++) {
+            assertTrue("machine " + i, consistent[i]);
+        }
+
+        // States from one machine can be used directly by another
+        CompiledPropNetStateMachine second = new CompiledPropNetStateMachine(net, false);
+        assertSame(net, second.getCompiledPropNet());
+        MachineState state = first.getRandomNextState(first.getInitialState());
+        assertEquals(first.getLegalJointMoves(state), second.getLegalJointMoves(state));
+        List<Move> jointMove = first.getLegalJointMoves(state).get(0);
+        assertEquals(first.getNextState(state, jointMove), second.getNextState(state, jointMove));
+    }
+
+    @Test
+    public void testLatchesAndPhases() throws Exception {
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(false);
+        sm.initialize(new TestGameRepository().getGame("ticTacToe").getRules());
+        CompiledPropNet net = sm.getCompiledPropNet();
+        // Marks stay once placed, and blank cells never come back
+        assertTrue(net.getLatchedOnBases().contains(GdlFactory.create("( true ( cell 1 1 x ) )")));
+        assertTrue(net.getLatchedOffBases().contains(GdlFactory.create("( true ( cell 1 1 b ) )")));
+        assertFalse(net.getLatchedOnBases().contains(GdlFactory.create("( true ( control xplayer ) )")));
+        assertFalse(net.getLatchedOffBases().contains(GdlFactory.create("( true ( control xplayer ) )")));
+        // One phase for each player's turn, each fixing some of the gates
+        assertEquals(2, net.getNumPhases());
+        for (int p = 0; p < net.getNumPhases(); p++) {
+            assertTrue(net.getNumLiveGates(p) < net.size() - net.getRoles().size());
+        }
+    }
+
+    @Test
+    public void testInitialStateWithUnconditionalNextRules() throws Exception {
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(UNCONDITIONAL_NEXT)).getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        assertEquals(100, reference.getGoal(reference.getInitialState(), reference.getRoles().get(0)));
+        for (boolean differential : new boolean[] {false, true}) {
+            StateMachine subject = new CompiledPropNetStateMachine(differential);
+            subject.initialize(rules);
+            // The propnet writes (p) as p, so the sentences themselves can't be compared
+            assertEquals(reference.getInitialState().getContents().size(), subject.getInitialState().getContents().size());
+            assertTrue(subject.isTerminal(subject.getInitialState()));
+            assertEquals(100, subject.getGoal(subject.getInitialState(), subject.getRoles().get(0)));
+        }
+    }
+
+    private void checkConsistencyWithProver(boolean differential) throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            StateMachine subject = new CompiledPropNetStateMachine(differential);
+            subject.initialize(rules);
+            assertEquals(game, reference.getInitialState(), subject.getInitialState());
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+}
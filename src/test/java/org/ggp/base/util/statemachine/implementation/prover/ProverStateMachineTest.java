@@ -18,13 +18,17 @@ import org.junit.Test;
 
 public class ProverStateMachineTest extends Assert {
 
-    protected final ProverStateMachine sm = new ProverStateMachine();
+    protected final ProverStateMachine sm = createStateMachine();
     protected final GdlConstant C1 = GdlPool.getConstant("1");
     protected final GdlConstant C2 = GdlPool.getConstant("2");
     protected final GdlConstant C3 = GdlPool.getConstant("3");
     protected final GdlConstant C50 = GdlPool.getConstant("50");
     protected final GdlConstant C100 = GdlPool.getConstant("100");
 
+    protected ProverStateMachine createStateMachine() {
+        return new ProverStateMachine();
+    }
+
     @Test
     public void testProverOnTicTacToe() throws Exception {
         List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
@@ -0,0 +1,37 @@
+package org.ggp.base.util.statemachine.implementation.prover;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Test;
+
+/**
+ * Runs the ProverStateMachine tests against the TermProver backend, and
+ * checks it against the default prover on games with negation, disjunction
+ * and repeated variables.
+ */
+public class TermProverStateMachineTest extends ProverStateMachineTest {
+
+    private static final String[] GAMES = {"ticTacToe", "test_case_2b", "test_case_3d", "test_case_5b", "test_clean_not_distinct"};
+
+    @Override
+    protected ProverStateMachine createStateMachine() {
+        return new TermProverStateMachine();
+    }
+
+    @Test
+    public void testConsistencyWithAimaProver() throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            StateMachine subject = new TermProverStateMachine();
+            subject.initialize(rules);
+            assertEquals(game, reference.getInitialState(), subject.getInitialState());
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+}
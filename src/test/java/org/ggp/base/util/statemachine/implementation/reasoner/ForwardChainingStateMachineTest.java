@@ -0,0 +1,55 @@
+package org.ggp.base.util.statemachine.implementation.reasoner;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardChainingStateMachineTest extends Assert {
+
+    private static final String[] GAMES = {"ticTacToe", "connectFour", "simpleMutex",
+        "test_case_1a", "test_case_2a", "test_case_3a", "test_case_3d", "test_case_4a", "test_case_5c"};
+
+    @Test
+    public void testConsistencyWithProver() throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            StateMachine subject = new ForwardChainingStateMachine();
+            subject.initialize(rules);
+            assertEquals(game, reference.getInitialState(), subject.getInitialState());
+            assertTrue(game, StateMachineVerifier.checkMachineConsistency(reference, subject, 500));
+        }
+    }
+
+    @Test
+    public void testRevisitedStatesGiveTheSameAnswers() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine subject = new ForwardChainingStateMachine();
+        subject.initialize(rules);
+        MachineState initial = subject.getInitialState();
+        MachineState state = initial;
+        while (!subject.isTerminal(state)) {
+            List<Move> jointMove = reference.getRandomJointMove(state);
+            MachineState next = subject.getNextState(state, jointMove);
+            assertEquals(reference.getNextState(state, jointMove), next);
+            // Going back to an earlier state mustn't pick up the cached values of the last one
+            assertEquals(new HashSet<List<Move>>(reference.getLegalJointMoves(initial)),
+                    new HashSet<List<Move>>(subject.getLegalJointMoves(initial)));
+            assertEquals(reference.isTerminal(next), subject.isTerminal(next));
+            state = next;
+        }
+        assertEquals(reference.getGoals(state), subject.getGoals(state));
+    }
+}